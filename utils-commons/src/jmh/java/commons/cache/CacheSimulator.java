@@ -0,0 +1,128 @@
+package commons.cache;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import commons.exception.TypeConvertException;
+import commons.util.StrUtils;
+import commons.util.TypeConverter;
+import commons.vo.Id;
+
+/**
+ * Reproduce trazas de accesos por id contra distintos tipos de caché y
+ * calcula la tasa de aciertos de cada uno. Cada acceso de la traza consulta la
+ * caché y, si falla, añade el elemento, simulando la carga desde el origen de
+ * datos.
+ * <p>
+ * Las trazas se pueden leer de fichero con un id por línea. Es una
+ * herramienta de medida, junto a los benchmarks: no forma parte del jar.
+ * <p>
+ * 11/06/2016 18:12:40
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class CacheSimulator {
+
+	/* Tipos de caché comparados por defecto. */
+	private static final CacheType[] COMPARED_TYPES = {CacheType.LRU, CacheType.TINY_LFU};
+
+	/**
+	 * Reproduce una traza contra una caché y devuelve su tasa de aciertos.
+	 * 
+	 * @param cache
+	 *            Caché contra la que se reproduce la traza.
+	 * @param trace
+	 *            Ids accedidos, en orden.
+	 * @return Tasa de aciertos entre 0 y 1, 0 si la traza está vacía.
+	 */
+	public static <ID> double hitRate(final ICache<ID, Id<ID>> cache, final Iterable<ID> trace) {
+		Objects.requireNonNull(cache);
+		Objects.requireNonNull(trace);
+
+		long hits = 0;
+		long requests = 0;
+		for (final ID id : trace) {
+			requests++;
+			if (cache.get(id) != null) {
+				hits++;
+			} else {
+				cache.add(new Id<>(id));
+			}
+		}
+		return requests > 0 ? (double) hits / requests : 0d;
+	}
+
+	/**
+	 * Compara la tasa de aciertos de {@link LRUCache} y {@link TinyLFUCache}
+	 * para una traza y una capacidad máxima.
+	 * 
+	 * @param trace
+	 *            Ids accedidos, en orden.
+	 * @param maxCapacity
+	 *            Capacidad máxima de las cachés.
+	 * @return Tasa de aciertos por tipo de caché.
+	 */
+	public static <ID> Map<CacheType, Double> compare(final Iterable<ID> trace, final int maxCapacity) {
+		return compare(trace, maxCapacity, COMPARED_TYPES);
+	}
+
+	/**
+	 * Compara la tasa de aciertos de varios tipos de caché para una traza y
+	 * una capacidad máxima.
+	 * 
+	 * @param trace
+	 *            Ids accedidos, en orden.
+	 * @param maxCapacity
+	 *            Capacidad máxima de las cachés.
+	 * @param types
+	 *            Tipos de caché a comparar.
+	 * @return Tasa de aciertos por tipo de caché.
+	 */
+	public static <ID> Map<CacheType, Double> compare(final Iterable<ID> trace, final int maxCapacity,
+			final CacheType... types) {
+		final Map<CacheType, Double> result = new EnumMap<>(CacheType.class);
+		for (final CacheType type : types) {
+			final ICache<ID, Id<ID>> cache = Caches.createCache(maxCapacity, type);
+			result.put(type, hitRate(cache, trace));
+		}
+		return result;
+	}
+
+	/**
+	 * Lee una traza de fichero, con un id por línea. Las líneas vacías se
+	 * ignoran.
+	 * 
+	 * @param path
+	 *            Fichero con la traza.
+	 * @param idType
+	 *            Tipo de los ids.
+	 * @return Ids de la traza, en orden.
+	 * @throws IOException
+	 *             si no se puede leer el fichero.
+	 * @throws TypeConvertException
+	 *             si alguna línea no se puede convertir al tipo de id.
+	 */
+	public static <ID> List<ID> readTrace(final Path path, final Class<ID> idType)
+			throws IOException, TypeConvertException {
+		final List<ID> trace = new ArrayList<>();
+		try (final BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (StrUtils.hasChars(line, true)) {
+					trace.add(TypeConverter.from(line.trim(), idType));
+				}
+			}
+		}
+		return trace;
+	}
+}
@@ -0,0 +1,128 @@
+package commons.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import commons.vo.Id;
+
+/**
+ * Benchmark de {@link BinaryCodecs} frente a {@link SerializableCodec}:
+ * codificación y decodificación de un id long y de un valor compuesto (mapa
+ * de listas de ids String), sobre el mismo buffer reutilizado.
+ * <p>
+ * 16/10/2016 11:05:12
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	/* Tamaño del buffer, suficiente para el valor compuesto serializado. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/* Listas del valor compuesto, y ids por lista. */
+	private static final int LISTS = 10;
+	private static final int IDS_PER_LIST = 10;
+
+	/* Buffer reutilizado. */
+	private ByteBuffer buffer;
+
+	/* Id long y sus codificadores. */
+	private LongKey id;
+	private ICodec<LongKey> binaryId;
+	private ICodec<LongKey> serializableId;
+
+	/* Valor compuesto y sus codificadores. */
+	private Map<String, List<StringKey>> composite;
+	private ICodec<Map<String, List<StringKey>>> binaryComposite;
+	private ICodec<Map<String, List<StringKey>>> serializableComposite;
+
+	@Setup
+	public void setUp() {
+		buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		id = new LongKey(123456789L);
+		binaryId = BinaryCodecs.longId(LongKey::new);
+		serializableId = new SerializableCodec<>();
+
+		composite = new LinkedHashMap<>();
+		for (int i = 0; i < LISTS; i++) {
+			final List<StringKey> ids = new ArrayList<>(IDS_PER_LIST);
+			for (int j = 0; j < IDS_PER_LIST; j++) {
+				ids.add(new StringKey("key-" + i + "-" + j));
+			}
+			composite.put("list-" + i, ids);
+		}
+		binaryComposite = BinaryCodecs.mapOf(BinaryCodecs.strings(),
+				BinaryCodecs.listOf(BinaryCodecs.stringId(StringKey::new)));
+		serializableComposite = new SerializableCodec<>();
+	}
+
+	/* Codifica y decodifica un valor en el buffer. */
+	private <T> T roundTrip(final ICodec<T> codec, final T value) {
+		buffer.clear();
+		codec.encode(value, buffer);
+		buffer.flip();
+		return codec.decode(buffer);
+	}
+
+	@Benchmark
+	public LongKey idBinary() {
+		return roundTrip(binaryId, id);
+	}
+
+	@Benchmark
+	public LongKey idSerializable() {
+		return roundTrip(serializableId, id);
+	}
+
+	@Benchmark
+	public Map<String, List<StringKey>> compositeBinary() {
+		return roundTrip(binaryComposite, composite);
+	}
+
+	@Benchmark
+	public Map<String, List<StringKey>> compositeSerializable() {
+		return roundTrip(serializableComposite, composite);
+	}
+
+	/* Id long de prueba. */
+	static final class LongKey extends Id<Long> {
+		private static final long serialVersionUID = 1L;
+
+		LongKey (final long id) {
+			super(id);
+		}
+	}
+
+	/* Id String de prueba. */
+	static final class StringKey extends Id<String> {
+		private static final long serialVersionUID = 1L;
+
+		StringKey (final String id) {
+			super(id);
+		}
+	}
+}
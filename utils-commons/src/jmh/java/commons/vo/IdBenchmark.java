@@ -0,0 +1,124 @@
+package commons.vo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import commons.util.CommonUtils;
+import commons.util.PrintUtils;
+
+/**
+ * Benchmark de {@link Id} como clave de mapas: búsquedas en un
+ * {@link HashMap} con claves nuevas en cada búsqueda, como las que crea quien
+ * consulta una caché, frente a {@link LegacyId}, que calcula el hash como lo
+ * hacía {@link Id} antes, a partir de <code>toString()</code>.
+ * <p>
+ * 16/10/2016 10:22:37
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdBenchmark {
+
+	/* Número de claves del mapa. */
+	@Param({ "1000", "100000" })
+	private int size;
+
+	/* Mapas con las mismas claves, con el hash actual y con el anterior. */
+	private Map<Id<Long>, Object> current;
+	private Map<LegacyId<Long>, Object> legacy;
+
+	/* Una clave de cada tipo, para medir sólo el hash. */
+	private Id<Long> sample;
+	private LegacyId<Long> legacySample;
+
+	/* Siguiente id a buscar. */
+	private long next;
+
+	@Setup
+	public void setUp() {
+		current = new HashMap<>();
+		legacy = new HashMap<>();
+		for (long i = 0; i < size; i++) {
+			current.put(new Id<>(i), Boolean.TRUE);
+			legacy.put(new LegacyId<>(i), Boolean.TRUE);
+		}
+		sample = new Id<>(Long.valueOf(size / 2));
+		legacySample = new LegacyId<>(Long.valueOf(size / 2));
+	}
+
+	/* Siguiente id, recorriendo las claves del mapa. */
+	private long nextId() {
+		next = next + 1 < size ? next + 1 : 0L;
+		return next;
+	}
+
+	@Benchmark
+	public Object lookup() {
+		return current.get(new Id<>(nextId()));
+	}
+
+	@Benchmark
+	public Object lookupLegacy() {
+		return legacy.get(new LegacyId<>(nextId()));
+	}
+
+	@Benchmark
+	public int idHashCode() {
+		return sample.hashCode();
+	}
+
+	@Benchmark
+	public int idHashCodeLegacy() {
+		return legacySample.hashCode();
+	}
+
+	/* Id con el hash y la igualdad de la versión anterior de {@link Id}, como referencia. */
+	static final class LegacyId<T> {
+		private static final int PRIME = 873913;
+		private static final String PRINT_FORMAT = "Id: '%s'";
+
+		private final T id;
+
+		LegacyId (final T id) {
+			this.id = id;
+		}
+
+		@Override
+		public String toString() {
+			return PrintUtils.format(PRINT_FORMAT, id);
+		}
+
+		@Override
+		public int hashCode() {
+			return PRIME * toString().hashCode();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) return true;
+			if (obj == null) return false;
+			if (getClass() != obj.getClass()) return false;
+			return CommonUtils.equalsOrNull(id, ((LegacyId<?>) obj).id);
+		}
+	}
+}
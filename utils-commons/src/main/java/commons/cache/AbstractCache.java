@@ -0,0 +1,166 @@
+package commons.cache;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import commons.vo.Id;
+
+/**
+ * Base de las cachés con estadísticas. Mantiene el registro de estadísticas,
+ * desactivado por defecto: mientras no se activa, cada operación sólo hace una
+ * llamada vacía a {@link IStatsCounter#DISABLED}.
+ * <p>
+ * Mantiene también los oyentes de eliminaciones. Las implementaciones
+ * registran cada eliminación con {@link #notifyRemoval(Id, RemovalCause)},
+ * aunque tengan bloqueos adquiridos, y lanzan la entrega con
+ * {@link #dispatchRemovals()} después de liberarlos. Un decorador puede
+ * recibir las eliminaciones de la caché que envuelve con
+ * {@link #ownRemovalsOf(ICache)}.
+ * <p>
+ * Los decoradores exponen el máximo de la caché que envuelven, si se puede
+ * cambiar, sobrescribiendo {@link #resizable()}.
+ * <p>
+ * 23/07/2016 11:02:36
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+abstract class AbstractCache<ID, E extends Id<ID>> implements ICache<ID, E> {
+
+	/* Registro de estadísticas. */
+	private volatile IStatsCounter statsCounter = IStatsCounter.DISABLED;
+	
+	/* Oyentes de eliminaciones, cada uno con sus notificaciones pendientes. */
+	private final List<RemovalDispatcher<ID, E>> removalDispatchers = new CopyOnWriteArrayList<>();
+	
+	/* Caché que envuelve a ésta y recibe sus eliminaciones, null si no hay. */
+	private volatile AbstractCache<ID, E> removalOwner;
+	
+	@Override
+	public void recordStats(final boolean enabled) {
+		if (!enabled) {
+			statsCounter = IStatsCounter.DISABLED;
+		} else if (statsCounter == IStatsCounter.DISABLED) {
+			statsCounter = new ConcurrentStatsCounter();
+		}
+	}
+	
+	@Override
+	public CacheStats stats() {
+		return statsCounter.snapshot();
+	}
+	
+	/* Registro de estadísticas actual, para las operaciones de las implementaciones. */
+	IStatsCounter statsCounter() {
+		return statsCounter;
+	}
+	
+	@Override
+	public void addRemovalListener(final IRemovalListener<ID, E> listener, final Executor executor) {
+		removalDispatchers.add(new RemovalDispatcher<>(listener, executor));
+	}
+	
+	/* Indica si alguien recibe las eliminaciones, para no preparar notificaciones que nadie recibirá. */
+	boolean hasRemovalListeners() {
+		final AbstractCache<ID, E> owner = removalOwner;
+		return owner != null ? owner.hasRemovalListeners() : !removalDispatchers.isEmpty();
+	}
+	
+	/*
+	 * Registra la eliminación de un elemento. Sólo la encola, sin ejecutar
+	 * código de los oyentes, por lo que puede llamarse con bloqueos adquiridos.
+	 * Si hay una caché que envuelve a ésta, se le pasa a ella.
+	 */
+	void notifyRemoval(final E element, final RemovalCause cause) {
+		if (element == null) {
+			return;
+		}
+		final AbstractCache<ID, E> owner = removalOwner;
+		if (owner != null) {
+			owner.onDelegateRemoval(element, cause);
+			return;
+		}
+		for (final RemovalDispatcher<ID, E> dispatcher : removalDispatchers) {
+			dispatcher.enqueue(element, cause);
+		}
+	}
+	
+	/*
+	 * Lanza la entrega de las eliminaciones registradas. Debe llamarse sin
+	 * bloqueos adquiridos. Si hay una caché que envuelve a ésta, las entrega
+	 * ella al terminar su operación.
+	 */
+	void dispatchRemovals() {
+		if (removalOwner == null) {
+			for (final RemovalDispatcher<ID, E> dispatcher : removalDispatchers) {
+				dispatcher.dispatch();
+			}
+		}
+	}
+	
+	/* Eliminación registrada por la caché envuelta. Por defecto se registra como propia. */
+	void onDelegateRemoval(final E element, final RemovalCause cause) {
+		notifyRemoval(element, cause);
+	}
+	
+	/* Pasa a esta caché las eliminaciones de la caché envuelta, si es una AbstractCache. */
+	void ownRemovalsOf(final ICache<ID, E> delegate) {
+		if (delegate instanceof AbstractCache) {
+			((AbstractCache<ID, E>) delegate).removalOwner = this;
+		}
+	}
+	
+	/*
+	 * Copia de los elementos en caché, de menos a más recientemente
+	 * utilizado, para volcarlos a disco. Vacía si la caché no lo admite.
+	 */
+	List<E> snapshot() {
+		return Collections.emptyList();
+	}
+	
+	/* Copia de los elementos de cualquier caché, vacía si no es una AbstractCache. */
+	static <ID, E extends Id<ID>> List<E> snapshotOf(final ICache<ID, E> cache) {
+		return cache instanceof AbstractCache ? ((AbstractCache<ID, E>) cache).snapshot() : Collections.<E>emptyList();
+	}
+	
+	/*
+	 * Caché que guarda los elementos, sin los decoradores que propagan las
+	 * escrituras a otros sistemas, para precargarla desde un volcado. Por
+	 * defecto la propia caché.
+	 */
+	ICache<ID, E> storage() {
+		return this;
+	}
+	
+	/* Caché que guarda los elementos de cualquier caché, ella misma si no es una AbstractCache. */
+	static <ID, E extends Id<ID>> ICache<ID, E> storageOf(final ICache<ID, E> cache) {
+		return cache instanceof AbstractCache ? ((AbstractCache<ID, E>) cache).storage() : cache;
+	}
+	
+	/* Recursos de la caché que se cierran al sustituirla en Caches, null si no tiene. */
+	Closeable closeable() {
+		return this instanceof Closeable ? (Closeable) this : null;
+	}
+	
+	/* Recursos de cualquier caché, null si no tiene o no es una AbstractCache. */
+	static Closeable closeableOf(final ICache<?, ?> cache) {
+		if (cache instanceof AbstractCache) {
+			return ((AbstractCache<?, ?>) cache).closeable();
+		}
+		return cache instanceof Closeable ? (Closeable) cache : null;
+	}
+	
+	/* Máximo modificable de la caché, null si no se puede cambiar. */
+	IResizableCache resizable() {
+		return this instanceof IResizableCache ? (IResizableCache) this : null;
+	}
+	
+	/* Máximo modificable de cualquier caché, null si no es una AbstractCache o no se puede cambiar. */
+	static IResizableCache resizableOf(final ICache<?, ?> cache) {
+		return cache instanceof AbstractCache ? ((AbstractCache<?, ?>) cache).resizable() : null;
+	}
+}
@@ -0,0 +1,400 @@
+package commons.cache;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Implementación de {@link IAsyncCache} que envuelve una caché síncrona. Los
+ * elementos cargados se guardan en la caché envuelta, y las cargas en curso
+ * en un mapa de futuros por id, que comparten todos los llamantes del mismo
+ * id hasta que termina. Una carga terminada se guarda en la caché antes de
+ * quitar su futuro, y quien registra un futuro nuevo vuelve a consultar la
+ * caché antes de cargar, de forma que ninguna petición concurrente repite
+ * una carga terminada.
+ * <p>
+ * Un futuro en curso que termina con error, incluida su cancelación por un
+ * llamante, se quita del mapa al terminar.
+ * <p>
+ * Esta caché es <i>thread-safe</i> si la caché envuelta lo es.
+ * <p>
+ * 27/08/2016 11:32:05
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class AsyncCache<ID, E extends Id<ID>> implements IAsyncCache<ID, E> {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "AsyncCache [cargas en curso:%s] %s";
+
+	/* Caché envuelta, con los elementos ya cargados. */
+	private final ICache<ID, E> delegate;
+
+	/* Cargador de elementos. */
+	private final ICacheLoader<ID, E> loader;
+
+	/* Ejecutor de las cargas. */
+	private final Executor executor;
+
+	/* Cargas en curso por id. */
+	private final ConcurrentHashMap<ID, CompletableFuture<E>> inFlight;
+
+	/* Vista síncrona. */
+	private final Synchronous<ID, E> synchronous;
+
+	/* Registro de estadísticas de las cargas. */
+	private volatile IStatsCounter statsCounter = IStatsCounter.DISABLED;
+
+	/* Constructor, recibe la caché envuelta, el cargador y el ejecutor de las cargas. */
+	AsyncCache (final ICache<ID, E> delegate, final ICacheLoader<ID, E> loader, final Executor executor) {
+		this.delegate = Objects.requireNonNull(delegate);
+		this.loader = Objects.requireNonNull(loader);
+		this.executor = Objects.requireNonNull(executor);
+		this.inFlight = new ConcurrentHashMap<>();
+		this.synchronous = new Synchronous<>(this);
+	}
+
+	@Override
+	public void add(final E element) {
+		Objects.requireNonNull(element);
+		inFlight.remove(element.getId());
+		delegate.add(element);
+	}
+
+	@Override
+	public E remove(final ID id) {
+		if (id != null) {
+			inFlight.remove(id);
+		}
+		return delegate.remove(id);
+	}
+
+	@Override
+	public void invalidateAll() {
+		inFlight.clear();
+		delegate.invalidateAll();
+	}
+
+	@Override
+	public CompletableFuture<E> get(final ID id) {
+		Objects.requireNonNull(id);
+		final E cached = delegate.get(id);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+		final CompletableFuture<E> loading = inFlight.get(id);
+		return loading != null ? loading : CompletableFuture.completedFuture(null);
+	}
+
+	@Override
+	public CompletableFuture<E> getOrLoad(final ID id) {
+		Objects.requireNonNull(id);
+		final E cached = delegate.get(id);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+
+		final CompletableFuture<E> future = new CompletableFuture<>();
+		final CompletableFuture<E> current = inFlight.putIfAbsent(id, future);
+		if (current != null) {
+			return current;
+		}
+		discardOnFailure(id, future);
+
+		/* Otra carga puede haber terminado entre la consulta y el registro del futuro. */
+		final E stored = delegate.get(id);
+		if (stored != null) {
+			inFlight.remove(id, future);
+			future.complete(stored);
+			return future;
+		}
+
+		try {
+			executor.execute(() -> load(id, future));
+		} catch (RuntimeException e) {
+			/* El ejecutor rechaza la tarea. */
+			future.completeExceptionally(LoadingCache.createException(e, id));
+		}
+		return future;
+	}
+
+	/*
+	 * Carga un elemento y completa su futuro. El futuro se completa siempre,
+	 * también si el cargador o la caché envuelta lanzan un error, para no dejar
+	 * esperando a quien lo comparte.
+	 */
+	private void load(final ID id, final CompletableFuture<E> future) {
+		final long start = System.nanoTime();
+		final E loaded;
+		try {
+			loaded = loader.load(id);
+		} catch (Throwable e) {
+			statsCounter.recordLoadFailure(System.nanoTime() - start);
+			future.completeExceptionally(LoadingCache.createException(e, id));
+			return;
+		}
+		statsCounter.recordLoadSuccess(System.nanoTime() - start);
+		complete(id, loaded, future);
+	}
+
+	@Override
+	public CompletableFuture<Map<ID, E>> getAllOrLoad(final Collection<? extends ID> ids) {
+		Objects.requireNonNull(ids);
+		final Map<ID, E> cached = delegate.getAll(ids);
+
+		/* Futuros de los ids que no están en caché, y de ellos los que carga esta llamada. */
+		final Map<ID, CompletableFuture<E>> pending = new LinkedHashMap<>();
+		final Map<ID, CompletableFuture<E>> owned = new LinkedHashMap<>();
+		for (final ID id : ids) {
+			Objects.requireNonNull(id);
+			if (cached.containsKey(id) || pending.containsKey(id)) {
+				continue;
+			}
+			final CompletableFuture<E> future = new CompletableFuture<>();
+			final CompletableFuture<E> current = inFlight.putIfAbsent(id, future);
+			if (current != null) {
+				pending.put(id, current);
+			} else {
+				discardOnFailure(id, future);
+				pending.put(id, future);
+				owned.put(id, future);
+			}
+		}
+
+		/* Otras cargas pueden haber terminado entre la consulta y el registro de los futuros. */
+		if (!owned.isEmpty()) {
+			for (final Entry<ID, E> entry : delegate.getAll(owned.keySet()).entrySet()) {
+				final CompletableFuture<E> future = owned.remove(entry.getKey());
+				inFlight.remove(entry.getKey(), future);
+				future.complete(entry.getValue());
+			}
+		}
+
+		if (!owned.isEmpty()) {
+			try {
+				executor.execute(() -> loadAll(owned));
+			} catch (RuntimeException e) {
+				/* El ejecutor rechaza la tarea. */
+				final Exception exception = LoadingCache.createException(e, owned.keySet());
+				for (final CompletableFuture<E> future : owned.values()) {
+					future.completeExceptionally(exception);
+				}
+			}
+		}
+
+		final CompletableFuture<?>[] futures = pending.values().toArray(new CompletableFuture<?>[pending.size()]);
+		return CompletableFuture.allOf(futures).thenApply(done -> {
+			final Map<ID, E> result = new LinkedHashMap<>();
+			for (final ID id : ids) {
+				final CompletableFuture<E> future = pending.get(id);
+				final E element = future != null ? future.join() : cached.get(id);
+				if (element != null) {
+					result.put(id, element);
+				}
+			}
+			return result;
+		});
+	}
+
+	/* Carga masiva de los ids propios, completando sus futuros. */
+	private void loadAll(final Map<ID, CompletableFuture<E>> owned) {
+		final long start = System.nanoTime();
+		final Map<ID, E> loaded;
+		try {
+			loaded = loader.loadAll(new ArrayList<>(owned.keySet()));
+		} catch (Throwable e) {
+			statsCounter.recordLoadFailure(System.nanoTime() - start);
+			final Exception exception = LoadingCache.createException(e, owned.keySet());
+			for (final CompletableFuture<E> future : owned.values()) {
+				future.completeExceptionally(exception);
+			}
+			return;
+		}
+		statsCounter.recordLoadSuccess(System.nanoTime() - start);
+
+		for (final Entry<ID, CompletableFuture<E>> entry : owned.entrySet()) {
+			final E element = loaded != null ? loaded.get(entry.getKey()) : null;
+			complete(entry.getKey(), element, entry.getValue());
+		}
+	}
+
+	/* Guarda un elemento cargado y completa su futuro, con error si no se puede guardar. */
+	private void complete(final ID id, final E element, final CompletableFuture<E> future) {
+		try {
+			store(id, element, future);
+		} catch (Throwable e) {
+			future.completeExceptionally(LoadingCache.createException(e, id));
+			return;
+		}
+		future.complete(element);
+	}
+
+	/*
+	 * Guarda un elemento cargado y quita su carga en curso. No se guarda si la
+	 * carga se ha descartado mientras tanto (el elemento se ha añadido,
+	 * eliminado o invalidado), para no sustituir un valor más reciente.
+	 */
+	private void store(final ID id, final E element, final CompletableFuture<E> future) {
+		if (element != null && inFlight.get(id) == future) {
+			delegate.add(element);
+		}
+		inFlight.remove(id, future);
+	}
+
+	/* Quita del mapa de cargas en curso el futuro indicado si termina con error o se cancela. */
+	private void discardOnFailure(final ID id, final CompletableFuture<E> future) {
+		future.whenComplete((element, error) -> {
+			if (error != null) {
+				inFlight.remove(id, future);
+			}
+		});
+	}
+
+	@Override
+	public ICache<ID, E> synchronous() {
+		return synchronous;
+	}
+
+	@Override
+	public void addRemovalListener(final IRemovalListener<ID, E> listener, final Executor executor) {
+		delegate.addRemovalListener(listener, executor);
+	}
+
+	/* Activa o desactiva también las estadísticas de la caché envuelta. */
+	@Override
+	public void recordStats(final boolean enabled) {
+		if (!enabled) {
+			statsCounter = IStatsCounter.DISABLED;
+		} else if (statsCounter == IStatsCounter.DISABLED) {
+			statsCounter = new ConcurrentStatsCounter();
+		}
+		delegate.recordStats(enabled);
+	}
+
+	/* Aciertos, fallos, escrituras y expulsiones de la caché envuelta más las cargas. */
+	@Override
+	public CacheStats stats() {
+		return delegate.stats().plus(statsCounter.snapshot());
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, inFlight.size(), delegate);
+	}
+
+	/*
+	 * Vista síncrona de una caché asíncrona: las operaciones de ICache sobre
+	 * la caché envuelta, descartando las cargas en curso de los ids que se
+	 * modifican. Es la que se registra en Caches.
+	 */
+	static final class Synchronous<ID, E extends Id<ID>> extends AbstractCache<ID, E> {
+
+		/* Caché asíncrona de la vista. */
+		private final AsyncCache<ID, E> async;
+
+		Synchronous (final AsyncCache<ID, E> async) {
+			this.async = async;
+		}
+
+		/* Caché asíncrona de la vista. */
+		AsyncCache<ID, E> asynchronous() {
+			return async;
+		}
+
+		@Override
+		public void add(final E element) {
+			async.add(element);
+		}
+
+		@Override
+		public E remove(final ID id) {
+			return async.remove(id);
+		}
+
+		@Override
+		public E get(final ID id) {
+			return async.delegate.get(id);
+		}
+
+		@Override
+		public void invalidateAll() {
+			async.invalidateAll();
+		}
+
+		@Override
+		public void addAll(final Collection<? extends E> elements) {
+			for (final E element : elements) {
+				async.inFlight.remove(Objects.requireNonNull(element).getId());
+			}
+			async.delegate.addAll(elements);
+		}
+
+		@Override
+		public Map<ID, E> getAll(final Collection<? extends ID> ids) {
+			return async.delegate.getAll(ids);
+		}
+
+		@Override
+		public Map<ID, E> removeAll(final Collection<? extends ID> ids) {
+			for (final ID id : ids) {
+				if (id != null) {
+					async.inFlight.remove(id);
+				}
+			}
+			return async.delegate.removeAll(ids);
+		}
+
+		@Override
+		List<E> snapshot() {
+			return snapshotOf(async.delegate);
+		}
+
+		@Override
+		ICache<ID, E> storage() {
+			return storageOf(async.delegate);
+		}
+
+		@Override
+		IResizableCache resizable() {
+			return resizableOf(async.delegate);
+		}
+
+		@Override
+		Closeable closeable() {
+			return closeableOf(async.delegate);
+		}
+
+		@Override
+		public void recordStats(final boolean enabled) {
+			async.recordStats(enabled);
+		}
+
+		@Override
+		public CacheStats stats() {
+			return async.stats();
+		}
+
+		@Override
+		public void addRemovalListener(final IRemovalListener<ID, E> listener, final Executor executor) {
+			async.addRemovalListener(listener, executor);
+		}
+
+		@Override
+		public String toString() {
+			return async.toString();
+		}
+	}
+}
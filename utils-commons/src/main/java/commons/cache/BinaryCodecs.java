@@ -0,0 +1,358 @@
+package commons.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.LongFunction;
+
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Codificadores binarios compactos, alternativa a {@link SerializableCodec}
+ * sin descriptores de clase ni flujos intermedios. Escriben directamente en
+ * el buffer recibido:
+ * <ul>
+ * <li>enteros como <i>varint</i>: 7 bits por byte, el bit alto indica si
+ * sigue otro byte. Los valores con signo se codifican en <i>zigzag</i>, de
+ * forma que los números pequeños, positivos o negativos, ocupan poco.</li>
+ * <li>cadenas como longitud en bytes (varint) seguida de su UTF-8.</li>
+ * <li>ids de tipo {@link Id} como su identificador.</li>
+ * <li>valores compuestos (listas, mapas, nulos) combinando los
+ * codificadores de sus partes.</li>
+ * </ul>
+ * Todos los codificadores de esta clase son autodelimitados: leen sólo los
+ * bytes de su valor y dejan el buffer a continuación, por lo que se pueden
+ * combinar. Los métodos <code>put</code>/<code>get</code> permiten escribir
+ * codificadores de objetos propios campo a campo.
+ * <p>
+ * 13/08/2016 10:15:47
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public final class BinaryCodecs {
+
+	/* Bits de datos por byte de un varint, y bit de continuación. */
+	private static final int VARINT_BITS = 7;
+	private static final int VARINT_MASK = 0x7F;
+	private static final int VARINT_MORE = 0x80;
+
+	/* Marcas de presencia de los valores que pueden ser nulos. */
+	private static final byte NULL = 0;
+	private static final byte PRESENT = 1;
+
+	/* Carácter que sustituye a los sustitutos (surrogates) sin pareja, como String.getBytes. */
+	private static final byte UNMAPPABLE = '?';
+
+	/* Codificadores de tipos básicos. */
+	private static final ICodec<Long> LONG = new ICodec<Long>() {
+		@Override
+		public void encode(final Long value, final ByteBuffer buffer) {
+			putVarLong(buffer, value);
+		}
+
+		@Override
+		public Long decode(final ByteBuffer buffer) {
+			return getVarLong(buffer);
+		}
+	};
+
+	private static final ICodec<Integer> INTEGER = new ICodec<Integer>() {
+		@Override
+		public void encode(final Integer value, final ByteBuffer buffer) {
+			putVarInt(buffer, value);
+		}
+
+		@Override
+		public Integer decode(final ByteBuffer buffer) {
+			return getVarInt(buffer);
+		}
+	};
+
+	private static final ICodec<String> STRING = new ICodec<String>() {
+		@Override
+		public void encode(final String value, final ByteBuffer buffer) {
+			putString(buffer, value);
+		}
+
+		@Override
+		public String decode(final ByteBuffer buffer) {
+			return getString(buffer);
+		}
+	};
+
+	private BinaryCodecs() {
+		/* Clase de utilidades. */
+	}
+
+	/* Codificador de Long, como varint con signo. */
+	public static ICodec<Long> longs() {
+		return LONG;
+	}
+
+	/* Codificador de Integer, como varint con signo. */
+	public static ICodec<Integer> ints() {
+		return INTEGER;
+	}
+
+	/* Codificador de String, como longitud y UTF-8. */
+	public static ICodec<String> strings() {
+		return STRING;
+	}
+
+	/* Codificador de ids Long: escribe el identificador y crea el id al leer con 'factory'. */
+	public static <I extends Id<Long>> ICodec<I> longId(final LongFunction<? extends I> factory) {
+		Objects.requireNonNull(factory);
+		return new ICodec<I>() {
+			@Override
+			public void encode(final I value, final ByteBuffer buffer) {
+				putVarLong(buffer, value.getId());
+			}
+
+			@Override
+			public I decode(final ByteBuffer buffer) {
+				return factory.apply(getVarLong(buffer));
+			}
+		};
+	}
+
+	/* Codificador de ids Integer: escribe el identificador y crea el id al leer con 'factory'. */
+	public static <I extends Id<Integer>> ICodec<I> intId(final IntFunction<? extends I> factory) {
+		Objects.requireNonNull(factory);
+		return new ICodec<I>() {
+			@Override
+			public void encode(final I value, final ByteBuffer buffer) {
+				putVarInt(buffer, value.getId());
+			}
+
+			@Override
+			public I decode(final ByteBuffer buffer) {
+				return factory.apply(getVarInt(buffer));
+			}
+		};
+	}
+
+	/* Codificador de ids String: escribe el identificador y crea el id al leer con 'factory'. */
+	public static <I extends Id<String>> ICodec<I> stringId(final Function<String, ? extends I> factory) {
+		Objects.requireNonNull(factory);
+		return new ICodec<I>() {
+			@Override
+			public void encode(final I value, final ByteBuffer buffer) {
+				putString(buffer, value.getId());
+			}
+
+			@Override
+			public I decode(final ByteBuffer buffer) {
+				return factory.apply(getString(buffer));
+			}
+		};
+	}
+
+	/* Codificador de valores que pueden ser nulos: un byte de presencia y el valor. */
+	public static <T> ICodec<T> nullable(final ICodec<T> codec) {
+		Objects.requireNonNull(codec);
+		return new ICodec<T>() {
+			@Override
+			public void encode(final T value, final ByteBuffer buffer) {
+				if (value == null) {
+					buffer.put(NULL);
+				} else {
+					buffer.put(PRESENT);
+					codec.encode(value, buffer);
+				}
+			}
+
+			@Override
+			public T decode(final ByteBuffer buffer) {
+				return buffer.get() == NULL ? null : codec.decode(buffer);
+			}
+		};
+	}
+
+	/* Codificador de listas: número de elementos y cada elemento. */
+	public static <T> ICodec<List<T>> listOf(final ICodec<T> codec) {
+		Objects.requireNonNull(codec);
+		return new ICodec<List<T>>() {
+			@Override
+			public void encode(final List<T> value, final ByteBuffer buffer) {
+				putVarInt(buffer, value.size());
+				for (final T element : value) {
+					codec.encode(element, buffer);
+				}
+			}
+
+			@Override
+			public List<T> decode(final ByteBuffer buffer) {
+				final int size = checkSize(getVarInt(buffer), buffer);
+				final List<T> list = new ArrayList<>(size);
+				for (int i = 0; i < size; i++) {
+					list.add(codec.decode(buffer));
+				}
+				return list;
+			}
+		};
+	}
+
+	/* Codificador de mapas: número de entradas y cada clave seguida de su valor. Se decodifica en orden. */
+	public static <K, V> ICodec<Map<K, V>> mapOf(final ICodec<K> keyCodec, final ICodec<V> valueCodec) {
+		Objects.requireNonNull(keyCodec);
+		Objects.requireNonNull(valueCodec);
+		return new ICodec<Map<K, V>>() {
+			@Override
+			public void encode(final Map<K, V> value, final ByteBuffer buffer) {
+				putVarInt(buffer, value.size());
+				for (final Entry<K, V> entry : value.entrySet()) {
+					keyCodec.encode(entry.getKey(), buffer);
+					valueCodec.encode(entry.getValue(), buffer);
+				}
+			}
+
+			@Override
+			public Map<K, V> decode(final ByteBuffer buffer) {
+				final int size = checkSize(getVarInt(buffer), buffer);
+				final Map<K, V> map = new LinkedHashMap<>();
+				for (int i = 0; i < size; i++) {
+					map.put(keyCodec.decode(buffer), valueCodec.decode(buffer));
+				}
+				return map;
+			}
+		};
+	}
+
+	/* Escribe un long con signo como varint zigzag, de 1 a 10 bytes. */
+	public static void putVarLong(final ByteBuffer buffer, final long value) {
+		putUnsignedVarLong(buffer, (value << 1) ^ (value >> 63));
+	}
+
+	/* Lee un long con signo escrito con putVarLong. */
+	public static long getVarLong(final ByteBuffer buffer) {
+		final long zigzag = getUnsignedVarLong(buffer);
+		return (zigzag >>> 1) ^ -(zigzag & 1L);
+	}
+
+	/* Escribe un int con signo como varint zigzag, de 1 a 5 bytes. */
+	public static void putVarInt(final ByteBuffer buffer, final int value) {
+		putUnsignedVarLong(buffer, ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+	}
+
+	/* Lee un int con signo escrito con putVarInt. */
+	public static int getVarInt(final ByteBuffer buffer) {
+		final int zigzag = (int) getUnsignedVarLong(buffer);
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+	/* Escribe un valor sin signo como varint. */
+	private static void putUnsignedVarLong(final ByteBuffer buffer, final long value) {
+		long remaining = value;
+		while ((remaining & ~(long) VARINT_MASK) != 0L) {
+			buffer.put((byte) ((remaining & VARINT_MASK) | VARINT_MORE));
+			remaining >>>= VARINT_BITS;
+		}
+		buffer.put((byte) remaining);
+	}
+
+	/* Lee un valor sin signo escrito como varint. */
+	private static long getUnsignedVarLong(final ByteBuffer buffer) {
+		long value = 0L;
+		for (int shift = 0; shift < Long.SIZE; shift += VARINT_BITS) {
+			final byte b = buffer.get();
+			value |= (long) (b & VARINT_MASK) << shift;
+			if ((b & VARINT_MORE) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Varint mal formado, más de 10 bytes");
+	}
+
+	/*
+	 * Escribe una cadena no nula como su longitud en bytes UTF-8 (varint)
+	 * seguida de los bytes, codificados directamente en el buffer.
+	 */
+	public static void putString(final ByteBuffer buffer, final String value) {
+		putVarInt(buffer, utf8Length(value));
+		final int length = value.length();
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else if (isSurrogatePair(value, i)) {
+				final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xF0 | (codePoint >> 18)));
+				buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+			} else if (Character.isSurrogate(c)) {
+				buffer.put(UNMAPPABLE);
+			} else {
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	/* Lee una cadena escrita con putString. */
+	public static String getString(final ByteBuffer buffer) {
+		final int length = checkSize(getVarInt(buffer), buffer);
+		final String value;
+		if (buffer.hasArray()) {
+			value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, 
+					StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+		} else {
+			final byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			value = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return value;
+	}
+
+	/* Longitud en bytes UTF-8 de una cadena, igual a la que escribe putString. */
+	private static int utf8Length(final String value) {
+		final int length = value.length();
+		int bytes = length;
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c >= 0x800) {
+				if (isSurrogatePair(value, i)) {
+					/* Pareja de sustitutos: 4 bytes para 2 caracteres. */
+					bytes += 2;
+					i++;
+				} else if (!Character.isSurrogate(c)) {
+					bytes += 2;
+				}
+			} else if (c >= 0x80) {
+				bytes++;
+			}
+		}
+		return bytes;
+	}
+
+	/* Indica si en la posición indicada empieza una pareja de sustitutos (un carácter fuera del plano básico). */
+	private static boolean isSurrogatePair(final String value, final int index) {
+		return Character.isHighSurrogate(value.charAt(index)) && index + 1 < value.length() 
+				&& Character.isLowSurrogate(value.charAt(index + 1));
+	}
+
+	/* Comprueba un tamaño leído del buffer, para no reservar memoria con datos dañados. */
+	private static int checkSize(final int size, final ByteBuffer buffer) {
+		if (size < 0 || size > buffer.remaining()) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"Tamaño '%s' no válido, quedan '%s' bytes", size, buffer.remaining())
+			);
+		}
+		return size;
+	}
+}
@@ -0,0 +1,365 @@
+package commons.cache;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import commons.log.Log;
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Volcado y carga de los elementos de las cachés de {@link Caches} en un
+ * fichero local, para arrancar con las cachés calientes.
+ * <p>
+ * Formato: cabecera (marca y versión) seguida de una sección por clase
+ * registrada: nombre de la clase, longitud en bytes de la sección, número de
+ * elementos y cada elemento como su longitud (varint) y sus bytes,
+ * codificados con el {@link ICodec} de la clase. Los elementos se escriben
+ * de menos a más recientemente utilizado.
+ * <p>
+ * La carga primero indexa las secciones, saltando de una a otra con su
+ * longitud, y después carga cada sección en paralelo en el ejecutor,
+ * leyendo el fichero por bloques. Los elementos se decodifican una sola vez
+ * y se añaden en lotes según se leen, con lo que recuperan el orden de
+ * expulsión que tenían al volcarlos. Se añaden a la caché que los guarda,
+ * sin los decoradores que propagan las escrituras: precargar no escribe en
+ * la base de datos ni invalida los demás nodos.
+ * <p>
+ * 20/08/2016 10:41:26
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+final class CacheSnapshot {
+
+	/* Marca del formato, "CSNP", y versión. */
+	private static final int MAGIC = 0x43534E50;
+	private static final byte VERSION = 2;
+
+	/* Tamaño de la cabecera: marca y versión. */
+	private static final int HEADER_SIZE = Integer.BYTES + Byte.BYTES;
+
+	/* Tamaño de los buffers de lectura y escritura. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/* Elementos por lote al cargar. */
+	private static final int BATCH_SIZE = 1024;
+
+	/* Máximo número de bytes de un varint de int. */
+	private static final int MAX_VARINT_BYTES = 5;
+
+	/* Sufijo del fichero temporal del volcado. */
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private CacheSnapshot() {
+		/* Sólo métodos estáticos. */
+	}
+
+	/*
+	 * Vuelca las cachés registradas al fichero indicado. Se escribe en un
+	 * fichero temporal que sustituye al anterior al terminar, de forma que
+	 * un volcado interrumpido no deja un fichero dañado.
+	 */
+	static void write(final Path file, final Caches caches) throws IOException {
+		final Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+		try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			final Writer writer = new Writer(channel);
+			writer.buffer.putInt(MAGIC);
+			writer.buffer.put(VERSION);
+			for (final Entry<Class<?>, ICache<?, ?>> entry : caches.registered().entrySet()) {
+				writeSection(writer, entry.getKey(), entry.getValue(), caches.codecFor(entry.getKey()));
+			}
+			writer.flush();
+			channel.force(true);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/* Escribe la sección de una caché. */
+	@SuppressWarnings("unchecked")
+	private static <ID, E extends Id<ID>> void writeSection(final Writer writer, final Class<?> type,
+			final ICache<?, ?> cache, final ICodec<?> codec) throws IOException {
+		final List<E> elements = AbstractCache.snapshotOf((ICache<ID, E>) cache);
+		final String name = type.getName();
+
+		writer.ensure(MAX_VARINT_BYTES + name.length() * 3 + Long.BYTES + MAX_VARINT_BYTES);
+		BinaryCodecs.putString(writer.buffer, name);
+		final long lengthPosition = writer.position();
+		writer.buffer.putLong(0L);
+		BinaryCodecs.putVarInt(writer.buffer, elements.size());
+
+		/* De menos a más recientemente utilizado. */
+		for (final E element : elements) {
+			writer.putEncoded((ICodec<E>) codec, element);
+		}
+
+		writer.flush();
+		final ByteBuffer length = ByteBuffer.allocate(Long.BYTES);
+		length.putLong(0, writer.position() - lengthPosition - Long.BYTES);
+		writer.channel.write(length, lengthPosition);
+	}
+
+	/*
+	 * Carga el fichero indicado en las cachés registradas, en paralelo en el
+	 * ejecutor. Las secciones de clases sin caché registrada al llegar a ellas
+	 * se ignoran. Si el fichero no existe no se carga nada.
+	 */
+	static CompletableFuture<Void> read(final Path file, final Caches caches, final Executor executor) {
+		if (!Files.exists(file)) {
+			Log.info(CacheSnapshot.class, PrintUtils.format("No existe volcado de cachés en '%s'", file));
+			return CompletableFuture.completedFuture(null);
+		}
+
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+		} catch (IOException e) {
+			final CompletableFuture<Void> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+
+		return CompletableFuture.supplyAsync(() -> index(channel, file), executor)
+			.thenCompose(sections -> {
+				final List<CompletableFuture<Void>> loads = new ArrayList<>(sections.size());
+				for (final Section section : sections) {
+					loads.add(CompletableFuture.runAsync(() -> load(channel, section, caches), executor));
+				}
+				return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[loads.size()]));
+			})
+			.whenComplete((result, error) -> {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					Log.error(CacheSnapshot.class, PrintUtils.format("Error al cerrar el volcado '%s'", file), e);
+				}
+			});
+	}
+
+	/* Recorre las cabeceras de las secciones del fichero. */
+	private static List<Section> index(final FileChannel channel, final Path file) {
+		try {
+			final long size = channel.size();
+			final ByteBuffer header = ByteBuffer.allocate(BUFFER_SIZE);
+			if (size >= HEADER_SIZE) {
+				readFully(channel, header, 0L, HEADER_SIZE);
+			}
+			if (size < HEADER_SIZE || header.getInt() != MAGIC || header.get() != VERSION) {
+				throw new IOException(PrintUtils.format("Fichero '%s' sin formato de volcado de cachés", file));
+			}
+
+			final List<Section> sections = new ArrayList<>();
+			long position = HEADER_SIZE;
+			while (position < size) {
+				final int available = (int) Math.min(BUFFER_SIZE, size - position);
+				readFully(channel, header, position, available);
+				final String name = BinaryCodecs.getString(header);
+				final long length = header.getLong();
+				final long start = position + header.position();
+				if (length < 0L || start + length > size) {
+					throw new EOFException(PrintUtils.format("Sección '%s' incompleta en '%s'", name, file));
+				}
+				sections.add(new Section(name, start, length));
+				position = start + length;
+			}
+			return sections;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/* Carga una sección en la caché que guarda los elementos de su clase. */
+	@SuppressWarnings("unchecked")
+	private static <ID, E extends Id<ID>> void load(final FileChannel channel, final Section section,
+			final Caches caches) {
+		final Class<?> type = caches.registeredClass(section.name);
+		final ICache<ID, E> cache = type != null ? caches.get((Class<E>) type) : null;
+		if (cache == null) {
+			Log.info(CacheSnapshot.class, PrintUtils.format("Sin caché registrada para '%s', no se carga", 
+					section.name));
+			return;
+		}
+		final ICodec<E> codec = (ICodec<E>) caches.codecFor(type);
+		final ICache<ID, E> storage = AbstractCache.storageOf(cache);
+
+		try {
+			final SectionReader reader = new SectionReader(channel, section.start, section.length);
+			final int count = reader.readVarInt();
+			final List<E> batch = new ArrayList<>(BATCH_SIZE);
+			for (int i = 0; i < count; i++) {
+				batch.add(codec.decode(reader.next(reader.readVarInt())));
+				if (batch.size() == BATCH_SIZE) {
+					storage.addAll(batch);
+					batch.clear();
+				}
+			}
+			storage.addAll(batch);
+			Log.info(CacheSnapshot.class, PrintUtils.format("Cargados '%s' elementos en la caché de '%s'", count,
+					section.name));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/* Lee exactamente 'length' bytes desde la posición indicada, dejando el buffer preparado para leerlos. */
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position,
+			final int length) throws IOException {
+		buffer.clear();
+		buffer.limit(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+		buffer.flip();
+	}
+
+	/* Posición de una sección en el fichero. */
+	private static final class Section {
+		private final String name;
+		private final long start;
+		private final long length;
+
+		Section (final String name, final long start, final long length) {
+			this.name = name;
+			this.start = start;
+			this.length = length;
+		}
+	}
+
+	/* Escritura por bloques en el fichero, con buffer de codificación propio. */
+	private static final class Writer {
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private ByteBuffer scratch;
+
+		Writer (final FileChannel channel) {
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			this.scratch = ByteBuffer.allocate(BUFFER_SIZE);
+		}
+
+		/* Posición en el fichero del siguiente byte que se escribirá. */
+		long position() throws IOException {
+			return channel.position() + buffer.position();
+		}
+
+		/* Asegura que caben 'bytes' en el buffer, escribiendo su contenido si es necesario. */
+		void ensure(final int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		/* Escribe el contenido del buffer en el fichero. */
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		/* Codifica un valor y lo escribe precedido de su longitud. */
+		<T> void putEncoded(final ICodec<T> codec, final T value) throws IOException {
+			while (true) {
+				scratch.clear();
+				try {
+					codec.encode(value, scratch);
+					break;
+				} catch (BufferOverflowException e) {
+					scratch = ByteBuffer.allocate(scratch.capacity() << 1);
+				}
+			}
+			scratch.flip();
+
+			ensure(MAX_VARINT_BYTES);
+			BinaryCodecs.putVarInt(buffer, scratch.remaining());
+			ensure(scratch.remaining());
+			if (scratch.remaining() > buffer.remaining()) {
+				/* Mayor que el buffer: se escribe directamente. */
+				while (scratch.hasRemaining()) {
+					channel.write(scratch);
+				}
+			} else {
+				buffer.put(scratch);
+			}
+		}
+	}
+
+	/* Lectura por bloques de una sección, desde posiciones absolutas del fichero. */
+	private static final class SectionReader {
+		private final FileChannel channel;
+		private final long end;
+		private long position;
+		private ByteBuffer buffer;
+
+		SectionReader (final FileChannel channel, final long start, final long length) {
+			this.channel = channel;
+			this.position = start;
+			this.end = start + length;
+			this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			this.buffer.flip();
+		}
+
+		/* Lee un varint. */
+		int readVarInt() throws IOException {
+			fill((int) Math.min(MAX_VARINT_BYTES, buffer.remaining() + (end - position)));
+			return BinaryCodecs.getVarInt(buffer);
+		}
+
+		/* Vista de los siguientes 'length' bytes, válida hasta la siguiente lectura. */
+		ByteBuffer next(final int length) throws IOException {
+			if (length < 0) {
+				throw new IOException(PrintUtils.format("Longitud de elemento no válida: '%s'", length));
+			}
+			fill(length);
+			final ByteBuffer element = buffer.duplicate();
+			element.limit(element.position() + length);
+			buffer.position(buffer.position() + length);
+			return element;
+		}
+
+		/* Asegura que hay al menos 'bytes' en el buffer, ampliándolo si no caben. */
+		private void fill(final int bytes) throws IOException {
+			if (buffer.remaining() >= bytes) {
+				return;
+			}
+			if (buffer.capacity() < bytes) {
+				final ByteBuffer bigger = ByteBuffer.allocate(bytes);
+				bigger.put(buffer);
+				buffer = bigger;
+			} else {
+				buffer.compact();
+			}
+
+			while (buffer.position() < bytes && position < end) {
+				buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + (end - position)));
+				final int read = channel.read(buffer, position);
+				if (read < 0) {
+					throw new EOFException();
+				}
+				position += read;
+			}
+			buffer.flip();
+			if (buffer.remaining() < bytes) {
+				throw new EOFException("Sección del volcado de cachés incompleta");
+			}
+		}
+	}
+}
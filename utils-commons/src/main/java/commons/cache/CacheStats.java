@@ -0,0 +1,135 @@
+package commons.cache;
+
+import java.util.Objects;
+
+import commons.util.PrintUtils;
+
+/**
+ * Foto inmutable de las estadísticas de una caché: aciertos, fallos,
+ * escrituras, expulsiones por motivo y cargas.
+ * <p>
+ * 23/07/2016 10:40:18
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public final class CacheStats {
+	
+	/** Estadísticas vacías, las de una caché sin estadísticas activadas. */
+	public static final CacheStats EMPTY = 
+			new CacheStats(0L, 0L, 0L, new long[RemovalCause.values().length], 0L, 0L, 0L);
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "CacheStats [aciertos:%s] [fallos:%s] [escrituras:%s] "
+			+ "[expulsiones:%s] [cargas:%s] [fallos carga:%s] [tiempo carga:%sns]";
+	
+	/* Contadores. */
+	private final long hitCount;
+	private final long missCount;
+	private final long putCount;
+	private final long loadSuccessCount;
+	private final long loadFailureCount;
+	private final long totalLoadTime;
+	
+	/* Expulsiones por motivo, indexadas por ordinal de RemovalCause. */
+	private final long[] evictionCounts;
+	
+	/* Constructor, recibe los contadores. El array de expulsiones no se copia. */
+	CacheStats (final long hitCount, final long missCount, final long putCount, final long[] evictionCounts,
+			final long loadSuccessCount, final long loadFailureCount, final long totalLoadTime) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.putCount = putCount;
+		this.evictionCounts = evictionCounts;
+		this.loadSuccessCount = loadSuccessCount;
+		this.loadFailureCount = loadFailureCount;
+		this.totalLoadTime = totalLoadTime;
+	}
+	
+	/**
+	 * Suma estas estadísticas con otras, para agregar varias cachés o los
+	 * niveles de una caché decorada.
+	 * 
+	 * @param other
+	 *            Estadísticas a sumar.
+	 * @return Nuevas estadísticas con la suma de ambas.
+	 */
+	public CacheStats plus(final CacheStats other) {
+		Objects.requireNonNull(other);
+		final long[] evictions = new long[evictionCounts.length];
+		for (int i = 0; i < evictions.length; i++) {
+			evictions[i] = evictionCounts[i] + other.evictionCounts[i];
+		}
+		return new CacheStats(hitCount + other.hitCount, missCount + other.missCount, putCount + other.putCount,
+				evictions, loadSuccessCount + other.loadSuccessCount, loadFailureCount + other.loadFailureCount,
+				totalLoadTime + other.totalLoadTime);
+	}
+	
+	/* Número de lecturas, aciertos más fallos. */
+	public long getRequestCount() {
+		return hitCount + missCount;
+	}
+	
+	/* Porcentaje de aciertos sobre lecturas, entre 0 y 1. 1 si no hay lecturas. */
+	public double getHitRate() {
+		final long requestCount = getRequestCount();
+		return requestCount == 0L ? 1.0 : (double) hitCount / requestCount;
+	}
+	
+	/* Porcentaje de fallos sobre lecturas, entre 0 y 1. 0 si no hay lecturas. */
+	public double getMissRate() {
+		final long requestCount = getRequestCount();
+		return requestCount == 0L ? 0.0 : (double) missCount / requestCount;
+	}
+	
+	/* Número total de expulsiones, por cualquier motivo. */
+	public long getEvictionCount() {
+		long total = 0L;
+		for (final long count : evictionCounts) {
+			total += count;
+		}
+		return total;
+	}
+	
+	/* Número de expulsiones por el motivo indicado. */
+	public long getEvictionCount(final RemovalCause cause) {
+		return evictionCounts[cause.ordinal()];
+	}
+	
+	/* Tiempo medio de carga en nanosegundos, incluidas las fallidas. 0 si no hay cargas. */
+	public double getAverageLoadPenalty() {
+		final long loadCount = loadSuccessCount + loadFailureCount;
+		return loadCount == 0L ? 0.0 : (double) totalLoadTime / loadCount;
+	}
+
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	public long getMissCount() {
+		return missCount;
+	}
+
+	public long getPutCount() {
+		return putCount;
+	}
+
+	public long getLoadSuccessCount() {
+		return loadSuccessCount;
+	}
+
+	public long getLoadFailureCount() {
+		return loadFailureCount;
+	}
+
+	public long getTotalLoadTime() {
+		return totalLoadTime;
+	}
+	
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, hitCount, missCount, putCount, getEvictionCount(), 
+				loadSuccessCount, loadFailureCount, totalLoadTime);
+	}
+}
@@ -0,0 +1,21 @@
+package commons.cache;
+
+/**
+ * Tipos de caché que puede crear {@link Caches} al registrar una caché.
+ * <p>
+ * 05/06/2016 12:20:03
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public enum CacheType {
+	/** LRU simple con un único bloqueo, ver {@link LRUCache}. */
+	LRU,
+	
+	/** LRU dividida en segmentos con bloqueo independiente, ver {@link ConcurrentLRUCache}. */
+	CONCURRENT_LRU,
+	
+	/** Admisión por frecuencia <i>Window TinyLFU</i>, ver {@link TinyLFUCache}. */
+	TINY_LFU
+}
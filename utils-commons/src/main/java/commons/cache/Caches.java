@@ -1,15 +1,48 @@
 package commons.cache;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
+import commons.log.Log;
+import commons.util.PrintUtils;
+import commons.util.ReflectionUtils;
 import commons.vo.Id;
 
 /**
  * Clase que puede registrar y manipular varias cachés según el tipo que se
  * indique.
  * <p>
+ * Las cachés LRU de clases con id <code>Long</code> o <code>Integer</code> se
+ * crean especializadas ({@link LongLRUCache}, {@link IntLRUCache}), sin
+ * objetos por elemento ni en las lecturas por id primitivo.
+ * <p>
+ * El registro es <i>thread-safe</i>: se pueden registrar cachés mientras otros
+ * hilos las usan. La búsqueda de la caché de una clase no adquiere bloqueos,
+ * se resuelve con un {@link ClassValue} en tiempo constante.
+ * <p>
+ * El contenido de las cachés se puede volcar a un fichero con
+ * {@link #dump(Path)}, y cargar al arrancar con {@link #warmUp(Path)} sin
+ * bloquear el registro de cachés.
+ * <p>
+ * Las cachés asíncronas ({@link #registerAsync}) devuelven futuros y cargan
+ * en un ejecutor, para no bloquear a los llamantes asíncronos.
+ * <p>
+ * El máximo de las cachés registradas se puede ajustar en tiempo de ejecución
+ * con un {@link CapacityController}.
+ * <p>
  * 22/05/2016 17:24:12
  * </p>
  * 
@@ -20,11 +53,27 @@ public class Caches {
 	/* Tamaño por defecto, 1000 elementos. */
 	private static final int DEFAULT_MAX_ELEMENTS = 1000;
 	
-	/* Cachés registradas. */
-	private final Map<Class<?>, ICache<?, ?>> caches;
+	/* Codificador por defecto para los volcados. */
+	private static final ICodec<?> DEFAULT_CODEC = new SerializableCodec<>();
+	
+	/* Cachés registradas, para recorrerlas y para serializar los registros de una misma clase. */
+	private final ConcurrentHashMap<Class<?>, ICache<?, ?>> caches;
+	
+	/* Caché registrada de cada clase, vacía si no hay. Es la que se consulta en cada operación. */
+	private final ClassValue<AtomicReference<ICache<?, ?>>> slots;
+	
+	/* Codificadores de los volcados por clase, si no se indica se usa el por defecto. */
+	private final ConcurrentHashMap<Class<?>, ICodec<?>> codecs;
 	
 	public Caches() {
-		this.caches = new HashMap<>();
+		this.caches = new ConcurrentHashMap<>();
+		this.codecs = new ConcurrentHashMap<>();
+		this.slots = new ClassValue<AtomicReference<ICache<?, ?>>>() {
+			@Override
+			protected AtomicReference<ICache<?, ?>> computeValue(final Class<?> type) {
+				return new AtomicReference<>();
+			}
+		};
 	}
 	
 	/* Registra una caché con tamaño por defecto. */
@@ -32,43 +81,478 @@ public class Caches {
 		return register(classCache, DEFAULT_MAX_ELEMENTS);
 	}
 	
-	/* Registra una caché con el tamaño indicado. */
+	/* Registra una caché con el tamaño indicado. Tipo por defecto LRU. */
 	public <ID, T extends Id<ID>> ICache<ID, T> register(final Class<T> classCache, final int maxCapacity) {
-		/* Por el momento sólo hay cachés LRU, si es necesario meter más tipos añadir un constructor
-		 * para indicarlo también. Tipo por defecto LRU en cualquier caso. */
+		return register(classCache, maxCapacity, CacheType.LRU);
+	}
+	
+	/*
+	 * Registra una caché con el tamaño y el tipo indicados. Si es LRU y el id
+	 * es Long o Integer se crea la especializada: unos 40 bytes por elemento,
+	 * sin objetos por elemento, frente a los 60-70 bytes de entrada de mapa e
+	 * id envuelto de LRUCache. Sus arrays empiezan pequeños y doblan su tamaño
+	 * al llenarse hasta 'maxCapacity', pero no se reducen: tras un pico ocupan
+	 * hasta el doble de lo que necesitan los elementos que quedan.
+	 */
+	public <ID, T extends Id<ID>> ICache<ID, T> register(final Class<T> classCache, final int maxCapacity, 
+			final CacheType type) {
+		Objects.requireNonNull(classCache);
+		Objects.requireNonNull(type);
+		final ICache<ID, T> cache = createCache(classCache, maxCapacity, type);
+		put(classCache, cache);
+		return cache;
+	}
+	
+	/*
+	 * Registra una caché LRU limitada por peso: se expulsan elementos hasta
+	 * que la suma de sus pesos, calculados con 'weigher', no supera 'maxWeight'.
+	 */
+	public <ID, T extends Id<ID>> LRUCache<ID, T> register(final Class<T> classCache, final long maxWeight, 
+			final IWeigher<? super T> weigher) {
+		Objects.requireNonNull(classCache);
+		final LRUCache<ID, T> cache = new LRUCache<ID, T>(maxWeight, weigher);
+		put(classCache, cache);
+		return cache;
+	}
+	
+	/*
+	 * Registra una caché LRU que guarda los elementos serializados con 'codec'
+	 * en memoria directa, fuera del heap, hasta un máximo de 'maxBytes'.
+	 */
+	public <ID, T extends Id<ID>> OffHeapCache<ID, T> register(final Class<T> classCache, final long maxBytes, 
+			final ICodec<T> codec) {
+		Objects.requireNonNull(classCache);
+		final OffHeapCache<ID, T> cache = new OffHeapCache<>(maxBytes, codec);
+		put(classCache, cache);
+		return cache;
+	}
+	
+	/*
+	 * Registra una caché de dos niveles: LRU en memoria con 'maxCapacity'
+	 * elementos, y los expulsados en el fichero 'file', de hasta
+	 * 'maxFileBytes', codificados con 'codec'. Si el fichero existe se reabre.
+	 */
+	public <ID, T extends Id<ID>> TieredCache<ID, T> register(final Class<T> classCache, final int maxCapacity, 
+			final Path file, final long maxFileBytes, final ICodec<T> codec) {
+		Objects.requireNonNull(classCache);
+		final TieredCache<ID, T> cache = new TieredCache<>(maxCapacity, file, maxFileBytes, codec);
+		put(classCache, cache);
+		return cache;
+	}
+	
+	/* Registra una caché LRU con expiración tras escritura y/o tras acceso. Valores 0 o negativos no expiran. */
+	public <ID, T extends Id<ID>> ExpiringCache<ID, T> register(final Class<T> classCache, final int maxCapacity,
+			final long expireAfterWrite, final long expireAfterAccess, final TimeUnit unit) {
+		return register(classCache, maxCapacity, CacheType.LRU, expireAfterWrite, expireAfterAccess, unit);
+	}
+	
+	/* Registra una caché del tipo indicado con expiración tras escritura y/o tras acceso. */
+	public <ID, T extends Id<ID>> ExpiringCache<ID, T> register(final Class<T> classCache, final int maxCapacity, 
+			final CacheType type, final long expireAfterWrite, final long expireAfterAccess, final TimeUnit unit) {
+		Objects.requireNonNull(classCache);
+		Objects.requireNonNull(type);
+		final ExpiringCache<ID, T> cache = 
+				new ExpiringCache<>(createCache(classCache, maxCapacity, type), expireAfterWrite, expireAfterAccess, unit);
+		put(classCache, cache);
+		return cache;
+	}
+	
+	/* Registra una caché del tipo indicado que carga los elementos que no contiene con el cargador indicado. */
+	public <ID, T extends Id<ID>> ILoadingCache<ID, T> register(final Class<T> classCache, final int maxCapacity, 
+			final CacheType type, final ICacheLoader<ID, T> loader) {
+		Objects.requireNonNull(classCache);
+		Objects.requireNonNull(type);
+		final ILoadingCache<ID, T> cache = new LoadingCache<>(createCache(classCache, maxCapacity, type), loader);
+		put(classCache, cache);
+		return cache;
+	}
+	
+	/*
+	 * Registra una caché con carga, expiración tras escritura y recarga
+	 * anticipada: los elementos accedidos después de 'refreshAfterWrite' se
+	 * recargan en el ejecutor indicado antes de llegar a expirar.
+	 */
+	public <ID, T extends Id<ID>> ILoadingCache<ID, T> register(final Class<T> classCache, final int maxCapacity, 
+			final CacheType type, final ICacheLoader<ID, T> loader, final long expireAfterWrite, 
+			final long refreshAfterWrite, final TimeUnit unit, final Executor executor) {
+		Objects.requireNonNull(classCache);
+		Objects.requireNonNull(type);
+		final ExpiringCache<ID, T> expiring = 
+				new ExpiringCache<>(createCache(classCache, maxCapacity, type), expireAfterWrite, 0L, unit);
+		final ILoadingCache<ID, T> cache = new LoadingCache<>(expiring, loader, refreshAfterWrite, unit, executor);
+		put(classCache, cache);
+		return cache;
+	}
+	
+	/*
+	 * Registra una caché del tipo indicado que escribe en su almacén, con
+	 * 'writer', cada elemento que se añade y borra cada elemento que se
+	 * elimina, de forma síncrona.
+	 */
+	public <ID, T extends Id<ID>> WriteThroughCache<ID, T> registerWriteThrough(final Class<T> classCache, 
+			final int maxCapacity, final CacheType type, final ICacheWriter<ID, T> writer) {
+		Objects.requireNonNull(classCache);
+		Objects.requireNonNull(type);
+		final WriteThroughCache<ID, T> cache = new WriteThroughCache<>(createCache(classCache, maxCapacity, type), 
+				writer);
+		put(classCache, cache);
+		return cache;
+	}
+	
+	/*
+	 * Registra una caché del tipo indicado que escribe en su almacén de forma
+	 * diferida: los cambios se combinan por id y se envían a 'writer' en lotes
+	 * de hasta 'batchSize', cada 'flushInterval' o al completar un lote. Con
+	 * 'maxPending' cambios pendientes las escrituras esperan a que se envíen.
+	 */
+	public <ID, T extends Id<ID>> WriteBehindCache<ID, T> registerWriteBehind(final Class<T> classCache, 
+			final int maxCapacity, final CacheType type, final ICacheWriter<ID, T> writer, final int batchSize, 
+			final long flushInterval, final TimeUnit unit, final int maxPending) {
+		Objects.requireNonNull(classCache);
+		Objects.requireNonNull(type);
+		final WriteBehindCache<ID, T> cache = new WriteBehindCache<>(createCache(classCache, maxCapacity, type), 
+				writer, batchSize, flushInterval, unit, maxPending);
+		put(classCache, cache);
+		return cache;
+	}
+	
+	/*
+	 * Registra una caché asíncrona del tipo indicado: las lecturas devuelven
+	 * futuros y los elementos que no contiene se cargan en 'executor'. Se
+	 * registra su vista síncrona, de forma que el resto de operaciones de esta
+	 * clase también la admiten.
+	 */
+	public <ID, T extends Id<ID>> IAsyncCache<ID, T> registerAsync(final Class<T> classCache, final int maxCapacity, 
+			final CacheType type, final ICacheLoader<ID, T> loader, final Executor executor) {
 		Objects.requireNonNull(classCache);
-		caches.put(classCache, new LRUCache<>(maxCapacity));
-		return get(classCache);
+		Objects.requireNonNull(type);
+		final AsyncCache<ID, T> cache = new AsyncCache<>(createCache(classCache, maxCapacity, type), loader, executor);
+		put(classCache, cache.synchronous());
+		return cache;
+	}
+	
+	/*
+	 * Devuelve la caché registrada para la clase indicada o, si no hay,
+	 * registra una del tamaño y tipo indicados. Si varios hilos la registran
+	 * a la vez sólo se crea una.
+	 */
+	public <ID, T extends Id<ID>> ICache<ID, T> computeIfAbsent(final Class<T> classCache, final int maxCapacity, 
+			final CacheType type) {
+		Objects.requireNonNull(type);
+		return computeIfAbsent(classCache, c -> createCache(classCache, maxCapacity, type));
+	}
+	
+	/*
+	 * Devuelve la caché registrada para la clase indicada o, si no hay,
+	 * registra la que cree 'factory'. Si varios hilos la registran a la vez
+	 * sólo se llama una vez a 'factory'.
+	 */
+	@SuppressWarnings("unchecked")
+	public <ID, T extends Id<ID>> ICache<ID, T> computeIfAbsent(final Class<T> classCache, 
+			final Function<? super Class<T>, ? extends ICache<ID, T>> factory) {
+		Objects.requireNonNull(classCache);
+		Objects.requireNonNull(factory);
+		final ICache<ID, T> current = get(classCache);
+		if (current != null) {
+			return current;
+		}
+		
+		return (ICache<ID, T>) caches.computeIfAbsent(classCache, c -> {
+			final ICache<ID, T> cache = Objects.requireNonNull(factory.apply(classCache));
+			slots.get(classCache).set(cache);
+			return cache;
+		});
+	}
+	
+	/*
+	 * Registra una caché, sustituyendo a la anterior de la clase. El mapa y la
+	 * referencia de la clase se actualizan juntos, con el bloqueo del mapa
+	 * sobre la clave, para que registros concurrentes no los desincronicen.
+	 * La caché sustituida se cierra después, fuera del bloqueo, si tiene
+	 * recursos propios (hilo de escritura, fichero...).
+	 */
+	private void put(final Class<?> classCache, final ICache<?, ?> cache) {
+		final AtomicReference<ICache<?, ?>> replaced = new AtomicReference<>();
+		caches.compute(classCache, (c, previous) -> {
+			replaced.set(previous);
+			slots.get(classCache).set(cache);
+			return cache;
+		});
+		close(classCache, replaced.get());
+	}
+	
+	/* Cierra una caché sustituida, si tiene recursos propios. Los errores se registran. */
+	private void close(final Class<?> classCache, final ICache<?, ?> replaced) {
+		final Closeable closeable = replaced != null ? AbstractCache.closeableOf(replaced) : null;
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException | RuntimeException e) {
+				Log.error(this, PrintUtils.format("Error al cerrar la caché sustituida de '%s'", classCache.getName()),
+						e);
+			}
+		}
+	}
+	
+	/*
+	 * Sustituye la caché registrada de una clase por la que crea 'decorator'
+	 * a partir de ella. Devuelve la nueva, null si no hay caché registrada.
+	 */
+	@SuppressWarnings("unchecked")
+	<ID, T extends Id<ID>> ICache<ID, T> decorate(final Class<T> classCache, 
+			final Function<? super ICache<ID, T>, ? extends ICache<ID, T>> decorator) {
+		return (ICache<ID, T>) caches.computeIfPresent(classCache, (c, current) -> {
+			final ICache<ID, T> decorated = Objects.requireNonNull(decorator.apply((ICache<ID, T>) current));
+			slots.get(classCache).set(decorated);
+			return decorated;
+		});
+	}
+	
+	/*
+	 * Crea una caché del tipo indicado para una clase. Si es LRU y el id de la
+	 * clase es Long o Integer se crea la caché especializada.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <ID, T extends Id<ID>> ICache<ID, T> createCache(final Class<T> classCache, final int maxCapacity, 
+			final CacheType type) {
+		if (type == CacheType.LRU && maxCapacity > 0 && maxCapacity <= PrimitiveLRUTable.MAX_ELEMENTS) {
+			final Class<?> idType = ReflectionUtils.getTypeArgument(classCache, Id.class, 0);
+			if (Long.class.equals(idType)) {
+				return new LongLRUCache(maxCapacity);
+			} else if (Integer.class.equals(idType)) {
+				return new IntLRUCache(maxCapacity);
+			}
+		}
+		return createCache(maxCapacity, type);
+	}
+	
+	/* Crea una caché del tipo indicado. */
+	static <ID, T extends Id<ID>> ICache<ID, T> createCache(final int maxCapacity, final CacheType type) {
+		final ICache<ID, T> cache;
+		switch (type) {
+		case CONCURRENT_LRU:
+			cache = new ConcurrentLRUCache<>(maxCapacity);
+			break;
+		case TINY_LFU:
+			cache = new TinyLFUCache<>(maxCapacity);
+			break;
+		case LRU:
+		default:
+			cache = new LRUCache<>(maxCapacity);
+			break;
+		}
+		return cache;
+	}
+	
+	/* Activa o desactiva las estadísticas de la caché registrada para la clase indicada. */
+	public void recordStats (final Class<?> classCache, final boolean enabled) {
+		final ICache<?, ?> currentCache = slots.get(classCache).get();
+		Objects.requireNonNull(currentCache);
+		currentCache.recordStats(enabled);
+	}
+	
+	/* Activa o desactiva las estadísticas de todas las cachés registradas. */
+	public void recordStats (final boolean enabled) {
+		for (final ICache<?, ?> cache : caches.values()) {
+			cache.recordStats(enabled);
+		}
+	}
+	
+	/* Foto de las estadísticas de la caché registrada para la clase indicada. */
+	public CacheStats stats (final Class<?> classCache) {
+		final ICache<?, ?> currentCache = slots.get(classCache).get();
+		Objects.requireNonNull(currentCache);
+		return currentCache.stats();
+	}
+	
+	/* Foto de las estadísticas de todas las cachés registradas, por clase. */
+	public Map<Class<?>, CacheStats> stats () {
+		final Map<Class<?>, CacheStats> stats = new HashMap<>();
+		for (final Map.Entry<Class<?>, ICache<?, ?>> entry : caches.entrySet()) {
+			stats.put(entry.getKey(), entry.getValue().stats());
+		}
+		return stats;
+	}
+	
+	/* Añade un oyente de las eliminaciones de la caché registrada para la clase indicada, en el pool común. */
+	public <ID, T extends Id<ID>> void addRemovalListener (final Class<T> classCache, 
+			final IRemovalListener<ID, T> listener) {
+		addRemovalListener(classCache, listener, ForkJoinPool.commonPool());
+	}
+	
+	/* Añade un oyente de las eliminaciones de la caché registrada para la clase indicada, notificado en 'executor'. */
+	public <ID, T extends Id<ID>> void addRemovalListener (final Class<T> classCache, 
+			final IRemovalListener<ID, T> listener, final Executor executor) {
+		final ICache<ID, T> currentCache = this.get(classCache);
+		Objects.requireNonNull(currentCache);
+		currentCache.addRemovalListener(listener, executor);
 	}
 	
-	/* Devuelve una caché */
+	/* Devuelve una caché, null si no está registrada. No adquiere bloqueos; una clase nula lanza NullPointerException. */
 	@SuppressWarnings("unchecked")
 	public <ID, T extends Id<ID>> ICache<ID, T> get (final Class<T> classCache) {
-		return (ICache<ID, T>) caches.get(classCache);
+		return (ICache<ID, T>) slots.get(classCache).get();
+	}
+	
+	/* Devuelve una caché asíncrona, null si no está registrada o no es asíncrona. */
+	@SuppressWarnings("unchecked")
+	public <ID, T extends Id<ID>> IAsyncCache<ID, T> getAsync (final Class<T> classCache) {
+		final ICache<?, ?> currentCache = slots.get(classCache).get();
+		return currentCache instanceof AsyncCache.Synchronous 
+				? ((AsyncCache.Synchronous<ID, T>) currentCache).asynchronous() 
+				: null;
+	}
+	
+	/* Devuelve un elemento de una caché asíncrona, por id, cargándolo en su ejecutor si no está. */
+	public <ID, T extends Id<ID>> CompletableFuture<T> getOrLoadAsync (final Class<T> classCache, final ID id) {
+		final IAsyncCache<ID, T> currentCache = this.getAsync(classCache);
+		Objects.requireNonNull(currentCache);
+		return currentCache.getOrLoad(id);
 	}
 	
 	/* Añade un elemento a una caché */
 	public <ID, T extends Id<ID>> void add (final Class<T> classCache, final T element) {
-		Objects.requireNonNull(classCache);
 		final ICache<ID, T> currentCache = this.get(classCache);
-
 		Objects.requireNonNull(currentCache);
 		currentCache.add(element);
 	}
 	
 	/* Elimina un elemento de una caché y lo devuelve, por id. */
 	public <ID, T extends Id<ID>> T remove (final Class<T> classCache, final ID id) {
-		Objects.requireNonNull(classCache);
 		final ICache<ID, T> currentCache = this.get(classCache);
 		Objects.requireNonNull(currentCache);
 		return currentCache.remove(id);
 	}
 	
+	/* Añade varios elementos a una caché. */
+	public <ID, T extends Id<ID>> void addAll (final Class<T> classCache, final Collection<? extends T> elements) {
+		final ICache<ID, T> currentCache = this.get(classCache);
+		Objects.requireNonNull(currentCache);
+		currentCache.addAll(elements);
+	}
+	
+	/* Elimina varios elementos de una caché y los devuelve, por id. */
+	public <ID, T extends Id<ID>> Map<ID, T> removeAll (final Class<T> classCache, 
+			final Collection<? extends ID> ids) {
+		final ICache<ID, T> currentCache = this.get(classCache);
+		Objects.requireNonNull(currentCache);
+		return currentCache.removeAll(ids);
+	}
+	
+	/* Devuelve varios elementos de una caché, por id. Los que no están no se incluyen. */
+	public <ID, T extends Id<ID>> Map<ID, T> getAll (final Class<T> classCache, final Collection<? extends ID> ids) {
+		final ICache<ID, T> currentCache = this.get(classCache);
+		Objects.requireNonNull(currentCache);
+		return currentCache.getAll(ids);
+	}
+	
+	/* Vacía una caché. */
+	public void invalidateAll (final Class<?> classCache) {
+		final ICache<?, ?> currentCache = slots.get(classCache).get();
+		Objects.requireNonNull(currentCache);
+		currentCache.invalidateAll();
+	}
+	
+	/* Vacía todas las cachés registradas. */
+	public void invalidateAll () {
+		for (final ICache<?, ?> cache : caches.values()) {
+			cache.invalidateAll();
+		}
+	}
+	
 	/* Devuelve un elemento de una caché, por id. */
 	public <ID, T extends Id<ID>> T get (final Class<T> classCache, final ID id) {
-		Objects.requireNonNull(classCache);
 		final ICache<ID, T> currentCache = this.get(classCache);
 		Objects.requireNonNull(currentCache);
 		return currentCache.get(id);
 	}
+	
+	/* Devuelve un elemento de una caché con ids Long, por id. Sin crear objetos si la caché es ILongCache. */
+	@SuppressWarnings("unchecked")
+	public <T extends Id<Long>> T get (final Class<T> classCache, final long id) {
+		final ICache<Long, T> currentCache = this.get(classCache);
+		Objects.requireNonNull(currentCache);
+		return currentCache instanceof ILongCache 
+				? ((ILongCache<T>) currentCache).get(id) 
+				: currentCache.get(Long.valueOf(id));
+	}
+	
+	/* Devuelve un elemento de una caché con ids Integer, por id. Sin crear objetos si la caché es IIntCache. */
+	@SuppressWarnings("unchecked")
+	public <T extends Id<Integer>> T get (final Class<T> classCache, final int id) {
+		final ICache<Integer, T> currentCache = this.get(classCache);
+		Objects.requireNonNull(currentCache);
+		return currentCache instanceof IIntCache 
+				? ((IIntCache<T>) currentCache).get(id) 
+				: currentCache.get(Integer.valueOf(id));
+	}
+	
+	/* Indica el codificador de los elementos de una clase en los volcados. Por defecto se serializan. */
+	public <ID, T extends Id<ID>> void setCodec (final Class<T> classCache, final ICodec<T> codec) {
+		Objects.requireNonNull(classCache);
+		Objects.requireNonNull(codec);
+		codecs.put(classCache, codec);
+	}
+	
+	/*
+	 * Vuelca los elementos de todas las cachés registradas al fichero indicado,
+	 * de menos a más recientemente utilizados. El fichero anterior se sustituye
+	 * al terminar.
+	 */
+	public void dump (final Path file) throws IOException {
+		Objects.requireNonNull(file);
+		CacheSnapshot.write(file, this);
+	}
+	
+	/* Vuelca las cachés registradas al fichero indicado al parar la máquina virtual. */
+	public void dumpOnShutdown (final Path file) {
+		Objects.requireNonNull(file);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				dump(file);
+			} catch (IOException e) {
+				Log.error(this, PrintUtils.format("Error al volcar las cachés en '%s'", file), e);
+			}
+		}, "caches-dump"));
+	}
+	
+	/* Carga un volcado en las cachés registradas, en paralelo en el pool común. */
+	public CompletableFuture<Void> warmUp (final Path file) {
+		return warmUp(file, ForkJoinPool.commonPool());
+	}
+	
+	/*
+	 * Carga un volcado en las cachés registradas, una tarea por caché en el
+	 * ejecutor indicado. No bloquea: las cachés se pueden registrar y usar
+	 * mientras se carga, y los elementos recuperan su orden de uso. No pasan
+	 * por los decoradores que propagan las escrituras (escritura directa o
+	 * diferida, invalidación distribuida). Las clases que no tengan caché
+	 * registrada al llegar a su sección se ignoran.
+	 */
+	public CompletableFuture<Void> warmUp (final Path file, final Executor executor) {
+		Objects.requireNonNull(file);
+		Objects.requireNonNull(executor);
+		return CacheSnapshot.read(file, this, executor);
+	}
+	
+	/* Cachés registradas, por clase. */
+	Map<Class<?>, ICache<?, ?>> registered () {
+		return Collections.unmodifiableMap(caches);
+	}
+	
+	/* Clase registrada con el nombre indicado, null si no hay. */
+	Class<?> registeredClass (final String name) {
+		for (final Class<?> classCache : caches.keySet()) {
+			if (classCache.getName().equals(name)) {
+				return classCache;
+			}
+		}
+		return null;
+	}
+	
+	/* Codificador de los volcados de una clase. */
+	ICodec<?> codecFor (final Class<?> classCache) {
+		final ICodec<?> codec = codecs.get(classCache);
+		return codec != null ? codec : DEFAULT_CODEC;
+	}
 }
@@ -0,0 +1,416 @@
+package commons.cache;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import commons.log.Log;
+import commons.util.PrintUtils;
+
+/**
+ * Ajusta en tiempo de ejecución el máximo de las cachés registradas en un
+ * {@link Caches}, dentro de los límites indicados para cada clase con
+ * {@link #control(Class, long, long)}. Sólo se pueden controlar las cachés
+ * cuyo máximo se puede cambiar ({@link IResizableCache}), directamente o a
+ * través de sus decoradores.
+ * <p>
+ * En cada ajuste periódico:
+ * <ul>
+ * <li>si la ocupación del heap tras la última recolección supera el umbral
+ * alto, todas las cachés se reducen un paso, hasta su mínimo.</li>
+ * <li>si está por debajo del umbral bajo, las cachés llenas crecen un paso,
+ * hasta su máximo. Si en el ajuste siguiente la tasa de aciertos no ha
+ * mejorado, se deshace el crecimiento y la caché no vuelve a intentarlo
+ * durante varios ajustes: ha llegado a la parte plana de su curva de
+ * aciertos.</li>
+ * <li>entre ambos umbrales no se crece, sólo se deshacen los crecimientos que
+ * no han mejorado la tasa de aciertos.</li>
+ * </ul>
+ * Además, se fija el umbral de ocupación tras recolección de los espacios del
+ * heap que lo admiten, de forma que al superarlo se ajusta de inmediato sin
+ * esperar al siguiente ajuste periódico. Ese umbral es global a la máquina
+ * virtual; al cerrar el controlador se restaura el que tenía antes.
+ * <p>
+ * Al controlar una caché se activan sus estadísticas, de las que se obtiene
+ * la tasa de aciertos.
+ * <p>
+ * 24/09/2016 11:52:06
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class CapacityController implements Closeable {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "CapacityController [heap:%s] [umbrales:%s-%s] [cachés:%s]";
+
+	/* Intervalo de ajuste por defecto, 30 segundos. */
+	private static final long DEFAULT_INTERVAL_SECONDS = 30L;
+
+	/* Umbrales de ocupación del heap por defecto. */
+	private static final double DEFAULT_LOW_WATERMARK = 0.70d;
+	private static final double DEFAULT_HIGH_WATERMARK = 0.85d;
+
+	/* Factores de crecimiento y reducción de cada paso. */
+	private static final double GROW_FACTOR = 1.25d;
+	private static final double SHRINK_FACTOR = 0.75d;
+
+	/* Ocupación de la caché, respecto a su máximo, a partir de la cual se considera llena. */
+	private static final double FULL_PERCENT = 0.95d;
+
+	/* Mejora mínima de la tasa de aciertos para mantener un crecimiento. */
+	private static final double MIN_HIT_RATE_GAIN = 0.005d;
+
+	/* Mínimo de lecturas entre ajustes para considerar la tasa de aciertos. */
+	private static final long MIN_REQUESTS = 100L;
+
+	/* Ajustes sin crecer tras deshacer un crecimiento que no mejoró la tasa de aciertos. */
+	private static final int COOLDOWN_ROUNDS = 10;
+
+	/* Nombre del hilo de ajuste. */
+	private static final String THREAD_NAME = "cache-capacity";
+
+	/* Cachés del nodo. */
+	private final Caches caches;
+
+	/* Umbrales de ocupación del heap. */
+	private final double lowWatermark;
+	private final double highWatermark;
+
+	/* Estado de cada clase controlada. */
+	private final Map<Class<?>, Controlled> controlled;
+
+	/* Espacios del heap con ocupación tras recolección. */
+	private final List<MemoryPoolMXBean> heapPools;
+
+	/* Umbral de ocupación tras recolección de cada espacio antes de fijar el propio, para restaurarlo. */
+	private final Map<MemoryPoolMXBean, Long> previousThresholds;
+
+	/* Receptor de las notificaciones de umbral superado. */
+	private final NotificationListener thresholdListener;
+
+	/* Hilo de ajuste. */
+	private final ScheduledExecutorService scheduler;
+
+	/* Última ocupación del heap medida. */
+	private volatile double lastHeapUsage;
+
+	/**
+	 * Constructor, con ajuste cada 30 segundos y umbrales de ocupación del
+	 * heap del 70% y 85%.
+	 *
+	 * @param caches
+	 *            Cachés a controlar.
+	 */
+	public CapacityController(final Caches caches) {
+		this(caches, DEFAULT_INTERVAL_SECONDS, TimeUnit.SECONDS, DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param caches
+	 *            Cachés a controlar.
+	 * @param interval
+	 *            Intervalo entre ajustes.
+	 * @param unit
+	 *            Unidad del intervalo.
+	 * @param lowWatermark
+	 *            Ocupación del heap, entre 0 y 1, por debajo de la cual las
+	 *            cachés pueden crecer.
+	 * @param highWatermark
+	 *            Ocupación del heap, entre 0 y 1, por encima de la cual las
+	 *            cachés se reducen.
+	 */
+	public CapacityController(final Caches caches, final long interval, final TimeUnit unit,
+			final double lowWatermark, final double highWatermark) {
+		if (interval <= 0L || !(0d < lowWatermark && lowWatermark <= highWatermark && highWatermark < 1d)) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"No se puede crear controlador de capacidad con intervalo '%s' y umbrales '%s'-'%s'",
+				interval, lowWatermark, highWatermark)
+			);
+		}
+
+		this.caches = Objects.requireNonNull(caches);
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		this.controlled = new ConcurrentHashMap<>();
+		this.heapPools = new ArrayList<>();
+		this.previousThresholds = new HashMap<>();
+		this.thresholdListener = this::onThresholdExceeded;
+
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+			final Thread thread = new Thread(task, THREAD_NAME);
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		watchHeap();
+		final long intervalMillis = Math.max(1L, unit.toMillis(interval));
+		this.scheduler.scheduleWithFixedDelay(this::adjustInBackground, intervalMillis, intervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/*
+	 * Busca los espacios del heap con ocupación tras recolección, les fija el
+	 * umbral alto y se suscribe a sus notificaciones.
+	 */
+	private void watchHeap() {
+		for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+				heapPools.add(pool);
+				final long max = pool.getUsage().getMax();
+				if (max > 0L) {
+					previousThresholds.put(pool, pool.getCollectionUsageThreshold());
+					pool.setCollectionUsageThreshold((long) (max * highWatermark));
+				}
+			}
+		}
+
+		final Object memory = ManagementFactory.getMemoryMXBean();
+		if (memory instanceof NotificationEmitter) {
+			((NotificationEmitter) memory).addNotificationListener(thresholdListener, null, null);
+		}
+	}
+
+	/* Ajusta de inmediato al superar el umbral de ocupación tras recolección. */
+	private void onThresholdExceeded(final Notification notification, final Object handback) {
+		if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+			try {
+				scheduler.execute(this::adjustInBackground);
+			} catch (RuntimeException e) {
+				/* Controlador cerrado. */
+			}
+		}
+	}
+
+	/**
+	 * Controla el máximo de la caché registrada para una clase, entre los
+	 * límites indicados. Si el máximo actual está fuera de ellos se ajusta.
+	 *
+	 * @param classCache
+	 *            Clase de la caché, debe estar registrada y su máximo se debe
+	 *            poder cambiar.
+	 * @param minimum
+	 *            Máximo más bajo al que se puede reducir. No puede ser menor
+	 *            que el que admite la caché, por ejemplo el número de
+	 *            segmentos de una {@link ConcurrentLRUCache}.
+	 * @param maximum
+	 *            Máximo más alto al que puede crecer. No puede ser mayor que
+	 *            el que admite la caché.
+	 * @return Este controlador.
+	 */
+	public CapacityController control(final Class<?> classCache, final long minimum, final long maximum) {
+		Objects.requireNonNull(classCache);
+		if (minimum <= 0L || minimum > maximum) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"Límites no válidos para la caché de '%s': '%s'-'%s'", classCache.getName(), minimum, maximum)
+			);
+		}
+
+		final ICache<?, ?> cache = caches.registered().get(classCache);
+		final IResizableCache resizable = AbstractCache.resizableOf(cache);
+		if (resizable == null) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"La caché de '%s' no está registrada o su máximo no se puede cambiar: '%s'",
+				classCache.getName(), cache)
+			);
+		}
+
+		if (minimum < resizable.getLowestMaximum() || maximum > resizable.getHighestMaximum()) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"Límites '%s'-'%s' fuera de los que admite la caché de '%s': '%s'-'%s'", minimum, maximum,
+				classCache.getName(), resizable.getLowestMaximum(), resizable.getHighestMaximum())
+			);
+		}
+
+		cache.recordStats(true);
+		final long current = resizable.getMaximum();
+		if (current < minimum || current > maximum) {
+			resizable.setMaximum(Math.max(minimum, Math.min(maximum, current)));
+		}
+		controlled.put(classCache, new Controlled(cache, resizable, minimum, maximum));
+		return this;
+	}
+
+	/**
+	 * Deja de controlar la caché de una clase. Su máximo se queda como esté.
+	 *
+	 * @param classCache
+	 *            Clase de la caché.
+	 */
+	public void release(final Class<?> classCache) {
+		controlled.remove(classCache);
+	}
+
+	/* Ajusta desde el hilo de ajuste, registrando los errores. */
+	private void adjustInBackground() {
+		try {
+			adjust();
+		} catch (RuntimeException e) {
+			Log.error(CapacityController.class, "Error al ajustar la capacidad de las cachés", e);
+		}
+	}
+
+	/**
+	 * Hace un ajuste de todas las cachés controladas, sin esperar al
+	 * siguiente ajuste periódico.
+	 */
+	public synchronized void adjust() {
+		final double heapUsage = heapUsage();
+		lastHeapUsage = heapUsage;
+		for (final Map.Entry<Class<?>, Controlled> entry : controlled.entrySet()) {
+			/* Si la clase se ha vuelto a registrar, se deja de controlar la caché anterior. */
+			if (caches.registered().get(entry.getKey()) != entry.getValue().cache) {
+				controlled.remove(entry.getKey(), entry.getValue());
+				continue;
+			}
+			entry.getValue().adjust(heapUsage, lowWatermark, highWatermark);
+		}
+	}
+
+	/*
+	 * Ocupación del heap, de 0 a 1: la mayor de los espacios con ocupación
+	 * tras recolección, que no cuenta la basura pendiente de recoger. Si no
+	 * hay ninguno, la ocupación actual del heap.
+	 */
+	private double heapUsage() {
+		double usage = -1d;
+		for (final MemoryPoolMXBean pool : heapPools) {
+			final MemoryUsage collected = pool.getCollectionUsage();
+			if (collected != null) {
+				final long max = collected.getMax() > 0L ? collected.getMax() : collected.getCommitted();
+				if (max > 0L) {
+					usage = Math.max(usage, (double) collected.getUsed() / max);
+				}
+			}
+		}
+
+		if (usage < 0d) {
+			final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+			final long max = heap.getMax() > 0L ? heap.getMax() : heap.getCommitted();
+			usage = (double) heap.getUsed() / max;
+		}
+		return usage;
+	}
+
+	/**
+	 * Detiene los ajustes y restaura el umbral de ocupación tras recolección
+	 * que tenía cada espacio del heap. Los máximos de las cachés se quedan
+	 * como estén.
+	 */
+	@Override
+	public void close() {
+		scheduler.shutdown();
+		final Object memory = ManagementFactory.getMemoryMXBean();
+		if (memory instanceof NotificationEmitter) {
+			try {
+				((NotificationEmitter) memory).removeNotificationListener(thresholdListener);
+			} catch (ListenerNotFoundException e) {
+				/* Ya eliminado. */
+			}
+		}
+		for (final Map.Entry<MemoryPoolMXBean, Long> entry : previousThresholds.entrySet()) {
+			entry.getKey().setCollectionUsageThreshold(entry.getValue());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, lastHeapUsage, lowWatermark, highWatermark, controlled.keySet());
+	}
+
+	/* Estado de una caché controlada. Sólo se usa desde adjust(), que está sincronizado. */
+	private static final class Controlled {
+
+		/* Caché registrada y su máximo modificable. */
+		private final ICache<?, ?> cache;
+		private final IResizableCache resizable;
+
+		/* Límites del máximo. */
+		private final long minimum;
+		private final long maximum;
+
+		/* Aciertos y fallos acumulados en el ajuste anterior. */
+		private long lastHits;
+		private long lastMisses;
+
+		/* Tasa de aciertos entre los dos ajustes anteriores, negativa si no hubo lecturas suficientes. */
+		private double lastHitRate = -1d;
+
+		/* Máximo antes del último crecimiento, 0 si el último ajuste no creció. */
+		private long grownFrom;
+
+		/* Ajustes que quedan sin crecer. */
+		private int cooldown;
+
+		Controlled (final ICache<?, ?> cache, final IResizableCache resizable, final long minimum,
+				final long maximum) {
+			this.cache = cache;
+			this.resizable = resizable;
+			this.minimum = minimum;
+			this.maximum = maximum;
+			final CacheStats stats = cache.stats();
+			this.lastHits = stats.getHitCount();
+			this.lastMisses = stats.getMissCount();
+		}
+
+		/* Un paso de ajuste según la ocupación del heap y la tasa de aciertos desde el ajuste anterior. */
+		void adjust(final double heapUsage, final double lowWatermark, final double highWatermark) {
+			final CacheStats stats = cache.stats();
+			final long hits = stats.getHitCount() - lastHits;
+			final long requests = hits + stats.getMissCount() - lastMisses;
+			lastHits = stats.getHitCount();
+			lastMisses = stats.getMissCount();
+			final double hitRate = requests >= MIN_REQUESTS ? (double) hits / requests : -1d;
+
+			if (cooldown > 0) {
+				cooldown--;
+			}
+
+			final long current = resizable.getMaximum();
+			long target = current;
+			if (heapUsage > highWatermark) {
+				target = Math.max(minimum, (long) (current * SHRINK_FACTOR));
+				grownFrom = 0L;
+			} else if (grownFrom > 0L && hitRate >= 0d && lastHitRate >= 0d 
+					&& hitRate - lastHitRate < MIN_HIT_RATE_GAIN) {
+				/* El último crecimiento no ha mejorado la tasa de aciertos: se deshace y se espera. */
+				target = Math.max(minimum, grownFrom);
+				grownFrom = 0L;
+				cooldown = COOLDOWN_ROUNDS;
+			} else if (heapUsage < lowWatermark && cooldown == 0 && hitRate >= 0d && current < maximum 
+					&& resizable.getWeight() >= current * FULL_PERCENT) {
+				target = Math.min(maximum, Math.max(current + 1L, (long) (current * GROW_FACTOR)));
+				grownFrom = current;
+			} else if (hitRate >= 0d) {
+				grownFrom = 0L;
+			}
+
+			if (hitRate >= 0d) {
+				lastHitRate = hitRate;
+			}
+			if (target != current) {
+				resizable.setMaximum(target);
+			}
+		}
+	}
+}
@@ -0,0 +1,436 @@
+package commons.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Caché LRU concurrente. Divide el espacio de claves en segmentos
+ * independientes, cada uno con su propio bloqueo y su propio orden de acceso,
+ * de forma que lecturas y escrituras sobre segmentos distintos no compiten
+ * entre sí.
+ * <p>
+ * La expulsión es LRU dentro de cada segmento: cuando un segmento alcanza su
+ * parte de la capacidad máxima se elimina su elemento menos recientemente
+ * utilizado. Con claves bien repartidas el resultado se aproxima al de una
+ * LRU global, con un coste de contención que escala con el número de núcleos.
+ * <p>
+ * El máximo se puede cambiar en tiempo de ejecución con
+ * {@link #setMaximum(long)}; el número de segmentos no cambia, por lo que el
+ * máximo no puede bajar del número de segmentos.
+ * <p>
+ * Esta caché es <i>thread-safe</i>.
+ * <p>
+ * 05/06/2016 11:42:17
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class ConcurrentLRUCache<ID, E extends Id<ID>> extends AbstractCache<ID, E> implements IResizableCache {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "ConcurrentLRUCache [max:%s] [segmentos:%s] [elementos:%s]";
+
+	/* Factor de carga. */
+	private static final float LOAD_FACTOR = 0.75f;
+
+	/* Segmentos por núcleo disponible, para el nivel de concurrencia por defecto. */
+	private static final int SEGMENTS_PER_CORE = 4;
+
+	/* Máximo número de segmentos. */
+	private static final int MAX_SEGMENTS = 1 << 16;
+
+	/*
+	 * Mínimo de elementos por segmento para el nivel de concurrencia por
+	 * defecto: con segmentos más pequeños la LRU por segmento se aleja de la
+	 * global y un segmento se llena mucho antes que la caché.
+	 */
+	private static final int MIN_SEGMENT_CAPACITY = 64;
+
+	/* Segmentos, cada uno con su bloqueo y su mapa ordenado por acceso. */
+	private final Segment<ID, E>[] segments;
+
+	/* Máscara para calcular el segmento a partir del hash, número de segmentos - 1. */
+	private final int segmentMask;
+
+	/* Máximo número de elementos en caché. */
+	private volatile int maxElements;
+
+	/* Constructor, recibe el máximo número de elementos. */
+	ConcurrentLRUCache (final int maxCapacity) {
+		this(maxCapacity, getDefaultConcurrency(maxCapacity));
+	}
+
+	/* Constructor, recibe el máximo número de elementos y el nivel de concurrencia estimado. */
+	ConcurrentLRUCache (final int maxCapacity, final int concurrencyLevel) {
+		if (maxCapacity <= 0 || concurrencyLevel <= 0) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"No se puede crear cache LRU concurrente con capacidad '%s' y concurrencia '%s'",
+				maxCapacity, concurrencyLevel)
+			);
+		}
+
+		this.maxElements = maxCapacity;
+
+		final int numSegments = getNumSegments(maxCapacity, concurrencyLevel);
+		this.segmentMask = numSegments - 1;
+		this.segments = newSegments(numSegments);
+
+		for (int i = 0; i < numSegments; i++) {
+			segments[i] = new Segment<>(this, segmentCapacity(maxCapacity, i));
+		}
+	}
+
+	/* Crea el array de segmentos, vacío. */
+	@SuppressWarnings("unchecked")
+	private static <ID, E extends Id<ID>> Segment<ID, E>[] newSegments(final int numSegments) {
+		return (Segment<ID, E>[]) new Segment<?, ?>[numSegments];
+	}
+
+	/*
+	 * Parte del máximo de un segmento. Se reparte la capacidad máxima entre
+	 * los segmentos, de forma que la suma sea exactamente el máximo.
+	 */
+	private int segmentCapacity(final int maxCapacity, final int index) {
+		final int baseCapacity = maxCapacity / segments.length;
+		final int remainder = maxCapacity % segments.length;
+		return index < remainder ? baseCapacity + 1 : baseCapacity;
+	}
+
+	/*
+	 * Nivel de concurrencia por defecto: segmentos por núcleo, sin bajar de
+	 * MIN_SEGMENT_CAPACITY elementos por segmento.
+	 */
+	private static int getDefaultConcurrency(final int maxCapacity) {
+		final int bySize = Math.max(1, maxCapacity / MIN_SEGMENT_CAPACITY);
+		return Math.min(Runtime.getRuntime().availableProcessors() * SEGMENTS_PER_CORE, bySize);
+	}
+
+	/*
+	 * Obtiene el número de segmentos: potencia de dos más cercana por debajo
+	 * al nivel de concurrencia, sin superar la capacidad máxima (cada segmento
+	 * debe poder contener al menos un elemento).
+	 */
+	private static int getNumSegments(final int maxCapacity, final int concurrencyLevel) {
+		final int bounded = Math.min(Math.min(concurrencyLevel, maxCapacity), MAX_SEGMENTS);
+		return Integer.highestOneBit(bounded);
+	}
+
+	/* Obtiene el segmento de un id. */
+	private Segment<ID, E> segmentFor(final ID id) {
+		return segments[segmentIndex(id)];
+	}
+
+	/* Obtiene la posición del segmento de un id. Se dispersan los bits altos del hash sobre los bajos. */
+	private int segmentIndex(final ID id) {
+		final int hash = Objects.hashCode(id);
+		return (hash ^ (hash >>> 16)) & segmentMask;
+	}
+
+	/*
+	 * Agrupa elementos o ids por segmento, para que las operaciones masivas
+	 * adquieran el bloqueo de cada segmento una sola vez. Los segmentos sin
+	 * elementos quedan a null.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> List<T>[] groupBySegment(final Collection<? extends T> items, final Function<T, ID> idOf) {
+		final List<T>[] groups = (List<T>[]) new List<?>[segments.length];
+		for (final T item : items) {
+			final int index = segmentIndex(idOf.apply(item));
+			if (groups[index] == null) {
+				groups[index] = new ArrayList<>();
+			}
+			groups[index].add(item);
+		}
+		return groups;
+	}
+
+	@Override
+	public void add(final E element) {
+		Objects.requireNonNull(element);
+		final ID id = element.getId();
+		Objects.requireNonNull(id);
+
+		final Segment<ID, E> segment = segmentFor(id);
+		segment.lock();
+		try {
+			segment.put(element);
+		} finally {
+			segment.unlock();
+		}
+		dispatchRemovals();
+		statsCounter().recordPuts(1);
+	}
+
+	@Override
+	public void addAll(final Collection<? extends E> elements) {
+		for (final E element : elements) {
+			Objects.requireNonNull(element);
+			Objects.requireNonNull(element.getId());
+		}
+
+		final List<E>[] groups = groupBySegment(elements, E::getId);
+		for (int i = 0; i < groups.length; i++) {
+			if (groups[i] != null) {
+				final Segment<ID, E> segment = segments[i];
+				segment.lock();
+				try {
+					for (final E element : groups[i]) {
+						segment.put(element);
+					}
+				} finally {
+					segment.unlock();
+				}
+			}
+		}
+		dispatchRemovals();
+		statsCounter().recordPuts(elements.size());
+	}
+
+	@Override
+	public E remove(final ID id) {
+		final Segment<ID, E> segment = segmentFor(id);
+		final E removed;
+		segment.lock();
+		try {
+			removed = segment.elements.remove(id);
+			notifyRemoval(removed, RemovalCause.EXPLICIT);
+		} finally {
+			segment.unlock();
+		}
+		dispatchRemovals();
+		return removed;
+	}
+
+	@Override
+	public E get(final ID id) {
+		/* Una lectura reordena el mapa, por lo que también requiere el bloqueo exclusivo del segmento. */
+		final Segment<ID, E> segment = segmentFor(id);
+		final E element;
+		segment.lock();
+		try {
+			element = segment.elements.get(id);
+		} finally {
+			segment.unlock();
+		}
+		
+		if (element != null) {
+			statsCounter().recordHits(1);
+		} else {
+			statsCounter().recordMisses(1);
+		}
+		return element;
+	}
+
+	@Override
+	public Map<ID, E> getAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> result = new LinkedHashMap<>();
+		final List<ID>[] groups = groupBySegment(ids, Function.identity());
+		int hits = 0;
+		for (int i = 0; i < groups.length; i++) {
+			if (groups[i] != null) {
+				final Segment<ID, E> segment = segments[i];
+				segment.lock();
+				try {
+					for (final ID id : groups[i]) {
+						final E element = segment.elements.get(id);
+						if (element != null) {
+							result.put(id, element);
+							hits++;
+						}
+					}
+				} finally {
+					segment.unlock();
+				}
+			}
+		}
+
+		statsCounter().recordHits(hits);
+		statsCounter().recordMisses(ids.size() - hits);
+		return result;
+	}
+
+	@Override
+	public Map<ID, E> removeAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> result = new LinkedHashMap<>();
+		final List<ID>[] groups = groupBySegment(ids, Function.identity());
+		for (int i = 0; i < groups.length; i++) {
+			if (groups[i] != null) {
+				final Segment<ID, E> segment = segments[i];
+				segment.lock();
+				try {
+					for (final ID id : groups[i]) {
+						final E element = segment.elements.remove(id);
+						if (element != null) {
+							notifyRemoval(element, RemovalCause.EXPLICIT);
+							result.put(id, element);
+						}
+					}
+				} finally {
+					segment.unlock();
+				}
+			}
+		}
+		dispatchRemovals();
+		return result;
+	}
+
+	@Override
+	public void invalidateAll() {
+		final boolean notify = hasRemovalListeners();
+		for (final Segment<ID, E> segment : segments) {
+			segment.lock();
+			try {
+				if (notify) {
+					for (final E element : segment.elements.values()) {
+						notifyRemoval(element, RemovalCause.EXPLICIT);
+					}
+				}
+				segment.elements.clear();
+			} finally {
+				segment.unlock();
+			}
+		}
+		dispatchRemovals();
+	}
+
+	/*
+	 * El orden es LRU dentro de cada segmento; los segmentos se concatenan,
+	 * por lo que el orden global es aproximado. No es una foto atómica.
+	 */
+	@Override
+	List<E> snapshot() {
+		final List<E> result = new ArrayList<>();
+		for (final Segment<ID, E> segment : segments) {
+			segment.lock();
+			try {
+				result.addAll(segment.elements.values());
+			} finally {
+				segment.unlock();
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public long getMaximum() {
+		return maxElements;
+	}
+
+	/* Cada segmento se reduce por separado, con su bloqueo. */
+	@Override
+	public synchronized void setMaximum(final long maximum) {
+		if (maximum < segments.length || maximum > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"Máximo no válido para cache LRU concurrente de '%s' segmentos: '%s'", segments.length, maximum)
+			);
+		}
+
+		maxElements = (int) maximum;
+		for (int i = 0; i < segments.length; i++) {
+			final Segment<ID, E> segment = segments[i];
+			segment.lock();
+			try {
+				segment.resize(segmentCapacity(maxElements, i));
+			} finally {
+				segment.unlock();
+			}
+		}
+		dispatchRemovals();
+	}
+
+	@Override
+	public long getWeight() {
+		return size();
+	}
+
+	/* El máximo no puede bajar del número de segmentos. */
+	@Override
+	public long getLowestMaximum() {
+		return segments.length;
+	}
+
+	/* Número de elementos en caché. No es una foto atómica de todos los segmentos. */
+	int size() {
+		int size = 0;
+		for (final Segment<ID, E> segment : segments) {
+			segment.lock();
+			try {
+				size += segment.elements.size();
+			} finally {
+				segment.unlock();
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, maxElements, segments.length, size());
+	}
+
+	/*
+	 * Segmento de la caché: mapa ordenado por acceso con su propio máximo,
+	 * protegido por su propio bloqueo.
+	 */
+	private static final class Segment<ID, E extends Id<ID>> extends ReentrantLock {
+		private static final long serialVersionUID = -2061934718262135404L;
+
+		/* Caché a la que pertenece el segmento, para registrar las expulsiones. */
+		private final AbstractCache<ID, E> owner;
+
+		/* Máximo número de elementos del segmento. Protegido por el bloqueo del segmento. */
+		private int maxElements;
+
+		/* Elementos del segmento, en orden de acceso. */
+		private final LinkedHashMap<ID, E> elements;
+
+		Segment (final AbstractCache<ID, E> owner, final int maxElements) {
+			this.owner = owner;
+			this.maxElements = maxElements;
+			this.elements = new LinkedHashMap<ID, E>(16, LOAD_FACTOR, Boolean.TRUE) {
+				private static final long serialVersionUID = -6434853186014851352L;
+
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<ID, E> eldest) {
+					final boolean evict = size() > Segment.this.maxElements;
+					if (evict) {
+						owner.statsCounter().recordEviction(RemovalCause.SIZE);
+						owner.notifyRemoval(eldest.getValue(), RemovalCause.SIZE);
+					}
+					return evict;
+				}
+			};
+		}
+
+		/* Añade o sustituye un elemento. Debe llamarse con el bloqueo del segmento adquirido. */
+		void put(final E element) {
+			final E previous = elements.put(element.getId(), element);
+			if (previous != null && previous != element) {
+				owner.notifyRemoval(previous, RemovalCause.REPLACED);
+			}
+		}
+
+		/* Cambia el máximo y expulsa lo que sobre. Debe llamarse con el bloqueo del segmento adquirido. */
+		void resize(final int maximum) {
+			maxElements = maximum;
+			final Iterator<E> eldest = elements.values().iterator();
+			while (elements.size() > maxElements && eldest.hasNext()) {
+				final E evicted = eldest.next();
+				eldest.remove();
+				owner.statsCounter().recordEviction(RemovalCause.SIZE);
+				owner.notifyRemoval(evicted, RemovalCause.SIZE);
+			}
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package commons.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Implementación de {@link IStatsCounter} con contadores {@link LongAdder},
+ * que reparten las actualizaciones concurrentes entre varias celdas para no
+ * competir por una misma variable.
+ * <p>
+ * Es <i>thread-safe</i>. La foto no es atómica respecto a las operaciones
+ * concurrentes.
+ * <p>
+ * 23/07/2016 10:26:51
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class ConcurrentStatsCounter implements IStatsCounter {
+
+	/* Contadores. */
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder putCount = new LongAdder();
+	private final LongAdder loadSuccessCount = new LongAdder();
+	private final LongAdder loadFailureCount = new LongAdder();
+	private final LongAdder totalLoadTime = new LongAdder();
+	
+	/* Expulsiones por motivo, indexadas por ordinal. */
+	private final LongAdder[] evictionCounts;
+	
+	/**
+	 * Constructor, inicia los contadores a cero.
+	 */
+	public ConcurrentStatsCounter() {
+		evictionCounts = new LongAdder[RemovalCause.values().length];
+		for (int i = 0; i < evictionCounts.length; i++) {
+			evictionCounts[i] = new LongAdder();
+		}
+	}
+
+	@Override
+	public void recordHits(final int count) {
+		hitCount.add(count);
+	}
+
+	@Override
+	public void recordMisses(final int count) {
+		missCount.add(count);
+	}
+
+	@Override
+	public void recordPuts(final int count) {
+		putCount.add(count);
+	}
+
+	@Override
+	public void recordEviction(final RemovalCause cause) {
+		evictionCounts[cause.ordinal()].increment();
+	}
+
+	@Override
+	public void recordLoadSuccess(final long loadNanos) {
+		loadSuccessCount.increment();
+		totalLoadTime.add(loadNanos);
+	}
+
+	@Override
+	public void recordLoadFailure(final long loadNanos) {
+		loadFailureCount.increment();
+		totalLoadTime.add(loadNanos);
+	}
+
+	@Override
+	public CacheStats snapshot() {
+		final long[] evictions = new long[evictionCounts.length];
+		for (int i = 0; i < evictions.length; i++) {
+			evictions[i] = evictionCounts[i].sum();
+		}
+		return new CacheStats(hitCount.sum(), missCount.sum(), putCount.sum(), evictions, 
+				loadSuccessCount.sum(), loadFailureCount.sum(), totalLoadTime.sum());
+	}
+}
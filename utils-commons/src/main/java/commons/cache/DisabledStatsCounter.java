@@ -0,0 +1,51 @@
+package commons.cache;
+
+/**
+ * Implementación de {@link IStatsCounter} que no acumula nada. Es la que usan
+ * las cachés mientras no se activan sus estadísticas, de forma que el coste en
+ * cada operación es una llamada vacía.
+ * <p>
+ * 23/07/2016 10:19:27
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+enum DisabledStatsCounter implements IStatsCounter {
+	INSTANCE;
+
+	@Override
+	public void recordHits(final int count) {
+		/* Sin estadísticas. */
+	}
+
+	@Override
+	public void recordMisses(final int count) {
+		/* Sin estadísticas. */
+	}
+
+	@Override
+	public void recordPuts(final int count) {
+		/* Sin estadísticas. */
+	}
+
+	@Override
+	public void recordEviction(final RemovalCause cause) {
+		/* Sin estadísticas. */
+	}
+
+	@Override
+	public void recordLoadSuccess(final long loadNanos) {
+		/* Sin estadísticas. */
+	}
+
+	@Override
+	public void recordLoadFailure(final long loadNanos) {
+		/* Sin estadísticas. */
+	}
+
+	@Override
+	public CacheStats snapshot() {
+		return CacheStats.EMPTY;
+	}
+}
@@ -0,0 +1,516 @@
+package commons.cache;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Caché con expiración temporal de elementos. Envuelve otra caché, que se
+ * encarga de la capacidad y de la política de expulsión, y añade:
+ * <ul>
+ * <li>expiración tras escritura: el elemento expira pasado un tiempo desde
+ * que se añadió.</li>
+ * <li>expiración tras acceso: el elemento expira pasado un tiempo sin ser
+ * consultado.</li>
+ * <li>tiempo de vida por elemento, que sustituye a la expiración tras
+ * escritura para ese elemento, ver {@link #add(Id, long, TimeUnit)}.</li>
+ * </ul>
+ * Los elementos expirados se eliminan mediante una {@link TimerWheel}, en
+ * tiempo amortizado O(1), sin recorrer la caché ni lanzar hilos. La rueda
+ * avanza con las escrituras y, como mucho una vez por segundo, con las
+ * lecturas. Una lectura de un elemento expirado que aún no se ha eliminado
+ * devuelve <code>null</code>.
+ * <p>
+ * Los oyentes de eliminaciones de esta caché reciben también las
+ * expulsiones y sustituciones de la caché envuelta, y los elementos
+ * expirados con {@link RemovalCause#EXPIRED}.
+ * <p>
+ * Esta caché es <i>thread-safe</i> si la caché envuelta lo es.
+ * <p>
+ * 18/06/2016 12:03:51
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class ExpiringCache<ID, E extends Id<ID>> extends AbstractCache<ID, E> {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "ExpiringCache [escritura:%sns] [acceso:%sns] [temporizadores:%s] %s";
+
+	/* Duración máxima admitida, para que los vencimientos no desborden. */
+	private static final long MAX_DURATION = Long.MAX_VALUE >> 1;
+
+	/* Intervalo mínimo entre avances de la rueda desde las lecturas. */
+	private static final long READ_MAINTENANCE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/* Valor para indicar que no hay expiración. */
+	private static final long NO_EXPIRATION = 0L;
+
+	/* Caché envuelta. */
+	private final ICache<ID, E> delegate;
+
+	/* Expiración tras escritura y tras acceso, en nanosegundos. NO_EXPIRATION si no aplica. */
+	private final long expireAfterWriteNanos;
+	private final long expireAfterAccessNanos;
+
+	/* Reloj en nanosegundos. */
+	private final LongSupplier ticker;
+
+	/* Temporizadores de los elementos que pueden expirar, por id. */
+	private final ConcurrentHashMap<ID, Timer<ID>> timers;
+
+	/*
+	 * Elementos expulsados por capacidad por la caché envuelta, pendientes de
+	 * soltar su temporizador. Se anotan sin bloqueo, porque la caché envuelta
+	 * avisa con su propio bloqueo adquirido, y se procesan con 'lock'.
+	 */
+	private final Queue<E> evicted;
+
+	/* Rueda de temporizadores, protegida por 'lock'. */
+	private final TimerWheel<Timer<ID>> wheel;
+
+	/* Bloqueo para escrituras y avance de la rueda. */
+	private final Lock lock;
+
+	/* Instante del último avance de la rueda. */
+	private volatile long lastMaintenance;
+
+	/* Indica que se está eliminando un elemento expirado de la caché envuelta. Protegido por 'lock'. */
+	private boolean removingExpired;
+
+	/* Constructor, recibe la caché envuelta y las expiraciones. Valores 0 o negativos no expiran. */
+	ExpiringCache (final ICache<ID, E> delegate, final long expireAfterWrite, final long expireAfterAccess,
+			final TimeUnit unit) {
+		this(delegate, expireAfterWrite, expireAfterAccess, unit, System::nanoTime);
+	}
+
+	/* Constructor, recibe además el reloj en nanosegundos. */
+	ExpiringCache (final ICache<ID, E> delegate, final long expireAfterWrite, final long expireAfterAccess,
+			final TimeUnit unit, final LongSupplier ticker) {
+		this.delegate = Objects.requireNonNull(delegate);
+		this.ticker = Objects.requireNonNull(ticker);
+		this.expireAfterWriteNanos = toNanos(expireAfterWrite, Objects.requireNonNull(unit));
+		this.expireAfterAccessNanos = toNanos(expireAfterAccess, unit);
+
+		this.timers = new ConcurrentHashMap<>();
+		this.evicted = new ConcurrentLinkedQueue<>();
+		this.lock = new ReentrantLock();
+		this.lastMaintenance = ticker.getAsLong();
+		this.wheel = new TimerWheel<>(lastMaintenance);
+		ownRemovalsOf(delegate);
+	}
+
+	/* Pasa una duración a nanosegundos, acotada a MAX_DURATION. NO_EXPIRATION si es 0 o negativa. */
+	private static long toNanos(final long duration, final TimeUnit unit) {
+		return duration > 0L ? Math.min(unit.toNanos(duration), MAX_DURATION) : NO_EXPIRATION;
+	}
+
+	@Override
+	public void add(final E element) {
+		put(element, expireAfterWriteNanos);
+	}
+
+	/**
+	 * Añade un elemento a la caché con un tiempo de vida propio, que sustituye
+	 * a la expiración tras escritura de la caché. La expiración tras acceso,
+	 * si está configurada, sigue aplicando.
+	 *
+	 * @param element
+	 *            Elemento a añadir.
+	 * @param duration
+	 *            Tiempo de vida del elemento. 0 o negativo para que no expire
+	 *            tras la escritura.
+	 * @param unit
+	 *            Unidad del tiempo de vida.
+	 */
+	public void add(final E element, final long duration, final TimeUnit unit) {
+		put(element, toNanos(duration, Objects.requireNonNull(unit)));
+	}
+
+	/* Añade el elemento y programa su temporizador, si puede expirar. */
+	private void put(final E element, final long writeNanos) {
+		Objects.requireNonNull(element);
+		final ID id = element.getId();
+		Objects.requireNonNull(id);
+
+		lock.lock();
+		try {
+			final long now = ticker.getAsLong();
+			releaseEvicted();
+			final Timer<ID> timer = replaceTimer(element, now, writeNanos);
+			delegate.add(element);
+			if (timer != null) {
+				wheel.schedule(timer);
+			}
+			expire(now);
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+	}
+
+	@Override
+	public void addAll(final Collection<? extends E> elements) {
+		for (final E element : elements) {
+			Objects.requireNonNull(element);
+			Objects.requireNonNull(element.getId());
+		}
+
+		lock.lock();
+		try {
+			final long now = ticker.getAsLong();
+			releaseEvicted();
+			final List<Timer<ID>> scheduled = new ArrayList<>(elements.size());
+			for (final E element : elements) {
+				final Timer<ID> timer = replaceTimer(element, now, expireAfterWriteNanos);
+				if (timer != null) {
+					scheduled.add(timer);
+				}
+			}
+
+			delegate.addAll(elements);
+			for (final Timer<ID> timer : scheduled) {
+				/* Un id repetido en el lote deja temporizadores sustituidos, que no se programan. */
+				if (timers.get(timer.id) == timer) {
+					wheel.schedule(timer);
+				}
+			}
+			expire(now);
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+	}
+
+	/*
+	 * Sustituye el temporizador del id de un elemento por uno nuevo, o lo
+	 * elimina si el elemento no puede expirar. Devuelve el nuevo
+	 * temporizador, sin programar, o null. Debe llamarse con el bloqueo
+	 * adquirido.
+	 */
+	private Timer<ID> replaceTimer(final E element, final long now, final long writeNanos) {
+		final ID id = element.getId();
+		final Timer<ID> timer = writeNanos != NO_EXPIRATION || expireAfterAccessNanos != NO_EXPIRATION
+				? new Timer<>(id, element, now, writeNanos, expireAfterAccessNanos)
+				: null;
+
+		final Timer<ID> previous = timer != null ? timers.put(id, timer) : timers.remove(id);
+		if (previous != null) {
+			wheel.deschedule(previous);
+		}
+		return timer;
+	}
+
+	@Override
+	public E remove(final ID id) {
+		final E removed;
+		lock.lock();
+		try {
+			final Timer<ID> timer = id != null ? timers.remove(id) : null;
+			if (timer != null) {
+				wheel.deschedule(timer);
+			}
+			removed = delegate.remove(id);
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+		return removed;
+	}
+
+	@Override
+	public Map<ID, E> removeAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> removed;
+		lock.lock();
+		try {
+			for (final ID id : ids) {
+				final Timer<ID> timer = id != null ? timers.remove(id) : null;
+				if (timer != null) {
+					wheel.deschedule(timer);
+				}
+			}
+			removed = delegate.removeAll(ids);
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+		return removed;
+	}
+
+	@Override
+	public void invalidateAll() {
+		lock.lock();
+		try {
+			for (final Timer<ID> timer : timers.values()) {
+				wheel.deschedule(timer);
+			}
+			timers.clear();
+			evicted.clear();
+			delegate.invalidateAll();
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+	}
+
+	@Override
+	public E get(final ID id) {
+		final E element = delegate.get(id);
+		if (element == null) {
+			return null;
+		}
+
+		final Timer<ID> timer = timers.get(id);
+		if (timer == null) {
+			return element;
+		}
+
+		final long now = ticker.getAsLong();
+		if (timer.isExpired(now)) {
+			/* La caché envuelta lo ha contado como acierto, se corrige a fallo. */
+			statsCounter().recordHits(-1);
+			statsCounter().recordMisses(1);
+			lock.lock();
+			try {
+				removeExpired(timer);
+			} finally {
+				lock.unlock();
+			}
+			dispatchRemovals();
+			return null;
+		}
+
+		timer.accessNanos = now;
+		if (now - lastMaintenance >= READ_MAINTENANCE_NANOS && lock.tryLock()) {
+			try {
+				expire(now);
+			} finally {
+				lock.unlock();
+			}
+			dispatchRemovals();
+		}
+		return element;
+	}
+
+	@Override
+	public Map<ID, E> getAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> result = delegate.getAll(ids);
+		final long now = ticker.getAsLong();
+		List<Timer<ID>> expired = null;
+
+		final Iterator<Entry<ID, E>> entries = result.entrySet().iterator();
+		while (entries.hasNext()) {
+			final Timer<ID> timer = timers.get(entries.next().getKey());
+			if (timer == null) {
+				continue;
+			}
+			if (timer.isExpired(now)) {
+				if (expired == null) {
+					expired = new ArrayList<>();
+				}
+				expired.add(timer);
+				entries.remove();
+			} else {
+				timer.accessNanos = now;
+			}
+		}
+
+		if (expired != null) {
+			/* La caché envuelta los ha contado como aciertos, se corrigen a fallos. */
+			statsCounter().recordHits(-expired.size());
+			statsCounter().recordMisses(expired.size());
+			lock.lock();
+			try {
+				for (final Timer<ID> timer : expired) {
+					removeExpired(timer);
+				}
+			} finally {
+				lock.unlock();
+			}
+			dispatchRemovals();
+		} else if (now - lastMaintenance >= READ_MAINTENANCE_NANOS && lock.tryLock()) {
+			try {
+				expire(now);
+			} finally {
+				lock.unlock();
+			}
+			dispatchRemovals();
+		}
+		return result;
+	}
+
+	/* Elementos no expirados de la caché envuelta. Los tiempos de vida no se conservan. */
+	@Override
+	List<E> snapshot() {
+		final long now = ticker.getAsLong();
+		final List<E> result = new ArrayList<>();
+		for (final E element : snapshotOf(delegate)) {
+			final Timer<ID> timer = timers.get(element.getId());
+			if (timer == null || !timer.isExpired(now)) {
+				result.add(element);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	IResizableCache resizable() {
+		return resizableOf(delegate);
+	}
+
+	@Override
+	Closeable closeable() {
+		return closeableOf(delegate);
+	}
+
+	/* Tiempo en nanosegundos desde que se escribió un elemento, -1 si no tiene temporizador. */
+	long writeAge(final ID id) {
+		final Timer<ID> timer = id != null ? timers.get(id) : null;
+		return timer != null ? ticker.getAsLong() - timer.writeNanos : -1L;
+	}
+
+	/**
+	 * Elimina los elementos expirados hasta el momento actual. No es necesario
+	 * llamarlo, la caché avanza con su uso, pero permite liberar memoria en
+	 * cachés que llevan tiempo sin usarse.
+	 */
+	public void cleanUp() {
+		lock.lock();
+		try {
+			expire(ticker.getAsLong());
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+	}
+
+	/* Avanza la rueda hasta el instante indicado. Debe llamarse con el bloqueo adquirido. */
+	private void expire(final long now) {
+		releaseEvicted();
+		wheel.advance(now, this::removeExpired);
+		lastMaintenance = now;
+	}
+
+	/*
+	 * Elimina un elemento expirado, si su temporizador sigue siendo el actual
+	 * (no ha sido sustituido por una escritura posterior). Debe llamarse con
+	 * el bloqueo adquirido.
+	 */
+	private void removeExpired(final Timer<ID> timer) {
+		if (timers.remove(timer.id, timer)) {
+			wheel.deschedule(timer);
+			/* La caché envuelta puede haberlo expulsado ya por capacidad, sin que se haya soltado aún. */
+			removingExpired = true;
+			try {
+				if (delegate.remove(timer.id) != null) {
+					statsCounter().recordEviction(RemovalCause.EXPIRED);
+				}
+			} finally {
+				removingExpired = false;
+			}
+		}
+	}
+
+	/*
+	 * Suelta los temporizadores de los elementos expulsados por capacidad, si
+	 * siguen siendo los de esos elementos: un id añadido de nuevo tiene otro
+	 * temporizador. Debe llamarse con el bloqueo adquirido.
+	 */
+	private void releaseEvicted() {
+		E element;
+		while ((element = evicted.poll()) != null) {
+			final Timer<ID> timer = timers.get(element.getId());
+			if (timer != null && timer.element == element && timers.remove(timer.id, timer)) {
+				wheel.deschedule(timer);
+			}
+		}
+	}
+
+	/*
+	 * Eliminación de la caché envuelta. Las eliminaciones explícitas sólo se
+	 * producen desde esta caché con el bloqueo adquirido, en el mismo hilo,
+	 * por lo que 'removingExpired' distingue las de elementos expirados. Las
+	 * expulsiones por capacidad se anotan para soltar su temporizador; no se
+	 * puede hacer aquí, con el bloqueo de la caché envuelta adquirido.
+	 */
+	@Override
+	void onDelegateRemoval(final E element, final RemovalCause cause) {
+		if (cause == RemovalCause.SIZE) {
+			evicted.add(element);
+		}
+		notifyRemoval(element, cause == RemovalCause.EXPLICIT && removingExpired ? RemovalCause.EXPIRED : cause);
+	}
+
+	/* Activa o desactiva también las estadísticas de la caché envuelta. */
+	@Override
+	public void recordStats(final boolean enabled) {
+		super.recordStats(enabled);
+		delegate.recordStats(enabled);
+	}
+
+	/* Aciertos, fallos, escrituras y expulsiones de la caché envuelta más las expiraciones. */
+	@Override
+	public CacheStats stats() {
+		return delegate.stats().plus(super.stats());
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, expireAfterWriteNanos, expireAfterAccessNanos, timers.size(),
+				delegate);
+	}
+
+	/* Temporizador de un elemento. El vencimiento es el menor entre el de escritura y el de acceso. */
+	private static final class Timer<ID> extends TimerWheel.Node<Timer<ID>> {
+		private final ID id;
+		/* Elemento del temporizador, sólo para reconocerlo por identidad al expulsarse. */
+		private final Object element;
+		private final long writeNanos;
+		private final long writeDuration;
+		private final long accessDuration;
+		private volatile long accessNanos;
+
+		Timer (final ID id, final Object element, final long now, final long writeDuration,
+				final long accessDuration) {
+			this.id = id;
+			this.element = element;
+			this.writeNanos = now;
+			this.accessNanos = now;
+			this.writeDuration = writeDuration;
+			this.accessDuration = accessDuration;
+		}
+
+		@Override
+		long getDeadline() {
+			if (writeDuration == NO_EXPIRATION) {
+				return accessNanos + accessDuration;
+			}
+			final long writeDeadline = writeNanos + writeDuration;
+			if (accessDuration == NO_EXPIRATION) {
+				return writeDeadline;
+			}
+			final long accessDeadline = accessNanos + accessDuration;
+			return accessDeadline - writeDeadline < 0L ? accessDeadline : writeDeadline;
+		}
+
+		boolean isExpired(final long now) {
+			return getDeadline() - now <= 0L;
+		}
+	}
+}
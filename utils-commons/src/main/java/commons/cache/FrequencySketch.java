@@ -0,0 +1,130 @@
+package commons.cache;
+
+/**
+ * Estimación de la frecuencia de acceso de los elementos mediante un
+ * <i>count-min sketch</i> de cuatro filas con contadores de 4 bits. Cada
+ * <code>long</code> de la tabla contiene 16 contadores, por lo que la memoria
+ * usada es muy reducida respecto al número de elementos que se estiman.
+ * <p>
+ * Los contadores envejecen periódicamente: al alcanzar un número de
+ * incrementos igual a diez veces el máximo de elementos todos los contadores
+ * se dividen a la mitad, de forma que la historia antigua pierde peso frente a
+ * los accesos recientes.
+ * <p>
+ * No es <i>thread-safe</i>, se debe proteger desde la caché que lo utilice.
+ * <p>
+ * 11/06/2016 10:05:48
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+final class FrequencySketch {
+
+	/* Semillas para las cuatro funciones hash, una por fila. */
+	private static final long[] SEEDS = {
+		0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+
+	/* Máscara para dividir a la mitad los 16 contadores de un long sin que un bit pase al contador contiguo. */
+	private static final long RESET_MASK = 0x7777777777777777L;
+
+	/* Máscara con el bit de menor peso de cada contador, para contar los impares al dividir. */
+	private static final long ONE_MASK = 0x1111111111111111L;
+
+	/* Valor máximo de un contador de 4 bits. */
+	private static final int MAX_COUNT = 15;
+
+	/* Incrementos por elemento máximo antes de envejecer los contadores. */
+	private static final int SAMPLE_FACTOR = 10;
+
+	/* Tabla de contadores. */
+	private final long[] table;
+
+	/* Máscara para obtener el índice de la tabla, tamaño - 1. */
+	private final int tableMask;
+
+	/* Número de incrementos tras los que se envejecen los contadores. */
+	private final int sampleSize;
+
+	/* Incrementos realizados desde el último envejecimiento. */
+	private int additions;
+
+	/* Constructor, recibe el número máximo de elementos de la caché. */
+	FrequencySketch (final int maxElements) {
+		final int maximum = Math.max(maxElements, 1);
+		final int tableSize = tableSizeFor(maximum);
+		this.table = new long[tableSize];
+		this.tableMask = tableSize - 1;
+		this.sampleSize = (int) Math.min((long) SAMPLE_FACTOR * maximum, Integer.MAX_VALUE);
+	}
+
+	/* Potencia de dos mayor o igual al valor indicado. */
+	private static int tableSizeFor(final int value) {
+		final int highest = Integer.highestOneBit(value);
+		return highest == value ? value : Math.min(highest << 1, 1 << 30);
+	}
+
+	/* Frecuencia estimada del elemento, mínimo de sus cuatro contadores. */
+	int frequency(final Object element) {
+		final int hash = spread(element.hashCode());
+		final int start = (hash & 3) << 2;
+		int frequency = MAX_COUNT;
+		for (int i = 0; i < SEEDS.length; i++) {
+			final int index = indexOf(hash, i);
+			final int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	/* Incrementa la frecuencia del elemento, envejeciendo los contadores si se alcanza el tamaño de muestra. */
+	void increment(final Object element) {
+		final int hash = spread(element.hashCode());
+		final int start = (hash & 3) << 2;
+
+		boolean added = false;
+		for (int i = 0; i < SEEDS.length; i++) {
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+
+		if (added && ++additions == sampleSize) {
+			reset();
+		}
+	}
+
+	/* Incrementa el contador 'counter' (0-15) del long 'index' si no está saturado. */
+	private boolean incrementAt(final int index, final int counter) {
+		final int offset = counter << 2;
+		final long mask = 0xfL << offset;
+		if ((table[index] & mask) != mask) {
+			table[index] += 1L << offset;
+			return true;
+		}
+		return false;
+	}
+
+	/* Divide todos los contadores a la mitad. */
+	private void reset() {
+		int odds = 0;
+		for (int i = 0; i < table.length; i++) {
+			odds += Long.bitCount(table[i] & ONE_MASK);
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		additions = (additions >>> 1) - (odds >>> 2);
+	}
+
+	/* Índice de la tabla para la fila 'row'. */
+	private int indexOf(final int hash, final int row) {
+		long h = (hash + SEEDS[row]) * SEEDS[row];
+		h += h >>> 32;
+		return ((int) h) & tableMask;
+	}
+
+	/* Mezcla los bits del hash para protegerse de funciones hash pobres. */
+	private static int spread(final int hash) {
+		int x = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+}
@@ -0,0 +1,60 @@
+package commons.cache;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import commons.vo.Id;
+
+/**
+ * Versión asíncrona de {@link ICache}: las lecturas y cargas devuelven un
+ * {@link CompletableFuture} en vez de bloquear al llamante. Las cargas se
+ * ejecutan en el ejecutor de la caché y las que están en curso se comparten:
+ * las peticiones concurrentes de un mismo id reciben el mismo futuro.
+ * <p>
+ * Los futuros que terminan con error se descartan, de forma que la siguiente
+ * petición del id vuelve a cargarlo. Los errores del cargador se entregan
+ * como {@link commons.exception.CacheLoadException}.
+ * <p>
+ * 27/08/2016 11:14:52
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public interface IAsyncCache<ID, E extends Id<ID>> {
+
+	/* Añade un elemento a la caché. Una carga en curso del mismo id ya no lo sustituirá. */
+	void add (E element);
+	
+	/* Elimina un elemento de la caché y lo devuelve, por id. Descarta también su carga en curso. */
+	E remove (ID id);
+	
+	/* Vacía la caché y descarta las cargas en curso. */
+	void invalidateAll ();
+	
+	/* Elemento en caché o su carga en curso, por id. Completado con null si no está y no se está cargando. */
+	CompletableFuture<E> get (ID id);
+	
+	/* Elemento en caché, por id, o su carga en el ejecutor si no está. Null si el cargador no lo encuentra. */
+	CompletableFuture<E> getOrLoad (ID id);
+	
+	/*
+	 * Varios elementos por id, cargando los que no están en caché con una
+	 * única llamada al cargador. Los ids que no existen no se incluyen.
+	 */
+	CompletableFuture<Map<ID, E>> getAllOrLoad (Collection<? extends ID> ids);
+	
+	/* Vista síncrona de la caché, sin cargas. Sus cambios se reflejan en esta caché. */
+	ICache<ID, E> synchronous ();
+	
+	/* Activa o desactiva el registro de estadísticas, también de la caché envuelta. */
+	void recordStats (boolean enabled);
+	
+	/* Foto de las estadísticas acumuladas, vacías si no están activadas. */
+	CacheStats stats ();
+	
+	/* Añade un oyente de las eliminaciones de elementos, notificado por lotes en 'executor'. */
+	void addRemovalListener (IRemovalListener<ID, E> listener, Executor executor);
+}
@@ -1,5 +1,11 @@
 package commons.cache;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
 import commons.vo.Id;
 
 /**
@@ -22,4 +28,68 @@ public interface ICache<ID, E extends Id<ID>> {
 	
 	/* Devuelve un elemento de la caché, por id. */
 	E get (ID id);
+	
+	/* Vacía la caché. */
+	void invalidateAll ();
+	
+	/*
+	 * Añade varios elementos a la caché. Las implementaciones los añaden con
+	 * el menor número posible de adquisiciones de bloqueo.
+	 */
+	default void addAll (final Collection<? extends E> elements) {
+		for (final E element : elements) {
+			add(element);
+		}
+	}
+	
+	/* Devuelve los elementos en caché de los ids indicados, por id. Los ids que no están no se incluyen. */
+	default Map<ID, E> getAll (final Collection<? extends ID> ids) {
+		final Map<ID, E> result = new LinkedHashMap<>();
+		for (final ID id : ids) {
+			final E element = get(id);
+			if (element != null) {
+				result.put(id, element);
+			}
+		}
+		return result;
+	}
+	
+	/* Elimina los elementos de los ids indicados y los devuelve, por id. Los ids que no están no se incluyen. */
+	default Map<ID, E> removeAll (final Collection<? extends ID> ids) {
+		final Map<ID, E> result = new LinkedHashMap<>();
+		for (final ID id : ids) {
+			final E element = remove(id);
+			if (element != null) {
+				result.put(id, element);
+			}
+		}
+		return result;
+	}
+	
+	/*
+	 * Activa o desactiva el registro de estadísticas. Desactivado por defecto.
+	 * Al desactivarlo se descartan las estadísticas acumuladas.
+	 */
+	default void recordStats (final boolean enabled) {
+		/* Sin estadísticas. */
+	}
+	
+	/* Foto de las estadísticas acumuladas, vacías si no están activadas. */
+	default CacheStats stats () {
+		return CacheStats.EMPTY;
+	}
+	
+	/*
+	 * Añade un oyente de las eliminaciones de elementos: expulsión por
+	 * capacidad, expiración, eliminación explícita o sustitución. Las
+	 * notificaciones se acumulan y se entregan por lotes en 'executor', nunca
+	 * en el hilo que elimina el elemento. Las cachés que envuelven a otra lo
+	 * añaden a la envuelta.
+	 */
+	void addRemovalListener (IRemovalListener<ID, E> listener, Executor executor);
+	
+	/* Añade un oyente de las eliminaciones de elementos, notificado en el pool común. */
+	default void addRemovalListener (final IRemovalListener<ID, E> listener) {
+		addRemovalListener(listener, ForkJoinPool.commonPool());
+	}
 }
@@ -0,0 +1,41 @@
+package commons.cache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import commons.exception.CommonException;
+import commons.vo.Id;
+
+/**
+ * Carga elementos de una caché desde su origen de datos (base de datos,
+ * servicio remoto...) cuando no se encuentran en la caché.
+ * <p>
+ * 25/06/2016 10:02:11
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface ICacheLoader<ID, E extends Id<ID>> {
+
+	/* Carga un elemento por id. Devuelve null si no existe. */
+	E load (ID id) throws CommonException;
+	
+	/*
+	 * Carga varios elementos por id en una sola operación. Los ids que no
+	 * existen no se incluyen en el resultado. Por defecto carga uno a uno,
+	 * conviene sobrescribirlo si el origen de datos admite cargas masivas.
+	 */
+	default Map<ID, E> loadAll (final Collection<? extends ID> ids) throws CommonException {
+		final Map<ID, E> result = new HashMap<>();
+		for (final ID id : ids) {
+			final E element = load(id);
+			if (element != null) {
+				result.put(id, element);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,43 @@
+package commons.cache;
+
+import java.util.Collection;
+
+import commons.exception.CommonException;
+import commons.vo.Id;
+
+/**
+ * Escribe en su almacén (base de datos, servicio remoto...) los elementos
+ * que se añaden a una caché y borra los que se eliminan, ver
+ * {@link WriteThroughCache} y {@link WriteBehindCache}.
+ * <p>
+ * 10/09/2016 10:11:40
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public interface ICacheWriter<ID, E extends Id<ID>> {
+
+	/* Escribe un elemento, creándolo o sustituyéndolo. */
+	void write (E element) throws CommonException;
+	
+	/* Borra un elemento por id. */
+	void delete (ID id) throws CommonException;
+	
+	/*
+	 * Escribe varios elementos en una sola operación. Por defecto escribe uno
+	 * a uno, conviene sobrescribirlo si el almacén admite escrituras masivas.
+	 */
+	default void writeAll (final Collection<? extends E> elements) throws CommonException {
+		for (final E element : elements) {
+			write(element);
+		}
+	}
+	
+	/* Borra varios elementos por id en una sola operación. Por defecto borra uno a uno. */
+	default void deleteAll (final Collection<? extends ID> ids) throws CommonException {
+		for (final ID id : ids) {
+			delete(id);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package commons.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codifica y decodifica valores a bytes, para cachés que almacenan sus
+ * elementos serializados fuera del heap de Java.
+ * <p>
+ * Las implementaciones escriben directamente en el buffer recibido, a partir
+ * de su posición actual. Si el valor no cabe deben dejar que se lance
+ * {@link java.nio.BufferOverflowException}: la caché reintentará con un
+ * buffer mayor.
+ * <p>
+ * Los codificadores autodelimitados leen sólo los bytes de su valor y dejan
+ * el buffer a continuación, por lo que pueden combinarse en valores
+ * compuestos, ver {@link BinaryCodecs}.
+ * <p>
+ * 09/07/2016 10:36:15
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public interface ICodec<T> {
+
+	/* Escribe el valor en el buffer, desde su posición actual. */
+	void encode (T value, ByteBuffer buffer);
+	
+	/* Lee un valor del buffer, desde su posición actual hasta su límite. */
+	T decode (ByteBuffer buffer);
+}
@@ -0,0 +1,22 @@
+package commons.cache;
+
+import commons.vo.Id;
+
+/**
+ * Caché de elementos con id <code>Integer</code> que admite el id como
+ * <code>int</code> primitivo, sin crear objetos en las lecturas.
+ * <p>
+ * 30/07/2016 11:06:02
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public interface IIntCache<E extends Id<Integer>> extends ICache<Integer, E> {
+
+	/* Elimina un elemento de la caché y lo devuelve, por id. */
+	E remove (int id);
+	
+	/* Devuelve un elemento de la caché, por id. */
+	E get (int id);
+}
@@ -0,0 +1,32 @@
+package commons.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Transporte de los mensajes de invalidación de un {@link InvalidationBus}
+ * entre nodos. Los mensajes son bytes opacos para el transporte, con un
+ * tamaño máximo que el bus respeta al agruparlos.
+ * <p>
+ * 17/09/2016 10:14:27
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public interface IInvalidationTransport extends Closeable {
+
+	/* Máximo de bytes de un mensaje. */
+	int maxMessageSize ();
+	
+	/* Envía un mensaje al resto de nodos. Puede entregarlo también a este nodo, el bus lo descarta. */
+	void publish (ByteBuffer message) throws IOException;
+	
+	/*
+	 * Indica el receptor de los mensajes. Se llama una vez, al crear el bus.
+	 * El buffer recibido sólo es válido durante la llamada.
+	 */
+	void subscribe (Consumer<ByteBuffer> receiver);
+}
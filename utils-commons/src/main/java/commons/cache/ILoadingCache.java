@@ -0,0 +1,36 @@
+package commons.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+import commons.exception.CacheLoadException;
+import commons.vo.Id;
+
+/**
+ * Caché que carga los elementos que no contiene mediante un
+ * {@link ICacheLoader}. Las cargas concurrentes de un mismo id se agrupan en
+ * una única llamada al cargador.
+ * <p>
+ * Los métodos de {@link ICache} no cargan: {@link #get(Object)} sigue
+ * devolviendo <code>null</code> si el elemento no está en caché.
+ * <p>
+ * 25/06/2016 10:06:52
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public interface ILoadingCache<ID, E extends Id<ID>> extends ICache<ID, E> {
+
+	/* Devuelve un elemento de la caché, por id, cargándolo si no está. Null si el cargador no lo encuentra. */
+	E getOrLoad (ID id) throws CacheLoadException;
+	
+	/*
+	 * Devuelve varios elementos por id, cargando los que no están en caché con
+	 * una única llamada al cargador. Los ids que no existen no se incluyen.
+	 */
+	Map<ID, E> getAllOrLoad (Collection<? extends ID> ids) throws CacheLoadException;
+	
+	/* Recarga un elemento de forma asíncrona, sin eliminar el valor actual mientras tanto. */
+	void refresh (ID id);
+}
@@ -0,0 +1,22 @@
+package commons.cache;
+
+import commons.vo.Id;
+
+/**
+ * Caché de elementos con id <code>Long</code> que admite el id como
+ * <code>long</code> primitivo, sin crear objetos en las lecturas.
+ * <p>
+ * 30/07/2016 11:05:21
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public interface ILongCache<E extends Id<Long>> extends ICache<Long, E> {
+
+	/* Elimina un elemento de la caché y lo devuelve, por id. */
+	E remove (long id);
+	
+	/* Devuelve un elemento de la caché, por id. */
+	E get (long id);
+}
@@ -0,0 +1,28 @@
+package commons.cache;
+
+import java.util.List;
+
+import commons.vo.Id;
+
+/**
+ * Recibe los elementos que salen de una caché y el motivo de su salida, ver
+ * {@link RemovalCause}. Permite, por ejemplo, escribir en su origen los
+ * elementos modificados que se expulsan o propagar invalidaciones.
+ * <p>
+ * Las notificaciones se entregan por lotes en el ejecutor indicado al añadir
+ * el oyente, nunca en el hilo que elimina el elemento, por lo que un oyente
+ * lento no retrasa las operaciones de la caché. Dentro de un lote mantienen
+ * el orden en que se produjeron.
+ * <p>
+ * 03/09/2016 10:22:18
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface IRemovalListener<ID, E extends Id<ID>> {
+
+	/* Notifica un lote de eliminaciones. Las excepciones se registran y no afectan a los lotes siguientes. */
+	void onRemoval (List<RemovalNotification<ID, E>> notifications);
+}
@@ -0,0 +1,37 @@
+package commons.cache;
+
+/**
+ * Caché cuyo máximo se puede cambiar en tiempo de ejecución, por ejemplo
+ * desde un {@link CapacityController}. El máximo es de número de elementos
+ * o de peso total, según cómo se creó la caché.
+ * <p>
+ * 24/09/2016 10:37:52
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public interface IResizableCache {
+
+	/* Máximo actual, de elementos o de peso. */
+	long getMaximum ();
+
+	/*
+	 * Cambia el máximo. Si se reduce por debajo de lo que ocupa la caché se
+	 * expulsan elementos, de menos a más valiosos, como al añadir.
+	 */
+	void setMaximum (long maximum);
+
+	/* Ocupación actual, en las mismas unidades que el máximo. */
+	long getWeight ();
+
+	/* Menor máximo que admite la caché. */
+	default long getLowestMaximum () {
+		return 1L;
+	}
+
+	/* Mayor máximo que admite la caché. */
+	default long getHighestMaximum () {
+		return Integer.MAX_VALUE;
+	}
+}
@@ -0,0 +1,39 @@
+package commons.cache;
+
+/**
+ * Acumula las estadísticas de una caché. Las cachés llaman a estos métodos en
+ * cada operación, por lo que las implementaciones deben ser baratas y no
+ * bloquear.
+ * <p>
+ * 23/07/2016 10:15:02
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public interface IStatsCounter {
+	
+	/** Registro que no acumula nada, para cachés sin estadísticas. */
+	IStatsCounter DISABLED = DisabledStatsCounter.INSTANCE;
+
+	/* Registra aciertos de lectura. */
+	void recordHits (int count);
+	
+	/* Registra fallos de lectura. */
+	void recordMisses (int count);
+	
+	/* Registra escrituras de elementos. */
+	void recordPuts (int count);
+	
+	/* Registra una expulsión y su motivo. */
+	void recordEviction (RemovalCause cause);
+	
+	/* Registra una carga correcta y su duración en nanosegundos. */
+	void recordLoadSuccess (long loadNanos);
+	
+	/* Registra una carga fallida y su duración en nanosegundos. */
+	void recordLoadFailure (long loadNanos);
+	
+	/* Foto de las estadísticas acumuladas hasta el momento. */
+	CacheStats snapshot ();
+}
@@ -0,0 +1,21 @@
+package commons.cache;
+
+/**
+ * Calcula el peso de un elemento de caché, por ejemplo su tamaño aproximado
+ * en bytes. Las cachés limitadas por peso expulsan elementos hasta que la suma
+ * de pesos no supera el máximo indicado.
+ * <p>
+ * El peso de un elemento no debe cambiar mientras está en caché.
+ * <p>
+ * 02/07/2016 10:21:37
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface IWeigher<E> {
+
+	/* Peso del elemento, 0 o positivo. */
+	int weigh (E element);
+}
@@ -0,0 +1,37 @@
+package commons.cache;
+
+import commons.vo.Id;
+
+/**
+ * Caché LRU especializada para elementos con id <code>Integer</code>. Guarda
+ * los ids en una {@link PrimitiveLRUTable}, sin mapas ni nodos, de forma que
+ * las lecturas con {@link #get(int)} no crean objetos. La tabla es la misma
+ * que la de {@link LongLRUCache}, los ids se guardan como <code>long</code>.
+ * El bloqueo, las estadísticas, los avisos de eliminación y el cambio de
+ * máximo son los de {@link PrimitiveLRUCache}.
+ * <p>
+ * Esta caché es <i>thread-safe</i>.
+ * <p>
+ * 30/07/2016 11:48:15
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class IntLRUCache<E extends Id<Integer>> extends PrimitiveLRUCache<Integer, E> implements IIntCache<E> {
+
+	/* Constructor, recibe el máximo número de elementos. */
+	IntLRUCache (final int maxCapacity) {
+		super(maxCapacity);
+	}
+
+	@Override
+	public E remove(final int id) {
+		return removeKey(id);
+	}
+
+	@Override
+	public E get(final int id) {
+		return getKey(id);
+	}
+}
@@ -0,0 +1,146 @@
+package commons.cache;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Caché que publica en un {@link InvalidationBus} los ids que se añaden o
+ * eliminan, para que los demás nodos descarten sus copias. Las expulsiones y
+ * el vaciado de la caché son locales y no se publican.
+ * <p>
+ * Esta caché es <i>thread-safe</i> si la caché envuelta lo es.
+ * <p>
+ * 17/09/2016 11:40:18
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+final class InvalidatingCache<ID, E extends Id<ID>> extends AbstractCache<ID, E> {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "InvalidatingCache %s";
+
+	/* Caché envuelta. */
+	private final ICache<ID, E> delegate;
+
+	/* Bus en el que se publican las invalidaciones. */
+	private final InvalidationBus bus;
+
+	/* Clase de los elementos, con la que se publican. */
+	private final Class<E> type;
+
+	/* Constructor, recibe la caché envuelta, el bus y la clase de los elementos. */
+	InvalidatingCache (final ICache<ID, E> delegate, final InvalidationBus bus, final Class<E> type) {
+		this.delegate = Objects.requireNonNull(delegate);
+		this.bus = Objects.requireNonNull(bus);
+		this.type = Objects.requireNonNull(type);
+	}
+
+	@Override
+	public void add(final E element) {
+		delegate.add(element);
+		bus.invalidate(type, element.getId());
+	}
+
+	@Override
+	public void addAll(final Collection<? extends E> elements) {
+		delegate.addAll(elements);
+		final List<ID> ids = new ArrayList<>(elements.size());
+		for (final E element : elements) {
+			ids.add(element.getId());
+		}
+		bus.invalidateAll(type, ids);
+	}
+
+	@Override
+	public E remove(final ID id) {
+		final E removed = delegate.remove(id);
+		if (id != null) {
+			bus.invalidate(type, id);
+		}
+		return removed;
+	}
+
+	@Override
+	public Map<ID, E> removeAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> removed = delegate.removeAll(ids);
+		bus.invalidateAll(type, ids);
+		return removed;
+	}
+
+	/*
+	 * Elimina elementos invalidados por otro nodo, sin volver a publicarlos y
+	 * sin pasar por los decoradores de escritura de la caché envuelta.
+	 */
+	void removeLocal(final Collection<?> ids) {
+		@SuppressWarnings("unchecked")
+		final Collection<? extends ID> typed = (Collection<? extends ID>) ids;
+		storageOf(delegate).removeAll(typed);
+	}
+
+	@Override
+	public E get(final ID id) {
+		return delegate.get(id);
+	}
+
+	@Override
+	public Map<ID, E> getAll(final Collection<? extends ID> ids) {
+		return delegate.getAll(ids);
+	}
+
+	@Override
+	public void invalidateAll() {
+		delegate.invalidateAll();
+	}
+
+	@Override
+	List<E> snapshot() {
+		return snapshotOf(delegate);
+	}
+
+	@Override
+	ICache<ID, E> storage() {
+		return storageOf(delegate);
+	}
+
+	@Override
+	IResizableCache resizable() {
+		return resizableOf(delegate);
+	}
+
+	@Override
+	Closeable closeable() {
+		return closeableOf(delegate);
+	}
+
+	/* Las eliminaciones se producen en la caché envuelta, el oyente se añade a ella. */
+	@Override
+	public void addRemovalListener(final IRemovalListener<ID, E> listener, final Executor executor) {
+		delegate.addRemovalListener(listener, executor);
+	}
+
+	/* Las estadísticas son las de la caché envuelta. */
+	@Override
+	public void recordStats(final boolean enabled) {
+		delegate.recordStats(enabled);
+	}
+
+	@Override
+	public CacheStats stats() {
+		return delegate.stats();
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, delegate);
+	}
+}
@@ -0,0 +1,459 @@
+package commons.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import commons.log.Log;
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Bus de invalidaciones entre nodos, cada uno con su propio {@link Caches}.
+ * Las cachés de las clases indicadas con {@link #attach(Class)} publican los
+ * ids que se añaden o eliminan, y al recibirlos los demás nodos eliminan sus
+ * copias, de forma que las cachés de todos los nodos se mantienen coherentes
+ * sin recurrir a expiraciones cortas. Las copias se eliminan sólo de la
+ * caché: una invalidación recibida no borra nada del almacén de una caché con
+ * escritura directa o diferida.
+ * <p>
+ * Los ids se acumulan sin repetidos y se publican por lotes, en un hilo
+ * propio, cada intervalo de vaciado o al llegar al máximo por lote. Cada lote
+ * se codifica en uno o varios mensajes del tamaño máximo del
+ * {@link IInvalidationTransport}. Sólo se admiten ids <code>Long</code>,
+ * <code>Integer</code> y <code>String</code>, que se codifican de forma
+ * compacta: los mensajes no llevan objetos serializados, que al recibirlos
+ * permitirían ejecutar código a cualquiera que pueda enviar un mensaje.
+ * <p>
+ * Formato de un mensaje: marca, id del nodo de origen y, por cada clase,
+ * nombre de la clase, número de ids e ids.
+ * <p>
+ * 17/09/2016 12:15:30
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class InvalidationBus implements Closeable {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "InvalidationBus [nodo:%s] [pendientes:%s] %s";
+
+	/* Marca de los mensajes, "INV1". */
+	private static final int MAGIC = 0x494E5631;
+
+	/* Intervalo de vaciado y máximo de ids por lote por defecto. */
+	private static final long DEFAULT_FLUSH_MILLIS = 10L;
+	private static final int DEFAULT_MAX_BATCH = 1000;
+
+	/* Tipos de id en los mensajes. */
+	private static final byte TAG_LONG = 1;
+	private static final byte TAG_INT = 2;
+	private static final byte TAG_STRING = 3;
+
+	/* Tipos de id admitidos. */
+	private static final List<Class<?>> ID_TYPES = Arrays.asList(Long.class, Integer.class, String.class);
+
+	/* Nombre del hilo de publicación. */
+	private static final String THREAD_NAME = "cache-invalidation";
+
+	/* Cachés del nodo. */
+	private final Caches caches;
+
+	/* Transporte de los mensajes. */
+	private final IInvalidationTransport transport;
+
+	/* Id de este nodo, para descartar sus propios mensajes. */
+	private final String nodeId;
+
+	/* Máximo de ids por lote. */
+	private final int maxBatch;
+
+	/* Ids pendientes de publicar, por clase y sin repetidos. Protegido por 'lock'. */
+	private Map<Class<?>, Set<Object>> pending;
+
+	/* Número de ids pendientes, para consultarlo sin bloqueo. */
+	private volatile int pendingCount;
+
+	/* Bloqueo de los ids pendientes. */
+	private final Lock lock;
+
+	/* Bloqueo de publicación, protege los buffers. */
+	private final Lock flushLock;
+
+	/* Buffer del mensaje en construcción. Protegido por 'flushLock'. */
+	private final ByteBuffer message;
+
+	/* Posición del mensaje en la que empiezan las secciones. */
+	private int sectionsStart;
+
+	/* Hilo de publicación. */
+	private final ScheduledExecutorService scheduler;
+
+	/* Indica si hay una publicación por lote completo lanzada y aún no iniciada. */
+	private final AtomicBoolean flushRequested;
+
+	/**
+	 * Constructor, con el intervalo de vaciado y el máximo por lote por
+	 * defecto: 10 milisegundos y 1000 ids.
+	 *
+	 * @param caches
+	 *            Cachés del nodo.
+	 * @param transport
+	 *            Transporte de los mensajes.
+	 */
+	public InvalidationBus(final Caches caches, final IInvalidationTransport transport) {
+		this(caches, transport, DEFAULT_FLUSH_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_MAX_BATCH);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param caches
+	 *            Cachés del nodo.
+	 * @param transport
+	 *            Transporte de los mensajes.
+	 * @param flushInterval
+	 *            Intervalo de vaciado de los ids pendientes.
+	 * @param unit
+	 *            Unidad del intervalo.
+	 * @param maxBatch
+	 *            Número de ids pendientes a partir del cual se publican sin
+	 *            esperar al intervalo.
+	 */
+	public InvalidationBus(final Caches caches, final IInvalidationTransport transport, final long flushInterval,
+			final TimeUnit unit, final int maxBatch) {
+		if (flushInterval <= 0L || maxBatch <= 0) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"No se puede crear bus de invalidaciones con intervalo '%s' y lotes de '%s'", flushInterval, maxBatch)
+			);
+		}
+
+		this.caches = Objects.requireNonNull(caches);
+		this.transport = Objects.requireNonNull(transport);
+		this.nodeId = UUID.randomUUID().toString();
+		this.maxBatch = maxBatch;
+
+		this.pending = new LinkedHashMap<>();
+		this.lock = new ReentrantLock();
+		this.flushLock = new ReentrantLock();
+		this.message = ByteBuffer.allocate(transport.maxMessageSize());
+		this.flushRequested = new AtomicBoolean();
+
+		final long flushMillis = Math.max(1L, unit.toMillis(flushInterval));
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+			final Thread thread = new Thread(task, THREAD_NAME);
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.scheduler.scheduleWithFixedDelay(this::flushInBackground, flushMillis, flushMillis,
+				TimeUnit.MILLISECONDS);
+		transport.subscribe(this::receive);
+	}
+
+	/**
+	 * Obtiene el id de este nodo en el bus.
+	 *
+	 * @return Id del nodo.
+	 */
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Hace que la caché registrada para la clase indicada publique sus
+	 * cambios en el bus. Las invalidaciones de otros nodos se aplican a
+	 * cualquier caché registrada con la misma clase, publique o no.
+	 *
+	 * @param classCache
+	 *            Clase de la caché, debe estar registrada y extender
+	 *            {@link Id} con un id <code>Long</code>, <code>Integer</code>
+	 *            o <code>String</code>.
+	 * @throws IllegalArgumentException
+	 *             Si el tipo de id de la clase no es uno de los admitidos, o
+	 *             si no hay caché registrada para la clase.
+	 */
+	public <ID, T extends Id<ID>> void attach(final Class<T> classCache) {
+		final Type idType = idType(Objects.requireNonNull(classCache));
+		if (!ID_TYPES.contains(idType)) {
+			throw new IllegalArgumentException(PrintUtils.format(
+					"La clase '%s' no tiene un id Long, Integer o String, no se puede invalidar: '%s'",
+					classCache.getName(), idType));
+		}
+		final ICache<ID, T> cache = caches.decorate(classCache, current -> current instanceof InvalidatingCache 
+				? current 
+				: new InvalidatingCache<>(current, this, classCache));
+		if (cache == null) {
+			throw new IllegalArgumentException(PrintUtils.format(
+					"No hay caché registrada para la clase '%s', no se puede invalidar", classCache.getName()));
+		}
+	}
+
+	/* Tipo del id de una clase que extiende Id, según su declaración. Null si no se puede determinar. */
+	private static Type idType(final Class<?> type) {
+		Class<?> current = type;
+		while (current != null && current != Id.class) {
+			final Type superclass = current.getGenericSuperclass();
+			if (superclass instanceof ParameterizedType
+					&& ((ParameterizedType) superclass).getRawType() == Id.class) {
+				return ((ParameterizedType) superclass).getActualTypeArguments()[0];
+			}
+			current = current.getSuperclass();
+		}
+		return null;
+	}
+
+	/* Añade un id a los pendientes de publicar. */
+	void invalidate(final Class<?> type, final Object id) {
+		invalidateAll(type, Collections.singletonList(id));
+	}
+
+	/* Añade varios ids a los pendientes de publicar. Los nulos se ignoran. */
+	void invalidateAll(final Class<?> type, final Collection<?> ids) {
+		lock.lock();
+		try {
+			Set<Object> typePending = pending.get(type);
+			if (typePending == null) {
+				typePending = new LinkedHashSet<>();
+				pending.put(type, typePending);
+			}
+			int added = 0;
+			for (final Object id : ids) {
+				if (id != null && typePending.add(id)) {
+					added++;
+				}
+			}
+			pendingCount += added;
+		} finally {
+			lock.unlock();
+		}
+
+		if (pendingCount >= maxBatch && flushRequested.compareAndSet(false, true)) {
+			try {
+				scheduler.execute(() -> {
+					flushRequested.set(false);
+					flushInBackground();
+				});
+			} catch (RuntimeException e) {
+				/* Bus cerrado. */
+				flushRequested.set(false);
+			}
+		}
+	}
+
+	/* Publica los ids pendientes desde el hilo de publicación, registrando los errores. */
+	private void flushInBackground() {
+		try {
+			flush();
+		} catch (IOException | RuntimeException e) {
+			Log.error(InvalidationBus.class, "Error al publicar invalidaciones de caché", e);
+		}
+	}
+
+	/**
+	 * Publica los ids pendientes y espera a que terminen de enviarse.
+	 *
+	 * @throws IOException
+	 *             Si el transporte falla. Los ids del mensaje fallido se
+	 *             descartan.
+	 */
+	public void flush() throws IOException {
+		flushLock.lock();
+		try {
+			final Map<Class<?>, Set<Object>> batch = takePending();
+			if (batch.isEmpty()) {
+				return;
+			}
+
+			startMessage();
+			for (final Entry<Class<?>, Set<Object>> entry : batch.entrySet()) {
+				final String name = entry.getKey().getName();
+				int countPosition = startSection(name);
+				int count = 0;
+				for (final Object id : entry.getValue()) {
+					final int position = message.position();
+					try {
+						putId(id);
+					} catch (BufferOverflowException e) {
+						/* Mensaje lleno: se envía y la sección continúa en uno nuevo. */
+						message.position(position);
+						message.putInt(countPosition, count);
+						send();
+						startMessage();
+						countPosition = startSection(name);
+						count = 0;
+						putId(id);
+					}
+					count++;
+				}
+				message.putInt(countPosition, count);
+			}
+			send();
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/* Toma los ids pendientes. */
+	private Map<Class<?>, Set<Object>> takePending() {
+		lock.lock();
+		try {
+			final Map<Class<?>, Set<Object>> taken = pending;
+			pending = new LinkedHashMap<>();
+			pendingCount = 0;
+			return taken;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Empieza un mensaje nuevo con su cabecera. */
+	private void startMessage() {
+		message.clear();
+		message.putInt(MAGIC);
+		BinaryCodecs.putString(message, nodeId);
+		sectionsStart = message.position();
+	}
+
+	/* Empieza la sección de una clase, en un mensaje nuevo si no cabe. Devuelve la posición del número de ids. */
+	private int startSection(final String name) throws IOException {
+		final int position = message.position();
+		try {
+			BinaryCodecs.putString(message, name);
+			message.putInt(0);
+		} catch (BufferOverflowException e) {
+			message.position(position);
+			send();
+			startMessage();
+			BinaryCodecs.putString(message, name);
+			message.putInt(0);
+		}
+		return message.position() - Integer.BYTES;
+	}
+
+	/* Envía el mensaje en construcción si tiene alguna sección. */
+	private void send() throws IOException {
+		if (message.position() > sectionsStart) {
+			message.flip();
+			transport.publish(message);
+		}
+		message.clear();
+	}
+
+	/* Escribe un id con su tipo. attach() sólo admite cachés con ids de los tipos codificables. */
+	private void putId(final Object id) {
+		if (id instanceof Long) {
+			message.put(TAG_LONG);
+			BinaryCodecs.putVarLong(message, (Long) id);
+		} else if (id instanceof Integer) {
+			message.put(TAG_INT);
+			BinaryCodecs.putVarInt(message, (Integer) id);
+		} else if (id instanceof String) {
+			message.put(TAG_STRING);
+			BinaryCodecs.putString(message, (String) id);
+		} else {
+			throw new IllegalArgumentException(PrintUtils.format("Tipo de id no admitido en el bus: '%s'",
+					id.getClass().getName()));
+		}
+	}
+
+	/* Lee un id según su tipo. */
+	private static Object getId(final ByteBuffer buffer) {
+		final byte tag = buffer.get();
+		switch (tag) {
+		case TAG_LONG:
+			return BinaryCodecs.getVarLong(buffer);
+		case TAG_INT:
+			return BinaryCodecs.getVarInt(buffer);
+		case TAG_STRING:
+			return BinaryCodecs.getString(buffer);
+		default:
+			throw new IllegalArgumentException(PrintUtils.format("Tipo de id desconocido: '%s'", tag));
+		}
+	}
+
+	/* Aplica un mensaje recibido, salvo que lo haya publicado este nodo. */
+	private void receive(final ByteBuffer received) {
+		try {
+			if (received.remaining() < Integer.BYTES || received.getInt() != MAGIC) {
+				Log.error(InvalidationBus.class, "Mensaje de invalidación con formato no válido, se descarta");
+				return;
+			}
+			if (nodeId.equals(BinaryCodecs.getString(received))) {
+				return;
+			}
+
+			while (received.hasRemaining()) {
+				final String name = BinaryCodecs.getString(received);
+				final int count = received.getInt();
+				final List<Object> ids = new ArrayList<>(Math.min(count, maxBatch));
+				for (int i = 0; i < count; i++) {
+					ids.add(getId(received));
+				}
+				apply(name, ids);
+			}
+		} catch (RuntimeException e) {
+			Log.error(InvalidationBus.class, "Error al aplicar un mensaje de invalidación", e);
+		}
+	}
+
+	/*
+	 * Elimina los ids invalidados de la caché registrada para la clase, si
+	 * hay. Se eliminan de la caché que guarda los elementos, sin pasar por los
+	 * decoradores de escritura: un cambio en otro nodo no debe borrar nada
+	 * del almacén de éste.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void apply(final String name, final List<Object> ids) {
+		final Class<?> type = caches.registeredClass(name);
+		final ICache<?, ?> cache = type != null ? caches.registered().get(type) : null;
+		if (cache instanceof InvalidatingCache) {
+			((InvalidatingCache<?, ?>) cache).removeLocal(ids);
+		} else if (cache != null) {
+			AbstractCache.storageOf((ICache) cache).removeAll(ids);
+		}
+	}
+
+	/**
+	 * Publica los ids pendientes, detiene el hilo de publicación y cierra el
+	 * transporte. Las cachés siguen funcionando, sin publicar.
+	 *
+	 * @throws IOException
+	 *             Si el transporte falla.
+	 */
+	@Override
+	public void close() throws IOException {
+		scheduler.shutdown();
+		try {
+			flush();
+		} finally {
+			transport.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, nodeId, pendingCount, transport);
+	}
+}
@@ -1,10 +1,16 @@
 package commons.cache;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 import commons.util.ColUtils;
 import commons.util.PrintUtils;
@@ -15,6 +21,13 @@ import commons.vo.Id;
  * indicado al crear la caché. Cuando se alcanza ese máximo el elemento menos
  * recientemente utilizado es eliminado. 
  * <p>
+ * El máximo puede ser de número de elementos o de peso total, calculado con un
+ * {@link IWeigher}. En el segundo caso se eliminan elementos, de menos a más
+ * recientemente utilizado, hasta que la suma de pesos no supera el máximo.
+ * <p>
+ * El máximo se puede cambiar en tiempo de ejecución con
+ * {@link #setMaximum(long)}.
+ * <p>
  * Esta caché es <i>thread-safe</i>.
  * <p>
  * 22/05/2016 16:33:51
@@ -23,10 +36,13 @@ import commons.vo.Id;
  * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
  * @version 1.0
  */
-public class LRUCache<ID, E extends Id<ID>> implements ICache<ID, E> {
+public class LRUCache<ID, E extends Id<ID>> extends AbstractCache<ID, E> implements IResizableCache {
 
 	/* Formato para pasar a String. */
 	private static final String PRINT_FORMAT = "LRUCache [max:%s] [cap ini:%s] [elementos:%s]";
+	
+	/* Formato para pasar a String, caché limitada por peso. */
+	private static final String PRINT_WEIGHT_FORMAT = "LRUCache [peso max:%s] [peso:%s] [elementos:%s]";
 
 	/* Bloqueos para lectura y escritura. */
 	private final Lock writeLock;
@@ -38,17 +54,41 @@ public class LRUCache<ID, E extends Id<ID>> implements ICache<ID, E> {
 	/* Capacidad inicial, porcentaje del máximo indicado */
 	private static final float INITIAL_CAPACITY_MAX_PERCENT = 0.10f;
 	
+	/* Capacidad inicial para cachés limitadas por peso, no se conoce el número de elementos. */
+	private static final int WEIGHTED_INITIAL_CAPACITY = 16;
+	
 	/* Elementos almacenados en la caché. */
 	private final LinkedHashMap<ID, E> elements;
 	
-	/* Máximo número de elementos en caché. */
-	private final int maxElements;
+	/* Máximo número de elementos en caché. Protegido por el bloqueo de escritura. */
+	private int maxElements;
 	
 	/* Capacidad inicial, porcentaje del maximo indicado. */
 	private final int initialCapacity;
 	
+	/* Calcula el peso de los elementos, null si la caché se limita por número de elementos. */
+	private final IWeigher<? super E> weigher;
+	
+	/* Máximo peso total de los elementos en caché, si se limita por peso. Protegido por el bloqueo de escritura. */
+	private long maxWeight;
+	
+	/* Peso total actual de los elementos en caché, si se limita por peso. */
+	private long weight;
+	
+	/* Recibe los elementos expulsados por capacidad, null si no se necesita. */
+	private final Consumer<? super E> evictionHandler;
+	
 	/* Constructor, recibe el máximo número de elementos. */
 	LRUCache (final int maxCapacity) {
+		this(maxCapacity, (Consumer<? super E>) null);
+	}
+	
+	/*
+	 * Constructor, recibe el máximo número de elementos y el receptor de los
+	 * elementos expulsados por capacidad. El receptor se llama con el bloqueo
+	 * de escritura adquirido, por lo que debe ser rápido.
+	 */
+	LRUCache (final int maxCapacity, final Consumer<? super E> evictionHandler) {
 		if (maxCapacity <= 0) {
 			throw new IllegalArgumentException(PrintUtils.format(
 				"No se puede crear cache LRU con capacidad máxima 0 o negativa: '%s'", maxCapacity)
@@ -61,6 +101,29 @@ public class LRUCache<ID, E extends Id<ID>> implements ICache<ID, E> {
 		
 		this.maxElements = maxCapacity;
 		this.initialCapacity = getInitialCapacity();
+		this.weigher = null;
+		this.maxWeight = Long.MAX_VALUE;
+		this.evictionHandler = evictionHandler;
+		this.elements = createCacheMap();
+	}
+	
+	/* Constructor, recibe el máximo peso total y la forma de calcular el peso de cada elemento. */
+	LRUCache (final long maxWeight, final IWeigher<? super E> weigher) {
+		if (maxWeight <= 0) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"No se puede crear cache LRU con peso máximo 0 o negativo: '%s'", maxWeight)
+			);
+		}
+		
+		final ReadWriteLock accessLock = new ReentrantReadWriteLock(); 
+		this.writeLock = accessLock.writeLock();
+		this.readLock = accessLock.readLock();
+		
+		this.maxElements = Integer.MAX_VALUE;
+		this.initialCapacity = WEIGHTED_INITIAL_CAPACITY;
+		this.weigher = Objects.requireNonNull(weigher);
+		this.maxWeight = maxWeight;
+		this.evictionHandler = null;
 		this.elements = createCacheMap();
 	}
 
@@ -91,7 +154,15 @@ public class LRUCache<ID, E extends Id<ID>> implements ICache<ID, E> {
 			
 			@Override
 			protected boolean removeEldestEntry(final Map.Entry<ID, E> eldest) {
-				return elements.size() > maxElements;
+				final boolean evict = elements.size() > maxElements;
+				if (evict) {
+					statsCounter().recordEviction(RemovalCause.SIZE);
+					notifyRemoval(eldest.getValue(), RemovalCause.SIZE);
+					if (evictionHandler != null) {
+						evictionHandler.accept(eldest.getValue());
+					}
+				}
+				return evict;
 			}
 		};
 	}
@@ -101,35 +172,274 @@ public class LRUCache<ID, E extends Id<ID>> implements ICache<ID, E> {
 		ColUtils.requireNonNull(element, element.getId());
 		try {
 			writeLock.lock();
-			elements.put(element.getId(), element);
+			put(element);
 		} finally {
 			writeLock.unlock();
 		}
-		
+		dispatchRemovals();
+		statsCounter().recordPuts(1);
+	}
+	
+	@Override
+	public void addAll(final Collection<? extends E> elements) {
+		for (final E element : elements) {
+			ColUtils.requireNonNull(element, element.getId());
+		}
+		try {
+			writeLock.lock();
+			for (final E element : elements) {
+				put(element);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+		dispatchRemovals();
+		statsCounter().recordPuts(elements.size());
+	}
+	
+	/*
+	 * Añade un elemento y expulsa por peso si es necesario. Los pesos se
+	 * calculan antes de cambiar el mapa, para que un peso no válido no deje el
+	 * peso total desajustado. Debe llamarse con el bloqueo de escritura
+	 * adquirido.
+	 */
+	private void put(final E element) {
+		final long delta = weigher != null ? weigh(element) - weigh(elements.get(element.getId())) : 0L;
+		final E previous = elements.put(element.getId(), element);
+		if (previous != null && previous != element) {
+			notifyRemoval(previous, RemovalCause.REPLACED);
+		}
+		if (weigher != null) {
+			weight += delta;
+			evictByWeight();
+		}
 	}
 
 	@Override
 	public E remove(final ID id) {
+		final E removed;
 		try {
 			writeLock.lock();
-			return elements.remove(id);
+			removed = delete(id);
 		} finally {
 			writeLock.unlock();
 		}
+		dispatchRemovals();
+		return removed;
 	}
-
+	
 	@Override
-	public E get(final ID id) {
+	public Map<ID, E> removeAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> result = new LinkedHashMap<>();
+		try {
+			writeLock.lock();
+			for (final ID id : ids) {
+				final E removed = delete(id);
+				if (removed != null) {
+					result.put(id, removed);
+				}
+			}
+		} finally {
+			writeLock.unlock();
+		}
+		dispatchRemovals();
+		return result;
+	}
+	
+	/* Elimina un elemento y descuenta su peso. Debe llamarse con el bloqueo de escritura adquirido. */
+	private E delete(final ID id) {
+		final E removed = elements.remove(id);
+		if (weigher != null) {
+			weight -= weigh(removed);
+		}
+		notifyRemoval(removed, RemovalCause.EXPLICIT);
+		return removed;
+	}
+	
+	@Override
+	public void invalidateAll() {
+		try {
+			writeLock.lock();
+			if (hasRemovalListeners()) {
+				for (final E element : elements.values()) {
+					notifyRemoval(element, RemovalCause.EXPLICIT);
+				}
+			}
+			elements.clear();
+			weight = 0L;
+		} finally {
+			writeLock.unlock();
+		}
+		dispatchRemovals();
+	}
+	
+	/*
+	 * Elimina elementos, de menos a más recientemente utilizado, hasta que el
+	 * peso total no supera el máximo. Debe llamarse con el bloqueo de
+	 * escritura adquirido.
+	 */
+	private void evictByWeight() {
+		final Iterator<E> eldest = elements.values().iterator();
+		while (weight > maxWeight && eldest.hasNext()) {
+			final E evicted = eldest.next();
+			weight -= weigh(evicted);
+			eldest.remove();
+			statsCounter().recordEviction(RemovalCause.SIZE);
+			notifyRemoval(evicted, RemovalCause.SIZE);
+		}
+	}
+	
+	/* Peso de un elemento, 0 si es nulo. */
+	private long weigh(final E element) {
+		if (element == null) {
+			return 0L;
+		}
+		final int elementWeight = weigher.weigh(element);
+		if (elementWeight < 0) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"Peso negativo '%s' para el elemento '%s'", elementWeight, element)
+			);
+		}
+		return elementWeight;
+	}
+	
+	/*
+	 * Elimina elementos, de menos a más recientemente utilizado, hasta que el
+	 * número de elementos no supera el máximo. Debe llamarse con el bloqueo de
+	 * escritura adquirido.
+	 */
+	private void evictBySize() {
+		final Iterator<E> eldest = elements.values().iterator();
+		while (elements.size() > maxElements && eldest.hasNext()) {
+			final E evicted = eldest.next();
+			eldest.remove();
+			statsCounter().recordEviction(RemovalCause.SIZE);
+			notifyRemoval(evicted, RemovalCause.SIZE);
+			if (evictionHandler != null) {
+				evictionHandler.accept(evicted);
+			}
+		}
+	}
+	
+	@Override
+	public long getMaximum() {
 		try {
 			readLock.lock();
-			return elements.get(id);
+			return weigher != null ? maxWeight : maxElements;
 		} finally {
 			readLock.unlock();
 		}
 	}
 	
+	@Override
+	public void setMaximum(final long maximum) {
+		if (maximum <= 0L || (weigher == null && maximum > Integer.MAX_VALUE)) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"Máximo no válido para cache LRU: '%s'", maximum)
+			);
+		}
+		
+		try {
+			writeLock.lock();
+			if (weigher != null) {
+				maxWeight = maximum;
+				evictByWeight();
+			} else {
+				maxElements = (int) maximum;
+				evictBySize();
+			}
+		} finally {
+			writeLock.unlock();
+		}
+		dispatchRemovals();
+	}
+	
+	@Override
+	List<E> snapshot() {
+		try {
+			writeLock.lock();
+			return new ArrayList<>(elements.values());
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Obtiene el peso total de los elementos en caché. Si la caché se limita
+	 * por número de elementos devuelve el número de elementos.
+	 * 
+	 * @return Peso total actual.
+	 */
+	@Override
+	public long getWeight() {
+		try {
+			readLock.lock();
+			return weigher != null ? weight : elements.size();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/* Con peso, el máximo es de peso total y puede superar el de elementos. */
+	@Override
+	public long getHighestMaximum() {
+		return weigher != null ? Long.MAX_VALUE : Integer.MAX_VALUE;
+	}
+
+	/*
+	 * Una lectura reordena el mapa (orden de acceso), por lo que requiere el
+	 * bloqueo de escritura: con el de lectura, lecturas concurrentes
+	 * corromperían la lista de orden.
+	 */
+	@Override
+	public E get(final ID id) {
+		final E element;
+		try {
+			writeLock.lock();
+			element = elements.get(id);
+		} finally {
+			writeLock.unlock();
+		}
+		
+		if (element != null) {
+			statsCounter().recordHits(1);
+		} else {
+			statsCounter().recordMisses(1);
+		}
+		return element;
+	}
+	
+	@Override
+	public Map<ID, E> getAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> result = new LinkedHashMap<>();
+		int hits = 0;
+		try {
+			writeLock.lock();
+			for (final ID id : ids) {
+				final E element = elements.get(id);
+				if (element != null) {
+					result.put(id, element);
+					hits++;
+				}
+			}
+		} finally {
+			writeLock.unlock();
+		}
+		
+		statsCounter().recordHits(hits);
+		statsCounter().recordMisses(ids.size() - hits);
+		return result;
+	}
+	
 	@Override
 	public String toString() {
-		return PrintUtils.format(PRINT_FORMAT, maxElements, initialCapacity, elements);
+		try {
+			readLock.lock();
+			return weigher != null 
+					? PrintUtils.format(PRINT_WEIGHT_FORMAT, maxWeight, weight, elements.size())
+					: PrintUtils.format(PRINT_FORMAT, maxElements, initialCapacity, elements.size());
+		} finally {
+			readLock.unlock();
+		}
 	}
 }
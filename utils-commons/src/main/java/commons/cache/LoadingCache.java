@@ -0,0 +1,358 @@
+package commons.cache;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import commons.exception.CacheLoadException;
+import commons.log.Log;
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Implementación de {@link ILoadingCache} que envuelve otra caché. Los fallos
+ * concurrentes de un mismo id comparten una única carga en curso: el primer
+ * hilo llama al cargador y el resto esperan su resultado. Las cargas masivas
+ * agrupan todos los fallos en una única llamada a
+ * {@link ICacheLoader#loadAll(Collection)}.
+ * <p>
+ * Si la caché envuelta es una {@link ExpiringCache} puede configurarse
+ * recarga anticipada: un acierto sobre un elemento escrito hace más de
+ * <code>refreshAfterWrite</code> lanza su recarga asíncrona, de forma que los
+ * elementos usados se renuevan antes de expirar y sin bloquear al llamante.
+ * <p>
+ * Esta caché es <i>thread-safe</i> si la caché envuelta lo es.
+ * <p>
+ * 25/06/2016 11:20:45
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class LoadingCache<ID, E extends Id<ID>> extends AbstractCache<ID, E> 
+		implements ILoadingCache<ID, E> {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "LoadingCache [recarga:%sns] [cargas en curso:%s] %s";
+
+	/* Mensaje de error al cargar. */
+	private static final String LOAD_ERROR = "Error al cargar elementos en caché, ids: '%s'";
+
+	/* Valor para indicar que no hay recarga anticipada. */
+	private static final long NO_REFRESH = 0L;
+
+	/* Caché envuelta. */
+	private final ICache<ID, E> delegate;
+
+	/* Caché envuelta, si expira, para conocer la antigüedad de los elementos. Null si no hay recarga. */
+	private final ExpiringCache<ID, E> expiring;
+
+	/* Cargador de elementos. */
+	private final ICacheLoader<ID, E> loader;
+
+	/* Tiempo tras la escritura a partir del cual un acierto lanza la recarga, en nanosegundos. */
+	private final long refreshAfterWriteNanos;
+
+	/* Ejecutor de las recargas asíncronas. */
+	private final Executor executor;
+
+	/* Cargas en curso por id, compartidas por todos los hilos que fallan sobre el mismo id. */
+	private final ConcurrentHashMap<ID, CompletableFuture<E>> inFlight;
+
+	/* Constructor, recibe la caché envuelta y el cargador. Sin recarga anticipada. */
+	LoadingCache (final ICache<ID, E> delegate, final ICacheLoader<ID, E> loader) {
+		this(delegate, null, loader, NO_REFRESH, ForkJoinPool.commonPool());
+	}
+
+	/* Constructor con recarga anticipada, recibe la caché con expiración, el cargador y el ejecutor de recargas. */
+	LoadingCache (final ExpiringCache<ID, E> delegate, final ICacheLoader<ID, E> loader,
+			final long refreshAfterWrite, final TimeUnit unit, final Executor executor) {
+		this(delegate, delegate, loader, refreshAfterWrite > 0L ? unit.toNanos(refreshAfterWrite) : NO_REFRESH,
+				executor);
+	}
+
+	private LoadingCache (final ICache<ID, E> delegate, final ExpiringCache<ID, E> expiring,
+			final ICacheLoader<ID, E> loader, final long refreshAfterWriteNanos, final Executor executor) {
+		this.delegate = Objects.requireNonNull(delegate);
+		this.expiring = expiring;
+		this.loader = Objects.requireNonNull(loader);
+		this.refreshAfterWriteNanos = refreshAfterWriteNanos;
+		this.executor = Objects.requireNonNull(executor);
+		this.inFlight = new ConcurrentHashMap<>();
+	}
+
+	@Override
+	public void add(final E element) {
+		delegate.add(element);
+	}
+
+	@Override
+	public E remove(final ID id) {
+		return delegate.remove(id);
+	}
+
+	@Override
+	public E get(final ID id) {
+		return delegate.get(id);
+	}
+
+	@Override
+	public void addAll(final Collection<? extends E> elements) {
+		delegate.addAll(elements);
+	}
+
+	@Override
+	public Map<ID, E> getAll(final Collection<? extends ID> ids) {
+		return delegate.getAll(ids);
+	}
+
+	@Override
+	public Map<ID, E> removeAll(final Collection<? extends ID> ids) {
+		return delegate.removeAll(ids);
+	}
+
+	@Override
+	public void invalidateAll() {
+		delegate.invalidateAll();
+	}
+
+	@Override
+	public E getOrLoad(final ID id) throws CacheLoadException {
+		Objects.requireNonNull(id);
+		final E cached = delegate.get(id);
+		if (cached != null) {
+			refreshIfNeeded(id);
+			return cached;
+		}
+
+		final CompletableFuture<E> future = new CompletableFuture<>();
+		final CompletableFuture<E> current = inFlight.putIfAbsent(id, future);
+		if (current != null) {
+			return await(current, id);
+		}
+
+		final long start = System.nanoTime();
+		try {
+			final E loaded = loader.load(id);
+			statsCounter().recordLoadSuccess(System.nanoTime() - start);
+			store(loaded);
+			future.complete(loaded);
+			return loaded;
+		} catch (Throwable e) {
+			statsCounter().recordLoadFailure(System.nanoTime() - start);
+			future.completeExceptionally(e);
+			throw loadFailure(e, id);
+		} finally {
+			inFlight.remove(id, future);
+		}
+	}
+
+	@Override
+	public Map<ID, E> getAllOrLoad(final Collection<? extends ID> ids) throws CacheLoadException {
+		Objects.requireNonNull(ids);
+		final Map<ID, E> result = new LinkedHashMap<>();
+
+		/* Cargas propias (este hilo llama al cargador) y ajenas (otro hilo ya está cargando el id). */
+		final Map<ID, CompletableFuture<E>> owned = new LinkedHashMap<>();
+		final Map<ID, CompletableFuture<E>> shared = new HashMap<>();
+
+		/* Los elementos en caché se leen en un único lote. */
+		final Map<ID, E> cached = delegate.getAll(ids);
+		for (final ID id : ids) {
+			final E element = cached.get(id);
+			if (element != null) {
+				result.put(id, element);
+				refreshIfNeeded(id);
+			} else if (!owned.containsKey(id) && !shared.containsKey(id)) {
+				final CompletableFuture<E> future = new CompletableFuture<>();
+				final CompletableFuture<E> current = inFlight.putIfAbsent(id, future);
+				if (current != null) {
+					shared.put(id, current);
+				} else {
+					owned.put(id, future);
+				}
+			}
+		}
+
+		if (!owned.isEmpty()) {
+			loadAll(owned, result);
+		}
+
+		for (final Entry<ID, CompletableFuture<E>> entry : shared.entrySet()) {
+			final E loaded = await(entry.getValue(), entry.getKey());
+			if (loaded != null) {
+				result.put(entry.getKey(), loaded);
+			}
+		}
+		return result;
+	}
+
+	/* Carga masiva de los ids propios, completando sus cargas en curso. */
+	private void loadAll(final Map<ID, CompletableFuture<E>> owned, final Map<ID, E> result)
+			throws CacheLoadException {
+		final long start = System.nanoTime();
+		try {
+			final Map<ID, E> loaded = loader.loadAll(new ArrayList<>(owned.keySet()));
+			statsCounter().recordLoadSuccess(System.nanoTime() - start);
+			for (final Entry<ID, CompletableFuture<E>> entry : owned.entrySet()) {
+				final E element = loaded != null ? loaded.get(entry.getKey()) : null;
+				store(element);
+				if (element != null) {
+					result.put(entry.getKey(), element);
+				}
+				entry.getValue().complete(element);
+			}
+		} catch (Throwable e) {
+			statsCounter().recordLoadFailure(System.nanoTime() - start);
+			for (final CompletableFuture<E> future : owned.values()) {
+				future.completeExceptionally(e);
+			}
+			throw loadFailure(e, owned.keySet());
+		} finally {
+			for (final Entry<ID, CompletableFuture<E>> entry : owned.entrySet()) {
+				inFlight.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	@Override
+	public void refresh(final ID id) {
+		Objects.requireNonNull(id);
+		final CompletableFuture<E> future = new CompletableFuture<>();
+		if (inFlight.putIfAbsent(id, future) != null) {
+			/* Ya hay una carga en curso para el id. */
+			return;
+		}
+
+		try {
+			executor.execute(() -> {
+				final long start = System.nanoTime();
+				try {
+					final E loaded = loader.load(id);
+					statsCounter().recordLoadSuccess(System.nanoTime() - start);
+					store(loaded);
+					future.complete(loaded);
+				} catch (Throwable e) {
+					statsCounter().recordLoadFailure(System.nanoTime() - start);
+					/* Se conserva el valor actual, se volverá a intentar en el siguiente acierto. */
+					Log.error(LoadingCache.class, PrintUtils.format(LOAD_ERROR, id), e);
+					future.completeExceptionally(e);
+					if (e instanceof Error) {
+						throw (Error) e;
+					}
+				} finally {
+					inFlight.remove(id, future);
+				}
+			});
+		} catch (RuntimeException e) {
+			/* El ejecutor rechaza la tarea. */
+			inFlight.remove(id, future);
+			future.completeExceptionally(e);
+			Log.error(LoadingCache.class, PrintUtils.format(LOAD_ERROR, id), e);
+		}
+	}
+
+	/* Lanza la recarga anticipada de un id si se ha superado el tiempo de recarga desde su escritura. */
+	private void refreshIfNeeded(final ID id) {
+		if (expiring != null && refreshAfterWriteNanos != NO_REFRESH
+				&& expiring.writeAge(id) >= refreshAfterWriteNanos && !inFlight.containsKey(id)) {
+			refresh(id);
+		}
+	}
+
+	/* Guarda en caché un elemento cargado, si existe. */
+	private void store(final E element) {
+		if (element != null) {
+			delegate.add(element);
+		}
+	}
+
+	/* Espera a una carga en curso de otro hilo. */
+	private E await(final CompletableFuture<E> future, final ID id) throws CacheLoadException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw createException(e, id);
+		} catch (ExecutionException e) {
+			throw createException(e.getCause(), id);
+		}
+	}
+
+	/*
+	 * Excepción de carga que lanza el hilo que carga, una vez completado el
+	 * futuro que esperan los demás. Los errores se relanzan tal cual.
+	 */
+	private static CacheLoadException loadFailure(final Throwable cause, final Object ids) {
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return createException(cause, ids);
+	}
+
+	/* Crea la excepción de carga con los ids que la provocan. */
+	static CacheLoadException createException(final Throwable cause, final Object ids) {
+		if (cause instanceof CacheLoadException) {
+			return (CacheLoadException) cause;
+		}
+		final CacheLoadException exception = new CacheLoadException(PrintUtils.format(LOAD_ERROR, ids), cause);
+		exception.addArgument("Ids", ids instanceof Collection ? new ArrayList<>((Collection<?>) ids) : ids);
+		return exception;
+	}
+
+	@Override
+	List<E> snapshot() {
+		return snapshotOf(delegate);
+	}
+
+	@Override
+	ICache<ID, E> storage() {
+		return storageOf(delegate);
+	}
+
+	@Override
+	IResizableCache resizable() {
+		return resizableOf(delegate);
+	}
+
+	@Override
+	Closeable closeable() {
+		return closeableOf(delegate);
+	}
+
+	/* Las eliminaciones se producen en la caché envuelta, el oyente se añade a ella. */
+	@Override
+	public void addRemovalListener(final IRemovalListener<ID, E> listener, final Executor executor) {
+		delegate.addRemovalListener(listener, executor);
+	}
+
+	/* Activa o desactiva también las estadísticas de la caché envuelta. */
+	@Override
+	public void recordStats(final boolean enabled) {
+		super.recordStats(enabled);
+		delegate.recordStats(enabled);
+	}
+
+	/* Aciertos, fallos, escrituras y expulsiones de la caché envuelta más las cargas. */
+	@Override
+	public CacheStats stats() {
+		return delegate.stats().plus(super.stats());
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, refreshAfterWriteNanos, inFlight.size(), delegate);
+	}
+}
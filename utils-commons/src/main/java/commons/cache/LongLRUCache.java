@@ -0,0 +1,36 @@
+package commons.cache;
+
+import commons.vo.Id;
+
+/**
+ * Caché LRU especializada para elementos con id <code>Long</code>. Guarda los
+ * ids como <code>long</code> en una {@link PrimitiveLRUTable}, sin mapas ni
+ * nodos, de forma que las lecturas con {@link #get(long)} no crean objetos.
+ * El bloqueo, las estadísticas, los avisos de eliminación y el cambio de
+ * máximo son los de {@link PrimitiveLRUCache}.
+ * <p>
+ * Esta caché es <i>thread-safe</i>.
+ * <p>
+ * 30/07/2016 11:20:37
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class LongLRUCache<E extends Id<Long>> extends PrimitiveLRUCache<Long, E> implements ILongCache<E> {
+
+	/* Constructor, recibe el máximo número de elementos. */
+	LongLRUCache (final int maxCapacity) {
+		super(maxCapacity);
+	}
+
+	@Override
+	public E remove(final long id) {
+		return removeKey(id);
+	}
+
+	@Override
+	public E get(final long id) {
+		return getKey(id);
+	}
+}
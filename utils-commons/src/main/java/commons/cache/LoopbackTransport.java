@@ -0,0 +1,89 @@
+package commons.cache;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import commons.util.PrintUtils;
+
+/**
+ * Transporte de invalidaciones dentro del proceso: los transportes creados
+ * con {@link #connect()} a partir de uno dado forman una red, y cada mensaje
+ * se entrega, en el hilo que lo publica, a todos los transportes de la red.
+ * Permite probar varios nodos, cada uno con su {@link Caches}, en una misma
+ * máquina virtual.
+ * <p>
+ * 17/09/2016 10:26:03
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class LoopbackTransport implements IInvalidationTransport {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "LoopbackTransport [nodos:%s]";
+
+	/* Máximo de bytes de un mensaje, el mismo que el de un datagrama. */
+	private static final int MAX_MESSAGE_SIZE = SocketTransport.MAX_DATAGRAM_SIZE;
+
+	/* Transportes de la red, compartida por todos los conectados. */
+	private final List<LoopbackTransport> network;
+
+	/* Receptor de los mensajes, null hasta que se suscribe el bus. */
+	private volatile Consumer<ByteBuffer> receiver;
+
+	/**
+	 * Constructor, crea una red nueva con este transporte.
+	 */
+	public LoopbackTransport() {
+		this(new CopyOnWriteArrayList<>());
+	}
+
+	/* Constructor, une el transporte a una red existente. */
+	private LoopbackTransport (final List<LoopbackTransport> network) {
+		this.network = network;
+		this.network.add(this);
+	}
+
+	/**
+	 * Crea otro transporte conectado a la misma red que éste.
+	 *
+	 * @return Transporte nuevo.
+	 */
+	public LoopbackTransport connect() {
+		return new LoopbackTransport(network);
+	}
+
+	@Override
+	public int maxMessageSize() {
+		return MAX_MESSAGE_SIZE;
+	}
+
+	@Override
+	public void publish(final ByteBuffer message) {
+		for (final LoopbackTransport transport : network) {
+			final Consumer<ByteBuffer> current = transport.receiver;
+			if (current != null) {
+				current.accept(message.duplicate());
+			}
+		}
+	}
+
+	@Override
+	public void subscribe(final Consumer<ByteBuffer> receiver) {
+		this.receiver = receiver;
+	}
+
+	/* Desconecta el transporte de la red. */
+	@Override
+	public void close() {
+		network.remove(this);
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, network.size());
+	}
+}
@@ -0,0 +1,535 @@
+package commons.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import commons.log.Log;
+import commons.util.PrintUtils;
+
+/**
+ * Almacén en disco de sólo escritura al final (<i>append-only</i>) sobre un
+ * fichero proyectado en memoria. Cada registro guarda la clave y el valor
+ * codificados; al eliminar o sustituir una clave su registro anterior se marca
+ * como borrado en el propio fichero, de forma que al reabrirlo sólo se indexan
+ * los registros vivos.
+ * <p>
+ * El fichero se proyecta en segmentos de tamaño fijo; un registro nunca cruza
+ * dos segmentos. Al reabrir un fichero existente el índice se construye de
+ * forma perezosa, en el primer acceso. Cuando el fichero alcanza su tamaño
+ * máximo se compacta, reescribiendo sólo los registros vivos; los que no
+ * caben en el fichero compactado se pasan al receptor de descartados.
+ * <p>
+ * Formato de registro: longitud total (int, se escribe en último lugar para
+ * confirmar el registro), estado (byte), longitud de la clave (int), clave y
+ * valor.
+ * <p>
+ * Es <i>thread-safe</i>, todos los accesos se sincronizan sobre el almacén.
+ * <p>
+ * 16/07/2016 10:12:55
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+final class MappedFileStore<ID, E> implements Closeable {
+
+	/* Tamaño de segmento por defecto, 64 MB. */
+	static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+	/* Cabecera del registro: longitud, estado y longitud de la clave. */
+	private static final int HEADER_SIZE = Integer.BYTES + Byte.BYTES + Integer.BYTES;
+
+	/* Posiciones dentro de la cabecera. */
+	private static final int STATUS_OFFSET = Integer.BYTES;
+	private static final int KEY_LENGTH_OFFSET = STATUS_OFFSET + Byte.BYTES;
+
+	/* Estados de un registro. */
+	private static final byte LIVE = 1;
+	private static final byte DELETED = 2;
+
+	/* Marca de fin de segmento: el siguiente registro está al inicio del siguiente segmento. */
+	private static final int END_OF_SEGMENT = -1;
+
+	/* Proporción de bytes borrados a partir de la cual compensa compactar. */
+	private static final float COMPACTION_THRESHOLD = 0.5f;
+
+	/* Sufijo del fichero temporal de compactación. */
+	private static final String COMPACTION_SUFFIX = ".compact";
+
+	/* Fichero del almacén. */
+	private final Path path;
+
+	/* Tamaño de cada segmento proyectado y tamaño máximo del fichero. */
+	private final int segmentSize;
+	private final long maxBytes;
+
+	/* Codificadores de claves y valores. */
+	private final ICodec<ID> keyCodec;
+	private final ICodec<E> valueCodec;
+
+	/* Canal del fichero y segmentos proyectados, en orden. */
+	private FileChannel channel;
+	private List<MappedByteBuffer> segments;
+
+	/* Posición de cada registro vivo, por clave. Null hasta que se indexa el fichero. */
+	private Map<ID, Long> index;
+
+	/* Posición donde se escribirá el siguiente registro. */
+	private long writePosition;
+
+	/* Bytes ocupados por registros borrados. */
+	private long deadBytes;
+
+	/* Buffer para codificar registros, en el heap. */
+	private ByteBuffer scratch;
+
+	/* Receptor de los valores descartados al compactar por no caber, null si no hay. */
+	private final Consumer<? super E> dropHandler;
+
+	/* Libera la proyección de un buffer sin esperar al recolector, null si la máquina virtual no lo permite. */
+	private static final Consumer<MappedByteBuffer> UNMAPPER = unmapper();
+
+	/* Constructor, abre o crea el fichero. No lo indexa hasta el primer acceso. */
+	MappedFileStore (final Path path, final long maxBytes, final int segmentSize, final ICodec<ID> keyCodec,
+			final ICodec<E> valueCodec) {
+		this(path, maxBytes, segmentSize, keyCodec, valueCodec, null);
+	}
+
+	/*
+	 * Constructor, recibe además el receptor de los valores que se descartan
+	 * al compactar por no caber en el fichero. Se llama sincronizado sobre el
+	 * almacén, por lo que debe ser rápido.
+	 */
+	MappedFileStore (final Path path, final long maxBytes, final int segmentSize, final ICodec<ID> keyCodec,
+			final ICodec<E> valueCodec, final Consumer<? super E> dropHandler) {
+		if (segmentSize <= HEADER_SIZE || maxBytes < segmentSize) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"No se puede crear almacén en disco con '%s' bytes y segmentos de '%s' bytes", maxBytes, segmentSize)
+			);
+		}
+		this.path = Objects.requireNonNull(path);
+		this.maxBytes = maxBytes;
+		this.segmentSize = segmentSize;
+		this.keyCodec = Objects.requireNonNull(keyCodec);
+		this.valueCodec = Objects.requireNonNull(valueCodec);
+		this.scratch = ByteBuffer.allocate(Math.min(4096, segmentSize));
+		this.dropHandler = dropHandler;
+		this.channel = open(path);
+		this.segments = new ArrayList<>();
+	}
+
+	/* Abre el canal del fichero en lectura y escritura, creándolo si no existe. */
+	private static FileChannel open(final Path path) {
+		try {
+			return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/* Obtiene un valor por clave, null si no está. */
+	synchronized E get(final ID id) {
+		final Long position = index().get(id);
+		if (position == null) {
+			return null;
+		}
+
+		return decodeValue(record(position));
+	}
+
+	/* Decodifica el valor de un registro. */
+	private E decodeValue(final ByteBuffer record) {
+		final int keyLength = record.getInt(KEY_LENGTH_OFFSET);
+		record.position(HEADER_SIZE + keyLength);
+		return valueCodec.decode(record);
+	}
+
+	/* Obtiene los valores de varias claves, por clave. Las claves que no están no se incluyen. */
+	synchronized Map<ID, E> getAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> result = new LinkedHashMap<>();
+		for (final ID id : ids) {
+			final E value = get(id);
+			if (value != null) {
+				result.put(id, value);
+			}
+		}
+		return result;
+	}
+
+	/* Indica si hay un valor para la clave. */
+	synchronized boolean contains(final ID id) {
+		return index().containsKey(id);
+	}
+
+	/*
+	 * Guarda un valor, sustituyendo el anterior de la misma clave. Devuelve
+	 * false si no se puede guardar porque no cabe en un segmento o porque el
+	 * fichero está lleno de registros vivos.
+	 */
+	synchronized boolean put(final ID id, final E value) {
+		final ByteBuffer encoded = encode(id, value);
+		if (encoded == null) {
+			remove(id);
+			return false;
+		}
+
+		final int length = encoded.remaining();
+		if (!ensureCapacity(length)) {
+			remove(id);
+			return false;
+		}
+
+		remove(id);
+		final long position = append(encoded);
+		index.put(id, position);
+		return true;
+	}
+
+	/* Elimina el valor de una clave, marcando su registro como borrado. */
+	synchronized void remove(final ID id) {
+		final Long position = index().remove(id);
+		if (position != null) {
+			final ByteBuffer record = record(position);
+			record.put(STATUS_OFFSET, DELETED);
+			deadBytes += record.limit();
+		}
+	}
+
+	/* Elimina los valores de varias claves. */
+	synchronized void removeAll(final Collection<? extends ID> ids) {
+		for (final ID id : ids) {
+			remove(id);
+		}
+	}
+
+	/* Elimina todos los valores. El espacio se recupera al compactar. */
+	synchronized void clear() {
+		for (final Long position : index().values()) {
+			final ByteBuffer record = record(position);
+			record.put(STATUS_OFFSET, DELETED);
+			deadBytes += record.limit();
+		}
+		index.clear();
+	}
+
+	/* Número de registros vivos. */
+	synchronized int size() {
+		return index().size();
+	}
+
+	/* Vuelca a disco los cambios pendientes. */
+	synchronized void force() {
+		for (final MappedByteBuffer segment : segments) {
+			segment.force();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		release();
+	}
+
+	/*
+	 * Vuelca los segmentos, libera sus proyecciones y cierra el canal. Los
+	 * segmentos liberados no deben volver a usarse: acceder a ellos puede
+	 * terminar la máquina virtual.
+	 */
+	private void release() throws IOException {
+		force();
+		final List<MappedByteBuffer> released = segments;
+		segments = new ArrayList<>();
+		if (UNMAPPER != null) {
+			for (final MappedByteBuffer segment : released) {
+				UNMAPPER.accept(segment);
+			}
+		}
+		channel.close();
+	}
+
+	/* Codifica un registro vivo en el buffer de trabajo. Null si no cabe en un segmento. */
+	private ByteBuffer encode(final ID id, final E value) {
+		while (true) {
+			scratch.clear();
+			try {
+				scratch.position(HEADER_SIZE);
+				keyCodec.encode(id, scratch);
+				final int keyLength = scratch.position() - HEADER_SIZE;
+				valueCodec.encode(value, scratch);
+				scratch.flip();
+				scratch.putInt(0, scratch.limit());
+				scratch.put(STATUS_OFFSET, LIVE);
+				scratch.putInt(KEY_LENGTH_OFFSET, keyLength);
+				return scratch;
+			} catch (BufferOverflowException e) {
+				if (scratch.capacity() >= segmentSize) {
+					Log.debug(MappedFileStore.class, 
+							"Registro mayor que un segmento de '%s' bytes, no se guarda: '%s'", segmentSize, id);
+					return null;
+				}
+				scratch = ByteBuffer.allocate((int) Math.min((long) scratch.capacity() << 1, segmentSize));
+			}
+		}
+	}
+
+	/*
+	 * Comprueba que un registro cabe al final del fichero, compactando si es
+	 * necesario y compensa.
+	 */
+	private boolean ensureCapacity(final int length) {
+		if (nextPosition(length) + length <= maxBytes) {
+			return true;
+		}
+		if (deadBytes > 0 && deadBytes >= (long) (writePosition * COMPACTION_THRESHOLD)) {
+			compact();
+		}
+		return nextPosition(length) + length <= maxBytes;
+	}
+
+	/* Posición donde se escribiría un registro, saltando al siguiente segmento si no cabe en el actual. */
+	private long nextPosition(final int length) {
+		final long remaining = segmentSize - (writePosition % segmentSize);
+		return remaining >= length ? writePosition : writePosition + remaining;
+	}
+
+	/*
+	 * Escribe un registro codificado al final del fichero y devuelve su
+	 * posición. La longitud se escribe en último lugar, de forma que un
+	 * registro a medio escribir tiene longitud 0 y se descarta al reabrir.
+	 */
+	private long append(final ByteBuffer encoded) {
+		final int length = encoded.remaining();
+		final long position = nextPosition(length);
+		if (position != writePosition) {
+			/* Se marca el fin del segmento actual si cabe la marca, si no se salta implícitamente. */
+			if (position - writePosition >= Integer.BYTES) {
+				segment(writePosition).putInt(offset(writePosition), END_OF_SEGMENT);
+			}
+		}
+
+		final ByteBuffer target = segment(position).duplicate();
+		final int offset = offset(position);
+		encoded.position(Integer.BYTES);
+		target.position(offset + Integer.BYTES);
+		target.put(encoded);
+		target.putInt(offset, length);
+
+		writePosition = position + length;
+		return position;
+	}
+
+	/* Vista del registro de una posición, de la cabecera al final del valor. */
+	private ByteBuffer record(final long position) {
+		final ByteBuffer record = segment(position).duplicate();
+		final int offset = offset(position);
+		record.limit(offset + record.getInt(offset)).position(offset);
+		return record.slice();
+	}
+
+	/* Segmento proyectado que contiene una posición, proyectándolo si aún no lo está. */
+	private MappedByteBuffer segment(final long position) {
+		final int segment = (int) (position / segmentSize);
+		try {
+			while (segments.size() <= segment) {
+				segments.add(channel.map(MapMode.READ_WRITE, (long) segments.size() * segmentSize, segmentSize));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return segments.get(segment);
+	}
+
+	/* Posición relativa al inicio de su segmento. */
+	private int offset(final long position) {
+		return (int) (position % segmentSize);
+	}
+
+	/* Índice de registros vivos, recorriendo el fichero la primera vez. */
+	private Map<ID, Long> index() {
+		if (index == null) {
+			index = new HashMap<>();
+			scan();
+		}
+		return index;
+	}
+
+	/*
+	 * Recorre el fichero desde el principio, indexando los registros vivos,
+	 * hasta encontrar un registro sin confirmar (longitud 0) o el final.
+	 */
+	private void scan() {
+		final long fileSize;
+		try {
+			fileSize = channel.size();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		long position = 0;
+		while (position < fileSize) {
+			final int offset = offset(position);
+			if (segmentSize - offset < Integer.BYTES) {
+				position += segmentSize - offset;
+				continue;
+			}
+
+			final int length = segment(position).getInt(offset);
+			if (length == END_OF_SEGMENT) {
+				position += segmentSize - offset;
+				continue;
+			}
+			if (length < HEADER_SIZE || length > segmentSize - offset) {
+				/* Registro sin confirmar o dañado: fin de los datos válidos. */
+				break;
+			}
+
+			final ByteBuffer record = record(position);
+			if (record.get(STATUS_OFFSET) == LIVE) {
+				final int keyLength = record.getInt(KEY_LENGTH_OFFSET);
+				record.limit(HEADER_SIZE + keyLength).position(HEADER_SIZE);
+				final Long previous = index.put(keyCodec.decode(record), position);
+				if (previous != null) {
+					/* No debería ocurrir, los registros sustituidos se marcan como borrados. */
+					deadBytes += record(previous).limit();
+				}
+			} else {
+				deadBytes += length;
+			}
+			position += length;
+		}
+		writePosition = position;
+		Log.debug(MappedFileStore.class, 
+				"Indexado almacén '%s': %s registros vivos, %s bytes borrados", path, index.size(), deadBytes);
+	}
+
+	/*
+	 * Reescribe los registros vivos en un fichero nuevo, que sustituye al
+	 * actual. Los registros se copian sin decodificar; sólo se decodifican los
+	 * que no caben, para pasarlos al receptor de descartados. Antes de
+	 * sustituir el fichero se liberan las proyecciones y se cierran los dos
+	 * canales, y después se reabre: no se puede sustituir un fichero
+	 * proyectado en todos los sistemas. Si la compactación falla antes de
+	 * sustituirlo se cierra y se borra el fichero nuevo.
+	 */
+	private void compact() {
+		final Path compactPath = path.resolveSibling(path.getFileName() + COMPACTION_SUFFIX);
+		MappedFileStore<ID, E> compacted = null;
+		boolean replaced = false;
+		try {
+			Files.deleteIfExists(compactPath);
+			compacted = new MappedFileStore<>(compactPath, maxBytes, segmentSize, keyCodec, valueCodec);
+			compacted.index = new HashMap<>();
+			final List<E> dropped = new ArrayList<>();
+			for (final Entry<ID, Long> entry : index.entrySet()) {
+				final ByteBuffer record = record(entry.getValue());
+				if (compacted.nextPosition(record.remaining()) + record.remaining() > maxBytes) {
+					if (dropHandler != null) {
+						dropped.add(decodeValue(record.duplicate()));
+					}
+					continue;
+				}
+				compacted.index.put(entry.getKey(), compacted.append(record));
+			}
+			compacted.release();
+			release();
+
+			try {
+				Files.move(compactPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				replaced = true;
+			} finally {
+				/* Si falla la sustitución se reabre el fichero anterior, con su índice. */
+				channel = open(path);
+			}
+			index = compacted.index;
+			writePosition = compacted.writePosition;
+			deadBytes = 0;
+
+			for (final E value : dropped) {
+				dropHandler.accept(value);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (!replaced) {
+				discardCompaction(compacted, compactPath);
+			}
+		}
+	}
+
+	/* Cierra y borra el fichero de una compactación fallida. Los errores sólo se registran. */
+	private static void discardCompaction(final MappedFileStore<?, ?> compacted, final Path compactPath) {
+		try {
+			if (compacted != null) {
+				compacted.release();
+			}
+			Files.deleteIfExists(compactPath);
+		} catch (IOException | RuntimeException e) {
+			Log.error(MappedFileStore.class, PrintUtils.format("Error al borrar el fichero de compactación '%s'", 
+					compactPath), e);
+		}
+	}
+
+	/*
+	 * Forma de liberar la proyección de un buffer: Unsafe.invokeCleaner()
+	 * desde Java 9, o el Cleaner del propio buffer en Java 8. Null si ninguna
+	 * está disponible; entonces la proyección se libera al recolectar el
+	 * buffer.
+	 */
+	private static Consumer<MappedByteBuffer> unmapper() {
+		try {
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			final Object unsafe = theUnsafe.get(null);
+			return buffer -> invoke(invokeCleaner, unsafe, buffer);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			/* Java 8. */
+		}
+		try {
+			final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			return buffer -> invoke(clean, invoke(cleaner, buffer, null), null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			Log.debug(MappedFileStore.class, "No se pueden liberar las proyecciones de fichero, se liberan al recolectarlas");
+			return null;
+		}
+	}
+
+	/* Invoca un método por reflexión, con un argumento opcional. Los errores se registran y se ignoran. */
+	private static Object invoke(final Method method, final Object target, final Object argument) {
+		try {
+			return argument != null ? method.invoke(target, argument) : method.invoke(target);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			Log.debug(MappedFileStore.class, "No se ha podido liberar una proyección de fichero", e);
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return PrintUtils.format("MappedFileStore [fichero:%s] [bytes:%s/%s] [borrados:%s] [registros:%s]",
+				path, writePosition, maxBytes, deadBytes, index != null ? index.size() : "sin indexar");
+	}
+}
@@ -0,0 +1,617 @@
+package commons.cache;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import commons.log.Log;
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Caché LRU que almacena sus elementos serializados fuera del heap de Java,
+ * en memoria directa. Sólo el índice de ids y posiciones permanece en el heap,
+ * por lo que cientos de megas de elementos no llegan a la generación antigua
+ * ni alargan las pausas del recolector.
+ * <p>
+ * La memoria se reparte en bloques (<i>slabs</i>) de tamaño fijo que se
+ * reservan a medida que se necesitan, hasta el máximo de bytes indicado. Los
+ * elementos se escriben de forma consecutiva en el bloque activo; al
+ * eliminarlos o sustituirlos su espacio queda libre y se recupera compactando:
+ * los elementos vivos del bloque con menos ocupación se copian a un bloque de
+ * reserva, que pasa a ser el activo. Si no se puede recuperar espacio se
+ * expulsan elementos en orden LRU.
+ * <p>
+ * Cada lectura decodifica una copia nueva del elemento con el {@link ICodec}
+ * indicado. Los elementos mayores que un bloque no se guardan.
+ * <p>
+ * Esta caché es <i>thread-safe</i>.
+ * <p>
+ * 09/07/2016 11:40:02
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class OffHeapCache<ID, E extends Id<ID>> extends AbstractCache<ID, E> {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT =
+			"OffHeapCache [max bytes:%s] [bloques:%sx%s] [bytes vivos:%s] [elementos:%s]";
+
+	/* Tamaño de bloque por defecto, 1 MB. */
+	private static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+	/* Número mínimo de bloques: activo, reserva para compactar y al menos dos más. */
+	private static final int MIN_SLABS = 4;
+
+	/* Tamaño mínimo de bloque. */
+	private static final int MIN_SLAB_SIZE = 64;
+
+	/* Tamaño inicial del buffer de codificación de cada hilo. */
+	private static final int INITIAL_SCRATCH_SIZE = 4096;
+
+	/* Factor de carga del índice. */
+	private static final float LOAD_FACTOR = 0.75f;
+
+	/* Codificador de los elementos. */
+	private final ICodec<E> codec;
+
+	/* Bloques de memoria directa, null hasta que se usan por primera vez. */
+	private final ByteBuffer[] slabs;
+
+	/* Tamaño de cada bloque. */
+	private final int slabSize;
+
+	/* Bytes ocupados por elementos vivos en cada bloque. */
+	private final int[] liveBytes;
+
+	/* Pila de bloques libres. */
+	private final int[] freeSlabs;
+	private int freeCount;
+
+	/* Bloque de reserva, siempre vacío, destino de la compactación. */
+	private int spareSlab;
+
+	/* Bloque en el que se escriben los elementos y posición de escritura. */
+	private int activeSlab;
+	private int writeOffset;
+
+	/* Posición de cada elemento, por id, en orden de acceso. */
+	private final LinkedHashMap<ID, Slot> index;
+
+	/* Bytes ocupados por elementos vivos en total. */
+	private long usedBytes;
+
+	/* Bloqueo de acceso, las lecturas también reordenan el índice. */
+	private final Lock lock;
+
+	/* Buffer de codificación y decodificación de cada hilo, en el heap. */
+	private final ThreadLocal<ByteBuffer> scratch;
+
+	/* Elementos eliminados pendientes de notificar, copiados al heap. Protegido por 'lock'. */
+	private List<Removal> removals;
+
+	/* Constructor, recibe el máximo de bytes de memoria directa y el codificador de los elementos. */
+	OffHeapCache (final long maxBytes, final ICodec<E> codec) {
+		this(maxBytes, (int) Math.min(DEFAULT_SLAB_SIZE, maxBytes / MIN_SLABS), codec);
+	}
+
+	/* Constructor, recibe el máximo de bytes, el tamaño de bloque y el codificador de los elementos. */
+	OffHeapCache (final long maxBytes, final int slabSize, final ICodec<E> codec) {
+		if (slabSize < MIN_SLAB_SIZE || maxBytes / slabSize < MIN_SLABS) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"No se puede crear cache fuera del heap con '%s' bytes y bloques de '%s' bytes", maxBytes, slabSize)
+			);
+		}
+
+		this.codec = Objects.requireNonNull(codec);
+		this.slabSize = slabSize;
+
+		final int numSlabs = (int) Math.min(maxBytes / slabSize, Integer.MAX_VALUE);
+		this.slabs = new ByteBuffer[numSlabs];
+		this.liveBytes = new int[numSlabs];
+		this.freeSlabs = new int[numSlabs];
+		resetSlabs();
+
+		this.index = new LinkedHashMap<>(16, LOAD_FACTOR, Boolean.TRUE);
+		this.lock = new ReentrantLock();
+		this.scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(Math.min(INITIAL_SCRATCH_SIZE, slabSize)));
+		this.removals = new ArrayList<>();
+	}
+
+	/* Reparte los bloques: el 0 de reserva, el 1 activo y el resto libres. Los bloques no se liberan. */
+	private void resetSlabs() {
+		spareSlab = 0;
+		activate(1, 0);
+		freeCount = 0;
+		for (int i = slabs.length - 1; i > 1; i--) {
+			freeSlabs[freeCount++] = i;
+		}
+	}
+
+	@Override
+	public void add(final E element) {
+		Objects.requireNonNull(element);
+		final ID id = element.getId();
+		Objects.requireNonNull(id);
+
+		/* Se codifica fuera del bloqueo, en el buffer del hilo. */
+		final ByteBuffer encoded = encode(element);
+
+		final List<Removal> removed;
+		lock.lock();
+		try {
+			store(id, encoded);
+			removed = takeRemovals();
+		} finally {
+			lock.unlock();
+		}
+		if (encoded == null) {
+			notifyRemoval(element, RemovalCause.SIZE);
+		}
+		notifyRemovals(removed);
+		statsCounter().recordPuts(1);
+	}
+
+	@Override
+	public void addAll(final Collection<? extends E> elements) {
+		/* Se codifican fuera del bloqueo. Se copian porque el buffer del hilo se reutiliza. */
+		final List<ID> ids = new ArrayList<>(elements.size());
+		final List<ByteBuffer> encoded = new ArrayList<>(elements.size());
+		final List<E> tooLarge = new ArrayList<>();
+		for (final E element : elements) {
+			Objects.requireNonNull(element);
+			final ID id = element.getId();
+			Objects.requireNonNull(id);
+
+			final ByteBuffer bytes = encode(element);
+			ByteBuffer copy = null;
+			if (bytes != null) {
+				copy = ByteBuffer.allocate(bytes.remaining());
+				copy.put(bytes);
+				copy.flip();
+			} else {
+				tooLarge.add(element);
+			}
+			ids.add(id);
+			encoded.add(copy);
+		}
+
+		final List<Removal> removed;
+		lock.lock();
+		try {
+			for (int i = 0; i < ids.size(); i++) {
+				store(ids.get(i), encoded.get(i));
+			}
+			removed = takeRemovals();
+		} finally {
+			lock.unlock();
+		}
+		for (final E element : tooLarge) {
+			notifyRemoval(element, RemovalCause.SIZE);
+		}
+		notifyRemovals(removed);
+		statsCounter().recordPuts(ids.size());
+	}
+
+	/*
+	 * Guarda un elemento codificado, sustituyendo al anterior. Si es null (no
+	 * cabe en un bloque) sólo se elimina el anterior. Debe llamarse con el
+	 * bloqueo adquirido.
+	 */
+	private void store(final ID id, final ByteBuffer encoded) {
+		final Slot previous = index.remove(id);
+		recordRemoval(previous, RemovalCause.REPLACED);
+		release(previous);
+		if (encoded == null) {
+			/* No cabe en un bloque, se descarta como si se expulsara. */
+			statsCounter().recordEviction(RemovalCause.SIZE);
+			return;
+		}
+
+		final Slot slot = allocate(encoded.remaining());
+		final ByteBuffer target = slabs[slot.slab].duplicate();
+		target.position(slot.offset);
+		target.put(encoded);
+		index.put(id, slot);
+	}
+
+	@Override
+	public E remove(final ID id) {
+		final ByteBuffer bytes;
+		lock.lock();
+		try {
+			final Slot slot = index.remove(id);
+			if (slot == null) {
+				return null;
+			}
+			bytes = copy(slot);
+			release(slot);
+		} finally {
+			lock.unlock();
+		}
+		final E removed = codec.decode(bytes);
+		notifyRemoval(removed, RemovalCause.EXPLICIT);
+		dispatchRemovals();
+		return removed;
+	}
+
+	@Override
+	public E get(final ID id) {
+		final ByteBuffer bytes;
+		lock.lock();
+		try {
+			final Slot slot = index.get(id);
+			if (slot == null) {
+				statsCounter().recordMisses(1);
+				return null;
+			}
+			bytes = copy(slot);
+		} finally {
+			lock.unlock();
+		}
+		statsCounter().recordHits(1);
+		/* Se decodifica fuera del bloqueo, desde la copia en el buffer del hilo. */
+		return codec.decode(bytes);
+	}
+
+	@Override
+	public Map<ID, E> getAll(final Collection<? extends ID> ids) {
+		final List<ID> found = new ArrayList<>();
+		final List<Slot> slots = new ArrayList<>();
+		final ByteBuffer bytes;
+		lock.lock();
+		try {
+			for (final ID id : ids) {
+				final Slot slot = index.get(id);
+				if (slot != null) {
+					found.add(id);
+					slots.add(slot);
+				}
+			}
+			bytes = copyAll(slots);
+		} finally {
+			lock.unlock();
+		}
+
+		statsCounter().recordHits(found.size());
+		statsCounter().recordMisses(ids.size() - found.size());
+		return decodeAll(found, slots, bytes);
+	}
+
+	@Override
+	public Map<ID, E> removeAll(final Collection<? extends ID> ids) {
+		final List<ID> found = new ArrayList<>();
+		final List<Slot> slots = new ArrayList<>();
+		final ByteBuffer bytes;
+		lock.lock();
+		try {
+			for (final ID id : ids) {
+				final Slot slot = index.remove(id);
+				if (slot != null) {
+					found.add(id);
+					slots.add(slot);
+				}
+			}
+			bytes = copyAll(slots);
+			for (final Slot slot : slots) {
+				release(slot);
+			}
+		} finally {
+			lock.unlock();
+		}
+		final Map<ID, E> result = decodeAll(found, slots, bytes);
+		for (final E removed : result.values()) {
+			notifyRemoval(removed, RemovalCause.EXPLICIT);
+		}
+		dispatchRemovals();
+		return result;
+	}
+
+	@Override
+	List<E> snapshot() {
+		final List<Slot> slots;
+		final ByteBuffer bytes;
+		lock.lock();
+		try {
+			slots = new ArrayList<>(index.values());
+			bytes = copyAll(slots);
+		} finally {
+			lock.unlock();
+		}
+
+		final List<E> result = new ArrayList<>(slots.size());
+		int offset = 0;
+		for (final Slot slot : slots) {
+			final ByteBuffer element = bytes.duplicate();
+			element.limit(offset + slot.length).position(offset);
+			result.add(codec.decode(element));
+			offset += slot.length;
+		}
+		return result;
+	}
+
+	@Override
+	public void invalidateAll() {
+		final List<Removal> removed;
+		lock.lock();
+		try {
+			for (final Slot slot : index.values()) {
+				recordRemoval(slot, RemovalCause.EXPLICIT);
+			}
+			index.clear();
+			Arrays.fill(liveBytes, 0);
+			usedBytes = 0L;
+			resetSlabs();
+			removed = takeRemovals();
+		} finally {
+			lock.unlock();
+		}
+		notifyRemovals(removed);
+	}
+
+	/*
+	 * Guarda una copia en el heap de un elemento eliminado, si hay oyentes,
+	 * para decodificarlo y notificarlo fuera del bloqueo. Debe llamarse con
+	 * el bloqueo adquirido y antes de liberar su espacio.
+	 */
+	private void recordRemoval(final Slot slot, final RemovalCause cause) {
+		if (slot != null && hasRemovalListeners()) {
+			removals.add(new Removal(copyAll(Collections.singletonList(slot)), cause));
+		}
+	}
+
+	/* Toma las eliminaciones pendientes de notificar. Debe llamarse con el bloqueo adquirido. */
+	private List<Removal> takeRemovals() {
+		if (removals.isEmpty()) {
+			return Collections.emptyList();
+		}
+		final List<Removal> taken = removals;
+		removals = new ArrayList<>();
+		return taken;
+	}
+
+	/* Decodifica y notifica las eliminaciones tomadas con takeRemovals. Debe llamarse sin el bloqueo. */
+	private void notifyRemovals(final List<Removal> removed) {
+		for (final Removal removal : removed) {
+			notifyRemoval(codec.decode(removal.bytes), removal.cause);
+		}
+		dispatchRemovals();
+	}
+
+	/*
+	 * Copia los bytes de varios elementos, de forma consecutiva, a un buffer
+	 * nuevo en el heap. Debe llamarse con el bloqueo adquirido.
+	 */
+	private ByteBuffer copyAll(final List<Slot> slots) {
+		int total = 0;
+		for (final Slot slot : slots) {
+			total += slot.length;
+		}
+
+		final ByteBuffer buffer = ByteBuffer.allocate(total);
+		for (final Slot slot : slots) {
+			final ByteBuffer source = slabs[slot.slab].duplicate();
+			source.limit(slot.offset + slot.length).position(slot.offset);
+			buffer.put(source);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/* Decodifica los elementos copiados con copyAll, por id. La longitud de los slots no cambia. */
+	private Map<ID, E> decodeAll(final List<ID> ids, final List<Slot> slots, final ByteBuffer bytes) {
+		final Map<ID, E> result = new LinkedHashMap<>();
+		int offset = 0;
+		for (int i = 0; i < ids.size(); i++) {
+			final int length = slots.get(i).length;
+			final ByteBuffer element = bytes.duplicate();
+			element.limit(offset + length).position(offset);
+			result.put(ids.get(i), codec.decode(element));
+			offset += length;
+		}
+		return result;
+	}
+
+	/*
+	 * Codifica un elemento en el buffer del hilo, ampliándolo si no cabe.
+	 * Devuelve null si el elemento no cabe en un bloque.
+	 */
+	private ByteBuffer encode(final E element) {
+		ByteBuffer buffer = scratch.get();
+		while (true) {
+			buffer.clear();
+			try {
+				codec.encode(element, buffer);
+				buffer.flip();
+				return buffer;
+			} catch (BufferOverflowException e) {
+				if (buffer.capacity() >= slabSize) {
+					Log.debug(OffHeapCache.class, 
+							"Elemento mayor que un bloque de '%s' bytes, no se guarda: '%s'", slabSize, element);
+					return null;
+				}
+				buffer = ByteBuffer.allocate((int) Math.min((long) buffer.capacity() << 1, slabSize));
+				scratch.set(buffer);
+			}
+		}
+	}
+
+	/* Copia los bytes de un elemento al buffer del hilo. Debe llamarse con el bloqueo adquirido. */
+	private ByteBuffer copy(final Slot slot) {
+		ByteBuffer buffer = scratch.get();
+		if (buffer.capacity() < slot.length) {
+			buffer = ByteBuffer.allocate(slot.length);
+			scratch.set(buffer);
+		}
+
+		final ByteBuffer source = slabs[slot.slab].duplicate();
+		source.limit(slot.offset + slot.length).position(slot.offset);
+		buffer.clear();
+		buffer.put(source);
+		buffer.flip();
+		return buffer;
+	}
+
+	/*
+	 * Reserva espacio para un elemento en el bloque activo. Si no cabe se toma
+	 * un bloque libre, se compacta o, como último recurso, se expulsa el
+	 * elemento menos recientemente utilizado, hasta que haya espacio. Debe
+	 * llamarse con el bloqueo adquirido.
+	 */
+	private Slot allocate(final int length) {
+		while (slabSize - writeOffset < length) {
+			if (freeCount > 0) {
+				activate(freeSlabs[--freeCount], 0);
+			} else if (!compact(length)) {
+				evictEldest();
+			}
+		}
+
+		final Slot slot = new Slot(activeSlab, writeOffset, length);
+		writeOffset += length;
+		liveBytes[activeSlab] += length;
+		usedBytes += length;
+		return slot;
+	}
+
+	/* Cambia el bloque activo, reservando su memoria si aún no se ha usado. */
+	private void activate(final int slab, final int offset) {
+		if (slabs[slab] == null) {
+			slabs[slab] = ByteBuffer.allocateDirect(slabSize);
+		}
+		activeSlab = slab;
+		writeOffset = offset;
+	}
+
+	/*
+	 * Compacta el bloque con menos bytes vivos, si así se recupera espacio
+	 * suficiente para 'length' bytes: sus elementos vivos se copian al bloque
+	 * de reserva, que pasa a ser el activo, y el bloque compactado pasa a ser
+	 * la reserva. Devuelve false si no se recupera espacio suficiente.
+	 */
+	private boolean compact(final int length) {
+		int victim = -1;
+		for (int i = 0; i < slabs.length; i++) {
+			if (i != spareSlab && (victim < 0 || liveBytes[i] < liveBytes[victim])) {
+				victim = i;
+			}
+		}
+
+		if (victim < 0 || slabSize - liveBytes[victim] < length) {
+			return false;
+		}
+
+		final int target = spareSlab;
+		if (slabs[target] == null) {
+			slabs[target] = ByteBuffer.allocateDirect(slabSize);
+		}
+
+		int offset = 0;
+		if (liveBytes[victim] > 0) {
+			final ByteBuffer destination = slabs[target].duplicate();
+			for (final Slot slot : index.values()) {
+				if (slot.slab == victim) {
+					final ByteBuffer source = slabs[victim].duplicate();
+					source.limit(slot.offset + slot.length).position(slot.offset);
+					destination.position(offset);
+					destination.put(source);
+					slot.slab = target;
+					slot.offset = offset;
+					offset += slot.length;
+				}
+			}
+		}
+
+		liveBytes[target] = offset;
+		liveBytes[victim] = 0;
+		spareSlab = victim;
+
+		/*
+		 * Si el compactado no era el activo, el activo anterior queda sellado:
+		 * su espacio sin usar se recuperará cuando se compacte.
+		 */
+		activate(target, offset);
+		return true;
+	}
+
+	/* Expulsa el elemento menos recientemente utilizado. Debe llamarse con el bloqueo adquirido. */
+	private void evictEldest() {
+		final Iterator<Slot> eldest = index.values().iterator();
+		if (eldest.hasNext()) {
+			final Slot slot = eldest.next();
+			recordRemoval(slot, RemovalCause.SIZE);
+			release(slot);
+			eldest.remove();
+			statsCounter().recordEviction(RemovalCause.SIZE);
+		}
+	}
+
+	/* Libera el espacio de un elemento eliminado. Debe llamarse con el bloqueo adquirido. */
+	private void release(final Slot slot) {
+		if (slot != null) {
+			liveBytes[slot.slab] -= slot.length;
+			usedBytes -= slot.length;
+		}
+	}
+
+	/**
+	 * Obtiene los bytes ocupados por los elementos vivos en memoria directa.
+	 *
+	 * @return Bytes ocupados.
+	 */
+	public long getUsedBytes() {
+		lock.lock();
+		try {
+			return usedBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		lock.lock();
+		try {
+			return PrintUtils.format(PRINT_FORMAT, (long) slabs.length * slabSize, slabs.length, slabSize,
+					usedBytes, index.size());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Elemento eliminado, copiado al heap, y motivo de su eliminación. */
+	private static final class Removal {
+		private final ByteBuffer bytes;
+		private final RemovalCause cause;
+
+		Removal (final ByteBuffer bytes, final RemovalCause cause) {
+			this.bytes = bytes;
+			this.cause = cause;
+		}
+	}
+
+	/* Posición de un elemento en memoria directa. */
+	private static final class Slot {
+		private int slab;
+		private int offset;
+		private final int length;
+
+		Slot (final int slab, final int offset, final int length) {
+			this.slab = slab;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package commons.cache;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Base de las cachés LRU con ids numéricos ({@link LongLRUCache},
+ * {@link IntLRUCache}). Guarda los ids como <code>long</code> en una
+ * {@link PrimitiveLRUTable}, sin mapas ni nodos, protegida por un único
+ * bloqueo; las subclases sólo añaden las lecturas y borrados por id
+ * primitivo, que no crean objetos. La tabla no se reserva con el máximo
+ * completo, crece según se añaden elementos.
+ * <p>
+ * El máximo se puede cambiar en tiempo de ejecución con
+ * {@link #setMaximum(long)}, que crea una tabla nueva del nuevo tamaño y
+ * copia en ella los elementos más recientes.
+ * <p>
+ * Esta caché es <i>thread-safe</i>.
+ * <p>
+ * 17/10/2016 10:41:26
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+abstract class PrimitiveLRUCache<ID extends Number, E extends Id<ID>> extends AbstractCache<ID, E>
+		implements IResizableCache {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "%s [max:%s] [elementos:%s]";
+
+	/* Bloqueo de acceso, las lecturas también reordenan la lista LRU. */
+	private final Lock lock;
+
+	/* Elementos en caché. Se sustituye al cambiar el máximo, protegido por 'lock'. */
+	private PrimitiveLRUTable<E> elements;
+
+	/* Máximo número de elementos en caché. */
+	private volatile int maxElements;
+
+	/* Constructor, recibe el máximo número de elementos. */
+	PrimitiveLRUCache (final int maxCapacity) {
+		if (maxCapacity <= 0 || maxCapacity > PrimitiveLRUTable.MAX_ELEMENTS) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"No se puede crear %s con capacidad máxima '%s'", getClass().getSimpleName(), maxCapacity)
+			);
+		}
+
+		this.lock = new ReentrantLock();
+		this.maxElements = maxCapacity;
+		this.elements = new PrimitiveLRUTable<>(maxCapacity);
+	}
+
+	@Override
+	public void add(final E element) {
+		Objects.requireNonNull(element);
+		final long id = element.getId().longValue();
+
+		lock.lock();
+		try {
+			put(id, element);
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+		statsCounter().recordPuts(1);
+	}
+
+	@Override
+	public void addAll(final Collection<? extends E> elements) {
+		for (final E element : elements) {
+			Objects.requireNonNull(element);
+			Objects.requireNonNull(element.getId());
+		}
+
+		lock.lock();
+		try {
+			for (final E element : elements) {
+				put(element.getId().longValue(), element);
+			}
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+		statsCounter().recordPuts(elements.size());
+	}
+
+	/* Guarda un elemento, expulsando el más antiguo si no cabe. Debe llamarse con el bloqueo adquirido. */
+	private void put(final long id, final E element) {
+		if (elements.isFull() && !elements.containsKey(id)) {
+			notifyRemoval(elements.removeEldest(), RemovalCause.SIZE);
+			statsCounter().recordEviction(RemovalCause.SIZE);
+		}
+		final E previous = elements.put(id, element);
+		if (previous != null && previous != element) {
+			notifyRemoval(previous, RemovalCause.REPLACED);
+		}
+	}
+
+	@Override
+	public E remove(final ID id) {
+		return id != null ? removeKey(id.longValue()) : null;
+	}
+
+	/* Elimina un elemento por id primitivo y lo devuelve. */
+	final E removeKey(final long id) {
+		final E removed;
+		lock.lock();
+		try {
+			removed = elements.remove(id);
+			notifyRemoval(removed, RemovalCause.EXPLICIT);
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+		return removed;
+	}
+
+	@Override
+	public Map<ID, E> removeAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> result = new LinkedHashMap<>();
+		lock.lock();
+		try {
+			for (final ID id : ids) {
+				final E element = id != null ? elements.remove(id.longValue()) : null;
+				if (element != null) {
+					notifyRemoval(element, RemovalCause.EXPLICIT);
+					result.put(id, element);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+		return result;
+	}
+
+	@Override
+	public void invalidateAll() {
+		lock.lock();
+		try {
+			if (hasRemovalListeners()) {
+				for (final E element : elements.values()) {
+					notifyRemoval(element, RemovalCause.EXPLICIT);
+				}
+			}
+			elements.clear();
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+	}
+
+	@Override
+	public E get(final ID id) {
+		if (id == null) {
+			statsCounter().recordMisses(1);
+			return null;
+		}
+		return getKey(id.longValue());
+	}
+
+	/* Devuelve un elemento por id primitivo, sin crear objetos. */
+	final E getKey(final long id) {
+		final E element;
+		lock.lock();
+		try {
+			element = elements.get(id);
+		} finally {
+			lock.unlock();
+		}
+
+		if (element != null) {
+			statsCounter().recordHits(1);
+		} else {
+			statsCounter().recordMisses(1);
+		}
+		return element;
+	}
+
+	@Override
+	public Map<ID, E> getAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> result = new LinkedHashMap<>();
+		int hits = 0;
+		lock.lock();
+		try {
+			for (final ID id : ids) {
+				final E element = id != null ? elements.get(id.longValue()) : null;
+				if (element != null) {
+					result.put(id, element);
+					hits++;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		statsCounter().recordHits(hits);
+		statsCounter().recordMisses(ids.size() - hits);
+		return result;
+	}
+
+	@Override
+	List<E> snapshot() {
+		lock.lock();
+		try {
+			return elements.values();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getMaximum() {
+		return maxElements;
+	}
+
+	/* Se expulsan los elementos menos recientes que no caben y el resto se copia, en orden, a una tabla nueva. */
+	@Override
+	public void setMaximum(final long maximum) {
+		if (maximum <= 0L || maximum > PrimitiveLRUTable.MAX_ELEMENTS) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"Máximo no válido para %s: '%s'", getClass().getSimpleName(), maximum)
+			);
+		}
+
+		lock.lock();
+		try {
+			while (elements.size() > maximum) {
+				notifyRemoval(elements.removeEldest(), RemovalCause.SIZE);
+				statsCounter().recordEviction(RemovalCause.SIZE);
+			}
+			final PrimitiveLRUTable<E> resized = new PrimitiveLRUTable<>((int) maximum);
+			for (final E element : elements.values()) {
+				resized.put(element.getId().longValue(), element);
+			}
+			elements = resized;
+			maxElements = (int) maximum;
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+	}
+
+	@Override
+	public long getWeight() {
+		return size();
+	}
+
+	@Override
+	public long getHighestMaximum() {
+		return PrimitiveLRUTable.MAX_ELEMENTS;
+	}
+
+	/* Número de elementos en caché. */
+	int size() {
+		lock.lock();
+		try {
+			return elements.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, getClass().getSimpleName(), maxElements, size());
+	}
+}
@@ -0,0 +1,301 @@
+package commons.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tabla LRU con claves primitivas <code>long</code> para las cachés
+ * especializadas ({@link PrimitiveLRUCache}). No crea objetos
+ * en las lecturas ni en las escrituras que sustituyen o expulsan elementos:
+ * <ul>
+ * <li>las entradas se guardan en arrays paralelos (clave, valor, anterior y
+ * siguiente). Se crean pequeños y duplican su tamaño, junto con el índice,
+ * cuando se llenan, hasta el máximo de entradas. No se reducen al vaciar o
+ * eliminar entradas.</li>
+ * <li>el índice es una tabla hash de direccionamiento abierto con sondeo
+ * lineal, que guarda la posición de la entrada más uno (0 es hueco). Los
+ * borrados desplazan hacia atrás las entradas siguientes, sin marcas.</li>
+ * <li>el orden LRU es una lista doblemente enlazada sobre los arrays
+ * 'anterior' y 'siguiente': la cabeza es el menos recientemente utilizado.
+ * Las entradas libres se encadenan en el array 'siguiente'.</li>
+ * </ul>
+ * No es <i>thread-safe</i>, las cachés que la usan la protegen con un bloqueo.
+ * <p>
+ * 30/07/2016 10:12:40
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+final class PrimitiveLRUTable<E> {
+
+	/* Máximo número de entradas, para que el índice no desborde. */
+	static final int MAX_ELEMENTS = 1 << 28;
+
+	/* Capacidad inicial de los arrays de entradas. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/* Fin de lista. */
+	private static final int NIL = -1;
+
+	/* Hueco libre en el índice. */
+	private static final int EMPTY = 0;
+
+	/* Constante de dispersión, parte fraccionaria de la razón áurea. */
+	private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+	/* Máximo número de entradas de esta tabla. */
+	private final int maxElements;
+
+	/* Índice: posición de la entrada más uno, o EMPTY. Ocupación máxima del 50%. */
+	private int[] table;
+	private int mask;
+
+	/* Entradas, con la capacidad actual. */
+	private long[] keys;
+	private Object[] values;
+	private int[] prev;
+	private int[] next;
+
+	/* Lista LRU, de menos a más recientemente utilizado. */
+	private int head;
+	private int tail;
+
+	/* Primera entrada libre, encadenadas por 'next'. */
+	private int free;
+
+	/* Número de entradas. */
+	private int size;
+
+	/* Constructor, recibe el máximo número de entradas. */
+	PrimitiveLRUTable (final int maxElements) {
+		final int capacity = Math.min(maxElements, INITIAL_CAPACITY);
+		this.maxElements = maxElements;
+		this.table = new int[tableSize(capacity)];
+		this.mask = table.length - 1;
+		this.keys = new long[capacity];
+		this.values = new Object[capacity];
+		this.prev = new int[capacity];
+		this.next = new int[capacity];
+		clear();
+	}
+
+	/* Obtiene el valor de una clave y lo marca como el más recientemente utilizado. Null si no está. */
+	E get(final long key) {
+		final int entry = find(key);
+		if (entry == NIL) {
+			return null;
+		}
+		moveToTail(entry);
+		return value(entry);
+	}
+
+	/*
+	 * Guarda un valor y lo marca como el más recientemente utilizado. Si la
+	 * tabla está llena y la clave no existe, se debe expulsar antes el
+	 * elemento más antiguo. Devuelve el valor anterior o null.
+	 */
+	E put(final long key, final E value) {
+		final int existing = find(key);
+		if (existing != NIL) {
+			final E previous = value(existing);
+			values[existing] = value;
+			moveToTail(existing);
+			return previous;
+		}
+
+		if (free == NIL) {
+			grow();
+		}
+		final int entry = free;
+		free = next[entry];
+		keys[entry] = key;
+		values[entry] = value;
+		linkLast(entry);
+
+		int slot = slot(key);
+		while (table[slot] != EMPTY) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = entry + 1;
+		size++;
+		return null;
+	}
+
+	/* Elimina una clave y devuelve su valor, null si no está. */
+	E remove(final long key) {
+		final int entry = find(key);
+		return entry != NIL ? delete(entry) : null;
+	}
+
+	/* Elimina el elemento menos recientemente utilizado y lo devuelve, null si la tabla está vacía. */
+	E removeEldest() {
+		return head != NIL ? delete(head) : null;
+	}
+
+	/* Copia de los valores, de menos a más recientemente utilizado. */
+	List<E> values() {
+		final List<E> result = new ArrayList<>(size);
+		for (int entry = head; entry != NIL; entry = next[entry]) {
+			result.add(value(entry));
+		}
+		return result;
+	}
+
+	/* Indica si hay un valor para la clave, sin cambiar el orden LRU. */
+	boolean containsKey(final long key) {
+		return find(key) != NIL;
+	}
+
+	/* Indica si la tabla está llena. */
+	boolean isFull() {
+		return size == maxElements;
+	}
+
+	/* Número de entradas. */
+	int size() {
+		return size;
+	}
+
+	/* Vacía la tabla. */
+	void clear() {
+		Arrays.fill(table, EMPTY);
+		Arrays.fill(values, null);
+		free = chainFree(0);
+		head = NIL;
+		tail = NIL;
+		size = 0;
+	}
+
+	/* Tamaño del índice para una capacidad: potencia de dos de al menos el doble. */
+	private static int tableSize(final int capacity) {
+		return Integer.highestOneBit(Math.max(2, capacity) - 1) << 2;
+	}
+
+	/* Encadena como libres las entradas desde 'from' hasta el final de los arrays. Devuelve la primera, o NIL. */
+	private int chainFree(final int from) {
+		for (int i = from; i < next.length; i++) {
+			next[i] = i + 1 < next.length ? i + 1 : NIL;
+		}
+		return from < next.length ? from : NIL;
+	}
+
+	/*
+	 * Duplica la capacidad de los arrays de entradas, sin pasar del máximo, y
+	 * rehace el índice. Las entradas conservan su posición, así que la lista
+	 * LRU no cambia. Sólo se llama sin entradas libres.
+	 */
+	private void grow() {
+		final int capacity = keys.length;
+		final int grown = (int) Math.min(maxElements, 2L * capacity);
+		keys = Arrays.copyOf(keys, grown);
+		values = Arrays.copyOf(values, grown);
+		prev = Arrays.copyOf(prev, grown);
+		next = Arrays.copyOf(next, grown);
+		free = chainFree(capacity);
+
+		table = new int[tableSize(grown)];
+		mask = table.length - 1;
+		for (int entry = head; entry != NIL; entry = next[entry]) {
+			int slot = slot(keys[entry]);
+			while (table[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = entry + 1;
+		}
+	}
+
+	/* Posición de una clave en los arrays de entradas, NIL si no está. */
+	private int find(final long key) {
+		int slot = slot(key);
+		int current;
+		while ((current = table[slot]) != EMPTY) {
+			if (keys[current - 1] == key) {
+				return current - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NIL;
+	}
+
+	/* Hueco ideal de una clave en el índice. Se mezclan los bits altos con los bajos. */
+	private int slot(final long key) {
+		final long hash = key * GOLDEN_RATIO;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	/*
+	 * Elimina una entrada del índice y de la lista LRU y la devuelve a las
+	 * libres. Las entradas siguientes del mismo grupo se desplazan hacia
+	 * atrás para que las búsquedas no se detengan en el hueco.
+	 */
+	private E delete(final int entry) {
+		int hole = slot(keys[entry]);
+		while (table[hole] != entry + 1) {
+			hole = (hole + 1) & mask;
+		}
+
+		int slot = hole;
+		while (true) {
+			slot = (slot + 1) & mask;
+			final int current = table[slot];
+			if (current == EMPTY) {
+				break;
+			}
+			/* Se mueve si su hueco ideal no está entre el hueco y su posición actual (de forma circular). */
+			final int ideal = slot(keys[current - 1]);
+			final boolean reachable = hole <= slot ? hole < ideal && ideal <= slot : hole < ideal || ideal <= slot;
+			if (!reachable) {
+				table[hole] = current;
+				hole = slot;
+			}
+		}
+		table[hole] = EMPTY;
+
+		final E value = value(entry);
+		unlink(entry);
+		values[entry] = null;
+		next[entry] = free;
+		free = entry;
+		size--;
+		return value;
+	}
+
+	/* Valor de una entrada. */
+	@SuppressWarnings("unchecked")
+	private E value(final int entry) {
+		return (E) values[entry];
+	}
+
+	private void moveToTail(final int entry) {
+		if (entry != tail) {
+			unlink(entry);
+			linkLast(entry);
+		}
+	}
+
+	private void linkLast(final int entry) {
+		prev[entry] = tail;
+		next[entry] = NIL;
+		if (tail == NIL) {
+			head = entry;
+		} else {
+			next[tail] = entry;
+		}
+		tail = entry;
+	}
+
+	private void unlink(final int entry) {
+		if (prev[entry] == NIL) {
+			head = next[entry];
+		} else {
+			next[prev[entry]] = next[entry];
+		}
+		if (next[entry] == NIL) {
+			tail = prev[entry];
+		} else {
+			prev[next[entry]] = prev[entry];
+		}
+	}
+}
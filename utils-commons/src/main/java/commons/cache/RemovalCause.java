@@ -0,0 +1,34 @@
+package commons.cache;
+
+/**
+ * Motivo por el que un elemento sale de una caché.
+ * <p>
+ * 23/07/2016 10:08:44
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public enum RemovalCause {
+	/** Eliminado explícitamente por id. */
+	EXPLICIT,
+	
+	/** Sustituido por otro elemento con el mismo id. */
+	REPLACED,
+	
+	/** Expulsado por capacidad: número de elementos, peso o bytes. */
+	SIZE,
+	
+	/** Expirado por tiempo. */
+	EXPIRED;
+	
+	/**
+	 * Indica si la salida es una expulsión automática de la caché y no una
+	 * operación del usuario.
+	 * 
+	 * @return <code>true</code> para {@link #SIZE} y {@link #EXPIRED}.
+	 */
+	public boolean wasEvicted() {
+		return this == SIZE || this == EXPIRED;
+	}
+}
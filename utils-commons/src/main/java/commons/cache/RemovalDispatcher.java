@@ -0,0 +1,100 @@
+package commons.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import commons.log.Log;
+import commons.vo.Id;
+
+/**
+ * Entrega las notificaciones de eliminación de una caché a un oyente. Las
+ * notificaciones se encolan sin bloquear, y se entregan por lotes en el
+ * ejecutor del oyente con una única tarea en curso como mucho: mientras se
+ * entrega un lote las nuevas notificaciones se acumulan para el siguiente.
+ * <p>
+ * Encolar no ejecuta nada, por lo que las cachés lo hacen con sus bloqueos
+ * adquiridos; lanzar la entrega sí puede ejecutar código del ejecutor, por lo
+ * que se hace después de liberarlos.
+ * <p>
+ * 03/09/2016 10:41:05
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+final class RemovalDispatcher<ID, E extends Id<ID>> implements Runnable {
+
+	/* Máximo de notificaciones por lote. */
+	private static final int MAX_BATCH = 256;
+
+	/* Oyente y ejecutor de las entregas. */
+	private final IRemovalListener<ID, E> listener;
+	private final Executor executor;
+
+	/* Notificaciones pendientes de entregar. */
+	private final Queue<RemovalNotification<ID, E>> pending;
+
+	/* Indica si hay una entrega lanzada y aún no terminada. */
+	private final AtomicBoolean scheduled;
+
+	/* Constructor, recibe el oyente y el ejecutor de las entregas. */
+	RemovalDispatcher (final IRemovalListener<ID, E> listener, final Executor executor) {
+		this.listener = Objects.requireNonNull(listener);
+		this.executor = Objects.requireNonNull(executor);
+		this.pending = new ConcurrentLinkedQueue<>();
+		this.scheduled = new AtomicBoolean();
+	}
+
+	/* Encola una notificación, sin bloquear ni entregarla. */
+	void enqueue(final E element, final RemovalCause cause) {
+		pending.offer(new RemovalNotification<>(element, cause));
+	}
+
+	/* Lanza la entrega de las notificaciones pendientes, si hay y no hay otra entrega en curso. */
+	void dispatch() {
+		if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(this);
+			} catch (RuntimeException e) {
+				/* El ejecutor rechaza la tarea, las notificaciones se entregarán en el siguiente intento. */
+				scheduled.set(false);
+				Log.error(RemovalDispatcher.class, "Error al lanzar la entrega de notificaciones de eliminación", e);
+			}
+		}
+	}
+
+	/* Entrega lotes hasta vaciar la cola. */
+	@Override
+	public void run() {
+		try {
+			List<RemovalNotification<ID, E>> batch = nextBatch();
+			while (!batch.isEmpty()) {
+				try {
+					listener.onRemoval(batch);
+				} catch (RuntimeException e) {
+					Log.error(RemovalDispatcher.class, "Error en el oyente de eliminaciones de caché", e);
+				}
+				batch = nextBatch();
+			}
+		} finally {
+			scheduled.set(false);
+		}
+		/* Notificaciones encoladas después de vaciar la cola y antes de terminar. */
+		dispatch();
+	}
+
+	/* Siguiente lote de notificaciones pendientes, vacío si no hay. */
+	private List<RemovalNotification<ID, E>> nextBatch() {
+		final List<RemovalNotification<ID, E>> batch = new ArrayList<>();
+		RemovalNotification<ID, E> notification;
+		while (batch.size() < MAX_BATCH && (notification = pending.poll()) != null) {
+			batch.add(notification);
+		}
+		return batch;
+	}
+}
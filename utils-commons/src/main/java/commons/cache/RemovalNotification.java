@@ -0,0 +1,73 @@
+package commons.cache;
+
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Elemento que ha salido de una caché y motivo de su salida.
+ * <p>
+ * 03/09/2016 10:25:40
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public final class RemovalNotification<ID, E extends Id<ID>> {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "RemovalNotification [causa:%s] [elemento:%s]";
+
+	/* Elemento eliminado. */
+	private final E element;
+
+	/* Motivo de la eliminación. */
+	private final RemovalCause cause;
+
+	/* Constructor, recibe el elemento y el motivo. */
+	RemovalNotification (final E element, final RemovalCause cause) {
+		this.element = element;
+		this.cause = cause;
+	}
+
+	/**
+	 * Obtiene el elemento eliminado.
+	 * 
+	 * @return Elemento eliminado.
+	 */
+	public E getElement() {
+		return element;
+	}
+
+	/**
+	 * Obtiene el id del elemento eliminado.
+	 * 
+	 * @return Id del elemento.
+	 */
+	public ID getId() {
+		return element.getId();
+	}
+
+	/**
+	 * Obtiene el motivo de la eliminación.
+	 * 
+	 * @return Motivo de la eliminación.
+	 */
+	public RemovalCause getCause() {
+		return cause;
+	}
+
+	/**
+	 * Indica si el elemento ha sido expulsado automáticamente por la caché,
+	 * ver {@link RemovalCause#wasEvicted()}.
+	 * 
+	 * @return <code>true</code> si se ha expulsado por capacidad o expiración.
+	 */
+	public boolean wasEvicted() {
+		return cause.wasEvicted();
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, cause, element);
+	}
+}
@@ -0,0 +1,101 @@
+package commons.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+import commons.util.PrintUtils;
+
+/**
+ * Implementación de {@link ICodec} con la serialización estándar de Java.
+ * Sirve para cualquier {@link Serializable}, por ejemplo cualquier
+ * {@link commons.vo.Id} o los tipos habituales de id (<code>Long</code>,
+ * <code>String</code>...), a costa de un formato más lento y voluminoso que
+ * un codificador específico. Los valores no serializables provocan
+ * {@link UncheckedIOException}.
+ * <p>
+ * 09/07/2016 10:52:40
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class SerializableCodec<T> implements ICodec<T> {
+
+	@Override
+	public void encode(final T value, final ByteBuffer buffer) {
+		try (final ObjectOutputStream out = new ObjectOutputStream(new BufferOutputStream(buffer))) {
+			out.writeObject(value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T decode(final ByteBuffer buffer) {
+		try (final ObjectInputStream in = new ObjectInputStream(new BufferInputStream(buffer))) {
+			return (T) in.readObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(PrintUtils.format("No se encuentra la clase '%s'", e.getMessage()), e);
+		}
+	}
+
+	/* Escribe en un ByteBuffer. Si no hay espacio se lanza BufferOverflowException. */
+	private static final class BufferOutputStream extends OutputStream {
+		private final ByteBuffer buffer;
+
+		BufferOutputStream (final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void write(final int b) {
+			buffer.put((byte) b);
+		}
+
+		@Override
+		public void write(final byte[] bytes, final int offset, final int length) {
+			buffer.put(bytes, offset, length);
+		}
+	}
+
+	/* Lee de un ByteBuffer hasta su límite. */
+	private static final class BufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		BufferInputStream (final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(final byte[] bytes, final int offset, final int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			final int read = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, read);
+			return read;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package commons.cache;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Consumer;
+
+import commons.log.Log;
+import commons.util.PrintUtils;
+
+/**
+ * Transporte de invalidaciones por datagramas UDP: cada mensaje se envía a
+ * todos los nodos indicados, y un hilo propio recibe los mensajes de los
+ * demás. Con el puerto ligado a la interfaz local permite probar varios
+ * nodos en una misma máquina.
+ * <p>
+ * Sólo se aceptan los datagramas cuyo origen es uno de los nodos indicados;
+ * el resto se descartan. La comprobación no autentica el origen, que en UDP
+ * se puede falsificar: fuera de la máquina local el puerto sólo debe ser
+ * accesible desde la red de los nodos. Por eso el transporte se liga a una
+ * dirección concreta, nunca a todas las interfaces.
+ * <p>
+ * La entrega no está garantizada: un datagrama perdido deja elementos
+ * obsoletos en el nodo que no lo recibe hasta que expiren o se vuelvan a
+ * invalidar.
+ * <p>
+ * 17/09/2016 11:02:45
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class SocketTransport implements IInvalidationTransport {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "SocketTransport [local:%s] [nodos:%s]";
+
+	/* Máximo de bytes de datos de un datagrama UDP. */
+	static final int MAX_DATAGRAM_SIZE = 65507;
+
+	/* Nombre del hilo de recepción. */
+	private static final String THREAD_NAME = "cache-invalidation-receiver";
+
+	/* Canal de envío y recepción. */
+	private final DatagramChannel channel;
+
+	/* Dirección local del canal. */
+	private final SocketAddress localAddress;
+
+	/* Nodos a los que se envían los mensajes, y únicos orígenes de los que se aceptan. */
+	private final Set<SocketAddress> peers;
+
+	/**
+	 * Constructor, liga el transporte a un puerto de la interfaz local.
+	 *
+	 * @param port
+	 *            Puerto local, 0 para uno libre cualquiera.
+	 * @param peers
+	 *            Direcciones de los demás nodos, las únicas desde las que se
+	 *            aceptan mensajes.
+	 * @throws IOException
+	 *             Si no se puede abrir el canal.
+	 */
+	public SocketTransport(final int port, final Collection<? extends SocketAddress> peers) throws IOException {
+		this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), peers);
+	}
+
+	/**
+	 * Constructor, liga el transporte a la dirección indicada.
+	 *
+	 * @param local
+	 *            Dirección local, concreta: no se admite la dirección
+	 *            comodín de todas las interfaces.
+	 * @param peers
+	 *            Direcciones de los demás nodos, las únicas desde las que se
+	 *            aceptan mensajes.
+	 * @throws IOException
+	 *             Si no se puede abrir el canal.
+	 */
+	public SocketTransport(final SocketAddress local, final Collection<? extends SocketAddress> peers)
+			throws IOException {
+		Objects.requireNonNull(local);
+		if (!(local instanceof InetSocketAddress) || ((InetSocketAddress) local).isUnresolved()
+				|| ((InetSocketAddress) local).getAddress().isAnyLocalAddress()) {
+			throw new IllegalArgumentException(PrintUtils.format(
+					"El transporte de invalidaciones necesita una dirección local concreta: '%s'", local));
+		}
+		this.peers = new CopyOnWriteArraySet<>(peers);
+		this.channel = DatagramChannel.open();
+		this.channel.bind(local);
+		this.localAddress = channel.getLocalAddress();
+	}
+
+	/**
+	 * Obtiene la dirección local del transporte, con el puerto asignado.
+	 *
+	 * @return Dirección local.
+	 */
+	public SocketAddress getLocalAddress() {
+		return localAddress;
+	}
+
+	/**
+	 * Añade un nodo al que enviar los mensajes y del que se aceptan.
+	 *
+	 * @param peer
+	 *            Dirección del nodo.
+	 */
+	public void addPeer(final SocketAddress peer) {
+		peers.add(Objects.requireNonNull(peer));
+	}
+
+	@Override
+	public int maxMessageSize() {
+		return MAX_DATAGRAM_SIZE;
+	}
+
+	@Override
+	public void publish(final ByteBuffer message) throws IOException {
+		for (final SocketAddress peer : peers) {
+			channel.send(message.duplicate(), peer);
+		}
+	}
+
+	/* Lanza el hilo de recepción. */
+	@Override
+	public void subscribe(final Consumer<ByteBuffer> receiver) {
+		Objects.requireNonNull(receiver);
+		final Thread thread = new Thread(() -> receive(receiver), THREAD_NAME);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/* Recibe datagramas hasta que se cierra el canal. Descarta los que no vienen de un nodo conocido. */
+	private void receive(final Consumer<ByteBuffer> receiver) {
+		final ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+		while (channel.isOpen()) {
+			try {
+				buffer.clear();
+				final SocketAddress source = channel.receive(buffer);
+				if (!peers.contains(source)) {
+					Log.error(SocketTransport.class, "Mensaje de invalidación de un origen desconocido, se descarta: '%s'",
+							source);
+					continue;
+				}
+				buffer.flip();
+				receiver.accept(buffer);
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException | RuntimeException e) {
+				Log.error(SocketTransport.class, "Error al recibir un mensaje de invalidación", e);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, localAddress, peers.size());
+	}
+}
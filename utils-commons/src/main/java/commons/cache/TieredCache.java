@@ -0,0 +1,356 @@
+package commons.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Caché de dos niveles: una {@link LRUCache} en el heap delante de un
+ * almacén en disco proyectado en memoria ({@link MappedFileStore}). Los
+ * elementos expulsados de la LRU pasan al disco, y los fallos de la LRU se
+ * sirven desde el disco, devolviendo el elemento a la LRU.
+ * <p>
+ * El fichero sobrevive a reinicios: al cerrar la caché con {@link #close()}
+ * los elementos de la LRU también se vuelcan a disco, y al crearla de nuevo
+ * sobre el mismo fichero se reabre y se indexa en el primer acceso. Así la
+ * caché arranca caliente y puede contener muchos más elementos de los que
+ * caben en el heap.
+ * <p>
+ * Los oyentes de eliminaciones reciben las eliminaciones explícitas y los
+ * elementos que no caben en el fichero. El paso de memoria a disco no es una
+ * eliminación; las sustituciones y el vaciado de la parte en disco no se
+ * notifican, para no leer el fichero.
+ * <p>
+ * Esta caché es <i>thread-safe</i>. Las operaciones que mueven un elemento
+ * entre niveles se serializan por id, con un bloqueo por grupo de ids: así
+ * un elemento leído de disco no sustituye en memoria a otro añadido a la vez,
+ * ni se devuelve a la caché uno eliminado. Los elementos expulsados de la LRU
+ * se anotan con su bloqueo adquirido y se escriben en disco después de
+ * liberarlo; mientras tanto se siguen encontrando.
+ * <p>
+ * 16/07/2016 12:47:30
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class TieredCache<ID, E extends Id<ID>> extends AbstractCache<ID, E> implements Closeable {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "TieredCache [memoria:%s] [disco:%s] [pendientes:%s]";
+
+	/* Número de bloqueos por id, potencia de dos. */
+	private static final int KEY_LOCKS = 64;
+
+	/* Nivel en memoria. */
+	private final LRUCache<ID, E> memory;
+
+	/* Nivel en disco. */
+	private final MappedFileStore<ID, E> disk;
+
+	/* Elementos expulsados de memoria pendientes de escribir en disco, por id. */
+	private final ConcurrentMap<ID, E> spilled;
+
+	/* Bloqueos por grupo de ids, para mover elementos entre niveles. */
+	private final Lock[] keyLocks;
+
+	/* Constructor, recibe el máximo de elementos en memoria, el fichero y su tamaño máximo, y el codificador. */
+	TieredCache (final int maxCapacity, final Path file, final long maxFileBytes, final ICodec<E> codec) {
+		this(maxCapacity, file, maxFileBytes, MappedFileStore.DEFAULT_SEGMENT_SIZE, new SerializableCodec<>(), codec);
+	}
+
+	/* Constructor, recibe además el tamaño de segmento del fichero y el codificador de ids. */
+	TieredCache (final int maxCapacity, final Path file, final long maxFileBytes, final int segmentSize,
+			final ICodec<ID> idCodec, final ICodec<E> codec) {
+		this.disk = new MappedFileStore<>(file, maxFileBytes, (int) Math.min(segmentSize, maxFileBytes), idCodec,
+				codec, this::discard);
+		this.spilled = new ConcurrentHashMap<>();
+		this.keyLocks = new Lock[KEY_LOCKS];
+		for (int i = 0; i < KEY_LOCKS; i++) {
+			keyLocks[i] = new ReentrantLock();
+		}
+		this.memory = new LRUCache<>(maxCapacity, this::spill);
+	}
+
+	/* Bloqueo del grupo de un id. Se dispersan los bits altos del hash sobre los bajos. */
+	private Lock lockFor(final ID id) {
+		final int hash = Objects.hashCode(id);
+		return keyLocks[(hash ^ (hash >>> 16)) & (KEY_LOCKS - 1)];
+	}
+
+	/* Anota un elemento expulsado de memoria. Se llama con el bloqueo de la LRU adquirido: no escribe en disco. */
+	private void spill(final E element) {
+		spilled.put(element.getId(), element);
+	}
+
+	/*
+	 * Escribe en disco los elementos expulsados pendientes, cada uno con el
+	 * bloqueo de su id. Si otra operación ya lo ha sacado de pendientes, lo
+	 * ha devuelto a memoria o lo ha sustituido, no se escribe.
+	 */
+	private void writeSpilled() {
+		if (spilled.isEmpty()) {
+			return;
+		}
+		for (final E element : spilled.values()) {
+			final ID id = element.getId();
+			final Lock lock = lockFor(id);
+			lock.lock();
+			try {
+				if (spilled.remove(id, element) && !disk.put(id, element)) {
+					discard(element);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/* Expulsa de la caché un elemento que no cabe en el fichero. */
+	private void discard(final E element) {
+		statsCounter().recordEviction(RemovalCause.SIZE);
+		notifyRemoval(element, RemovalCause.SIZE);
+	}
+
+	/* Tras modificar la memoria: escribe las expulsiones pendientes y notifica las eliminaciones. */
+	private void afterWrite() {
+		writeSpilled();
+		dispatchRemovals();
+	}
+
+	@Override
+	public void add(final E element) {
+		Objects.requireNonNull(element);
+		put(element);
+		afterWrite();
+		statsCounter().recordPuts(1);
+	}
+
+	@Override
+	public void addAll(final Collection<? extends E> elements) {
+		for (final E element : elements) {
+			Objects.requireNonNull(element);
+		}
+		for (final E element : elements) {
+			put(element);
+		}
+		afterWrite();
+		statsCounter().recordPuts(elements.size());
+	}
+
+	/* Añade un elemento a memoria. Las copias expulsadas o en disco, si existen, quedan obsoletas. */
+	private void put(final E element) {
+		final ID id = element.getId();
+		final Lock lock = lockFor(id);
+		lock.lock();
+		try {
+			spilled.remove(id);
+			disk.remove(id);
+			memory.add(element);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public E remove(final ID id) {
+		final E removed = delete(id);
+		notifyRemoval(removed, RemovalCause.EXPLICIT);
+		afterWrite();
+		return removed;
+	}
+
+	/* Elimina un elemento de todos los niveles y lo devuelve, de memoria si está o si no de disco. */
+	private E delete(final ID id) {
+		final Lock lock = lockFor(id);
+		lock.lock();
+		try {
+			E removed = memory.remove(id);
+			final E pending = spilled.remove(id);
+			if (removed == null) {
+				removed = pending;
+			}
+			if (id != null) {
+				if (removed == null) {
+					removed = disk.get(id);
+				}
+				disk.remove(id);
+			}
+			return removed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public E get(final ID id) {
+		final E fromMemory = memory.get(id);
+		if (fromMemory != null) {
+			statsCounter().recordHits(1);
+			return fromMemory;
+		}
+
+		final E promoted = id != null ? promote(id) : null;
+		if (promoted != null) {
+			statsCounter().recordHits(1);
+			afterWrite();
+		} else {
+			statsCounter().recordMisses(1);
+		}
+		return promoted;
+	}
+
+	/*
+	 * Busca un elemento que no está en memoria, entre los expulsados
+	 * pendientes y en disco, y lo devuelve a memoria. Con el bloqueo de su id
+	 * se comprueba de nuevo la memoria, por si otro hilo lo ha añadido o
+	 * devuelto antes. La copia en disco sigue siendo válida hasta que se
+	 * modifique.
+	 */
+	private E promote(final ID id) {
+		final Lock lock = lockFor(id);
+		lock.lock();
+		try {
+			E element = memory.get(id);
+			if (element == null) {
+				element = spilled.remove(id);
+				if (element == null) {
+					element = disk.get(id);
+				}
+				if (element != null) {
+					memory.add(element);
+				}
+			}
+			return element;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Map<ID, E> getAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> result = memory.getAll(ids);
+		boolean promoted = false;
+		for (final ID id : ids) {
+			if (id != null && !result.containsKey(id)) {
+				final E element = promote(id);
+				if (element != null) {
+					result.put(id, element);
+					promoted = true;
+				}
+			}
+		}
+		if (promoted) {
+			afterWrite();
+		}
+
+		statsCounter().recordHits(result.size());
+		statsCounter().recordMisses(ids.size() - result.size());
+		return result;
+	}
+
+	@Override
+	public Map<ID, E> removeAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> result = new LinkedHashMap<>();
+		for (final ID id : ids) {
+			final E removed = delete(id);
+			if (removed != null) {
+				result.put(id, removed);
+			}
+		}
+		for (final E removed : result.values()) {
+			notifyRemoval(removed, RemovalCause.EXPLICIT);
+		}
+		afterWrite();
+		return result;
+	}
+
+	/* Sólo el nivel en memoria: el fichero ya persiste el resto. */
+	@Override
+	List<E> snapshot() {
+		return memory.snapshot();
+	}
+
+	/* Sólo el nivel en memoria: el fichero tiene su propio máximo. */
+	@Override
+	IResizableCache resizable() {
+		return memory;
+	}
+
+	@Override
+	public void invalidateAll() {
+		for (final Lock lock : keyLocks) {
+			lock.lock();
+		}
+		try {
+			if (hasRemovalListeners()) {
+				for (final E element : memory.snapshot()) {
+					notifyRemoval(element, RemovalCause.EXPLICIT);
+				}
+				for (final E element : spilled.values()) {
+					notifyRemoval(element, RemovalCause.EXPLICIT);
+				}
+			}
+			memory.invalidateAll();
+			spilled.clear();
+			disk.clear();
+		} finally {
+			for (final Lock lock : keyLocks) {
+				lock.unlock();
+			}
+		}
+		dispatchRemovals();
+	}
+
+	/**
+	 * Vuelca a disco los elementos en memoria y los cambios pendientes del
+	 * fichero, sin cerrarlo. Se hace con todos los bloqueos por id, para que
+	 * una escritura o un borrado concurrente no quede sustituido en disco por
+	 * un valor anterior de memoria.
+	 */
+	public void flush() {
+		for (final Lock lock : keyLocks) {
+			lock.lock();
+		}
+		try {
+			writeSpilled();
+			for (final E element : memory.snapshot()) {
+				disk.put(element.getId(), element);
+			}
+			disk.force();
+		} finally {
+			for (final Lock lock : keyLocks) {
+				lock.unlock();
+			}
+		}
+		dispatchRemovals();
+	}
+
+	/**
+	 * Vuelca a disco los elementos en memoria y cierra el fichero. La caché
+	 * no debe usarse después.
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		disk.close();
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, memory, disk, spilled.size());
+	}
+}
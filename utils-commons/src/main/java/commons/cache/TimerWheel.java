@@ -0,0 +1,199 @@
+package commons.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Rueda de temporizadores jerárquica para programar la expiración de
+ * elementos en tiempo amortizado O(1). Cada nivel agrupa los temporizadores en
+ * cubos cuya duración es potencia de dos (~1 segundo, ~1 minuto, ~1 hora, ~1,6
+ * días y ~6,5 días); al avanzar el tiempo sólo se recorren los cubos que han
+ * vencido, y los temporizadores de niveles superiores se reprograman en
+ * niveles de mayor precisión a medida que se acerca su vencimiento.
+ * <p>
+ * Los tiempos son en nanosegundos, según {@link System#nanoTime()} o
+ * cualquier otro reloj monótono. No es <i>thread-safe</i>, se debe proteger
+ * desde la caché que lo utilice.
+ * <p>
+ * 18/06/2016 10:47:22
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+final class TimerWheel<N extends TimerWheel.Node<N>> {
+
+	/* Número de cubos de cada nivel. */
+	private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+
+	/* Duración de un cubo de cada nivel, potencias de dos próximas a segundo, minuto, hora y día. */
+	private static final long[] SPANS = {
+		Long.highestOneBit(TimeUnit.SECONDS.toNanos(1)) << 1,	// 1.07 s
+		Long.highestOneBit(TimeUnit.MINUTES.toNanos(1)) << 1,	// 1.14 m
+		Long.highestOneBit(TimeUnit.HOURS.toNanos(1)) << 1,		// 1.22 h
+		Long.highestOneBit(TimeUnit.DAYS.toNanos(1)) << 1,		// 1.63 d
+		BUCKETS[3] * (Long.highestOneBit(TimeUnit.DAYS.toNanos(1)) << 1),	// 6.5 d
+		BUCKETS[3] * (Long.highestOneBit(TimeUnit.DAYS.toNanos(1)) << 1),	// 6.5 d
+	};
+
+	/* Desplazamiento para obtener los ticks de cada nivel a partir del tiempo. */
+	private static final long[] SHIFT = {
+		Long.numberOfTrailingZeros(SPANS[0]),
+		Long.numberOfTrailingZeros(SPANS[1]),
+		Long.numberOfTrailingZeros(SPANS[2]),
+		Long.numberOfTrailingZeros(SPANS[3]),
+		Long.numberOfTrailingZeros(SPANS[4]),
+	};
+
+	/* Cubos de cada nivel, cada uno es el centinela de una lista circular. */
+	private final Sentinel<N>[][] wheel;
+
+	/* Último instante hasta el que se ha avanzado la rueda. */
+	private long nanos;
+
+	/* Constructor, recibe el instante actual. */
+	TimerWheel (final long nanos) {
+		this.nanos = nanos;
+		this.wheel = newLevels(BUCKETS.length);
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = newBuckets(BUCKETS[i]);
+			for (int j = 0; j < wheel[i].length; j++) {
+				wheel[i][j] = new Sentinel<>();
+			}
+		}
+	}
+
+	/* Crea el array de niveles de la rueda, vacío. */
+	@SuppressWarnings("unchecked")
+	private static <N extends Node<N>> Sentinel<N>[][] newLevels(final int levels) {
+		return (Sentinel<N>[][]) new Sentinel<?>[levels][];
+	}
+
+	/* Crea el array de cubos de un nivel, vacío. */
+	@SuppressWarnings("unchecked")
+	private static <N extends Node<N>> Sentinel<N>[] newBuckets(final int buckets) {
+		return (Sentinel<N>[]) new Sentinel<?>[buckets];
+	}
+
+	/* Instante hasta el que se ha avanzado la rueda. */
+	long getNanos() {
+		return nanos;
+	}
+
+	/* Programa un nodo según su vencimiento. Si ya estaba programado se reprograma. */
+	void schedule(final N node) {
+		deschedule(node);
+		link(findBucket(node.getDeadline()), node);
+	}
+
+	/* Elimina un nodo de la rueda, si está programado. */
+	void deschedule(final N node) {
+		if (node.next != null) {
+			node.prev.next = node.next;
+			node.next.prev = node.prev;
+			node.prev = null;
+			node.next = null;
+		}
+	}
+
+	/*
+	 * Avanza la rueda hasta el instante indicado. Los nodos vencidos se
+	 * eliminan de la rueda y se notifican a 'onExpired'; los que aún no han
+	 * vencido (por ejemplo, porque han sido accedidos después de programarse)
+	 * se reprograman.
+	 */
+	void advance(final long currentNanos, final Consumer<? super N> onExpired) {
+		final long previousNanos = nanos;
+		nanos = currentNanos;
+
+		for (int i = 0; i < SHIFT.length; i++) {
+			final long previousTicks = previousNanos >>> SHIFT[i];
+			final long currentTicks = currentNanos >>> SHIFT[i];
+			if (currentTicks - previousTicks <= 0L) {
+				break;
+			}
+			expire(i, previousTicks, currentTicks - previousTicks, onExpired);
+		}
+	}
+
+	/* Recorre los cubos vencidos de un nivel, desde el tick anterior al actual. */
+	@SuppressWarnings("unchecked")
+	private void expire(final int level, final long previousTicks, final long delta,
+			final Consumer<? super N> onExpired) {
+		final Sentinel<N>[] buckets = wheel[level];
+		final int mask = buckets.length - 1;
+		final int steps = (int) Math.min(1L + delta, buckets.length);
+		final int start = (int) (previousTicks & mask);
+		final int end = start + steps;
+
+		for (int i = start; i < end; i++) {
+			final Sentinel<N> sentinel = buckets[i & mask];
+			Node<N> node = sentinel.next;
+			/* Se vacía el cubo antes de procesarlo, los nodos reprogramados pueden volver a él. */
+			sentinel.prev = sentinel;
+			sentinel.next = sentinel;
+
+			while (node != sentinel) {
+				final Node<N> next = node.next;
+				node.prev = null;
+				node.next = null;
+
+				if (node.getDeadline() - nanos > 0L) {
+					link(findBucket(node.getDeadline()), node);
+				} else {
+					onExpired.accept((N) node);
+				}
+				node = next;
+			}
+		}
+	}
+
+	/* Obtiene el cubo en el que se programa un vencimiento. */
+	private Sentinel<N> findBucket(final long deadline) {
+		final long duration = deadline - nanos;
+		final int length = wheel.length - 1;
+		for (int i = 0; i < length; i++) {
+			if (duration < SPANS[i + 1]) {
+				final long ticks = deadline >>> SHIFT[i];
+				final int index = (int) (ticks & (wheel[i].length - 1));
+				return wheel[i][index];
+			}
+		}
+		return wheel[length][0];
+	}
+
+	/* Añade el nodo al final de la lista de un cubo. */
+	private void link(final Sentinel<N> sentinel, final Node<N> node) {
+		node.prev = sentinel.prev;
+		node.next = sentinel;
+		sentinel.prev.next = node;
+		sentinel.prev = node;
+	}
+
+	/**
+	 * Nodo programable en la rueda. Las subclases indican el instante de
+	 * vencimiento, que puede cambiar mientras el nodo está programado: la
+	 * rueda lo comprueba al vencer el cubo y lo reprograma si aún no ha
+	 * vencido.
+	 */
+	abstract static class Node<N extends Node<N>> {
+		Node<N> prev;
+		Node<N> next;
+
+		/* Instante de vencimiento, en nanosegundos. */
+		abstract long getDeadline();
+	}
+
+	/* Centinela de la lista de un cubo. */
+	private static final class Sentinel<N extends Node<N>> extends Node<N> {
+		Sentinel () {
+			prev = this;
+			next = this;
+		}
+
+		@Override
+		long getDeadline() {
+			return Long.MAX_VALUE;
+		}
+	}
+}
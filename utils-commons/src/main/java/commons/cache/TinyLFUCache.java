@@ -0,0 +1,492 @@
+package commons.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Caché con política de admisión <i>Window TinyLFU</i>. Los elementos nuevos
+ * entran en una pequeña ventana LRU (1% de la capacidad). Al salir de la
+ * ventana compiten por entrar en la región principal con la víctima LRU de
+ * ésta, y sólo entran si su frecuencia estimada es mayor. La frecuencia se
+ * estima con un {@link FrequencySketch} que envejece periódicamente.
+ * <p>
+ * La región principal es una LRU segmentada: los elementos admitidos entran en
+ * el segmento de prueba (<i>probation</i>) y pasan al protegido
+ * (<i>protected</i>, 80% de la región principal) si se vuelven a acceder. De
+ * esta forma un recorrido largo de elementos fríos no desplaza a los elementos
+ * más utilizados.
+ * <p>
+ * El máximo se puede cambiar en tiempo de ejecución con
+ * {@link #setMaximum(long)}: se recalculan las regiones y se expulsan los
+ * elementos que sobren con la misma política. La estimación de frecuencias
+ * conserva el tamaño con el que se creó la caché.
+ * <p>
+ * Esta caché es <i>thread-safe</i>.
+ * <p>
+ * 11/06/2016 11:31:09
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class TinyLFUCache<ID, E extends Id<ID>> extends AbstractCache<ID, E> implements IResizableCache {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT =
+			"TinyLFUCache [max:%s] [ventana:%s/%s] [prueba:%s] [protegido:%s/%s]";
+
+	/* Porcentaje de la capacidad máxima dedicado a la ventana de admisión. */
+	private static final float WINDOW_PERCENT = 0.01f;
+
+	/* Porcentaje de la región principal dedicado al segmento protegido. */
+	private static final float PROTECTED_PERCENT = 0.80f;
+
+	/* Bloqueo de acceso, las lecturas también reordenan las listas. */
+	private final Lock lock;
+
+	/* Índice de nodos por id. */
+	private final Map<ID, Node<ID, E>> elements;
+
+	/* Estimación de frecuencias. */
+	private final FrequencySketch sketch;
+
+	/* Listas LRU de cada región: la cabeza es el menos recientemente utilizado. */
+	private final NodeList<ID, E> window;
+	private final NodeList<ID, E> probation;
+	private final NodeList<ID, E> protect;
+
+	/* Máximos de cada región. Protegidos por 'lock'. */
+	private int maxElements;
+	private int maxWindow;
+	private int maxMain;
+	private int maxProtected;
+
+	/* Constructor, recibe el máximo número de elementos. */
+	TinyLFUCache (final int maxCapacity) {
+		if (maxCapacity <= 0) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"No se puede crear cache TinyLFU con capacidad máxima 0 o negativa: '%s'", maxCapacity)
+			);
+		}
+
+		this.lock = new ReentrantLock();
+		setRegions(maxCapacity);
+
+		this.elements = new HashMap<>();
+		this.sketch = new FrequencySketch(maxCapacity);
+		this.window = new NodeList<>(Region.WINDOW);
+		this.probation = new NodeList<>(Region.PROBATION);
+		this.protect = new NodeList<>(Region.PROTECTED);
+	}
+
+	@Override
+	public void add(final E element) {
+		Objects.requireNonNull(element);
+		Objects.requireNonNull(element.getId());
+
+		lock.lock();
+		try {
+			put(element);
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+		statsCounter().recordPuts(1);
+	}
+
+	@Override
+	public void addAll(final Collection<? extends E> elements) {
+		for (final E element : elements) {
+			Objects.requireNonNull(element);
+			Objects.requireNonNull(element.getId());
+		}
+
+		lock.lock();
+		try {
+			for (final E element : elements) {
+				put(element);
+			}
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+		statsCounter().recordPuts(elements.size());
+	}
+
+	/* Añade o sustituye un elemento. Debe llamarse con el bloqueo adquirido. */
+	private void put(final E element) {
+		final ID id = element.getId();
+		sketch.increment(id);
+		final Node<ID, E> existing = elements.get(id);
+		if (existing != null) {
+			if (existing.element != element) {
+				notifyRemoval(existing.element, RemovalCause.REPLACED);
+			}
+			existing.element = element;
+			onAccess(existing);
+		} else {
+			final Node<ID, E> node = new Node<>(id, element);
+			elements.put(id, node);
+			window.addLast(node);
+			evict();
+		}
+	}
+
+	@Override
+	public E remove(final ID id) {
+		final E removed;
+		lock.lock();
+		try {
+			removed = delete(id);
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+		return removed;
+	}
+
+	@Override
+	public Map<ID, E> removeAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> result = new LinkedHashMap<>();
+		lock.lock();
+		try {
+			for (final ID id : ids) {
+				final E element = delete(id);
+				if (element != null) {
+					result.put(id, element);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+		return result;
+	}
+
+	/* Elimina un elemento, null si no está. Debe llamarse con el bloqueo adquirido. */
+	private E delete(final ID id) {
+		final Node<ID, E> node = elements.remove(id);
+		if (node == null) {
+			return null;
+		}
+		listOf(node).unlink(node);
+		notifyRemoval(node.element, RemovalCause.EXPLICIT);
+		return node.element;
+	}
+
+	@Override
+	public void invalidateAll() {
+		lock.lock();
+		try {
+			if (hasRemovalListeners()) {
+				for (final Node<ID, E> node : elements.values()) {
+					notifyRemoval(node.element, RemovalCause.EXPLICIT);
+				}
+			}
+			elements.clear();
+			window.clear();
+			probation.clear();
+			protect.clear();
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+	}
+
+	@Override
+	public E get(final ID id) {
+		final E element;
+		lock.lock();
+		try {
+			element = access(id);
+		} finally {
+			lock.unlock();
+		}
+
+		if (element != null) {
+			statsCounter().recordHits(1);
+		} else {
+			statsCounter().recordMisses(1);
+		}
+		return element;
+	}
+
+	@Override
+	public Map<ID, E> getAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> result = new LinkedHashMap<>();
+		int hits = 0;
+		lock.lock();
+		try {
+			for (final ID id : ids) {
+				final E element = access(id);
+				if (element != null) {
+					result.put(id, element);
+					hits++;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		statsCounter().recordHits(hits);
+		statsCounter().recordMisses(ids.size() - hits);
+		return result;
+	}
+
+	/* Lectura de un elemento, registrando el acceso. Debe llamarse con el bloqueo adquirido. */
+	private E access(final ID id) {
+		if (id != null) {
+			sketch.increment(id);
+		}
+		final Node<ID, E> node = elements.get(id);
+		if (node == null) {
+			return null;
+		}
+		onAccess(node);
+		return node.element;
+	}
+
+	/* Actualiza la posición de un nodo accedido según la región en la que está. */
+	private void onAccess(final Node<ID, E> node) {
+		switch (node.region) {
+		case WINDOW:
+			window.moveToLast(node);
+			break;
+		case PROBATION:
+			/* Segundo acceso en la región principal: se promociona al segmento protegido. */
+			probation.unlink(node);
+			protect.addLast(node);
+			if (protect.size > maxProtected) {
+				final Node<ID, E> demoted = protect.head;
+				protect.unlink(demoted);
+				probation.addLast(demoted);
+			}
+			break;
+		case PROTECTED:
+		default:
+			protect.moveToLast(node);
+			break;
+		}
+	}
+
+	/*
+	 * Si la ventana supera su máximo, su elemento LRU (candidato) pasa a la
+	 * región principal. Si ésta está llena, el candidato compite con la
+	 * víctima LRU de la región principal y se queda el de mayor frecuencia.
+	 */
+	private void evict() {
+		while (window.size > maxWindow) {
+			final Node<ID, E> candidate = window.head;
+			window.unlink(candidate);
+
+			if (probation.size + protect.size < maxMain) {
+				probation.addLast(candidate);
+				continue;
+			}
+
+			final Node<ID, E> victim = probation.head != null ? probation.head : protect.head;
+			if (victim != null && sketch.frequency(candidate.id) > sketch.frequency(victim.id)) {
+				listOf(victim).unlink(victim);
+				elements.remove(victim.id);
+				probation.addLast(candidate);
+				notifyRemoval(victim.element, RemovalCause.SIZE);
+			} else {
+				elements.remove(candidate.id);
+				notifyRemoval(candidate.element, RemovalCause.SIZE);
+			}
+			statsCounter().recordEviction(RemovalCause.SIZE);
+		}
+	}
+
+	/* Reparte el máximo entre las regiones. */
+	private void setRegions(final int maxCapacity) {
+		maxElements = maxCapacity;
+		maxWindow = Math.max(1, (int) (maxCapacity * WINDOW_PERCENT));
+		maxMain = maxCapacity - maxWindow;
+		maxProtected = (int) (maxMain * PROTECTED_PERCENT);
+	}
+
+	@Override
+	public long getMaximum() {
+		lock.lock();
+		try {
+			return maxElements;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Al reducir, los elementos protegidos que sobran pasan al segmento de
+	 * prueba, la ventana se vacía hacia la región principal compitiendo como
+	 * siempre, y por último se expulsan las víctimas LRU de la región
+	 * principal que sigan sobrando.
+	 */
+	@Override
+	public void setMaximum(final long maximum) {
+		if (maximum <= 0L || maximum > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"Máximo no válido para cache TinyLFU: '%s'", maximum)
+			);
+		}
+
+		lock.lock();
+		try {
+			setRegions((int) maximum);
+			while (protect.size > maxProtected) {
+				final Node<ID, E> demoted = protect.head;
+				protect.unlink(demoted);
+				probation.addLast(demoted);
+			}
+			evict();
+			while (probation.size + protect.size > maxMain) {
+				final Node<ID, E> victim = probation.head != null ? probation.head : protect.head;
+				listOf(victim).unlink(victim);
+				elements.remove(victim.id);
+				notifyRemoval(victim.element, RemovalCause.SIZE);
+				statsCounter().recordEviction(RemovalCause.SIZE);
+			}
+		} finally {
+			lock.unlock();
+		}
+		dispatchRemovals();
+	}
+
+	@Override
+	public long getWeight() {
+		lock.lock();
+		try {
+			return elements.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* De menos a más valiosos: segmento de prueba, ventana y segmento protegido, cada uno en orden LRU. */
+	@Override
+	List<E> snapshot() {
+		lock.lock();
+		try {
+			final List<E> result = new ArrayList<>(elements.size());
+			for (final NodeList<ID, E> list : Arrays.asList(probation, window, protect)) {
+				for (Node<ID, E> node = list.head; node != null; node = node.next) {
+					result.add(node.element);
+				}
+			}
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Lista de la región en la que se encuentra el nodo. */
+	private NodeList<ID, E> listOf(final Node<ID, E> node) {
+		final NodeList<ID, E> list;
+		switch (node.region) {
+		case WINDOW:
+			list = window;
+			break;
+		case PROBATION:
+			list = probation;
+			break;
+		case PROTECTED:
+		default:
+			list = protect;
+			break;
+		}
+		return list;
+	}
+
+	@Override
+	public String toString() {
+		lock.lock();
+		try {
+			return PrintUtils.format(PRINT_FORMAT, maxElements, window.size, maxWindow, probation.size,
+					protect.size, maxProtected);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Región de la caché en la que se encuentra un nodo. */
+	private enum Region {WINDOW, PROBATION, PROTECTED}
+
+	/* Nodo de las listas LRU. */
+	private static final class Node<ID, E> {
+		private final ID id;
+		private E element;
+		private Region region;
+		private Node<ID, E> prev;
+		private Node<ID, E> next;
+
+		Node (final ID id, final E element) {
+			this.id = id;
+			this.element = element;
+		}
+	}
+
+	/* Lista doblemente enlazada de nodos de una región, de menos a más recientemente utilizado. */
+	private static final class NodeList<ID, E> {
+		private final Region region;
+		private Node<ID, E> head;
+		private Node<ID, E> tail;
+		private int size;
+
+		NodeList (final Region region) {
+			this.region = region;
+		}
+
+		void addLast(final Node<ID, E> node) {
+			node.region = region;
+			node.prev = tail;
+			node.next = null;
+			if (tail == null) {
+				head = node;
+			} else {
+				tail.next = node;
+			}
+			tail = node;
+			size++;
+		}
+
+		void unlink(final Node<ID, E> node) {
+			if (node.prev == null) {
+				head = node.next;
+			} else {
+				node.prev.next = node.next;
+			}
+			if (node.next == null) {
+				tail = node.prev;
+			} else {
+				node.next.prev = node.prev;
+			}
+			node.prev = null;
+			node.next = null;
+			size--;
+		}
+
+		void clear() {
+			head = null;
+			tail = null;
+			size = 0;
+		}
+
+		void moveToLast(final Node<ID, E> node) {
+			if (node != tail) {
+				unlink(node);
+				addLast(node);
+			}
+		}
+	}
+}
@@ -0,0 +1,487 @@
+package commons.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import commons.exception.CacheWriteException;
+import commons.log.Log;
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Caché que escribe en su almacén de forma diferida. Los elementos añadidos y
+ * eliminados se aplican en la caché envuelta y quedan pendientes; los cambios
+ * repetidos de un mismo id se combinan en uno solo, el último. Los cambios
+ * pendientes se envían al {@link ICacheWriter} en lotes, en un hilo propio,
+ * cuando se acumula un lote completo y cada intervalo de vaciado.
+ * <p>
+ * Si se alcanza el máximo de cambios pendientes, el hilo que escribe envía él
+ * mismo un lote antes de continuar; si el almacén falla, la escritura se
+ * rechaza con una {@link IllegalStateException}. Un lote fallido vuelve a
+ * quedar pendiente, por delante de los cambios posteriores, y se reintenta.
+ * Los lotes se envían de uno en uno, de forma que los cambios de un mismo id
+ * llegan al almacén en orden.
+ * <p>
+ * Las lecturas de elementos pendientes de escribir que la caché envuelta ya
+ * ha expulsado se sirven desde los cambios pendientes, incluidos los del lote
+ * que se está escribiendo hasta que el almacén lo confirma. Vaciar la caché
+ * ({@link #invalidateAll()}) no descarta los cambios pendientes ni borra nada
+ * del almacén. Los cambios pendientes se envían al cerrar la caché y al parar
+ * la máquina virtual.
+ * <p>
+ * Esta caché es <i>thread-safe</i> si la caché envuelta lo es.
+ * <p>
+ * 10/09/2016 11:18:03
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class WriteBehindCache<ID, E extends Id<ID>> extends AbstractCache<ID, E> implements Closeable {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "WriteBehindCache [lote:%s] [intervalo:%sms] [pendientes:%s/%s] %s";
+
+	/* Mensaje de error al escribir un lote. */
+	private static final String WRITE_ERROR = "Error al escribir en el almacén un lote de cambios de caché, ids: '%s'";
+
+	/* Nombre del hilo de escritura. */
+	private static final String THREAD_NAME = "cache-write-behind";
+
+	/* Caché envuelta. */
+	private final ICache<ID, E> delegate;
+
+	/* Escritor del almacén. */
+	private final ICacheWriter<ID, E> writer;
+
+	/* Máximo de cambios por lote y de cambios pendientes. */
+	private final int batchSize;
+	private final int maxPending;
+
+	/* Intervalo de vaciado, en milisegundos. */
+	private final long flushIntervalMillis;
+
+	/*
+	 * Cambios pendientes por id, en orden de llegada: el elemento a escribir,
+	 * o null si se debe borrar. Protegido por 'lock'.
+	 */
+	private final LinkedHashMap<ID, E> pending;
+
+	/*
+	 * Lote que se está escribiendo en el almacén, con sus cambios visibles
+	 * para las lecturas hasta que termina. Protegido por 'lock'.
+	 */
+	private Map<ID, E> writing;
+
+	/* Número de cambios pendientes y en escritura, para consultarlo sin bloqueo. */
+	private volatile int pendingCount;
+
+	/* Bloqueo de los cambios pendientes. */
+	private final Lock lock;
+
+	/* Bloqueo de envío de lotes, para enviarlos de uno en uno. */
+	private final Lock flushLock;
+
+	/* Hilo de escritura. */
+	private final ScheduledExecutorService scheduler;
+
+	/* Indica si hay un vaciado por lote completo lanzado y aún no iniciado. */
+	private final AtomicBoolean flushRequested;
+
+	/* Vaciado al parar la máquina virtual. */
+	private final Thread shutdownHook;
+
+	/*
+	 * Constructor, recibe la caché envuelta, el escritor, el máximo de cambios
+	 * por lote, el intervalo de vaciado y el máximo de cambios pendientes.
+	 */
+	WriteBehindCache (final ICache<ID, E> delegate, final ICacheWriter<ID, E> writer, final int batchSize,
+			final long flushInterval, final TimeUnit unit, final int maxPending) {
+		if (batchSize <= 0 || flushInterval <= 0L || maxPending < batchSize) {
+			throw new IllegalArgumentException(PrintUtils.format(
+				"No se puede crear cache con escritura diferida con lotes de '%s', intervalo '%s' y máximo '%s'",
+				batchSize, flushInterval, maxPending)
+			);
+		}
+
+		this.delegate = Objects.requireNonNull(delegate);
+		this.writer = Objects.requireNonNull(writer);
+		this.batchSize = batchSize;
+		this.maxPending = maxPending;
+		this.flushIntervalMillis = Math.max(1L, unit.toMillis(flushInterval));
+
+		this.pending = new LinkedHashMap<>();
+		this.writing = Collections.emptyMap();
+		this.lock = new ReentrantLock();
+		this.flushLock = new ReentrantLock();
+		this.flushRequested = new AtomicBoolean();
+
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+			final Thread thread = new Thread(task, THREAD_NAME);
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.scheduler.scheduleWithFixedDelay(this::flushInBackground, flushIntervalMillis, flushIntervalMillis,
+				TimeUnit.MILLISECONDS);
+
+		this.shutdownHook = new Thread(this::flushOnShutdown, THREAD_NAME);
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	@Override
+	public void add(final E element) {
+		Objects.requireNonNull(element);
+		final ID id = Objects.requireNonNull(element.getId());
+
+		awaitCapacity();
+		lock.lock();
+		try {
+			delegate.add(element);
+			pending.put(id, element);
+			pendingCount = pending.size() + writing.size();
+		} finally {
+			lock.unlock();
+		}
+		requestFlushIfFull();
+	}
+
+	@Override
+	public void addAll(final Collection<? extends E> elements) {
+		for (final E element : elements) {
+			Objects.requireNonNull(element);
+			Objects.requireNonNull(element.getId());
+		}
+
+		awaitCapacity();
+		lock.lock();
+		try {
+			delegate.addAll(elements);
+			for (final E element : elements) {
+				pending.put(element.getId(), element);
+			}
+			pendingCount = pending.size() + writing.size();
+		} finally {
+			lock.unlock();
+		}
+		requestFlushIfFull();
+	}
+
+	@Override
+	public E remove(final ID id) {
+		Objects.requireNonNull(id);
+
+		awaitCapacity();
+		final E removed;
+		lock.lock();
+		try {
+			final E unwritten = unwritten(id);
+			final E cached = delegate.remove(id);
+			removed = cached != null ? cached : unwritten;
+			pending.put(id, null);
+			pendingCount = pending.size() + writing.size();
+		} finally {
+			lock.unlock();
+		}
+		requestFlushIfFull();
+		return removed;
+	}
+
+	@Override
+	public Map<ID, E> removeAll(final Collection<? extends ID> ids) {
+		for (final ID id : ids) {
+			Objects.requireNonNull(id);
+		}
+
+		awaitCapacity();
+		final Map<ID, E> removed;
+		lock.lock();
+		try {
+			removed = new LinkedHashMap<>(delegate.removeAll(ids));
+			for (final ID id : ids) {
+				final E unwritten = unwritten(id);
+				pending.put(id, null);
+				if (unwritten != null && !removed.containsKey(id)) {
+					removed.put(id, unwritten);
+				}
+			}
+			pendingCount = pending.size() + writing.size();
+		} finally {
+			lock.unlock();
+		}
+		requestFlushIfFull();
+		return removed;
+	}
+
+	@Override
+	public E get(final ID id) {
+		final E element = delegate.get(id);
+		if (element != null || pendingCount == 0) {
+			return element;
+		}
+		lock.lock();
+		try {
+			/* Expulsado de la caché envuelta antes de escribirse. */
+			return unwritten(id);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Map<ID, E> getAll(final Collection<? extends ID> ids) {
+		final Map<ID, E> result = delegate.getAll(ids);
+		if (result.size() == ids.size() || pendingCount == 0) {
+			return result;
+		}
+		lock.lock();
+		try {
+			for (final ID id : ids) {
+				final E unwritten = result.containsKey(id) ? null : unwritten(id);
+				if (unwritten != null) {
+					result.put(id, unwritten);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		return result;
+	}
+
+	@Override
+	public void invalidateAll() {
+		delegate.invalidateAll();
+	}
+
+	/*
+	 * Último cambio sin confirmar de un id: el pendiente, o si no lo hay el del
+	 * lote en escritura. Null si no hay o si se borra. Con 'lock' bloqueado.
+	 */
+	private E unwritten(final ID id) {
+		return pending.containsKey(id) ? pending.get(id) : writing.get(id);
+	}
+
+	/*
+	 * Si se ha alcanzado el máximo de cambios pendientes, envía lotes desde
+	 * este hilo hasta que haya sitio. Si el almacén falla se rechaza la
+	 * escritura.
+	 */
+	private void awaitCapacity() {
+		while (pendingCount >= maxPending) {
+			try {
+				if (!writeBatch()) {
+					return;
+				}
+			} catch (CacheWriteException e) {
+				throw new IllegalStateException(PrintUtils.format(
+					"Máximo de '%s' cambios pendientes de escribir alcanzado y el almacén falla", maxPending), e);
+			}
+		}
+	}
+
+	/* Lanza el envío en el hilo de escritura si hay un lote completo pendiente. */
+	private void requestFlushIfFull() {
+		if (pendingCount >= batchSize && flushRequested.compareAndSet(false, true)) {
+			try {
+				scheduler.execute(() -> {
+					flushRequested.set(false);
+					flushInBackground();
+				});
+			} catch (RuntimeException e) {
+				/* Caché cerrada, se envían en la siguiente escritura que alcance el máximo. */
+				flushRequested.set(false);
+			}
+		}
+	}
+
+	/* Envía todos los cambios pendientes desde el hilo de escritura, registrando los errores. */
+	private void flushInBackground() {
+		try {
+			flush();
+		} catch (CacheWriteException | RuntimeException e) {
+			Log.error(WriteBehindCache.class, e.getMessage(), e);
+		}
+	}
+
+	/* Envía los cambios pendientes al parar la máquina virtual. */
+	private void flushOnShutdown() {
+		scheduler.shutdown();
+		flushInBackground();
+	}
+
+	/**
+	 * Envía al almacén todos los cambios pendientes, en lotes, y espera a que
+	 * terminen. Los cambios de un lote fallido siguen pendientes.
+	 *
+	 * @throws CacheWriteException
+	 *             Si el almacén falla al escribir un lote.
+	 */
+	public void flush() throws CacheWriteException {
+		while (writeBatch()) {
+			/* Hasta que no queden cambios pendientes. */
+		}
+	}
+
+	/*
+	 * Envía un lote de cambios pendientes. Devuelve false si no había cambios.
+	 * Si el almacén falla, el lote vuelve a quedar pendiente por delante de
+	 * los cambios posteriores.
+	 */
+	private boolean writeBatch() throws CacheWriteException {
+		flushLock.lock();
+		try {
+			final Map<ID, E> batch = takeBatch();
+			if (batch.isEmpty()) {
+				return false;
+			}
+
+			final List<E> writes = new ArrayList<>(batch.size());
+			final List<ID> deletes = new ArrayList<>();
+			for (final Entry<ID, E> entry : batch.entrySet()) {
+				if (entry.getValue() != null) {
+					writes.add(entry.getValue());
+				} else {
+					deletes.add(entry.getKey());
+				}
+			}
+
+			try {
+				if (!writes.isEmpty()) {
+					writer.writeAll(writes);
+				}
+				if (!deletes.isEmpty()) {
+					writer.deleteAll(deletes);
+				}
+			} catch (Exception e) {
+				requeue(batch);
+				final CacheWriteException exception = 
+						new CacheWriteException(PrintUtils.format(WRITE_ERROR, batch.keySet()), e);
+				exception.addArgument("Ids", new ArrayList<>(batch.keySet()));
+				throw exception;
+			} finally {
+				endBatch();
+			}
+			return true;
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/* Toma los primeros cambios pendientes, hasta un lote, como lote en escritura. */
+	private Map<ID, E> takeBatch() {
+		final Map<ID, E> batch = new LinkedHashMap<>();
+		lock.lock();
+		try {
+			final Iterator<Entry<ID, E>> entries = pending.entrySet().iterator();
+			while (batch.size() < batchSize && entries.hasNext()) {
+				final Entry<ID, E> entry = entries.next();
+				batch.put(entry.getKey(), entry.getValue());
+				entries.remove();
+			}
+			writing = batch;
+			pendingCount = pending.size() + writing.size();
+		} finally {
+			lock.unlock();
+		}
+		return batch;
+	}
+
+	/* Termina el lote en escritura: sus cambios dejan de servirse a las lecturas. */
+	private void endBatch() {
+		lock.lock();
+		try {
+			writing = Collections.emptyMap();
+			pendingCount = pending.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Devuelve un lote fallido a los cambios pendientes, delante. Los ids con cambios posteriores conservan éstos. */
+	private void requeue(final Map<ID, E> batch) {
+		lock.lock();
+		try {
+			final Map<ID, E> later = new LinkedHashMap<>(pending);
+			pending.clear();
+			pending.putAll(batch);
+			pending.putAll(later);
+			pendingCount = pending.size() + writing.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Envía los cambios pendientes y detiene el hilo de escritura. La caché
+	 * no debe usarse después.
+	 *
+	 * @throws IOException
+	 *             Si el almacén falla al escribir los cambios pendientes.
+	 */
+	@Override
+	public void close() throws IOException {
+		scheduler.shutdown();
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			/* La máquina virtual ya se está parando, el vaciado lo hace el propio gancho. */
+		}
+		try {
+			flush();
+		} catch (CacheWriteException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	List<E> snapshot() {
+		return snapshotOf(delegate);
+	}
+
+	@Override
+	ICache<ID, E> storage() {
+		return storageOf(delegate);
+	}
+
+	@Override
+	IResizableCache resizable() {
+		return resizableOf(delegate);
+	}
+
+	/* Las eliminaciones se producen en la caché envuelta, el oyente se añade a ella. */
+	@Override
+	public void addRemovalListener(final IRemovalListener<ID, E> listener, final Executor executor) {
+		delegate.addRemovalListener(listener, executor);
+	}
+
+	/* Las estadísticas son las de la caché envuelta. */
+	@Override
+	public void recordStats(final boolean enabled) {
+		delegate.recordStats(enabled);
+	}
+
+	@Override
+	public CacheStats stats() {
+		return delegate.stats();
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, batchSize, flushIntervalMillis, pendingCount, maxPending, delegate);
+	}
+}
@@ -0,0 +1,233 @@
+package commons.cache;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import commons.exception.CacheWriteException;
+import commons.util.PrintUtils;
+import commons.vo.Id;
+
+/**
+ * Caché que escribe de forma síncrona en su almacén, con un
+ * {@link ICacheWriter}, cada elemento que se añade y borra cada elemento que
+ * se elimina, antes de aplicar el cambio en la caché envuelta. Si el almacén
+ * falla la caché no cambia y se lanza una {@link IllegalStateException} cuya
+ * causa es una {@link CacheWriteException}.
+ * <p>
+ * La escritura en el almacén y el cambio en la caché de un mismo id se hacen
+ * con el bloqueo de su grupo de ids, de forma que dos escrituras concurrentes
+ * del mismo id dejan en la caché el mismo valor que en el almacén.
+ * <p>
+ * Vaciar la caché ({@link #invalidateAll()}) no borra nada del almacén.
+ * <p>
+ * Esta caché es <i>thread-safe</i> si la caché envuelta y el escritor lo son.
+ * <p>
+ * 10/09/2016 10:32:56
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class WriteThroughCache<ID, E extends Id<ID>> extends AbstractCache<ID, E> {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "WriteThroughCache %s";
+
+	/* Mensajes de error al escribir y al borrar. */
+	private static final String WRITE_ERROR = "Error al escribir elementos de caché en el almacén, ids: '%s'";
+	private static final String DELETE_ERROR = "Error al borrar elementos de caché del almacén, ids: '%s'";
+
+	/* Número de bloqueos por id, potencia de dos. */
+	private static final int KEY_LOCKS = 64;
+
+	/* Caché envuelta. */
+	private final ICache<ID, E> delegate;
+
+	/* Escritor del almacén. */
+	private final ICacheWriter<ID, E> writer;
+
+	/* Bloqueos por grupo de ids, para escribir en el almacén y en la caché a la vez. */
+	private final Lock[] keyLocks;
+
+	/* Constructor, recibe la caché envuelta y el escritor. */
+	WriteThroughCache (final ICache<ID, E> delegate, final ICacheWriter<ID, E> writer) {
+		this.delegate = Objects.requireNonNull(delegate);
+		this.writer = Objects.requireNonNull(writer);
+		this.keyLocks = new Lock[KEY_LOCKS];
+		for (int i = 0; i < KEY_LOCKS; i++) {
+			keyLocks[i] = new ReentrantLock();
+		}
+	}
+
+	/* Posición del bloqueo del grupo de un id. Se dispersan los bits altos del hash sobre los bajos. */
+	private static int lockIndex(final Object id) {
+		final int hash = Objects.hashCode(id);
+		return (hash ^ (hash >>> 16)) & (KEY_LOCKS - 1);
+	}
+
+	/* Adquiere los bloqueos de los grupos de varios ids, en orden para no bloquearse con otra escritura masiva. */
+	private boolean[] lockAll(final Collection<?> ids) {
+		final boolean[] locked = new boolean[KEY_LOCKS];
+		for (final Object id : ids) {
+			locked[lockIndex(id)] = true;
+		}
+		for (int i = 0; i < KEY_LOCKS; i++) {
+			if (locked[i]) {
+				keyLocks[i].lock();
+			}
+		}
+		return locked;
+	}
+
+	/* Libera los bloqueos adquiridos con lockAll. */
+	private void unlockAll(final boolean[] locked) {
+		for (int i = 0; i < KEY_LOCKS; i++) {
+			if (locked[i]) {
+				keyLocks[i].unlock();
+			}
+		}
+	}
+
+	@Override
+	public void add(final E element) {
+		Objects.requireNonNull(element);
+		final Lock lock = keyLocks[lockIndex(element.getId())];
+		lock.lock();
+		try {
+			try {
+				writer.write(element);
+			} catch (Exception e) {
+				throw createException(WRITE_ERROR, element.getId(), e);
+			}
+			delegate.add(element);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void addAll(final Collection<? extends E> elements) {
+		final List<ID> ids = new ArrayList<>(elements.size());
+		for (final E element : elements) {
+			ids.add(Objects.requireNonNull(element).getId());
+		}
+		final boolean[] locked = lockAll(ids);
+		try {
+			try {
+				writer.writeAll(elements);
+			} catch (Exception e) {
+				throw createException(WRITE_ERROR, ids, e);
+			}
+			delegate.addAll(elements);
+		} finally {
+			unlockAll(locked);
+		}
+	}
+
+	@Override
+	public E remove(final ID id) {
+		Objects.requireNonNull(id);
+		final Lock lock = keyLocks[lockIndex(id)];
+		lock.lock();
+		try {
+			try {
+				writer.delete(id);
+			} catch (Exception e) {
+				throw createException(DELETE_ERROR, id, e);
+			}
+			return delegate.remove(id);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Map<ID, E> removeAll(final Collection<? extends ID> ids) {
+		final boolean[] locked = lockAll(ids);
+		try {
+			try {
+				writer.deleteAll(ids);
+			} catch (Exception e) {
+				throw createException(DELETE_ERROR, new ArrayList<>(ids), e);
+			}
+			return delegate.removeAll(ids);
+		} finally {
+			unlockAll(locked);
+		}
+	}
+
+	@Override
+	public E get(final ID id) {
+		return delegate.get(id);
+	}
+
+	@Override
+	public Map<ID, E> getAll(final Collection<? extends ID> ids) {
+		return delegate.getAll(ids);
+	}
+
+	@Override
+	public void invalidateAll() {
+		delegate.invalidateAll();
+	}
+
+	/* Crea la excepción de escritura, con los ids que la provocan como argumento. */
+	private static IllegalStateException createException(final String format, final Object ids, 
+			final Exception cause) {
+		final String message = PrintUtils.format(format, ids);
+		final CacheWriteException exception = cause instanceof CacheWriteException 
+				? (CacheWriteException) cause 
+				: new CacheWriteException(message, cause);
+		exception.addArgument("Ids", ids);
+		return new IllegalStateException(message, exception);
+	}
+
+	@Override
+	List<E> snapshot() {
+		return snapshotOf(delegate);
+	}
+
+	@Override
+	ICache<ID, E> storage() {
+		return storageOf(delegate);
+	}
+
+	@Override
+	IResizableCache resizable() {
+		return resizableOf(delegate);
+	}
+
+	@Override
+	Closeable closeable() {
+		return closeableOf(delegate);
+	}
+
+	/* Las eliminaciones se producen en la caché envuelta, el oyente se añade a ella. */
+	@Override
+	public void addRemovalListener(final IRemovalListener<ID, E> listener, final Executor executor) {
+		delegate.addRemovalListener(listener, executor);
+	}
+
+	/* Las estadísticas son las de la caché envuelta. */
+	@Override
+	public void recordStats(final boolean enabled) {
+		delegate.recordStats(enabled);
+	}
+
+	@Override
+	public CacheStats stats() {
+		return delegate.stats();
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, delegate);
+	}
+}
@@ -0,0 +1,73 @@
+package commons.exception;
+
+/**
+ * Excepción producida al cargar elementos en una caché desde su origen de datos.
+ * <p>
+ * 25/06/2016 10:14:36
+ * </p>
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class CacheLoadException extends CommonException {
+	private static final long serialVersionUID = 7312905538217403826L;
+
+	/**
+	 * Constructor.
+	 */
+	public CacheLoadException() {
+		super();
+	}
+
+	/**
+	 * Constructor con un mensaje.
+	 * 
+	 * @param message
+	 *            Mensaje que describe la excepción.
+	 */
+	public CacheLoadException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Constructor con otra excepción de la que partir.
+	 * 
+	 * @param cause
+	 *            Excepción que a su vez ha provocado esta otra excepción a
+	 *            crear.
+	 */
+	public CacheLoadException(Throwable cause) {
+		super(cause);
+	}
+
+	/**
+	 * Constructor con mensaje y motivo.
+	 * 
+	 * @param message
+	 *            Mensaje que describe la excepción.
+	 * @param cause
+	 *            Excepción que a su vez ha provocado esta otra excepción a
+	 *            crear.
+	 */
+	public CacheLoadException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	/**
+	 * Constructor con mensaje y motivo.
+	 * 
+	 * @param message
+	 *            Mensaje que describe la excepción.
+	 * @param cause
+	 *            Excepción que a su vez ha provocado esta otra excepción a
+	 *            crear.
+	 * @param enableSuppression
+	 *            Indica si se permite suprimir excepciones de la pila de la
+	 *            excepción.
+	 * @param writableStackTrace
+	 *            Indica si se permite imprimir la pila de la excepción.
+	 */
+	public CacheLoadException(String message, Throwable cause,
+			boolean enableSuppression, boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
+	}
+}
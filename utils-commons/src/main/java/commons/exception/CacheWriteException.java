@@ -0,0 +1,73 @@
+package commons.exception;
+
+/**
+ * Excepción producida al escribir elementos de una caché en su almacén.
+ * <p>
+ * 10/09/2016 10:05:12
+ * </p>
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class CacheWriteException extends CommonException {
+	private static final long serialVersionUID = -2934871650234417213L;
+
+	/**
+	 * Constructor.
+	 */
+	public CacheWriteException() {
+		super();
+	}
+
+	/**
+	 * Constructor con un mensaje.
+	 * 
+	 * @param message
+	 *            Mensaje que describe la excepción.
+	 */
+	public CacheWriteException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Constructor con otra excepción de la que partir.
+	 * 
+	 * @param cause
+	 *            Excepción que a su vez ha provocado esta otra excepción a
+	 *            crear.
+	 */
+	public CacheWriteException(Throwable cause) {
+		super(cause);
+	}
+
+	/**
+	 * Constructor con mensaje y motivo.
+	 * 
+	 * @param message
+	 *            Mensaje que describe la excepción.
+	 * @param cause
+	 *            Excepción que a su vez ha provocado esta otra excepción a
+	 *            crear.
+	 */
+	public CacheWriteException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	/**
+	 * Constructor con mensaje y motivo.
+	 * 
+	 * @param message
+	 *            Mensaje que describe la excepción.
+	 * @param cause
+	 *            Excepción que a su vez ha provocado esta otra excepción a
+	 *            crear.
+	 * @param enableSuppression
+	 *            Indica si se permite suprimir excepciones de la pila de la
+	 *            excepción.
+	 * @param writableStackTrace
+	 *            Indica si se permite imprimir la pila de la excepción.
+	 */
+	public CacheWriteException(String message, Throwable cause,
+			boolean enableSuppression, boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
+	}
+}
@@ -31,10 +31,10 @@ public abstract class ActionFacade {
 	protected <R, C extends IAction<R>> R execute (final Class<C> actionClass, final Object... params) 
 			throws CommonException {
 		Objects.requireNonNull(actionClass);
-		Log.debug(actionClass, 
-			PrintUtils.format("Ejecutar acción [ActionFacade, %s], parametros %s", 
-				actionClass.getSimpleName(), (PrintUtils.printArray(params)))
-		);
+		if (Log.isDebugEnabled()) {
+			Log.debug(actionClass, "Ejecutar acción [ActionFacade, %s], parametros %s", 
+				actionClass.getSimpleName(), PrintUtils.printArray(params));
+		}
 		
 		Method method = null;
 		try {
@@ -36,6 +36,14 @@ abstract class AbstractLogger {
 	/* Escribe un log de error fatal, con un separador entre tag y mensaje.*/
 	abstract void fatal(Class<?> clazz, String message, Throwable throwable);
 	
+	/* Indica si se escriben los mensajes del nivel indicado. Debe ser barato, se consulta en cada mensaje. */
+	abstract boolean isEnabled(LogLevel level);
+	
 	/* Configura el logger concreto. */
 	abstract void configure (Object configuration);
+	
+	/* Libera los recursos del logger al sustituirlo por otro. Por defecto no hace nada. */
+	void close () {
+		/* Sin recursos. */
+	}
 }
@@ -0,0 +1,184 @@
+package commons.log;
+
+import java.util.Objects;
+
+import commons.util.PrintUtils;
+
+/**
+ * Configuración del log asíncrono ({@link LogSystem#ASYNC}). Los hilos que
+ * escriben el log publican los mensajes en una cola circular de tamaño fijo,
+ * reservada al configurar el log, y un único hilo los formatea y los escribe
+ * por lotes.
+ * <p>
+ * Se puede elegir:
+ * <ul>
+ * <li>el tamaño de la cola, que se redondea a la siguiente potencia de dos.</li>
+ * <li>cómo espera el hilo de escritura a que haya mensajes
+ * ({@link WaitStrategy}): a menor latencia, más consumo de CPU en reposo.</li>
+ * <li>qué hacer cuando la cola está llena ({@link OverflowPolicy}).</li>
+ * <li>el nivel de log: los mensajes menos graves no se publican.</li>
+ * </ul>
+ * Por defecto: 8192 mensajes, espera {@link WaitStrategy#SLEEPING},
+ * política {@link OverflowPolicy#BLOCK} y nivel DEBUG.
+ * <p>
+ * 01/10/2016 10:31:18
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class AsyncLogConfig {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "AsyncLogConfig [cola:%s] [espera:%s] [llena:%s] [descarte:%s] [nivel:%s]";
+
+	/* Tamaño de la cola por defecto. */
+	private static final int DEFAULT_RING_SIZE = 8192;
+
+	/* Máximo tamaño de la cola. */
+	private static final int MAX_RING_SIZE = 1 << 24;
+
+	/**
+	 * Espera del hilo de escritura cuando no hay mensajes.
+	 */
+	public enum WaitStrategy {
+		/** Espera bloqueado hasta que se publique un mensaje. Sin consumo en reposo, mayor latencia. */
+		BLOCKING,
+		/** Reintenta, cede el procesador y después duerme brevemente. Equilibrio entre latencia y consumo. */
+		SLEEPING,
+		/** Reintenta y cede el procesador, sin dormir. Baja latencia, ocupa un núcleo cuando hay carga. */
+		YIELDING,
+		/** Reintenta sin parar. Mínima latencia, ocupa un núcleo siempre. */
+		BUSY_SPIN
+	}
+
+	/**
+	 * Qué hacer con un mensaje cuando la cola está llena.
+	 */
+	public enum OverflowPolicy {
+		/** El hilo que escribe espera a que haya hueco. No se pierden mensajes. */
+		BLOCK,
+		/** El mensaje se descarta. */
+		DROP,
+		/** Se descartan los mensajes menos graves que el nivel de descarte, el resto espera. */
+		DROP_BELOW_LEVEL
+	}
+
+	/* Tamaño de la cola. */
+	private int ringSize;
+
+	/* Espera del hilo de escritura. */
+	private WaitStrategy waitStrategy;
+
+	/* Política de cola llena. */
+	private OverflowPolicy overflowPolicy;
+
+	/* Nivel a partir del cual se descarta con DROP_BELOW_LEVEL: se descartan los menos graves. */
+	private LogLevel dropLevel;
+
+	/* Nivel de log. */
+	private LogLevel level;
+
+	/**
+	 * Constructor, con la configuración por defecto.
+	 */
+	public AsyncLogConfig() {
+		this.ringSize = DEFAULT_RING_SIZE;
+		this.waitStrategy = WaitStrategy.SLEEPING;
+		this.overflowPolicy = OverflowPolicy.BLOCK;
+		this.dropLevel = LogLevel.INFO;
+		this.level = LogLevel.DEBUG;
+	}
+
+	/**
+	 * Establece el tamaño de la cola.
+	 *
+	 * @param ringSize
+	 *            Número de mensajes, se redondea a la siguiente potencia de
+	 *            dos.
+	 * @return Esta configuración.
+	 */
+	public AsyncLogConfig setRingSize(final int ringSize) {
+		if (ringSize <= 0 || ringSize > MAX_RING_SIZE) {
+			throw new IllegalArgumentException(PrintUtils.format("Tamaño de cola de log no válido: '%s'", ringSize));
+		}
+		this.ringSize = ringSize;
+		return this;
+	}
+
+	/**
+	 * Establece la espera del hilo de escritura.
+	 *
+	 * @param waitStrategy
+	 *            Espera cuando no hay mensajes.
+	 * @return Esta configuración.
+	 */
+	public AsyncLogConfig setWaitStrategy(final WaitStrategy waitStrategy) {
+		this.waitStrategy = Objects.requireNonNull(waitStrategy);
+		return this;
+	}
+
+	/**
+	 * Establece qué hacer cuando la cola está llena.
+	 *
+	 * @param overflowPolicy
+	 *            Política de cola llena.
+	 * @return Esta configuración.
+	 */
+	public AsyncLogConfig setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+		return this;
+	}
+
+	/**
+	 * Descarta, cuando la cola está llena, los mensajes menos graves que el
+	 * nivel indicado; los de ese nivel y los más graves esperan a que haya
+	 * hueco. Equivale a la política {@link OverflowPolicy#DROP_BELOW_LEVEL}.
+	 *
+	 * @param dropLevel
+	 *            Nivel de descarte, por defecto INFO: sólo se descartan los
+	 *            mensajes de debug.
+	 * @return Esta configuración.
+	 */
+	public AsyncLogConfig setDropBelow(final LogLevel dropLevel) {
+		this.dropLevel = Objects.requireNonNull(dropLevel);
+		this.overflowPolicy = OverflowPolicy.DROP_BELOW_LEVEL;
+		return this;
+	}
+
+	/**
+	 * Establece el nivel de log.
+	 *
+	 * @param level
+	 *            Nivel, por defecto DEBUG: se escriben todos los mensajes.
+	 * @return Esta configuración.
+	 */
+	public AsyncLogConfig setLevel(final LogLevel level) {
+		this.level = Objects.requireNonNull(level);
+		return this;
+	}
+
+	/* Tamaño de la cola, potencia de dos. */
+	int getRingSize() {
+		return ringSize > 1 ? Integer.highestOneBit(ringSize - 1) << 1 : 1;
+	}
+
+	WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	LogLevel getLevel() {
+		return level;
+	}
+
+	/* Indica si un mensaje del nivel indicado se descarta cuando la cola está llena. */
+	boolean isDropped(final LogLevel level) {
+		return overflowPolicy == OverflowPolicy.DROP
+				|| (overflowPolicy == OverflowPolicy.DROP_BELOW_LEVEL && level.compareTo(dropLevel) > 0);
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, ringSize, waitStrategy, overflowPolicy, dropLevel, level);
+	}
+}
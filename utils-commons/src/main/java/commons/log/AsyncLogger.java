@@ -0,0 +1,496 @@
+package commons.log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import commons.log.AsyncLogConfig.WaitStrategy;
+import commons.util.PrintUtils;
+
+/**
+ * Implementación asíncrona de {@link AbstractLogger}: escribe como
+ * {@link DefaultLogger}, pero los hilos que escriben el log sólo copian el
+ * mensaje en una cola circular, y un único hilo los formatea y los escribe por
+ * lotes, con su propio {@link LogEncoder}, en la salida estándar o en la
+ * salida indicada ({@link ILogOutput}). Así los hilos de la aplicación no
+ * compiten por el bloqueo de la consola ni esperan al disco.
+ * <p>
+ * La cola se reserva al crear el logger y admite varios productores sin
+ * bloqueos: cada uno reserva una posición incrementando una secuencia con
+ * CAS, rellena su evento y lo marca como publicado con la secuencia de la
+ * posición. El hilo de escritura avanza mientras las posiciones siguientes
+ * estén publicadas y después libera el lote completo.
+ * <p>
+ * Al cerrar el logger, o la máquina virtual, se escriben los mensajes
+ * pendientes y se cierra la salida. Los mensajes que llegan después se
+ * escriben en la salida estándar, en el hilo que los envía.
+ * <p>
+ * 01/10/2016 11:05:37
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+final class AsyncLogger extends AbstractLogger {
+
+	/* Nombre del hilo de escritura. */
+	private static final String THREAD_NAME = "log-async";
+
+	/* Aviso de un fallo al escribir, en la salida de error. */
+	private static final String FAILURE_MESSAGE = "Error al escribir el log, se descarta el lote en curso";
+
+	/* Resultados de reservar posición en la cola, además de la secuencia reservada. */
+	private static final long DROPPED = -1L;
+	private static final long NO_CONSUMER = -2L;
+
+	/* Mensaje con los mensajes descartados por cola llena. */
+	private static final String DROPPED_MESSAGE = "Cola de log llena, se han descartado '%s' mensajes";
+
+	/* Máximo de mensajes por lote. */
+	private static final int MAX_BATCH = 256;
+
+	/* Reintentos antes de ceder el procesador, y antes de dormir. */
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 200;
+
+	/* Tiempo que se duerme en cada espera, y máximo de una espera bloqueada. */
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100L);
+	private static final long BLOCKING_WAIT_MILLIS = 10L;
+
+	/* Máximo tiempo de espera al cerrar para escribir los mensajes pendientes. */
+	private static final long DRAIN_TIMEOUT_MILLIS = 5000L;
+
+	/* Logger que decide los niveles y el formato. */
+	private final DefaultLogger console;
+
+	/* Configuración. */
+	private final AsyncLogConfig config;
+	private final WaitStrategy waitStrategy;
+
+	/* Eventos de la cola, reservados al crearla. */
+	private final LogEvent[] entries;
+	private final int mask;
+
+	/* Secuencia publicada en cada posición de la cola, -1 si ninguna. */
+	private final AtomicLongArray published;
+
+	/* Última secuencia reservada por los productores. */
+	private final AtomicLong claimed;
+
+	/* Última secuencia escrita por el hilo de escritura. */
+	private final AtomicLong consumed;
+
+	/* Mensajes descartados por cola llena desde el último aviso. */
+	private final AtomicLong dropped;
+
+	/* Espera bloqueada del hilo de escritura, con WaitStrategy.BLOCKING. */
+	private final Lock lock;
+	private final Condition notEmpty;
+	private volatile boolean consumerWaiting;
+
+	/* Indica si el hilo de escritura acepta mensajes. */
+	private volatile boolean running;
+
+	/* Indica si el hilo de escritura sigue vaciando la cola. Si termina por un fallo, se escribe en cada hilo. */
+	private volatile boolean consuming;
+
+	/* Hilo de escritura y gancho de cierre de la máquina virtual. */
+	private final Thread consumer;
+	private final Thread shutdownHook;
+
+	/* Codificador del lote en construcción, y salida de los lotes. Sólo los usa el hilo de escritura. */
+	private final LogEncoder batch;
+	private final ILogOutput output;
+
+	/* Constructor, recibe la configuración. Escribe en la salida estándar. */
+	AsyncLogger (final AsyncLogConfig config) {
+		this(config, new ConsoleOutput());
+	}
+
+	/* Constructor, recibe la configuración y la salida. Arranca el hilo de escritura. */
+	AsyncLogger (final AsyncLogConfig config, final ILogOutput output) {
+		this.console = new DefaultLogger();
+		this.config = config;
+		this.waitStrategy = config.getWaitStrategy();
+
+		final int size = config.getRingSize();
+		this.entries = new LogEvent[size];
+		for (int i = 0; i < size; i++) {
+			entries[i] = new LogEvent();
+		}
+		this.mask = size - 1;
+		this.published = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			published.set(i, -1L);
+		}
+		this.claimed = new AtomicLong(-1L);
+		this.consumed = new AtomicLong(-1L);
+		this.dropped = new AtomicLong();
+
+		this.lock = new ReentrantLock();
+		this.notEmpty = lock.newCondition();
+		this.batch = new LogEncoder();
+		this.output = output;
+		this.running = true;
+		this.consuming = true;
+
+		this.consumer = new Thread(this::consume, THREAD_NAME);
+		this.consumer.setDaemon(true);
+		this.consumer.start();
+		this.shutdownHook = new Thread(this::close, THREAD_NAME);
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	@Override
+	void configure(final Object configuration) {
+		console.configure(configuration);
+	}
+
+	@Override
+	boolean isEnabled(final LogLevel level) {
+		return console.isEnabled(level);
+	}
+
+	/*
+	 * Publica un mensaje en la cola si su nivel está activo. Si la cola está
+	 * llena se espera o se descarta según la configuración; si el logger está
+	 * cerrado, o el hilo de escritura ha terminado, se escribe en el hilo
+	 * actual.
+	 */
+	private void log(final LogLevel level, final Class<?> clazz, final String message, final Throwable throwable) {
+		if (!console.isEnabled(level)) {
+			return;
+		}
+
+		final long millis = System.currentTimeMillis();
+		final LogEncoder.ThreadName threadName = LogEncoder.currentThread(millis);
+		if (!running || !consuming) {
+			write(millis, threadName, clazz, level, message, throwable);
+			return;
+		}
+
+		final long sequence = claim(level);
+		if (sequence == NO_CONSUMER) {
+			write(millis, threadName, clazz, level, message, throwable);
+			return;
+		} else if (sequence == DROPPED) {
+			dropped.incrementAndGet();
+			return;
+		}
+
+		final int index = (int) sequence & mask;
+		entries[index].set(millis, threadName, clazz, level, message, throwable);
+		published.set(index, sequence);
+		if (consumerWaiting) {
+			signalConsumer();
+		}
+	}
+
+	/*
+	 * Reserva la siguiente posición de la cola. Devuelve DROPPED si la cola
+	 * está llena y el mensaje se descarta, y NO_CONSUMER si el hilo de
+	 * escritura ha terminado y no se va a vaciar.
+	 */
+	private long claim(final LogLevel level) {
+		int tries = 0;
+		while (true) {
+			final long current = claimed.get();
+			final long next = current + 1L;
+			if (next - entries.length > consumed.get()) {
+				if (!consuming) {
+					return NO_CONSUMER;
+				}
+				if (!running || config.isDropped(level)) {
+					return DROPPED;
+				}
+				pause(tries++);
+			} else if (claimed.compareAndSet(current, next)) {
+				return next;
+			}
+		}
+	}
+
+	/* Despierta al hilo de escritura si está esperando bloqueado. */
+	private void signalConsumer() {
+		lock.lock();
+		try {
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Bucle del hilo de escritura: escribe lotes mientras haya mensajes, y al
+	 * cerrar escribe los pendientes. Un fallo al escribir un lote lo descarta
+	 * y se avisa en la salida de error, pero no detiene el hilo.
+	 */
+	private void consume() {
+		try {
+			long next = consumed.get() + 1L;
+			int idle = 0;
+			while (true) {
+				final long last = lastPublished(next);
+				if (last >= next) {
+					try {
+						writeBatch(next, last);
+					} catch (Throwable t) {
+						discardBatch(next, last, t);
+					}
+					consumed.set(last);
+					next = last + 1L;
+					idle = 0;
+				} else if (!running && claimed.get() < next) {
+					break;
+				} else {
+					await(next, idle);
+					idle = Math.min(idle + 1, YIELD_TRIES);
+				}
+				try {
+					output.tick(System.currentTimeMillis());
+				} catch (Throwable t) {
+					reportFailure(t);
+				}
+			}
+			try {
+				flush(reportDropped() ? LogLevel.ERROR : LogLevel.DEBUG);
+			} finally {
+				output.close();
+			}
+		} catch (Throwable t) {
+			reportFailure(t);
+		} finally {
+			consuming = false;
+		}
+	}
+
+	/* Descarta un lote que no se ha podido escribir, soltando sus eventos, y avisa del fallo. */
+	private void discardBatch(final long first, final long last, final Throwable failure) {
+		for (long sequence = first; sequence <= last; sequence++) {
+			entries[(int) sequence & mask].clear();
+		}
+		batch.clear();
+		reportFailure(failure);
+	}
+
+	/* Avisa de un fallo del hilo de escritura en la salida de error. Si también falla el aviso, no hay dónde avisar. */
+	private static void reportFailure(final Throwable failure) {
+		try {
+			System.err.println(FAILURE_MESSAGE);
+			failure.printStackTrace();
+		} catch (Throwable ignored) {
+			/* No hay otra salida en la que avisar. */
+		}
+	}
+
+	/* Última secuencia publicada consecutiva desde 'next', sin superar un lote. 'next' - 1 si no hay. */
+	private long lastPublished(final long next) {
+		long sequence = next;
+		final long max = next + MAX_BATCH;
+		while (sequence < max && published.get((int) sequence & mask) == sequence) {
+			sequence++;
+		}
+		return sequence - 1L;
+	}
+
+	/* Espera del hilo de escritura cuando no hay mensajes, según la configuración. */
+	private void await(final long next, final int idle) {
+		if (waitStrategy == WaitStrategy.BLOCKING) {
+			lock.lock();
+			try {
+				consumerWaiting = true;
+				if (running && published.get((int) next & mask) != next) {
+					notEmpty.await(BLOCKING_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				consumerWaiting = false;
+				lock.unlock();
+			}
+		} else if (waitStrategy == WaitStrategy.YIELDING) {
+			if (idle >= SPIN_TRIES) {
+				Thread.yield();
+			}
+		} else if (waitStrategy == WaitStrategy.SLEEPING) {
+			pause(idle);
+		}
+		/* BUSY_SPIN: se reintenta sin esperar. */
+	}
+
+	/* Espera progresiva: reintenta, cede el procesador y después duerme brevemente. */
+	private static void pause(final int tries) {
+		if (tries >= YIELD_TRIES) {
+			LockSupport.parkNanos(PARK_NANOS);
+		} else if (tries >= SPIN_TRIES) {
+			Thread.yield();
+		}
+	}
+
+	/* Formatea y escribe un lote de mensajes, liberando sus posiciones. */
+	private void writeBatch(final long first, final long last) {
+		LogLevel mostSevere = reportDropped() ? LogLevel.ERROR : LogLevel.DEBUG;
+		for (long sequence = first; sequence <= last; sequence++) {
+			final LogEvent event = entries[(int) sequence & mask];
+			batch.append(event.millis, event.threadName, event.clazz, event.level, event.message);
+			if (event.level.compareTo(mostSevere) < 0) {
+				mostSevere = event.level;
+			}
+			if (event.throwable != null) {
+				output.write(batch, event.throwable);
+			}
+			event.clear();
+		}
+		flush(mostSevere);
+	}
+
+	/* Avisa de los mensajes descartados desde el último aviso, si hay. Indica si ha avisado. */
+	private boolean reportDropped() {
+		final long lost = dropped.getAndSet(0L);
+		if (lost > 0L) {
+			final long millis = System.currentTimeMillis();
+			batch.append(millis, LogEncoder.currentThread(millis), AsyncLogger.class, LogLevel.ERROR,
+					PrintUtils.format(DROPPED_MESSAGE, lost));
+		}
+		return lost > 0L;
+	}
+
+	/* Escribe el lote en construcción, con el nivel más grave de sus mensajes. */
+	private void flush(final LogLevel mostSevere) {
+		if (!batch.isEmpty()) {
+			output.write(batch, mostSevere);
+		}
+	}
+
+	/* Escribe un mensaje en el hilo actual, con el logger cerrado. */
+	private static void write(final long millis, final LogEncoder.ThreadName threadName, final Class<?> clazz,
+			final LogLevel level, final String message, final Throwable throwable) {
+		final LogEncoder encoder = LogEncoder.forCurrentThread();
+		encoder.append(millis, threadName, clazz, level, message);
+		encoder.writeTo(System.out);
+		if (throwable != null) {
+			throwable.printStackTrace();
+		}
+	}
+
+	/*
+	 * Deja de aceptar mensajes en la cola y espera a que el hilo de escritura
+	 * escriba los pendientes, como mucho DRAIN_TIMEOUT_MILLIS.
+	 */
+	@Override
+	synchronized void close() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		signalConsumer();
+
+		try {
+			consumer.join(DRAIN_TIMEOUT_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (Thread.currentThread() != shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				/* La máquina virtual se está cerrando. */
+			}
+		}
+	}
+
+	@Override
+	void debug(final Class<?> clazz, final String message) {
+		log(LogLevel.DEBUG, clazz, message, null);
+	}
+
+	@Override
+	void debug(final Class<?> clazz, final String message, final Throwable throwable) {
+		log(LogLevel.DEBUG, clazz, message, throwable);
+	}
+
+	@Override
+	void info(final Class<?> clazz, final String message) {
+		log(LogLevel.INFO, clazz, message, null);
+	}
+
+	@Override
+	void info(final Class<?> clazz, final String message, final Throwable throwable) {
+		log(LogLevel.INFO, clazz, message, throwable);
+	}
+
+	@Override
+	void error(final Class<?> clazz, final String message) {
+		log(LogLevel.ERROR, clazz, message, null);
+	}
+
+	@Override
+	void error(final Class<?> clazz, final String message, final Throwable throwable) {
+		log(LogLevel.ERROR, clazz, message, throwable);
+	}
+
+	@Override
+	void fatal(final Class<?> clazz, final String message) {
+		log(LogLevel.FATAL, clazz, message, null);
+	}
+
+	@Override
+	void fatal(final Class<?> clazz, final String message, final Throwable throwable) {
+		log(LogLevel.FATAL, clazz, message, throwable);
+	}
+
+	/* Evento de la cola. Lo rellena el productor que reserva su posición y lo vacía el hilo de escritura. */
+	private static final class LogEvent {
+		private long millis;
+		private LogEncoder.ThreadName threadName;
+		private Class<?> clazz;
+		private LogLevel level;
+		private String message;
+		private Throwable throwable;
+
+		void set(final long millis, final LogEncoder.ThreadName threadName, final Class<?> clazz, final LogLevel level,
+				final String message, final Throwable throwable) {
+			this.millis = millis;
+			this.threadName = threadName;
+			this.clazz = clazz;
+			this.level = level;
+			this.message = message;
+			this.throwable = throwable;
+		}
+
+		/* Suelta las referencias, para no retener mensajes ya escritos. */
+		void clear() {
+			set(0L, null, null, null, null, null);
+		}
+	}
+
+	/* Salida estándar, con las trazas de las excepciones en la salida de error como printStackTrace(). */
+	private static final class ConsoleOutput implements ILogOutput {
+
+		@Override
+		public void write(final LogEncoder lines, final LogLevel mostSevere) {
+			lines.writeTo(System.out);
+		}
+
+		@Override
+		public void write(final LogEncoder lines, final Throwable throwable) {
+			lines.writeTo(System.out);
+			throwable.printStackTrace();
+		}
+
+		@Override
+		public void tick(final long millis) {
+			/* Se escribe cada lote, no hay tareas por tiempo. */
+		}
+
+		@Override
+		public void close() {
+			/* La salida estándar no se cierra. */
+		}
+	}
+}
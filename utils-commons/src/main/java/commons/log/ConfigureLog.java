@@ -19,12 +19,32 @@ public class ConfigureLog {
 	 *            Sistema de log utilizado.
 	 *            
 	 * @param concreteConfiguration
-	 *            Configuración dependiente del sistema de logs utilizado.
+	 *            Configuración dependiente del sistema de logs utilizado:
+	 *            {@link AsyncLogConfig} para el log asíncrono,
+	 *            {@link FileLogConfig} para el log en fichero, o un
+	 *            {@link LogLevel} con el nivel de log. Sin nivel se escriben
+	 *            todos los mensajes.
 	 */
 	public static void configure(final LogSystem logSystem, final Object concreteConfiguration) {
 		Log.configureLogSystem (logSystem, concreteConfiguration);
 	}
 
+	/**
+	 * Establece el sistema de log con el nivel indicado y el resto de la
+	 * configuración por defecto.
+	 * 
+	 * @param logSystem
+	 *            Sistema de log utilizado. El log en fichero necesita su
+	 *            {@link FileLogConfig}, con el nivel en él.
+	 * 
+	 * @param level
+	 *            Nivel de log: se escriben los mensajes de ese nivel y de los
+	 *            más graves.
+	 */
+	public static void configure(final LogSystem logSystem, final LogLevel level) {
+		configure(logSystem, (Object) level);
+	}
+
 	/**
 	 * Establece el sistema de log sin configuración.
 	 * 
@@ -32,6 +52,6 @@ public class ConfigureLog {
 	 *            Sistema de log utilizado.
 	 */
 	public static void configure(LogSystem logSystem) {
-		configure(logSystem, null);
+		configure(logSystem, (Object) null);
 	}
 }
@@ -1,11 +1,12 @@
 package commons.log;
 
-import commons.util.PrintUtils;
-
 /**
  * Implementación de {@link AbstractLogger} con los métodos para log por
  * defecto, utilizando salida estandar por consola.
  * <p>
+ * Cada línea se compone y se codifica con el {@link LogEncoder} del hilo que
+ * escribe, sin crear objetos, y se escribe en la consola de una vez.
+ * <p>
  * 21/11/2015 21:25:50
  * </p>
  * 
@@ -14,12 +15,6 @@ import commons.util.PrintUtils;
  */
 class DefaultLogger extends AbstractLogger {
 
-	/* Formateo de tag y mensaje: [Hora][nivel][Hilo][Clase] :: Mensaje */
-	private static final String logFormat = "[%s][%s][%-5s][%s] :: %s";
-	
-	/* Niveles de log. */
-	private enum LEVEL {FATAL, ERROR, INFO, DEBUG}
-
 	/* Niveles de log, numéricos. */
 	private static final int LOG_DEBUG = 3;
 	private static final int LOG_INFO = 2;
@@ -28,24 +23,44 @@ class DefaultLogger extends AbstractLogger {
 	
 	private int levelIndex = DefaultLogger.getDefaultLogLevelIndex();
 	
+	/*
+	 * Establece el nivel de log: el indicado si la configuración es un
+	 * LogLevel, el de la configuración del log asíncrono o en fichero, o DEBUG
+	 * en otro caso.
+	 */
 	@Override
 	void configure(final Object configuration) {
-		this.levelIndex = getLogLevelIndex(LEVEL.DEBUG);
+		this.levelIndex = getLogLevelIndex(getConfiguredLevel(configuration));
+	}
+
+	/* Nivel de log de una configuración, DEBUG si no lo indica. */
+	private static LogLevel getConfiguredLevel(final Object configuration) {
+		final LogLevel level;
+		if (configuration instanceof LogLevel) {
+			level = (LogLevel) configuration;
+		} else if (configuration instanceof AsyncLogConfig) {
+			level = ((AsyncLogConfig) configuration).getLevel();
+		} else if (configuration instanceof FileLogConfig) {
+			level = ((FileLogConfig) configuration).getLevel();
+		} else {
+			level = LogLevel.DEBUG;
+		}
+		return level;
 	}
 
 	private static int getDefaultLogLevelIndex() {
 		return LOG_INFO;
 	}
 	
-	private int getLogLevelIndex(final LEVEL level) {
+	private int getLogLevelIndex(final LogLevel level) {
 		final int index;
-		if (LEVEL.DEBUG.equals(level)) {
+		if (LogLevel.DEBUG.equals(level)) {
 			index = LOG_DEBUG;
-		} else if (LEVEL.INFO.equals(level)) {
+		} else if (LogLevel.INFO.equals(level)) {
 			index = LOG_INFO;
-		} else if (LEVEL.ERROR.equals(level)) {
+		} else if (LogLevel.ERROR.equals(level)) {
 			index = LOG_ERROR;
-		} else if (LEVEL.FATAL.equals(level)) {
+		} else if (LogLevel.FATAL.equals(level)) {
 			index = LOG_FATAL;
 		} else {
 			index = getDefaultLogLevelIndex();
@@ -53,22 +68,30 @@ class DefaultLogger extends AbstractLogger {
 		return index;
 	}
 	
+	@Override
+	boolean isEnabled(final LogLevel level) {
+		return levelIndex >= getLogLevelIndex(level);
+	}
 	
-	private static String getLog (final Class<?> clazz, final LEVEL level, final String message) {
-		return PrintUtils.format(logFormat, PrintUtils.time(), Thread.currentThread().getName(), level, clazz.getSimpleName(), message);
+	/* Escribe un mensaje en la salida estándar desde el hilo actual, sin crear objetos. */
+	private static void write (final Class<?> clazz, final LogLevel level, final String message) {
+		final LogEncoder encoder = LogEncoder.forCurrentThread();
+		final long millis = System.currentTimeMillis();
+		encoder.append(millis, LogEncoder.currentThread(millis), clazz, level, message);
+		encoder.writeTo(System.out);
 	}
 	
 	@Override
 	void debug(final Class<?> clazz, final String message) {
 		if (levelIndex >= LOG_DEBUG) {
-			System.out.println(getLog(clazz, LEVEL.DEBUG, message));
+			write(clazz, LogLevel.DEBUG, message);
 		}
 	}
 
 	@Override
 	void debug(final Class<?> clazz, final String message, final Throwable throwable) {
 		if (levelIndex >= LOG_DEBUG) {
-			System.out.println(getLog(clazz, LEVEL.DEBUG, message));
+			write(clazz, LogLevel.DEBUG, message);
 			if (throwable != null) {
 				throwable.printStackTrace();
 			}
@@ -78,14 +101,14 @@ class DefaultLogger extends AbstractLogger {
 	@Override
 	void info(final Class<?> clazz, final String message) {
 		if (levelIndex >= LOG_INFO) {
-			System.out.println(getLog(clazz, LEVEL.INFO, message));
+			write(clazz, LogLevel.INFO, message);
 		}
 	}
 
 	@Override
 	void info(final Class<?> clazz, final String message, final Throwable throwable) {
 		if (levelIndex >= LOG_INFO) {
-			System.out.println(getLog(clazz, LEVEL.INFO, message));
+			write(clazz, LogLevel.INFO, message);
 			if (throwable != null) {
 				throwable.printStackTrace();
 			}
@@ -95,14 +118,14 @@ class DefaultLogger extends AbstractLogger {
 	@Override
 	void error(final Class<?> clazz, final String message) {
 		if (levelIndex >= LOG_ERROR) {
-			System.out.println(getLog(clazz, LEVEL.ERROR, message));
+			write(clazz, LogLevel.ERROR, message);
 		}
 	}
 
 	@Override
 	void error(final Class<?> clazz, final String message, final Throwable throwable) {
 		if (levelIndex >= LOG_ERROR) {
-			System.out.println(getLog(clazz, LEVEL.ERROR, message));
+			write(clazz, LogLevel.ERROR, message);
 			if (throwable != null) {
 				throwable.printStackTrace();
 			}
@@ -112,14 +135,14 @@ class DefaultLogger extends AbstractLogger {
 	@Override
 	void fatal(final Class<?> clazz, final String message) {
 		if (levelIndex >= LOG_FATAL) {
-			System.out.println(getLog(clazz, LEVEL.FATAL, message));
+			write(clazz, LogLevel.FATAL, message);
 		}
 	}
 
 	@Override
 	void fatal(final Class<?> clazz, final String message, final Throwable throwable) {
 		if (levelIndex >= LOG_ERROR) {
-			System.out.println(getLog(clazz, LEVEL.ERROR, message));
+			write(clazz, LogLevel.ERROR, message);
 			if (throwable != null) {
 				throwable.printStackTrace();
 			}
@@ -0,0 +1,253 @@
+package commons.log;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import commons.log.AsyncLogConfig.OverflowPolicy;
+import commons.util.PrintUtils;
+
+/**
+ * Configuración del log en fichero ({@link LogSystem#FILE}). Los mensajes se
+ * encolan como en el log asíncrono, y el hilo de escritura los acumula en un
+ * buffer directo que vuelca al fichero cuando:
+ * <ul>
+ * <li>se llena el buffer.</li>
+ * <li>pasa el intervalo de escritura desde el último volcado.</li>
+ * <li>llega un mensaje del nivel de escritura inmediata o más grave.</li>
+ * </ul>
+ * El fichero se rota al superar el tamaño máximo y al empezar cada periodo de
+ * rotación, contado en la zona horaria por defecto: con un día, a
+ * medianoche. El fichero rotado se renombra con la hora en que se abrió,
+ * <code>fichero.aaaaMMdd-HHmmss</code>, y se comprime en segundo plano con
+ * gzip si está activada la compresión.
+ * <p>
+ * Por defecto: nivel DEBUG, buffer de 1 MiB, escritura cada segundo y con
+ * los errores, rotación a los 64 MiB y cada día, con compresión. La cola es la de
+ * {@link AsyncLogConfig} con política {@link OverflowPolicy#DROP}: los hilos
+ * que escriben el log nunca esperan al disco. Con
+ * {@link OverflowPolicy#BLOCK} no se pierden mensajes, pero se espera si el
+ * disco no da abasto.
+ * <p>
+ * 15/10/2016 10:12:44
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public class FileLogConfig {
+
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "FileLogConfig [fichero:%s] [nivel:%s] [buffer:%s] [escritura:%s ms, %s] "
+			+ "[rotación:%s bytes, %s ms] [compresión:%s] %s";
+
+	/* Valores por defecto. */
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+	private static final long DEFAULT_FLUSH_MILLIS = TimeUnit.SECONDS.toMillis(1L);
+	private static final long DEFAULT_MAX_FILE_SIZE = 64L << 20;
+	private static final long DEFAULT_ROLLOVER_MILLIS = TimeUnit.DAYS.toMillis(1L);
+
+	/* Mínimo tamaño del buffer, para que quepan varias líneas. */
+	private static final int MIN_BUFFER_SIZE = 4096;
+
+	/* Fichero de log. */
+	private final Path file;
+
+	/* Nivel de log. */
+	private LogLevel level;
+
+	/* Tamaño del buffer directo. */
+	private int bufferSize;
+
+	/* Intervalo de escritura, y nivel a partir del cual se escribe inmediatamente. */
+	private long flushMillis;
+	private LogLevel flushLevel;
+
+	/* Tamaño máximo del fichero e intervalo de rotación, 0 si no se rota por ese motivo. */
+	private long maxFileSize;
+	private long rolloverMillis;
+
+	/* Indica si se comprimen los ficheros rotados. */
+	private boolean compress;
+
+	/* Configuración de la cola. */
+	private AsyncLogConfig asyncConfig;
+
+	/**
+	 * Constructor, con la configuración por defecto.
+	 *
+	 * @param file
+	 *            Ruta del fichero de log. Se crean los directorios que falten,
+	 *            y si existe se escribe a continuación.
+	 */
+	public FileLogConfig(final String file) {
+		this.file = Paths.get(Objects.requireNonNull(file));
+		this.level = LogLevel.DEBUG;
+		this.bufferSize = DEFAULT_BUFFER_SIZE;
+		this.flushMillis = DEFAULT_FLUSH_MILLIS;
+		this.flushLevel = LogLevel.ERROR;
+		this.maxFileSize = DEFAULT_MAX_FILE_SIZE;
+		this.rolloverMillis = DEFAULT_ROLLOVER_MILLIS;
+		this.compress = true;
+		this.asyncConfig = new AsyncLogConfig().setOverflowPolicy(OverflowPolicy.DROP);
+	}
+
+	/**
+	 * Establece el nivel de log.
+	 *
+	 * @param level
+	 *            Nivel, por defecto DEBUG: se escriben todos los mensajes.
+	 * @return Esta configuración.
+	 */
+	public FileLogConfig setLevel(final LogLevel level) {
+		this.level = Objects.requireNonNull(level);
+		return this;
+	}
+
+	/**
+	 * Establece el tamaño del buffer directo en el que se acumulan las líneas.
+	 *
+	 * @param bufferSize
+	 *            Tamaño en bytes, mínimo 4096.
+	 * @return Esta configuración.
+	 */
+	public FileLogConfig setBufferSize(final int bufferSize) {
+		if (bufferSize < MIN_BUFFER_SIZE) {
+			throw new IllegalArgumentException(PrintUtils.format("Tamaño de buffer de log no válido: '%s'", bufferSize));
+		}
+		this.bufferSize = bufferSize;
+		return this;
+	}
+
+	/**
+	 * Establece cada cuánto se escribe el buffer en el fichero, aunque no esté
+	 * lleno.
+	 *
+	 * @param interval
+	 *            Intervalo, mayor que 0.
+	 * @param unit
+	 *            Unidad del intervalo.
+	 * @return Esta configuración.
+	 */
+	public FileLogConfig setFlushInterval(final long interval, final TimeUnit unit) {
+		if (interval <= 0L) {
+			throw new IllegalArgumentException(PrintUtils.format("Intervalo de escritura no válido: '%s'", interval));
+		}
+		this.flushMillis = Math.max(1L, unit.toMillis(interval));
+		return this;
+	}
+
+	/**
+	 * Establece el nivel a partir del cual los mensajes se escriben en el
+	 * fichero inmediatamente, junto con los anteriores.
+	 *
+	 * @param flushLevel
+	 *            Nivel, por defecto ERROR: los errores y errores fatales.
+	 * @return Esta configuración.
+	 */
+	public FileLogConfig setFlushLevel(final LogLevel flushLevel) {
+		this.flushLevel = Objects.requireNonNull(flushLevel);
+		return this;
+	}
+
+	/**
+	 * Establece el tamaño a partir del cual se rota el fichero.
+	 *
+	 * @param maxFileSize
+	 *            Tamaño en bytes, 0 para no rotar por tamaño.
+	 * @return Esta configuración.
+	 */
+	public FileLogConfig setMaxFileSize(final long maxFileSize) {
+		if (maxFileSize < 0L) {
+			throw new IllegalArgumentException(PrintUtils.format("Tamaño de fichero de log no válido: '%s'", maxFileSize));
+		}
+		this.maxFileSize = maxFileSize;
+		return this;
+	}
+
+	/**
+	 * Establece el periodo de rotación del fichero.
+	 *
+	 * @param interval
+	 *            Periodo, 0 para no rotar por tiempo.
+	 * @param unit
+	 *            Unidad del periodo.
+	 * @return Esta configuración.
+	 */
+	public FileLogConfig setRolloverInterval(final long interval, final TimeUnit unit) {
+		if (interval < 0L) {
+			throw new IllegalArgumentException(PrintUtils.format("Periodo de rotación no válido: '%s'", interval));
+		}
+		this.rolloverMillis = unit.toMillis(interval);
+		return this;
+	}
+
+	/**
+	 * Indica si se comprimen con gzip los ficheros rotados.
+	 *
+	 * @param compress
+	 *            <code>true</code> para comprimirlos, en segundo plano.
+	 * @return Esta configuración.
+	 */
+	public FileLogConfig setCompress(final boolean compress) {
+		this.compress = compress;
+		return this;
+	}
+
+	/**
+	 * Establece la configuración de la cola de mensajes.
+	 *
+	 * @param asyncConfig
+	 *            Configuración de la cola, por defecto con política
+	 *            {@link OverflowPolicy#DROP}.
+	 * @return Esta configuración.
+	 */
+	public FileLogConfig setAsyncConfig(final AsyncLogConfig asyncConfig) {
+		this.asyncConfig = Objects.requireNonNull(asyncConfig);
+		return this;
+	}
+
+	Path getFile() {
+		return file;
+	}
+
+	LogLevel getLevel() {
+		return level;
+	}
+
+	int getBufferSize() {
+		return bufferSize;
+	}
+
+	long getFlushMillis() {
+		return flushMillis;
+	}
+
+	/* Indica si un mensaje del nivel indicado fuerza la escritura del buffer. */
+	boolean isFlushed(final LogLevel level) {
+		return level.compareTo(flushLevel) <= 0;
+	}
+
+	long getMaxFileSize() {
+		return maxFileSize;
+	}
+
+	long getRolloverMillis() {
+		return rolloverMillis;
+	}
+
+	boolean isCompress() {
+		return compress;
+	}
+
+	AsyncLogConfig getAsyncConfig() {
+		return asyncConfig;
+	}
+
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, file, level, bufferSize, flushMillis, flushLevel, maxFileSize, rolloverMillis,
+				compress, asyncConfig);
+	}
+}
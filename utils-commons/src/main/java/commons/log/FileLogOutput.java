@@ -0,0 +1,310 @@
+package commons.log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import commons.util.PrintUtils;
+
+/**
+ * Salida de {@link AsyncLogger} a un fichero, con la configuración de un
+ * {@link FileLogConfig}. Las líneas se acumulan en un buffer directo, que el
+ * {@link FileChannel} escribe sin copiarlo a un buffer propio, y se escriben
+ * cuando se llena el buffer, cuando pasa el intervalo de escritura o cuando
+ * llega un mensaje grave.
+ * <p>
+ * Al rotar, el fichero se cierra, se renombra y se abre uno nuevo; la
+ * compresión del rotado se hace en un hilo propio de baja prioridad, para no
+ * retrasar al hilo de escritura.
+ * <p>
+ * Si falla la escritura en el fichero, se avisa por la salida de error y las
+ * líneas siguientes se escriben en la salida estándar.
+ * <p>
+ * 15/10/2016 11:03:26
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+final class FileLogOutput implements ILogOutput {
+
+	/* Nombre del hilo de compresión. */
+	private static final String THREAD_NAME = "log-compress";
+
+	/* Extensiones de los ficheros comprimidos, y del comprimido en curso. */
+	private static final String GZIP_EXTENSION = ".gz";
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	/* Tamaño del buffer de compresión. */
+	private static final int COMPRESS_BUFFER_SIZE = 64 * 1024;
+
+	/* Máximo tiempo de espera al cerrar para terminar las compresiones pendientes. */
+	private static final long COMPRESS_TIMEOUT_MILLIS = 5000L;
+
+	/* Mensajes de error. */
+	private static final String WRITE_ERROR = "No se puede escribir el log en '%s', se escribe en la salida estándar";
+	private static final String COMPRESS_ERROR = "No se puede comprimir el log rotado '%s'";
+
+	/* Hora de apertura en el nombre de los ficheros rotados. */
+	private static final DateTimeFormatter ROLLED_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")
+			.withZone(ZoneId.systemDefault());
+
+	/* Zona horaria en la que se cuentan los periodos de rotación. */
+	private static final TimeZone TIME_ZONE = TimeZone.getDefault();
+
+	/* Configuración. */
+	private final FileLogConfig config;
+	private final Path file;
+
+	/* Buffer directo en el que se acumulan las líneas. */
+	private final ByteBuffer buffer;
+
+	/* Fichero abierto y bytes escritos en él. */
+	private FileChannel channel;
+	private long size;
+
+	/* Hora de apertura del fichero, y de la siguiente rotación por tiempo, Long.MAX_VALUE si no se rota. */
+	private long openedMillis;
+	private long nextRolloverMillis;
+
+	/* Hora de la última escritura del buffer. */
+	private long flushedMillis;
+
+	/* Hilo de compresión de los ficheros rotados, null si no se comprimen. */
+	private final ExecutorService compressor;
+
+	/* Indica si ha fallado el fichero y se escribe en la salida estándar. */
+	private boolean failed;
+
+	/* Constructor. Abre el fichero, o lanza UncheckedIOException si no puede. */
+	FileLogOutput (final FileLogConfig config) {
+		this.config = config;
+		this.file = config.getFile().toAbsolutePath();
+		this.buffer = ByteBuffer.allocateDirect(config.getBufferSize());
+		this.flushedMillis = System.currentTimeMillis();
+
+		try {
+			if (file.getParent() != null) {
+				Files.createDirectories(file.getParent());
+			}
+			/* Si ya existe, el fichero empezó al crearse: puede tocar rotarlo en el primer aviso. */
+			final long created = Files.exists(file)
+					? Files.readAttributes(file, BasicFileAttributes.class).creationTime().toMillis()
+					: flushedMillis;
+			open(Math.min(created, flushedMillis));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		if (config.isCompress()) {
+			this.compressor = Executors.newSingleThreadExecutor(task -> {
+				final Thread thread = new Thread(task, THREAD_NAME);
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			});
+		} else {
+			this.compressor = null;
+		}
+	}
+
+	@Override
+	public void write(final LogEncoder lines, final LogLevel mostSevere) {
+		if (failed) {
+			lines.writeTo(System.out);
+			return;
+		}
+		try {
+			while (!lines.drainTo(buffer)) {
+				flushBuffer();
+			}
+			if (config.getMaxFileSize() > 0L && size + buffer.position() >= config.getMaxFileSize()) {
+				rollover(System.currentTimeMillis());
+			} else if (config.isFlushed(mostSevere)) {
+				flushBuffer();
+			}
+		} catch (IOException e) {
+			fail(e);
+			lines.writeTo(System.out);
+		}
+	}
+
+	@Override
+	public void write(final LogEncoder lines, final Throwable throwable) {
+		lines.appendStackTrace(throwable);
+	}
+
+	@Override
+	public void tick(final long millis) {
+		if (failed) {
+			return;
+		}
+		try {
+			if (millis >= nextRolloverMillis) {
+				rollover(millis);
+			} else if (buffer.position() > 0 && millis - flushedMillis >= config.getFlushMillis()) {
+				flushBuffer();
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (!failed) {
+			try {
+				flushBuffer();
+				channel.force(false);
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+		closeChannel();
+
+		if (compressor != null) {
+			compressor.shutdown();
+			try {
+				compressor.awaitTermination(COMPRESS_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/* Abre el fichero para escribir a continuación, y calcula su siguiente rotación por tiempo. */
+	private void open(final long openedAt) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		size = channel.size();
+		openedMillis = openedAt;
+		nextRolloverMillis = nextRollover(openedAt);
+	}
+
+	/*
+	 * Inicio del periodo de rotación siguiente al del instante indicado,
+	 * contando los periodos en la zona horaria por defecto.
+	 */
+	private long nextRollover(final long millis) {
+		final long period = config.getRolloverMillis();
+		if (period <= 0L) {
+			return Long.MAX_VALUE;
+		}
+		final long offset = TIME_ZONE.getOffset(millis);
+		final long localEnd = Math.floorDiv(millis + offset, period) * period + period;
+		return localEnd - TIME_ZONE.getOffset(localEnd - offset);
+	}
+
+	/* Escribe el buffer en el fichero. */
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				size += channel.write(buffer);
+			}
+		} finally {
+			/* Si falla, quedan en el buffer los bytes sin escribir. */
+			buffer.compact();
+		}
+		flushedMillis = System.currentTimeMillis();
+	}
+
+	/* Rota el fichero: lo cierra, lo renombra con su hora de apertura y abre uno nuevo. Si está vacío no se rota. */
+	private void rollover(final long millis) throws IOException {
+		flushBuffer();
+		if (size == 0L) {
+			openedMillis = millis;
+			nextRolloverMillis = nextRollover(millis);
+			return;
+		}
+
+		closeChannel();
+		final Path rolled = rolledPath();
+		Files.move(file, rolled);
+		open(millis);
+
+		if (compressor != null) {
+			compressor.execute(() -> compress(rolled));
+		}
+	}
+
+	/* Ruta libre para el fichero rotado: fichero.aaaaMMdd-HHmmss, con un índice si ya existe. */
+	private Path rolledPath() {
+		final String base = file.getFileName() + "." + ROLLED_FORMAT.format(Instant.ofEpochMilli(openedMillis));
+		Path rolled = file.resolveSibling(base);
+		for (int index = 1; Files.exists(rolled) || Files.exists(rolled.resolveSibling(rolled.getFileName()
+				+ GZIP_EXTENSION)); index++) {
+			rolled = file.resolveSibling(base + "." + index);
+		}
+		return rolled;
+	}
+
+	/* Comprime un fichero rotado con gzip y lo borra. Se ejecuta en el hilo de compresión. */
+	private static void compress(final Path rolled) {
+		final Path compressed = rolled.resolveSibling(rolled.getFileName() + GZIP_EXTENSION);
+		final Path temp = rolled.resolveSibling(compressed.getFileName() + TEMP_EXTENSION);
+		try {
+			try (InputStream in = Files.newInputStream(rolled);
+					OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), COMPRESS_BUFFER_SIZE)) {
+				final byte[] chunk = new byte[COMPRESS_BUFFER_SIZE];
+				int read;
+				while ((read = in.read(chunk)) >= 0) {
+					out.write(chunk, 0, read);
+				}
+			}
+			Files.move(temp, compressed, StandardCopyOption.REPLACE_EXISTING);
+			Files.delete(rolled);
+		} catch (IOException e) {
+			System.err.println(PrintUtils.format(COMPRESS_ERROR, rolled));
+			e.printStackTrace();
+			try {
+				Files.deleteIfExists(temp);
+			} catch (IOException ignored) {
+				/* Queda el temporal, el rotado se conserva sin comprimir. */
+			}
+		}
+	}
+
+	/* Cierra el fichero abierto, si lo hay. */
+	private void closeChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				/* Los datos ya se han escrito, o se ha avisado del fallo. */
+			}
+			channel = null;
+		}
+	}
+
+	/* Avisa del fallo del fichero y pasa a la salida estándar, con lo que quede en el buffer. */
+	private void fail(final IOException e) {
+		failed = true;
+		System.err.println(PrintUtils.format(WRITE_ERROR, file));
+		e.printStackTrace();
+
+		buffer.flip();
+		final byte[] pending = new byte[buffer.remaining()];
+		buffer.get(pending);
+		buffer.clear();
+		System.out.write(pending, 0, pending.length);
+		System.out.flush();
+		closeChannel();
+	}
+}
@@ -0,0 +1,31 @@
+package commons.log;
+
+/**
+ * Destino de las líneas que escribe el hilo de {@link AsyncLogger}. Sólo lo
+ * usa ese hilo, por lo que las implementaciones no necesitan sincronizarse,
+ * pero no deben bloquear más de lo imprescindible: mientras escriben no se
+ * vacía la cola.
+ * <p>
+ * 15/10/2016 09:48:31
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+interface ILogOutput {
+
+	/*
+	 * Escribe las líneas pendientes del codificador, que queda vacío. Recibe el
+	 * nivel más grave de las líneas, por si hay que forzar la escritura.
+	 */
+	void write (LogEncoder lines, LogLevel mostSevere);
+
+	/* Escribe la traza de una excepción, después de las líneas pendientes del codificador. */
+	void write (LogEncoder lines, Throwable throwable);
+
+	/* Aviso periódico del hilo de escritura, con o sin mensajes, para las tareas por tiempo. */
+	void tick (long millis);
+
+	/* Escribe lo pendiente y libera los recursos. Después no se vuelve a usar. */
+	void close ();
+}
@@ -1,8 +1,17 @@
 package commons.log;
 
+import java.util.function.Supplier;
+
+import commons.util.PrintUtils;
+
 /**
  * Clase con métodos estáticos para log, según el sistema utilizado (por
  * defecto, log4j...). Debe configurarse previamente desde {@link ConfigureLog}.
+ * <p>
+ * Los métodos con formato y argumentos, o con un {@link Supplier}, sólo
+ * preparan el mensaje si el nivel está activo. Para mensajes costosos de
+ * preparar también se puede comprobar antes el nivel, por ejemplo con
+ * {@link #isDebugEnabled()}.
  * 
  * <p>
  * 21/11/2015 21:29:02
@@ -14,13 +23,30 @@ package commons.log;
 public class Log {
 
 	/* Sistema de logs utilizado. */
-	private static AbstractLogger logger;
+	private static volatile AbstractLogger logger;
 	
 	/* Recibe el sistema de logs utilizado y lo configura. Accesible desde {@link ConfigureLog}. */ 
 	static synchronized void configureLogSystem(final LogSystem logSystem, final Object configuration) {
+		if (LogSystem.FILE.equals(logSystem) && !(configuration instanceof FileLogConfig)) {
+			throw new IllegalArgumentException(PrintUtils.format("El log en fichero necesita un FileLogConfig: '%s'",
+					configuration));
+		}
+		if (logger != null) {
+			logger.close();
+		}
+		
 		if (LogSystem.LOG4J.equals(logSystem)) {
 			logger = new Log4jLogger();
 			logger.configure(configuration);
+		} else if (LogSystem.ASYNC.equals(logSystem)) {
+			logger = new AsyncLogger(configuration instanceof AsyncLogConfig 
+					? (AsyncLogConfig) configuration 
+					: new AsyncLogConfig());
+			logger.configure(configuration);
+		} else if (LogSystem.FILE.equals(logSystem)) {
+			final FileLogConfig fileConfig = (FileLogConfig) configuration;
+			logger = new AsyncLogger(fileConfig.getAsyncConfig(), new FileLogOutput(fileConfig));
+			logger.configure(configuration);
 		} else { /* incluye DEFAULT */
 			logger = new DefaultLogger();
 			logger.configure(configuration);
@@ -29,7 +55,12 @@ public class Log {
 	
 	/* Obtiene la clase de un objeto. En caso de ser nulo se devuelve la clase del logger configurado. */
 	private static Class<?> getClass(final Object object) {
-		return object != null ? object.getClass() : logger.getClass();
+		return getClass(logger, object);
+	}
+	
+	/* Obtiene la clase de un objeto. En caso de ser nulo se devuelve la clase del logger indicado. */
+	private static Class<?> getClass(final AbstractLogger current, final Object object) {
+		return object != null ? object.getClass() : current.getClass();
 	}
 
 	
@@ -288,4 +319,358 @@ public class Log {
 			logger.fatal(clazz, message, throwable);
 		}
 	}
+	
+	/**
+	 * Indica si el logger configurado escribe los mensajes del nivel indicado.
+	 * Permite evitar el coste de preparar un mensaje que no se escribirá.
+	 * 
+	 * @param level
+	 *            Nivel a comprobar.
+	 * @return <code>true</code> si hay logger configurado y el nivel está
+	 *         activo.
+	 */
+	public static boolean isEnabled (final LogLevel level) {
+		final AbstractLogger current = logger;
+		return current != null && current.isEnabled(level);
+	}
+	
+	/**
+	 * Indica si el logger configurado escribe los mensajes de debug.
+	 * 
+	 * @return <code>true</code> si el nivel de debug está activo.
+	 */
+	public static boolean isDebugEnabled () {
+		return isEnabled(LogLevel.DEBUG);
+	}
+	
+	/**
+	 * Indica si el logger configurado escribe los mensajes de info.
+	 * 
+	 * @return <code>true</code> si el nivel de info está activo.
+	 */
+	public static boolean isInfoEnabled () {
+		return isEnabled(LogLevel.INFO);
+	}
+	
+	/**
+	 * Indica si el logger configurado escribe los mensajes de error.
+	 * 
+	 * @return <code>true</code> si el nivel de error está activo.
+	 */
+	public static boolean isErrorEnabled () {
+		return isEnabled(LogLevel.ERROR);
+	}
+	
+	/**
+	 * Indica si el logger configurado escribe los mensajes de error fatal.
+	 * 
+	 * @return <code>true</code> si el nivel de error fatal está activo.
+	 */
+	public static boolean isFatalEnabled () {
+		return isEnabled(LogLevel.FATAL);
+	}
+	
+	/**
+	 * Muestra un log a nivel de debug, formateando el mensaje con
+	 * {@link PrintUtils#format(String, Object...)} sólo si el nivel está
+	 * activo. Si el último argumento es una excepción se usa la versión con
+	 * <code>Throwable</code>, no este método.
+	 * 
+	 * @param object
+	 *            Objeto del que se extraerá la clase que muestra el log. Si se
+	 *            pasa <code>null</code> se utilizará la clase del logger
+	 *            configurado.
+	 * @param format
+	 *            Formato del mensaje.
+	 * @param args
+	 *            Argumentos del formato.
+	 */
+	public static void debug (final Object object, final String format, final Object... args) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.DEBUG)) {
+			current.debug(getClass(current, object), PrintUtils.format(format, args));
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de debug, obteniendo el mensaje de
+	 * <code>message</code> sólo si el nivel está activo.
+	 * 
+	 * @param object
+	 *            Objeto del que se extraerá la clase que muestra el log. Si se
+	 *            pasa <code>null</code> se utilizará la clase del logger
+	 *            configurado.
+	 * @param message
+	 *            Proveedor del mensaje de log a mostrar.
+	 */
+	public static void debug (final Object object, final Supplier<String> message) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.DEBUG)) {
+			current.debug(getClass(current, object), message.get());
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de debug, formateando el mensaje con
+	 * {@link PrintUtils#format(String, Object...)} sólo si el nivel está
+	 * activo. Si el último argumento es una excepción se usa la versión con
+	 * <code>Throwable</code>, no este método.
+	 * 
+	 * @param clazz
+	 *            Clase que muestra el log.
+	 * @param format
+	 *            Formato del mensaje.
+	 * @param args
+	 *            Argumentos del formato.
+	 */
+	public static void debug (final Class<?> clazz, final String format, final Object... args) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.DEBUG)) {
+			current.debug(clazz, PrintUtils.format(format, args));
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de debug, obteniendo el mensaje de
+	 * <code>message</code> sólo si el nivel está activo.
+	 * 
+	 * @param clazz
+	 *            Clase que muestra el log.
+	 * @param message
+	 *            Proveedor del mensaje de log a mostrar.
+	 */
+	public static void debug (final Class<?> clazz, final Supplier<String> message) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.DEBUG)) {
+			current.debug(clazz, message.get());
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de info, formateando el mensaje con
+	 * {@link PrintUtils#format(String, Object...)} sólo si el nivel está
+	 * activo. Si el último argumento es una excepción se usa la versión con
+	 * <code>Throwable</code>, no este método.
+	 * 
+	 * @param object
+	 *            Objeto del que se extraerá la clase que muestra el log. Si se
+	 *            pasa <code>null</code> se utilizará la clase del logger
+	 *            configurado.
+	 * @param format
+	 *            Formato del mensaje.
+	 * @param args
+	 *            Argumentos del formato.
+	 */
+	public static void info (final Object object, final String format, final Object... args) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.INFO)) {
+			current.info(getClass(current, object), PrintUtils.format(format, args));
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de info, obteniendo el mensaje de
+	 * <code>message</code> sólo si el nivel está activo.
+	 * 
+	 * @param object
+	 *            Objeto del que se extraerá la clase que muestra el log. Si se
+	 *            pasa <code>null</code> se utilizará la clase del logger
+	 *            configurado.
+	 * @param message
+	 *            Proveedor del mensaje de log a mostrar.
+	 */
+	public static void info (final Object object, final Supplier<String> message) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.INFO)) {
+			current.info(getClass(current, object), message.get());
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de info, formateando el mensaje con
+	 * {@link PrintUtils#format(String, Object...)} sólo si el nivel está
+	 * activo. Si el último argumento es una excepción se usa la versión con
+	 * <code>Throwable</code>, no este método.
+	 * 
+	 * @param clazz
+	 *            Clase que muestra el log.
+	 * @param format
+	 *            Formato del mensaje.
+	 * @param args
+	 *            Argumentos del formato.
+	 */
+	public static void info (final Class<?> clazz, final String format, final Object... args) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.INFO)) {
+			current.info(clazz, PrintUtils.format(format, args));
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de info, obteniendo el mensaje de
+	 * <code>message</code> sólo si el nivel está activo.
+	 * 
+	 * @param clazz
+	 *            Clase que muestra el log.
+	 * @param message
+	 *            Proveedor del mensaje de log a mostrar.
+	 */
+	public static void info (final Class<?> clazz, final Supplier<String> message) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.INFO)) {
+			current.info(clazz, message.get());
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de error, formateando el mensaje con
+	 * {@link PrintUtils#format(String, Object...)} sólo si el nivel está
+	 * activo. Si el último argumento es una excepción se usa la versión con
+	 * <code>Throwable</code>, no este método.
+	 * 
+	 * @param object
+	 *            Objeto del que se extraerá la clase que muestra el log. Si se
+	 *            pasa <code>null</code> se utilizará la clase del logger
+	 *            configurado.
+	 * @param format
+	 *            Formato del mensaje.
+	 * @param args
+	 *            Argumentos del formato.
+	 */
+	public static void error (final Object object, final String format, final Object... args) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.ERROR)) {
+			current.error(getClass(current, object), PrintUtils.format(format, args));
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de error, obteniendo el mensaje de
+	 * <code>message</code> sólo si el nivel está activo.
+	 * 
+	 * @param object
+	 *            Objeto del que se extraerá la clase que muestra el log. Si se
+	 *            pasa <code>null</code> se utilizará la clase del logger
+	 *            configurado.
+	 * @param message
+	 *            Proveedor del mensaje de log a mostrar.
+	 */
+	public static void error (final Object object, final Supplier<String> message) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.ERROR)) {
+			current.error(getClass(current, object), message.get());
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de error, formateando el mensaje con
+	 * {@link PrintUtils#format(String, Object...)} sólo si el nivel está
+	 * activo. Si el último argumento es una excepción se usa la versión con
+	 * <code>Throwable</code>, no este método.
+	 * 
+	 * @param clazz
+	 *            Clase que muestra el log.
+	 * @param format
+	 *            Formato del mensaje.
+	 * @param args
+	 *            Argumentos del formato.
+	 */
+	public static void error (final Class<?> clazz, final String format, final Object... args) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.ERROR)) {
+			current.error(clazz, PrintUtils.format(format, args));
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de error, obteniendo el mensaje de
+	 * <code>message</code> sólo si el nivel está activo.
+	 * 
+	 * @param clazz
+	 *            Clase que muestra el log.
+	 * @param message
+	 *            Proveedor del mensaje de log a mostrar.
+	 */
+	public static void error (final Class<?> clazz, final Supplier<String> message) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.ERROR)) {
+			current.error(clazz, message.get());
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de error fatal, formateando el mensaje con
+	 * {@link PrintUtils#format(String, Object...)} sólo si el nivel está
+	 * activo. Si el último argumento es una excepción se usa la versión con
+	 * <code>Throwable</code>, no este método.
+	 * 
+	 * @param object
+	 *            Objeto del que se extraerá la clase que muestra el log. Si se
+	 *            pasa <code>null</code> se utilizará la clase del logger
+	 *            configurado.
+	 * @param format
+	 *            Formato del mensaje.
+	 * @param args
+	 *            Argumentos del formato.
+	 */
+	public static void fatal (final Object object, final String format, final Object... args) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.FATAL)) {
+			current.fatal(getClass(current, object), PrintUtils.format(format, args));
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de error fatal, obteniendo el mensaje de
+	 * <code>message</code> sólo si el nivel está activo.
+	 * 
+	 * @param object
+	 *            Objeto del que se extraerá la clase que muestra el log. Si se
+	 *            pasa <code>null</code> se utilizará la clase del logger
+	 *            configurado.
+	 * @param message
+	 *            Proveedor del mensaje de log a mostrar.
+	 */
+	public static void fatal (final Object object, final Supplier<String> message) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.FATAL)) {
+			current.fatal(getClass(current, object), message.get());
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de error fatal, formateando el mensaje con
+	 * {@link PrintUtils#format(String, Object...)} sólo si el nivel está
+	 * activo. Si el último argumento es una excepción se usa la versión con
+	 * <code>Throwable</code>, no este método.
+	 * 
+	 * @param clazz
+	 *            Clase que muestra el log.
+	 * @param format
+	 *            Formato del mensaje.
+	 * @param args
+	 *            Argumentos del formato.
+	 */
+	public static void fatal (final Class<?> clazz, final String format, final Object... args) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.FATAL)) {
+			current.fatal(clazz, PrintUtils.format(format, args));
+		}
+	}
+	
+	/**
+	 * Muestra un log a nivel de error fatal, obteniendo el mensaje de
+	 * <code>message</code> sólo si el nivel está activo.
+	 * 
+	 * @param clazz
+	 *            Clase que muestra el log.
+	 * @param message
+	 *            Proveedor del mensaje de log a mostrar.
+	 */
+	public static void fatal (final Class<?> clazz, final Supplier<String> message) {
+		final AbstractLogger current = logger;
+		if (current != null && current.isEnabled(LogLevel.FATAL)) {
+			current.fatal(clazz, message.get());
+		}
+	}
 }
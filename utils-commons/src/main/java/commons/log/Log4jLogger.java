@@ -53,6 +53,13 @@ class Log4jLogger extends AbstractLogger {
 		/* XXX-JF TODO implementar. */		
 	}
 
+	/* Mientras no esté implementado no escribe nada. */
+	@Override
+	boolean isEnabled(final LogLevel level) {
+		/* XXX-JF TODO implementar. */
+		return false;
+	}
+
 	@Override
 	void configure(final Object configuration) {
 		/* XXX-JF TODO implementar */
@@ -0,0 +1,370 @@
+package commons.log;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Codifica líneas de log en bytes sin crear objetos: cada codificador reutiliza
+ * un array de caracteres y un {@link ByteBuffer}, y los bytes se escriben
+ * directamente en la salida. Una vez los buffers han alcanzado el tamaño de
+ * las líneas habituales, escribir un mensaje no reserva memoria.
+ * <p>
+ * Formato de cada línea: <code>[Hora][Hilo][nivel][Clase] :: Mensaje</code>,
+ * con la hora en formato HH:mm:ss,SSS de la zona horaria por defecto al
+ * arrancar.
+ * <p>
+ * Sólo el mensaje pasa por el codificador de caracteres. El resto de la línea
+ * se copia ya codificado:
+ * <ul>
+ * <li>la hora hasta los segundos se codifica una vez por segundo; en cada
+ * línea sólo se escriben los milisegundos.</li>
+ * <li>el nombre de cada hilo se guarda codificado en el propio hilo
+ * ({@link #currentThread(long)}), y se comprueba si ha cambiado una vez por
+ * segundo.</li>
+ * <li>el nombre simple de cada clase y los niveles se codifican una sola
+ * vez.</li>
+ * </ul>
+ * Si el juego de caracteres por defecto no es compatible con ASCII, la línea
+ * completa pasa por el codificador de caracteres.
+ * <p>
+ * Un codificador no es <i>thread-safe</i>: los loggers síncronos usan el del
+ * hilo actual ({@link #forCurrentThread()}) y el asíncrono uno propio de su
+ * hilo de escritura. Se pueden acumular varias líneas antes de escribirlas.
+ * <p>
+ * 08/10/2016 10:22:15
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+final class LogEncoder {
+
+	/* Tamaño inicial de los buffers, y máximo que se conserva tras escribir una línea muy larga. */
+	private static final int INITIAL_CAPACITY = 512;
+	private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+	/* Ancho del nivel, rellenado con espacios por la derecha. */
+	private static final int LEVEL_WIDTH = 5;
+
+	/* Separadores de la línea. */
+	private static final String OPEN = "[";
+	private static final String NEXT = "][";
+	private static final String SEPARATOR = "] :: ";
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	/* Texto de un mensaje nulo. */
+	private static final String NULL_MESSAGE = "null";
+
+	/* Milisegundos por unidad de tiempo. */
+	private static final long MILLIS_PER_SECOND = 1000L;
+	private static final long MILLIS_PER_DAY = 24L * 60L * 60L * MILLIS_PER_SECOND;
+
+	/* Longitud de la hora hasta los segundos, "HH:mm:ss,". */
+	private static final int TIME_PREFIX_LENGTH = 9;
+
+	/* Juego de caracteres de la salida. */
+	private static final Charset CHARSET = Charset.defaultCharset();
+
+	/* Indica si los caracteres ASCII se codifican como un byte igual al carácter. */
+	private static final boolean ASCII_COMPATIBLE = isAsciiCompatible();
+
+	/* Separadores y niveles codificados. */
+	private static final byte[] OPEN_BYTES = OPEN.getBytes(CHARSET);
+	private static final byte[] NEXT_BYTES = NEXT.getBytes(CHARSET);
+	private static final byte[] SEPARATOR_BYTES = SEPARATOR.getBytes(CHARSET);
+	private static final byte[] LINE_SEPARATOR_BYTES = LINE_SEPARATOR.getBytes(CHARSET);
+	private static final byte[][] LEVEL_BYTES = levelBytes();
+
+	/* Zona horaria de las horas, la de por defecto al arrancar: TimeZone.getDefault() crea una copia cada vez. */
+	private static final TimeZone TIME_ZONE = TimeZone.getDefault();
+
+	/* Nombre simple de cada clase, codificado. getSimpleName() puede crear la cadena en cada llamada. */
+	private static final ClassValue<byte[]> SIMPLE_NAMES = new ClassValue<byte[]>() {
+		@Override
+		protected byte[] computeValue(final Class<?> type) {
+			return type.getSimpleName().getBytes(CHARSET);
+		}
+	};
+
+	/* Codificador de cada hilo. */
+	private static final ThreadLocal<LogEncoder> ENCODERS = ThreadLocal.withInitial(LogEncoder::new);
+
+	/* Nombre codificado de cada hilo, y cuándo se comprobó por última vez. */
+	private static final ThreadLocal<ThreadNameCheck> THREAD_NAMES = ThreadLocal.withInitial(ThreadNameCheck::new);
+
+	/* Caracteres en composición, y su vista para el codificador de caracteres. */
+	private char[] chars;
+	private CharBuffer charBuffer;
+
+	/* Línea en composición, sólo si el juego de caracteres no es compatible con ASCII. */
+	private final StringBuilder line;
+
+	/* Codificador al juego de caracteres de la salida. */
+	private final CharsetEncoder encoder;
+
+	/* Bytes pendientes de escribir. */
+	private ByteBuffer bytes;
+
+	/* Segundo, desde 1970, de la última hora codificada, y su hora hasta los segundos. */
+	private long cachedSecond;
+	private final byte[] timePrefix;
+
+	/* Constructor. */
+	LogEncoder () {
+		this.chars = new char[INITIAL_CAPACITY];
+		this.charBuffer = CharBuffer.wrap(chars);
+		this.line = new StringBuilder();
+		this.encoder = CHARSET.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.bytes = ByteBuffer.allocate(INITIAL_CAPACITY);
+		this.cachedSecond = Long.MIN_VALUE;
+		this.timePrefix = new byte[TIME_PREFIX_LENGTH];
+	}
+
+	/* Codificador del hilo actual. */
+	static LogEncoder forCurrentThread() {
+		return ENCODERS.get();
+	}
+
+	/*
+	 * Nombre codificado del hilo actual. Se vuelve a consultar al hilo, por si
+	 * ha cambiado, como mucho una vez por segundo según el instante indicado.
+	 */
+	static ThreadName currentThread(final long millis) {
+		final ThreadNameCheck check = THREAD_NAMES.get();
+		final long second = Math.floorDiv(millis, MILLIS_PER_SECOND);
+		if (second != check.checkedSecond) {
+			check.checkedSecond = second;
+			final String name = Thread.currentThread().getName();
+			if (check.current == null || !name.equals(check.current.name)) {
+				check.current = new ThreadName(name);
+			}
+		}
+		return check.current;
+	}
+
+	/* Compone y codifica una línea, que queda pendiente de escribir. */
+	void append(final long millis, final ThreadName thread, final Class<?> clazz, final LogLevel level,
+			final String message) {
+		final String text = message != null ? message : NULL_MESSAGE;
+		if (!ASCII_COMPATIBLE) {
+			appendLine(millis, thread.name, clazz, level, text);
+			return;
+		}
+
+		final byte[] threadBytes = thread.bytes;
+		final byte[] classBytes = SIMPLE_NAMES.get(clazz);
+		final byte[] levelBytes = LEVEL_BYTES[level.ordinal()];
+		ensureRemaining(OPEN_BYTES.length + TIME_PREFIX_LENGTH + 3 + NEXT_BYTES.length * 3 + threadBytes.length
+				+ levelBytes.length + classBytes.length + SEPARATOR_BYTES.length);
+
+		bytes.put(OPEN_BYTES);
+		putTime(millis);
+		bytes.put(NEXT_BYTES).put(threadBytes).put(NEXT_BYTES).put(levelBytes).put(NEXT_BYTES).put(classBytes)
+				.put(SEPARATOR_BYTES);
+		encode(text);
+		ensureRemaining(LINE_SEPARATOR_BYTES.length);
+		bytes.put(LINE_SEPARATOR_BYTES);
+	}
+
+	/* Escribe la hora, HH:mm:ss,SSS, de un instante. */
+	private void putTime(final long millis) {
+		bytes.put(timePrefix(millis));
+		final int millisOfSecond = (int) Math.floorMod(millis, MILLIS_PER_SECOND);
+		bytes.put((byte) ('0' + millisOfSecond / 100));
+		bytes.put((byte) ('0' + millisOfSecond / 10 % 10));
+		bytes.put((byte) ('0' + millisOfSecond % 10));
+	}
+
+	/* Hora hasta los segundos, HH:mm:ss, en ASCII, de un instante. Se recalcula sólo al cambiar de segundo. */
+	private byte[] timePrefix(final long millis) {
+		final long second = Math.floorDiv(millis, MILLIS_PER_SECOND);
+		if (second != cachedSecond) {
+			cachedSecond = second;
+			final long local = millis + TIME_ZONE.getOffset(millis);
+			final int secondOfDay = (int) (Math.floorMod(local, MILLIS_PER_DAY) / MILLIS_PER_SECOND);
+			putDigits(timePrefix, 0, secondOfDay / 3600, 2);
+			timePrefix[2] = ':';
+			putDigits(timePrefix, 3, secondOfDay / 60 % 60, 2);
+			timePrefix[5] = ':';
+			putDigits(timePrefix, 6, secondOfDay % 60, 2);
+			timePrefix[8] = ',';
+		}
+		return timePrefix;
+	}
+
+	/* Escribe un número positivo en ASCII con el número de dígitos indicado, con ceros a la izquierda. */
+	private static void putDigits(final byte[] target, final int offset, final int value, final int digits) {
+		int remaining = value;
+		for (int i = offset + digits - 1; i >= offset; i--) {
+			target[i] = (byte) ('0' + remaining % 10);
+			remaining /= 10;
+		}
+	}
+
+	/* Compone la línea completa como texto y la codifica, para juegos de caracteres no compatibles con ASCII. */
+	private void appendLine(final long millis, final String threadName, final Class<?> clazz,
+			final LogLevel level, final String message) {
+		line.setLength(0);
+		line.append(OPEN);
+		for (final byte b : timePrefix(millis)) {
+			line.append((char) b);
+		}
+		final int millisOfSecond = (int) Math.floorMod(millis, MILLIS_PER_SECOND);
+		line.append((char) ('0' + millisOfSecond / 100)).append((char) ('0' + millisOfSecond / 10 % 10))
+				.append((char) ('0' + millisOfSecond % 10));
+		line.append(NEXT).append(threadName).append(NEXT).append(level.name());
+		for (int i = level.name().length(); i < LEVEL_WIDTH; i++) {
+			line.append(' ');
+		}
+		line.append(NEXT).append(clazz.getSimpleName()).append(SEPARATOR).append(message).append(LINE_SEPARATOR);
+		encode(line);
+	}
+
+	/* Codifica un texto a continuación de los bytes pendientes, ampliando los buffers si no cabe. */
+	private void encode(final CharSequence text) {
+		final int length = text.length();
+		if (chars.length < length) {
+			chars = new char[Math.max(length, chars.length << 1)];
+			charBuffer = CharBuffer.wrap(chars);
+		}
+		if (text instanceof String) {
+			((String) text).getChars(0, length, chars, 0);
+		} else {
+			((StringBuilder) text).getChars(0, length, chars, 0);
+		}
+		charBuffer.clear();
+		charBuffer.limit(length);
+
+		encoder.reset();
+		while (encoder.encode(charBuffer, bytes, true).isOverflow()) {
+			grow();
+		}
+		CoderResult result;
+		while ((result = encoder.flush(bytes)).isOverflow()) {
+			grow();
+		}
+		assert result.isUnderflow();
+	}
+
+	/* Amplía el buffer de bytes hasta que quepan los bytes indicados a continuación de los pendientes. */
+	private void ensureRemaining(final int required) {
+		while (bytes.remaining() < required) {
+			grow();
+		}
+	}
+
+	/* Duplica el buffer de bytes, conservando los pendientes. */
+	private void grow() {
+		final ByteBuffer larger = ByteBuffer.allocate(bytes.capacity() << 1);
+		bytes.flip();
+		larger.put(bytes);
+		bytes = larger;
+	}
+
+	/* Indica si hay bytes pendientes de escribir. */
+	boolean isEmpty() {
+		return bytes.position() == 0;
+	}
+
+	/* Escribe los bytes pendientes en la salida indicada, de una vez. */
+	void writeTo(final PrintStream out) {
+		if (bytes.position() > 0) {
+			out.write(bytes.array(), 0, bytes.position());
+			out.flush();
+		}
+		clear();
+	}
+
+	/*
+	 * Copia en el buffer indicado tantos bytes pendientes como quepan. Devuelve
+	 * true si se han copiado todos; si no, quedan pendientes los que faltan.
+	 */
+	boolean drainTo(final ByteBuffer target) {
+		bytes.flip();
+		if (bytes.remaining() <= target.remaining()) {
+			target.put(bytes);
+			clear();
+			return true;
+		}
+		final int limit = bytes.limit();
+		bytes.limit(bytes.position() + target.remaining());
+		target.put(bytes);
+		bytes.limit(limit);
+		bytes.compact();
+		return false;
+	}
+
+	/* Añade la traza de una excepción, como printStackTrace(). Crea objetos: sólo para errores. */
+	void appendStackTrace(final Throwable throwable) {
+		final StringWriter trace = new StringWriter();
+		throwable.printStackTrace(new PrintWriter(trace));
+		encode(trace.toString());
+	}
+
+	/* Descarta los bytes pendientes y libera los buffers que hayan crecido demasiado. */
+	void clear() {
+		bytes.clear();
+		if (bytes.capacity() > MAX_RETAINED_CAPACITY) {
+			bytes = ByteBuffer.allocate(INITIAL_CAPACITY);
+		}
+		if (chars.length > MAX_RETAINED_CAPACITY) {
+			chars = new char[INITIAL_CAPACITY];
+			charBuffer = CharBuffer.wrap(chars);
+		}
+	}
+
+	/* Indica si el juego de caracteres de la salida codifica los caracteres ASCII como un byte igual. */
+	private static boolean isAsciiCompatible() {
+		final StringBuilder ascii = new StringBuilder();
+		for (char c = ' '; c < 0x7F; c++) {
+			ascii.append(c);
+		}
+		final byte[] expected = new byte[ascii.length()];
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = (byte) ascii.charAt(i);
+		}
+		return Arrays.equals(expected, ascii.toString().getBytes(CHARSET));
+	}
+
+	/* Nombres de los niveles codificados, rellenados con espacios hasta LEVEL_WIDTH, por ordinal. */
+	private static byte[][] levelBytes() {
+		final LogLevel[] levels = LogLevel.values();
+		final byte[][] result = new byte[levels.length][];
+		for (final LogLevel level : levels) {
+			final StringBuilder padded = new StringBuilder(level.name());
+			while (padded.length() < LEVEL_WIDTH) {
+				padded.append(' ');
+			}
+			result[level.ordinal()] = padded.toString().getBytes(CHARSET);
+		}
+		return result;
+	}
+
+	/* Nombre de un hilo, y sus bytes codificados. Inmutable: se puede pasar a otro hilo. */
+	static final class ThreadName {
+		private final String name;
+		private final byte[] bytes;
+
+		private ThreadName (final String name) {
+			this.name = name;
+			this.bytes = name.getBytes(CHARSET);
+		}
+	}
+
+	/* Último nombre del hilo actual, y segundo en que se comprobó. */
+	private static final class ThreadNameCheck {
+		private ThreadName current;
+		private long checkedSecond = Long.MIN_VALUE;
+	}
+}
@@ -0,0 +1,15 @@
+package commons.log;
+
+/**
+ * Niveles de log, de más a menos grave. Un logger configurado en un nivel
+ * escribe los mensajes de ese nivel y de los más graves.
+ * <p>
+ * 01/10/2016 10:12:44
+ * </p>
+ * 
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public enum LogLevel {
+	FATAL, ERROR, INFO, DEBUG
+}
@@ -4,6 +4,14 @@ package commons.log;
  * Enumerado con los tipos de sistema soportados. Cualquier sistema no soportado
  * será tratado como por defecto.
  * <p>
+ * <code>ASYNC</code> escribe como el de por defecto, pero desde un hilo
+ * propio: los hilos que escriben el log sólo encolan los mensajes. Se
+ * configura con un {@link AsyncLogConfig}.
+ * <p>
+ * <code>FILE</code> escribe como el asíncrono, pero en un fichero que se rota
+ * por tamaño y por tiempo. Se configura con un {@link FileLogConfig}, que es
+ * obligatorio.
+ * <p>
  * 21/11/2015 21:37:04
  * </p>
  * 
@@ -11,5 +19,5 @@ package commons.log;
  * @version 1.0
  */
 public enum LogSystem {
-	DEFAULT, LOG4J
+	DEFAULT, LOG4J, ASYNC, FILE
 }
@@ -65,7 +65,18 @@ public class PrintUtils {
 	 * @return Hora actual del sistema en formato {@link #TIME_FORMAT}.
 	 */
 	public static String time() {
-		return DateFormatUtils.format(System.currentTimeMillis(), TIME_FORMAT);
+		return time(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Imprime la hora de un instante.
+	 * 
+	 * @param millis
+	 *            Instante, en milisegundos desde el 1 de enero de 1970 UTC.
+	 * @return Hora del instante en formato {@link #TIME_FORMAT}.
+	 */
+	public static String time(final long millis) {
+		return DateFormatUtils.format(millis, TIME_FORMAT);
 	}
 	
 	/**
@@ -2,6 +2,8 @@ package commons.util;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 
 import commons.exception.ReflectionException;
 
@@ -145,6 +147,38 @@ public class ReflectionUtils {
     	return result;
     }
     
+    /**
+	 * Obtiene el argumento de tipo con el que una clase concreta extiende una
+	 * superclase genérica, recorriendo su jerarquía. Por ejemplo, para
+	 * <code>class User extends Id&lt;Long&gt;</code>, el argumento 0 de
+	 * <code>Id</code> es <code>Long</code>.
+	 *
+	 * @param clazz
+	 *            Clase concreta.
+	 * @param genericSuperclass
+	 *            Superclase genérica de <code>clazz</code>.
+	 * @param index
+	 *            Posición del argumento de tipo.
+	 * @return Clase del argumento de tipo, o <code>null</code> si
+	 *         <code>clazz</code> no extiende <code>genericSuperclass</code> o
+	 *         el argumento no es una clase concreta (por ejemplo, una variable
+	 *         de tipo).
+	 */
+    public static Class<?> getTypeArgument (final Class<?> clazz, final Class<?> genericSuperclass, 
+    		final int index) {
+    	Class<?> current = clazz;
+    	while (current != null && !genericSuperclass.equals(current)) {
+    		final Type superType = current.getGenericSuperclass();
+    		if (superType instanceof ParameterizedType 
+    				&& genericSuperclass.equals(((ParameterizedType) superType).getRawType())) {
+    			final Type argument = ((ParameterizedType) superType).getActualTypeArguments()[index];
+    			return argument instanceof Class ? (Class<?>) argument : null;
+    		}
+    		current = current.getSuperclass();
+    	}
+    	return null;
+    }
+    
     /**
 	 * Determina si las clases especificadas en el primer argumento son iguales
 	 * o superclase de las clases especificadas en el segundo argumento,
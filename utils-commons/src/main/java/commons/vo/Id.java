@@ -15,13 +15,16 @@ import commons.util.PrintUtils;
  * @version 1.0
  */
 public class Id<T> implements Serializable {
-	private static final Integer PRIME = 873913;
+	private static final int PRIME = 873913;
 	private static final String PRINT_FORMAT = "Id: '%s'";
 	private static final long serialVersionUID = 5855581620312953879L;
 
 	/* Identificador. */
 	private final T id;
 	
+	/* Hash, calculado en el primer uso. 0 si aún no se ha calculado. */
+	private transient int hash;
+	
 	/**
 	 * Constructor, establece el identificador.
 	 * 
@@ -48,9 +51,19 @@ public class Id<T> implements Serializable {
 		return PrintUtils.format(PRINT_FORMAT, id);
 	}
 
+	/*
+	 * El hash se calcula a partir del identificador, que es invariable, y se
+	 * guarda para no recalcularlo en cada búsqueda en mapas. Un identificador
+	 * nulo tiene hash 0.
+	 */
 	@Override
 	public int hashCode() {
-		return PRIME * (id != null ? toString().hashCode() : id.hashCode()); 
+		int h = hash;
+		if (h == 0 && id != null) {
+			h = PRIME * id.hashCode();
+			hash = h;
+		}
+		return h;
 	}
 
 	@Override
@@ -59,12 +72,9 @@ public class Id<T> implements Serializable {
 		if (obj == null) return false;
 		if (getClass() != obj.getClass()) return false;
 		
-		Id<?> other;
-		try {
-			other = (Id<?>) obj;
-		} catch (Exception e) {
-			return false;
-		}
+		final Id<?> other = (Id<?>) obj;
+		/* Si ambos hashes están calculados y difieren no hace falta comparar los identificadores. */
+		if (hash != 0 && other.hash != 0 && hash != other.hash) return false;
 		
 		return CommonUtils.equalsOrNull(id, other.id);
 	}
@@ -0,0 +1,146 @@
+package commons.vo;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import commons.util.PrintUtils;
+
+/**
+ * Tabla de instancias canónicas de {@link Id}: para un mismo identificador
+ * devuelve siempre el mismo objeto, de forma que no se crean copias iguales
+ * y <code>equals</code> se resuelve con la comparación de identidad.
+ * <p>
+ * Las instancias se guardan con referencias débiles: cuando una instancia
+ * deja de usarse fuera de la tabla el recolector puede eliminarla, y su
+ * entrada se limpia en las siguientes llamadas. Un identificador puede tener
+ * por tanto instancias distintas en momentos distintos, pero nunca dos a la
+ * vez mientras alguna se use.
+ * <p>
+ * Cada tabla crea sus instancias con la factoría indicada, normalmente el
+ * constructor de una subclase de {@link Id}. Para instancias de {@link Id}
+ * sin subclase puede usarse la tabla compartida con {@link #of(Object)}.
+ * <p>
+ * Esta clase es <i>thread-safe</i>.
+ * <p>
+ * 06/08/2016 10:34:52
+ * </p>
+ *
+ * @author Jorge Fdez. &lt;jfmillan@gmail.com&gt;
+ * @version 1.0
+ */
+public final class IdInterner<T, I extends Id<T>> {
+	
+	/* Formato para pasar a String. */
+	private static final String PRINT_FORMAT = "IdInterner [instancias:%s]";
+	
+	/* Tabla compartida de instancias de Id sin subclase. */
+	private static final IdInterner<Object, Id<Object>> SHARED = new IdInterner<>(Id::new);
+
+	/* Instancias canónicas, por identificador. */
+	private final ConcurrentHashMap<T, IdReference<T, I>> instances;
+	
+	/* Referencias de las instancias eliminadas por el recolector, pendientes de limpiar. */
+	private final ReferenceQueue<I> collected;
+	
+	/* Crea las instancias. */
+	private final Function<? super T, ? extends I> factory;
+
+	/**
+	 * Constructor, recibe la factoría de instancias.
+	 * 
+	 * @param factory
+	 *            Crea una instancia a partir de su identificador.
+	 */
+	public IdInterner (final Function<? super T, ? extends I> factory) {
+		this.factory = Objects.requireNonNull(factory);
+		this.instances = new ConcurrentHashMap<>();
+		this.collected = new ReferenceQueue<>();
+	}
+	
+	/**
+	 * Obtiene la instancia canónica de {@link Id} para un identificador, de
+	 * la tabla compartida.
+	 * 
+	 * @param id
+	 *            Identificador, no nulo.
+	 * @return Instancia canónica.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Id<T> of (final T id) {
+		return (Id<T>) SHARED.intern(id);
+	}
+	
+	/**
+	 * Obtiene la instancia canónica para un identificador, creándola con la
+	 * factoría si no existe.
+	 * 
+	 * @param id
+	 *            Identificador, no nulo.
+	 * @return Instancia canónica.
+	 */
+	public I intern (final T id) {
+		Objects.requireNonNull(id);
+		expunge();
+		
+		final IdReference<T, I> reference = instances.get(id);
+		final I current = reference != null ? reference.get() : null;
+		if (current != null) {
+			return current;
+		}
+		
+		final I created = Objects.requireNonNull(factory.apply(id));
+		final IdReference<T, I> createdReference = new IdReference<>(id, created, collected);
+		while (true) {
+			final IdReference<T, I> existing = instances.putIfAbsent(id, createdReference);
+			if (existing == null) {
+				return created;
+			}
+			
+			/* Otro hilo la ha creado antes; si ya se ha recolectado se sustituye. */
+			final I other = existing.get();
+			if (other != null) {
+				return other;
+			}
+			if (instances.replace(id, existing, createdReference)) {
+				return created;
+			}
+		}
+	}
+	
+	/**
+	 * Número de entradas de la tabla. Puede incluir instancias recolectadas
+	 * pendientes de limpiar.
+	 * 
+	 * @return Número de entradas.
+	 */
+	public int size () {
+		expunge();
+		return instances.size();
+	}
+	
+	/* Elimina las entradas de las instancias recolectadas. */
+	private void expunge() {
+		IdReference<?, ?> reference;
+		while ((reference = (IdReference<?, ?>) collected.poll()) != null) {
+			instances.remove(reference.id, reference);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return PrintUtils.format(PRINT_FORMAT, size());
+	}
+	
+	/* Referencia débil a una instancia, con su identificador para limpiar la entrada. */
+	private static final class IdReference<T, I> extends WeakReference<I> {
+		private final T id;
+		
+		IdReference (final T id, final I instance, final ReferenceQueue<? super I> queue) {
+			super(instance, queue);
+			this.id = id;
+		}
+	}
+}